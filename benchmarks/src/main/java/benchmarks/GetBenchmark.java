@@ -0,0 +1,57 @@
+package benchmarks;
+
+import core.IEntity;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting top-level Entities, either from their memoized views or by denormalizing them again after a put
+ * invalidated them. Invalidating puts are measured on their own as well, to be subtracted from denormalizing gets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetBenchmark {
+    @State(Scope.Thread)
+    public static class Populated {
+        public NormalizedEntityRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp(GraphState graph) {
+            repository = NormalizedEntityRepository.builder().build();
+            repository.putAll(Arrays.asList(graph.roots));
+        }
+    }
+
+    /**
+     * Puts a User embedded by the next top-level Entity, which invalidates it. Puts of shared Users also invalidate
+     * other top-level Entities, which are then denormalized again as they are visited. Baseline of
+     * {@link #getDenormalized}, which puts the same User before getting.
+     */
+    @Benchmark
+    public Set<IEntity> invalidate(Populated populated, GraphState graph) {
+        return populated.repository.put(graph.shape.anchor(graph.roots[graph.nextIndex()]));
+    }
+
+    @Benchmark
+    public IEntity getMemoized(Populated populated, GraphState graph) {
+        return graph.shape.get(populated.repository, graph.nextIndex());
+    }
+
+    /**
+     * Invalidates the next top-level Entity within the measured call, rather than in a per-invocation setup whose
+     * timestamps would dwarf a get, then gets it. The cost of denormalizing is this less {@link #invalidate}.
+     */
+    @Benchmark
+    public IEntity getDenormalized(Populated populated, GraphState graph) {
+        int index = graph.nextIndex();
+        populated.repository.put(graph.shape.anchor(graph.roots[index]));
+        return graph.shape.get(populated.repository, index);
+    }
+}
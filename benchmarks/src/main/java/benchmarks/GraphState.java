@@ -0,0 +1,41 @@
+package benchmarks;
+
+import core.IEntity;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Top-level Entities of a shape, a graph size and a sharing ratio, visited round-robin by benchmarks.
+ */
+@State(Scope.Thread)
+public class GraphState {
+    @Param({"MESSAGE", "WIDE", "DEEP"})
+    public Shape shape;
+
+    @Param({"100", "10000"})
+    public int graphSize;
+
+    @Param({"0.0", "0.5", "0.95"})
+    public double sharing;
+
+    public IEntity[] roots;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Graphs graphs = new Graphs(Graphs.SEED, sharing);
+        roots = new IEntity[graphSize];
+        for (int i = 0; i < graphSize; i++) {
+            roots[i] = shape.create(graphs, i);
+        }
+    }
+
+    /**
+     * @return Index of the next top-level Entity, which is also its ID.
+     */
+    public int nextIndex() {
+        int index = next;
+        next = (next + 1) % roots.length;
+        return index;
+    }
+}
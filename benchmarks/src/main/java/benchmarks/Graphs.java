@@ -0,0 +1,117 @@
+package benchmarks;
+
+import benchmarks.entities.*;
+
+import java.util.*;
+
+/**
+ * Builds Entity graphs of the benchmarked shapes. Embedded Users are drawn from a small shared pool with the given
+ * probability, and are otherwise unique to the Entity that embeds them, so that the sharing ratio sets how many
+ * parents every put invalidates. Graphs are seeded, so that every run builds the same graphs.
+ */
+public class Graphs {
+    public static final long SEED = 42L;
+
+    private static final int SHARED_USERS = 16;
+    private static final int RECIPIENTS = 8;
+    private static final int MEMBERS = 8;
+    private static final int ROLES = 4;
+    private static final int NESTED = 3;
+
+    private static final DeviceType[] DEVICE_TYPES = DeviceType.values();
+
+    private final Random random;
+    private final double sharing;
+    private long nextUserId;
+    private long nextMessageId;
+
+    /**
+     * @param seed Seed of the graphs.
+     * @param sharing Probability that an embedded User is drawn from the shared pool.
+     */
+    public Graphs(long seed, double sharing) {
+        this.random = new Random(seed);
+        this.sharing = sharing;
+        this.nextUserId = SHARED_USERS;
+        this.nextMessageId = Integer.MAX_VALUE;
+    }
+
+    public User user() {
+        if (random.nextDouble() < sharing) {
+            long userId = random.nextInt(SHARED_USERS);
+            return new User(userId, "shared-" + userId);
+        }
+
+        long userId = nextUserId++;
+        return new User(userId, "user-" + userId);
+    }
+
+    public Device device() {
+        return new Device(DEVICE_TYPES[random.nextInt(DEVICE_TYPES.length)]);
+    }
+
+    public List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(user());
+        }
+
+        return users;
+    }
+
+    public Message message(long messageId) {
+        List<User> recipients = users(RECIPIENTS);
+
+        List<Map<User, Boolean>> recipientsToReadList = new ArrayList<>(recipients.size());
+        for (User recipient : recipients) {
+            recipientsToReadList.add(Collections.singletonMap(recipient, random.nextBoolean()));
+        }
+
+        Map<List<Device>, List<User>> usersByDevices = new HashMap<>();
+        usersByDevices.put(Arrays.asList(device(), device()), recipients.subList(0, RECIPIENTS / 2));
+        usersByDevices.put(Collections.singletonList(device()), recipients.subList(RECIPIENTS / 2, RECIPIENTS));
+
+        return new Message(messageId, "body-" + messageId, user(), recipients, recipientsToReadList, usersByDevices);
+    }
+
+    public Wide wide(long wideId) {
+        Map<String, User> usersByRole = new HashMap<>();
+        for (int role = 0; role < ROLES; role++) {
+            usersByRole.put("role-" + role, user());
+        }
+
+        return new Wide(
+                wideId,
+                "title-" + wideId,
+                "summary-" + wideId,
+                "en-US",
+                random.nextInt(100),
+                random.nextInt(10),
+                random.nextLong(),
+                random.nextLong(),
+                random.nextDouble(),
+                random.nextDouble(),
+                random.nextBoolean(),
+                random.nextBoolean(),
+                random.nextInt(1000),
+                user(),
+                user(),
+                users(MEMBERS),
+                Arrays.asList(device(), device()),
+                usersByRole);
+    }
+
+    public Deep deep(long deepId) {
+        List<Map<User, List<Map<Device, List<User>>>>> nested = new ArrayList<>(NESTED);
+        for (int i = 0; i < NESTED; i++) {
+            List<Map<Device, List<User>>> usersByDevices = new ArrayList<>(NESTED);
+            for (int j = 0; j < NESTED; j++) {
+                usersByDevices.add(Collections.singletonMap(device(), users(NESTED)));
+            }
+            nested.add(Collections.singletonMap(user(), usersByDevices));
+        }
+
+        // Embedded Messages have IDs of their own, above those of top-level Entities.
+        return new Deep(deepId, message(nextMessageId++), nested);
+    }
+}
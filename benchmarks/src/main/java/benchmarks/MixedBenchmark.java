@@ -0,0 +1,57 @@
+package benchmarks;
+
+import benchmarks.entities.User;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of gets interleaved with puts that rename Users embedded in the graph, so that gets both hit memoized views and
+ * denormalize the views that puts invalidated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixedBenchmark {
+    private static final int OPERATIONS = 1024;
+
+    @Param({"0.1", "0.5"})
+    public double writeRatio;
+
+    private NormalizedEntityRepository repository;
+    private boolean[] writes;
+    private int nextOperation;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setUp(GraphState graph) {
+        repository = NormalizedEntityRepository.builder().build();
+        repository.putAll(Arrays.asList(graph.roots));
+
+        Random random = new Random(Graphs.SEED);
+        writes = new boolean[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            writes[i] = random.nextDouble() < writeRatio;
+        }
+    }
+
+    @Benchmark
+    public Object mixed(GraphState graph) {
+        boolean write = writes[nextOperation];
+        nextOperation = (nextOperation + 1) % OPERATIONS;
+
+        int index = graph.nextIndex();
+        if (write) {
+            User anchor = graph.shape.anchor(graph.roots[index]);
+            return repository.put(new User(anchor.getUserId(), "renamed-" + version++));
+        }
+
+        return graph.shape.get(repository, index);
+    }
+}
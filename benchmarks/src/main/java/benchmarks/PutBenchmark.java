@@ -0,0 +1,55 @@
+package benchmarks;
+
+import core.IEntity;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of collecting and writing top-level Entities with every Entity nested in them. Repositories start empty every
+ * iteration, so the first pass over a graph inserts and later passes update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PutBenchmark {
+    private static final int BATCH_SIZE = 64;
+
+    private NormalizedEntityRepository repository;
+    private List<List<IEntity>> batches;
+    private int nextBatch;
+
+    @Setup(Level.Trial)
+    public void setUpBatches(GraphState graph) {
+        batches = new ArrayList<>();
+        List<IEntity> roots = Arrays.asList(graph.roots);
+        for (int from = 0; from < roots.size(); from += BATCH_SIZE) {
+            batches.add(roots.subList(from, Math.min(from + BATCH_SIZE, roots.size())));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpRepository() {
+        repository = NormalizedEntityRepository.builder().build();
+    }
+
+    @Benchmark
+    public Set<IEntity> put(GraphState graph) {
+        return graph.shape.put(repository, graph.roots[graph.nextIndex()]);
+    }
+
+    @Benchmark
+    public Set<IEntity> putAll() {
+        List<IEntity> batch = batches.get(nextBatch);
+        nextBatch = (nextBatch + 1) % batches.size();
+        return repository.putAll(batch);
+    }
+}
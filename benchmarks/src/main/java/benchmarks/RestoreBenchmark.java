@@ -0,0 +1,85 @@
+package benchmarks;
+
+import entitynormalizer.store.EntityLog;
+import entitynormalizer.store.InMemoryEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate at which a log restores Entities into an empty in-memory store on startup, replaying a snapshot of the graph
+ * followed by a tail of later puts. Reported in restored Entities per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RestoreBenchmark {
+    /**
+     * Entities restored by every invocation, reported as the operations of the benchmark.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Restored {
+        public long entities;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entities = 0;
+        }
+    }
+
+    /**
+     * Top-level Entities put again after the snapshot, as a ratio of the graph size.
+     */
+    @Param({"0.0", "0.5"})
+    public double tailRatio;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp(GraphState graph) throws IOException {
+        directory = Files.createTempDirectory("restore-benchmark").toFile();
+
+        EntityLog log = new EntityLog(directory);
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(new InMemoryEntityStore())
+                .setWriters(log)
+                .build();
+        repository.putAll(Arrays.asList(graph.roots));
+        log.snapshot();
+        for (int i = 0; i < graph.roots.length * tailRatio; i++) {
+            graph.shape.put(repository, graph.roots[i]);
+        }
+        log.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public InMemoryEntityStore restore(Restored restored) throws IOException {
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        EntityLog log = new EntityLog(directory);
+        try {
+            restored.entities += log.restore(store);
+        } finally {
+            log.close();
+        }
+
+        return store;
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import benchmarks.entities.*;
+import core.IEntity;
+import entitynormalizer.store.NormalizedEntityRepository;
+
+import java.util.Set;
+
+/**
+ * Benchmarked Entity shapes: the Message shape of the processor tests, an Entity with many properties, and an Entity
+ * that nests Entities several levels deep.
+ */
+public enum Shape {
+    MESSAGE {
+        @Override
+        public IEntity create(Graphs graphs, long id) {
+            return graphs.message(id);
+        }
+
+        @Override
+        public Set<IEntity> put(NormalizedEntityRepository repository, IEntity root) {
+            return repository.put((Message) root);
+        }
+
+        @Override
+        public IEntity get(NormalizedEntityRepository repository, long id) {
+            return repository.getMessage(id);
+        }
+
+        @Override
+        public User anchor(IEntity root) {
+            return ((Message) root).getSender();
+        }
+    },
+    WIDE {
+        @Override
+        public IEntity create(Graphs graphs, long id) {
+            return graphs.wide(id);
+        }
+
+        @Override
+        public Set<IEntity> put(NormalizedEntityRepository repository, IEntity root) {
+            return repository.put((Wide) root);
+        }
+
+        @Override
+        public IEntity get(NormalizedEntityRepository repository, long id) {
+            return repository.getWide(id);
+        }
+
+        @Override
+        public User anchor(IEntity root) {
+            return ((Wide) root).getOwner();
+        }
+    },
+    DEEP {
+        @Override
+        public IEntity create(Graphs graphs, long id) {
+            return graphs.deep(id);
+        }
+
+        @Override
+        public Set<IEntity> put(NormalizedEntityRepository repository, IEntity root) {
+            return repository.put((Deep) root);
+        }
+
+        @Override
+        public IEntity get(NormalizedEntityRepository repository, long id) {
+            return repository.getDeep(id);
+        }
+
+        @Override
+        public User anchor(IEntity root) {
+            return ((Deep) root).getMessage().getSender();
+        }
+    };
+
+    // Creates a top-level Entity of this shape.
+    public abstract IEntity create(Graphs graphs, long id);
+
+    // Puts a top-level Entity of this shape through its typed putter.
+    public abstract Set<IEntity> put(NormalizedEntityRepository repository, IEntity root);
+
+    // Gets a top-level Entity of this shape.
+    public abstract IEntity get(NormalizedEntityRepository repository, long id);
+
+    // Gets a User embedded in a top-level Entity of this shape, that puts can invalidate it through.
+    public abstract User anchor(IEntity root);
+}
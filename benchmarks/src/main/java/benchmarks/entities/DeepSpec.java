@@ -0,0 +1,19 @@
+package benchmarks.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entities nested through several levels of Lists and Maps, and through another Entity that embeds Entities.
+ */
+@EntitySpec(name = "Deep")
+public class DeepSpec {
+    @EntityId
+    private long deepId;
+
+    private Message message;
+    private List<Map<User, List<Map<Device, List<User>>>>> nested;
+}
@@ -0,0 +1,10 @@
+package benchmarks.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+@EntitySpec(name = "Device")
+public class DeviceSpec {
+    @EntityId
+    private DeviceType deviceType;
+}
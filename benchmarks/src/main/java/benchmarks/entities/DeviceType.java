@@ -0,0 +1,8 @@
+package benchmarks.entities;
+
+public enum DeviceType {
+    ANDROID,
+    iOS,
+    WINDOWS,
+    UNKNOWN
+}
@@ -0,0 +1,19 @@
+package benchmarks.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+import java.util.List;
+import java.util.Map;
+
+@EntitySpec(name = "Message")
+public class MessageSpec {
+    @EntityId
+    private long messageId;
+
+    private String body;
+    private User sender;
+    private List<User> recipients;
+    private List<Map<User, Boolean>> recipientsToReadList;
+    private Map<List<Device>, List<User>> usersByDevices;
+}
@@ -0,0 +1,12 @@
+package benchmarks.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+@EntitySpec(name = "User")
+public class UserSpec {
+    @EntityId
+    private long userId;
+
+    private String name;
+}
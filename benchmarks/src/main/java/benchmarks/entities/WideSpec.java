@@ -0,0 +1,35 @@
+package benchmarks.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many properties, most of them scalars, and a few embedded Entities each.
+ */
+@EntitySpec(name = "Wide")
+public class WideSpec {
+    @EntityId
+    private long wideId;
+
+    private String title;
+    private String summary;
+    private String locale;
+    private int revision;
+    private int priority;
+    private long createdAt;
+    private long updatedAt;
+    private double score;
+    private double weight;
+    private boolean archived;
+    private boolean pinned;
+    private Integer rank;
+
+    private User owner;
+    private User editor;
+    private List<User> members;
+    private List<Device> devices;
+    private Map<String, User> usersByRole;
+}
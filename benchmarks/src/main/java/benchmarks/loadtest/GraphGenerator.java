@@ -0,0 +1,113 @@
+package benchmarks.loadtest;
+
+import benchmarks.loadtest.entities.Member;
+import benchmarks.loadtest.entities.Post;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates Posts and Members with the fan-out, sharing and popularity of a load test. Embedded Members are drawn by
+ * popularity with the sharing probability, and are otherwise new Members that no other Post embeds. The depth of the
+ * nested Members of Posts is read from the generated Post, so that it follows the specs written by
+ * {@link SpecWriter}. Not safe for use by multiple threads, every worker has its own generator.
+ */
+public class GraphGenerator {
+    private static final int NESTED_DEPTH = getNestedDepth();
+
+    private final LoadTestConfig config;
+    private final ZipfDistribution popularity;
+    private final AtomicLong nextNewMemberId;
+    private final Random random;
+    private long version;
+
+    /**
+     * @param config Load test parameters.
+     * @param popularity Popularity of the configured Members.
+     * @param nextNewMemberId IDs of Members new to the repository, shared by every generator.
+     * @param seed Seed of this generator.
+     */
+    public GraphGenerator(LoadTestConfig config, ZipfDistribution popularity, AtomicLong nextNewMemberId, long seed) {
+        this.config = config;
+        this.popularity = popularity;
+        this.nextNewMemberId = nextNewMemberId;
+        this.random = new Random(seed);
+    }
+
+    public static int getNestedDepth() {
+        Type type;
+        try {
+            type = Post.class.getMethod("getNested").getGenericReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Post has no nested Members, rewrite its spec with SpecWriter", e);
+        }
+
+        int depth = 0;
+        while (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+            Type map = ((ParameterizedType) type).getActualTypeArguments()[0];
+            type = ((ParameterizedType) map).getActualTypeArguments()[1];
+            depth++;
+        }
+
+        return depth;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * @return ID of a configured Member, drawn by popularity.
+     */
+    public long popularMemberId() {
+        return popularity.sample(random);
+    }
+
+    public Member member() {
+        long memberId = random.nextDouble() < config.sharing ? popularMemberId() : nextNewMemberId.getAndIncrement();
+        return new Member(memberId, "member-" + memberId, random.nextInt(1000));
+    }
+
+    /**
+     * @param memberId Member ID.
+     * @return Member with a name that no earlier version had.
+     */
+    public Member renamedMember(long memberId) {
+        return new Member(memberId, "member-" + memberId + "-v" + version++, random.nextInt(1000));
+    }
+
+    @SuppressWarnings("unchecked")
+    public Post post(long postId) {
+        int recipientCount = getRecipientCount();
+        List<Member> recipients = new ArrayList<>(recipientCount);
+        for (int i = 0; i < recipientCount; i++) {
+            recipients.add(member());
+        }
+
+        return new Post(postId, "post-" + postId + "-v" + version++, member(), recipients, (List) nested(NESTED_DEPTH));
+    }
+
+    /**
+     * @return Log-uniformly distributed number of recipients.
+     */
+    private int getRecipientCount() {
+        double min = Math.log(config.minRecipients);
+        double max = Math.log(config.maxRecipients + 1);
+        return Math.min(config.maxRecipients, (int) Math.exp(min + random.nextDouble() * (max - min)));
+    }
+
+    private Object nested(int depth) {
+        if (depth == 0) {
+            return random.nextBoolean();
+        }
+
+        List<Object> nested = new ArrayList<>(config.nestedFanOut);
+        for (int i = 0; i < config.nestedFanOut; i++) {
+            nested.add(Collections.singletonMap(member(), nested(depth - 1)));
+        }
+
+        return nested;
+    }
+}
@@ -0,0 +1,246 @@
+package benchmarks.loadtest;
+
+import benchmarks.loadtest.entities.Member;
+import benchmarks.loadtest.entities.Post;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a concurrent NormalizedEntityRepository from worker threads with a workload modelled on production: Posts with
+ * up to thousands of recipients, Members of power-law popularity shared across Posts, and Members nested several
+ * levels deep. Gets pick Posts by popularity, puts either replace a Post with a new graph or rename a popular Member,
+ * which invalidates every Post that embeds it.
+ * <p>
+ * Operations are scheduled at a target rate, and their latency is measured from when they were scheduled to start
+ * rather than from when they did. An operation delayed by a slow one before it is then recorded as slow too, as it
+ * would be by a client issuing requests at that rate, instead of the stall being hidden by the worker falling behind.
+ * Without a target rate, operations run back to back and only their service time is recorded.
+ * <p>
+ * Every report interval prints the throughput and latency percentiles of gets and puts over the interval, and the heap
+ * in use, and a summary over the whole run ends the test.
+ * <p>
+ * Usage: LoadTest [--threads n] [--duration seconds] [--members n] [--skew exponent] [--sharing probability]
+ * [--posts n] [--min-recipients n] [--max-recipients n] [--nested-fan-out n] [--update-rate probability]
+ * [--member-update-share probability] [--rate operations-per-second] [--report-interval seconds] [--seed n]
+ */
+public class LoadTest {
+    // Latencies are recorded in nanoseconds up to a minute, with 3 significant digits.
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final LoadTestConfig config;
+    private final PrintStream out;
+    private final NormalizedEntityRepository repository;
+    private final ZipfDistribution memberPopularity;
+    private final ZipfDistribution postPopularity;
+    private final AtomicLong nextNewMemberId;
+
+    private final Recorder gets;
+    private final Recorder puts;
+
+    private volatile boolean isRunning;
+
+    public LoadTest(LoadTestConfig config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+        this.repository = NormalizedEntityRepository.builder()
+                .setConcurrent(true)
+                .build();
+        this.memberPopularity = new ZipfDistribution(config.members, config.skew);
+        this.postPopularity = new ZipfDistribution(config.posts, config.skew);
+        this.nextNewMemberId = new AtomicLong(config.members);
+        this.gets = new Recorder(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+        this.puts = new Recorder(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        new LoadTest(config, System.out).run();
+    }
+
+    public void run() throws InterruptedException {
+        out.println("Config: " + config + " nested-depth=" + GraphGenerator.getNestedDepth());
+
+        long preloadStart = System.nanoTime();
+        preload();
+        out.printf("Preloaded %d posts in %d ms, heap %d MB%n",
+                config.posts,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - preloadStart),
+                getUsedHeap() / MEGABYTE);
+
+        isRunning = true;
+        List<Thread> workers = new ArrayList<>(config.threads);
+        for (int i = 0; i < config.threads; i++) {
+            final GraphGenerator generator = new GraphGenerator(config, memberPopularity, nextNewMemberId, config.seed + i + 1);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(generator);
+                }
+            }, "load-test-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+
+        report();
+
+        isRunning = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void preload() {
+        GraphGenerator generator = new GraphGenerator(config, memberPopularity, nextNewMemberId, config.seed);
+        for (long postId = 0; postId < config.posts; postId++) {
+            repository.put(generator.post(postId));
+        }
+    }
+
+    private void work(GraphGenerator generator) {
+        Random random = generator.getRandom();
+        // Each worker issues its share of the rate, or runs unthrottled without one.
+        long interval = config.rate > 0 ? TimeUnit.SECONDS.toNanos(config.threads) / config.rate : 0;
+        long scheduled = System.nanoTime();
+        while (isRunning) {
+            // Entities are generated before the operation is due, only the put is timed.
+            if (random.nextDouble() < config.updateRate) {
+                if (random.nextDouble() < config.memberUpdateShare) {
+                    Member member = generator.renamedMember(generator.popularMemberId());
+                    long start = awaitStart(scheduled);
+                    repository.put(member);
+                    puts.recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY));
+                } else {
+                    Post post = generator.post(random.nextInt(config.posts));
+                    long start = awaitStart(scheduled);
+                    repository.put(post);
+                    puts.recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY));
+                }
+            } else {
+                long postId = postPopularity.sample(random);
+                long start = awaitStart(scheduled);
+                repository.getPost(postId);
+                gets.recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY));
+            }
+            scheduled += interval;
+        }
+    }
+
+    /**
+     * Waits until an operation is due.
+     * @param scheduled Time the operation was scheduled to start at, in nanoseconds.
+     * @return Time to measure the latency of the operation from: when it was scheduled at a target rate, when it
+     * started otherwise.
+     */
+    private long awaitStart(long scheduled) {
+        if (config.rate == 0) {
+            return System.nanoTime();
+        }
+
+        long delay;
+        while ((delay = scheduled - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+
+        return scheduled;
+    }
+
+    /**
+     * Prints a line per interval until the run ends, then a summary of the run.
+     */
+    private void report() throws InterruptedException {
+        Histogram totalGets = new Histogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+        Histogram totalPuts = new Histogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+        Histogram intervalGets = null;
+        Histogram intervalPuts = null;
+
+        out.printf("%8s %10s %10s %-40s %-40s %8s %6s%n", "time(s)", "gets/s", "puts/s", "get latency (us) " + getPercentileHeader(), "put latency (us) " + getPercentileHeader(), "heap(MB)", "gcs");
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        long last = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(config.reportIntervalSeconds));
+
+            long now = System.nanoTime();
+            double seconds = (now - last) / 1e9;
+            last = now;
+
+            intervalGets = gets.getIntervalHistogram(intervalGets);
+            intervalPuts = puts.getIntervalHistogram(intervalPuts);
+            totalGets.add(intervalGets);
+            totalPuts.add(intervalPuts);
+
+            out.printf("%8.1f %10.0f %10.0f %-40s %-40s %8d %6d%n",
+                    (now - start) / 1e9,
+                    intervalGets.getTotalCount() / seconds,
+                    intervalPuts.getTotalCount() / seconds,
+                    getPercentiles(intervalGets),
+                    getPercentiles(intervalPuts),
+                    getUsedHeap() / MEGABYTE,
+                    getCollectionCount());
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Gets: %d (%.0f/s), latency (us) %s%n", totalGets.getTotalCount(), totalGets.getTotalCount() / seconds, getSummary(totalGets));
+        out.printf("Puts: %d (%.0f/s), latency (us) %s%n", totalPuts.getTotalCount(), totalPuts.getTotalCount() / seconds, getSummary(totalPuts));
+    }
+
+    private static String getPercentileHeader() {
+        StringBuilder header = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            header.append(String.format("p%s/", percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile)));
+        }
+
+        return header.append("max").toString();
+    }
+
+    private static String getPercentiles(Histogram histogram) {
+        StringBuilder percentiles = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            percentiles.append(toMicros(histogram.getValueAtPercentile(percentile))).append('/');
+        }
+
+        return percentiles.append(toMicros(histogram.getMaxValue())).toString();
+    }
+
+    private static String getSummary(Histogram histogram) {
+        return String.format("mean %.1f, %s %s", histogram.getMean() / 1000, getPercentileHeader(), getPercentiles(histogram));
+    }
+
+    private static String toMicros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    private static long getUsedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+
+        return count;
+    }
+}
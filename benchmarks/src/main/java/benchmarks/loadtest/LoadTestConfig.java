@@ -0,0 +1,91 @@
+package benchmarks.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parameters of a load test, parsed from --name value pairs. Unspecified parameters keep their defaults.
+ */
+public class LoadTestConfig {
+    // Worker threads driving the repository.
+    public int threads = Runtime.getRuntime().availableProcessors();
+    // Seconds to run for after preloading, and between reports.
+    public int durationSeconds = 60;
+    public int reportIntervalSeconds = 1;
+
+    // Members that Posts draw from, with power-law popularity of the given exponent.
+    public int members = 100000;
+    public double skew = 1.1;
+    // Probability that an embedded Member is drawn by popularity, rather than being new to the repository.
+    public double sharing = 0.9;
+
+    // Posts put before the run, gets and updates pick among them.
+    public int posts = 1000;
+    // Recipients per Post, log-uniformly distributed, so that most Posts have few and some have thousands.
+    public int minRecipients = 1;
+    public int maxRecipients = 10000;
+    // Entries per level of the nested List<Map<Member, ...>> of Posts.
+    public int nestedFanOut = 3;
+
+    // Probability that an operation is a put rather than a get, and that a put renames a Member rather than
+    // replacing a Post.
+    public double updateRate = 0.1;
+    public double memberUpdateShare = 0.5;
+
+    // Operations per second across all threads, each started on schedule whether or not the previous one finished, or
+    // 0 to start every operation as soon as the previous one finishes.
+    public int rate = 20000;
+
+    public long seed = 42L;
+
+    public static LoadTestConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value pairs but was " + args[i]);
+            }
+            values.put(args[i].substring(2), args[i + 1]);
+        }
+
+        LoadTestConfig config = new LoadTestConfig();
+        config.threads = getInt(values, "threads", config.threads);
+        config.durationSeconds = getInt(values, "duration", config.durationSeconds);
+        config.reportIntervalSeconds = getInt(values, "report-interval", config.reportIntervalSeconds);
+        config.members = getInt(values, "members", config.members);
+        config.skew = getDouble(values, "skew", config.skew);
+        config.sharing = getDouble(values, "sharing", config.sharing);
+        config.posts = getInt(values, "posts", config.posts);
+        config.minRecipients = getInt(values, "min-recipients", config.minRecipients);
+        config.maxRecipients = getInt(values, "max-recipients", config.maxRecipients);
+        config.nestedFanOut = getInt(values, "nested-fan-out", config.nestedFanOut);
+        config.updateRate = getDouble(values, "update-rate", config.updateRate);
+        config.memberUpdateShare = getDouble(values, "member-update-share", config.memberUpdateShare);
+        config.rate = getInt(values, "rate", config.rate);
+        config.seed = values.containsKey("seed") ? Long.parseLong(values.remove("seed")) : config.seed;
+
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown parameters: " + values.keySet());
+        } else if (config.rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative: " + config.rate);
+        } else if (config.minRecipients < 1 || config.maxRecipients < config.minRecipients) {
+            throw new IllegalArgumentException("Recipients must be in [1, max-recipients]: " + config.minRecipients + ", " + config.maxRecipients);
+        }
+
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "threads=%d duration=%ds members=%d skew=%.2f sharing=%.2f posts=%d recipients=[%d, %d] nested-fan-out=%d update-rate=%.2f member-update-share=%.2f rate=%d seed=%d",
+                threads, durationSeconds, members, skew, sharing, posts, minRecipients, maxRecipients, nestedFanOut, updateRate, memberUpdateShare, rate, seed);
+    }
+
+    private static int getInt(Map<String, String> values, String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.remove(name)) : defaultValue;
+    }
+
+    private static double getDouble(Map<String, String> values, String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.remove(name)) : defaultValue;
+    }
+}
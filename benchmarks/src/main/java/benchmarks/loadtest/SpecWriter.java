@@ -0,0 +1,87 @@
+package benchmarks.loadtest;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+import com.squareup.javapoet.*;
+
+import javax.lang.model.element.Modifier;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the EntitySpecs of the load test, so that the depth of their nesting can be changed before rebuilding. Posts
+ * embed an author, a list of recipients, and Members nested through the given number of levels of
+ * List&lt;Map&lt;Member, ...&gt;&gt;. The checked in specs were written with the default depth.
+ * <p>
+ * Usage: SpecWriter [depth] [source directory], from the benchmarks directory.
+ */
+public class SpecWriter {
+    public static final String PACKAGE = "benchmarks.loadtest.entities";
+    public static final int DEFAULT_DEPTH = 2;
+
+    private static final String DEFAULT_DIRECTORY = "src/main/java";
+    private static final String INDENT = "    ";
+
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        File directory = new File(args.length > 1 ? args[1] : DEFAULT_DIRECTORY);
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+
+        write(getMemberSpec(), directory);
+        write(getPostSpec(depth), directory);
+    }
+
+    private static TypeSpec getMemberSpec() {
+        return TypeSpec.classBuilder("MemberSpec")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(getEntitySpec("Member"))
+                .addField(FieldSpec.builder(TypeName.LONG, "memberId", Modifier.PRIVATE)
+                        .addAnnotation(EntityId.class)
+                        .build())
+                .addField(String.class, "name", Modifier.PRIVATE)
+                .addField(TypeName.INT, "karma", Modifier.PRIVATE)
+                .build();
+    }
+
+    private static TypeSpec getPostSpec(int depth) {
+        ClassName member = ClassName.get(PACKAGE, "Member");
+
+        // Members nested through depth levels of List<Map<Member, ...>>, innermost values are read flags.
+        TypeName nested = ClassName.get(Boolean.class);
+        for (int level = 0; level < depth; level++) {
+            nested = ParameterizedTypeName.get(
+                    ClassName.get(List.class),
+                    ParameterizedTypeName.get(ClassName.get(Map.class), member, nested));
+        }
+
+        return TypeSpec.classBuilder("PostSpec")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(getEntitySpec("Post"))
+                .addField(FieldSpec.builder(TypeName.LONG, "postId", Modifier.PRIVATE)
+                        .addAnnotation(EntityId.class)
+                        .build())
+                .addField(String.class, "body", Modifier.PRIVATE)
+                .addField(member, "author", Modifier.PRIVATE)
+                .addField(ParameterizedTypeName.get(ClassName.get(List.class), member), "recipients", Modifier.PRIVATE)
+                .addField(nested, "nested", Modifier.PRIVATE)
+                .build();
+    }
+
+    private static AnnotationSpec getEntitySpec(String name) {
+        return AnnotationSpec.builder(EntitySpec.class)
+                .addMember("name", "$S", name)
+                .build();
+    }
+
+    private static void write(TypeSpec spec, File directory) throws IOException {
+        JavaFile.builder(PACKAGE, spec)
+                .addFileComment("Written by $T, do not edit.", SpecWriter.class)
+                .indent(INDENT)
+                .build()
+                .writeTo(directory);
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks in [0, size) with power-law popularity: rank k is drawn with probability proportional to
+ * 1 / (k + 1)^exponent, so that a few ranks are drawn most of the time. Sampling is a binary search of a precomputed
+ * cumulative distribution. Safe for use by multiple threads, each with its own Random.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    /**
+     * @param size Number of ranks.
+     * @param exponent Skew, 0 for a uniform distribution.
+     */
+    public ZipfDistribution(int size, double exponent) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+
+        cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,18 @@
+// Written by benchmarks.loadtest.SpecWriter, do not edit.
+package benchmarks.loadtest.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+import java.lang.String;
+
+@EntitySpec(
+    name = "Member"
+)
+public class MemberSpec {
+    @EntityId
+    private long memberId;
+
+    private String name;
+
+    private int karma;
+}
@@ -0,0 +1,25 @@
+// Written by benchmarks.loadtest.SpecWriter, do not edit.
+package benchmarks.loadtest.entities;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+import java.lang.Boolean;
+import java.lang.String;
+import java.util.List;
+import java.util.Map;
+
+@EntitySpec(
+    name = "Post"
+)
+public class PostSpec {
+    @EntityId
+    private long postId;
+
+    private String body;
+
+    private Member author;
+
+    private List<Member> recipients;
+
+    private List<Map<Member, List<Map<Member, Boolean>>>> nested;
+}
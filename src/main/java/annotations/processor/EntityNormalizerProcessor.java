@@ -5,6 +5,7 @@ import annotations.processor.templategenerators.*;
 import com.google.auto.service.AutoService;
 import com.google.auto.service.processor.AutoServiceProcessor;
 import com.google.common.collect.ImmutableSet;
+import core.ReferenceEntityMap;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
@@ -20,12 +21,23 @@ public class EntityNormalizerProcessor extends AutoServiceProcessor {
 
     private ITemplateGenerator[] templateGenerators = {
             new EntityTemplateGenerator(),
+            new CodecTemplateGenerator(),
             new RepositoryReaderInterfaceTemplateGenerator(),
             new RepositoryWriterInterfaceTemplateGenerator(),
             new RepositoryTemplateGenerator(),
             new StoreReaderInterfaceTemplateGenerator(),
             new StoreWriterInterfaceTemplateGenerator(),
-            new InMemoryStoreTemplateGenerator()
+            new InMemoryStoreTemplateGenerator(),
+            new InMemoryStoreTemplateGenerator(InMemoryStoreTemplateGenerator.CONCURRENT_CLASSNAME, true),
+            new InMemoryStoreTemplateGenerator(InMemoryStoreTemplateGenerator.VERSIONED_CLASSNAME, false, true),
+            new InMemoryStoreTemplateGenerator(InMemoryStoreTemplateGenerator.CONCURRENT_VERSIONED_CLASSNAME, true, true),
+            new InMemoryStoreTemplateGenerator(InMemoryStoreTemplateGenerator.SOFT_CLASSNAME, ReferenceEntityMap.Strength.SOFT),
+            new InMemoryStoreTemplateGenerator(InMemoryStoreTemplateGenerator.WEAK_CLASSNAME, ReferenceEntityMap.Strength.WEAK),
+            new BoundedInMemoryStoreTemplateGenerator(),
+            new OffHeapStoreTemplateGenerator(),
+            new OffHeapStoreTemplateGenerator(OffHeapStoreTemplateGenerator.MAPPED_CLASSNAME, true),
+            new LogTemplateGenerator(),
+            new JsonReaderTemplateGenerator()
     };
 
     @Override
@@ -11,6 +11,7 @@ public class Template {
     private final String packageName;
     private final String objectName;
 
+    private TypeName superclass;
     private final List<TypeName> superInterfaces;
     private final List<FieldSpec> fields;
     private final List<MethodSpec> methods;
@@ -34,6 +35,10 @@ public class Template {
         this.innerClasses = new LinkedList<>();
     }
 
+    public void setSuperclass(TypeName superclass) {
+        this.superclass = superclass;
+    }
+
     public void add(TypeName superInterface) {
         superInterfaces.add(superInterface);
     }
@@ -55,6 +60,10 @@ public class Template {
                 TypeSpec.interfaceBuilder(objectName).addModifiers(Modifier.PUBLIC) :
                 TypeSpec.classBuilder(objectName).addModifiers(Modifier.PUBLIC);
 
+        if (superclass != null) {
+            builder.superclass(superclass);
+        }
+
         for (TypeName superInterface : superInterfaces) {
             builder.addSuperinterface(superInterface);
         }
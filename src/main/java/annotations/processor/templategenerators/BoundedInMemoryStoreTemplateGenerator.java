@@ -0,0 +1,428 @@
+package annotations.processor.templategenerators;
+
+import annotations.EntitySpec;
+import annotations.processor.ITemplateGenerator;
+import annotations.processor.Template;
+import com.squareup.javapoet.*;
+import core.BoundedEntityCache;
+import core.CacheStats;
+import core.EntityKey;
+import core.IEntity;
+import core.IEvictingEntityStore;
+import core.IEvictionListener;
+import core.IWeigher;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Generates an in-memory store template that holds a bounded number of Entities per type, evicting with W-TinyLFU, see
+ * {@link BoundedEntityCache}. Evictions are forwarded to listeners, so that repositories drop the views built from
+ * evicted Entities.
+ */
+public class BoundedInMemoryStoreTemplateGenerator implements ITemplateGenerator {
+    public static final String PACKAGE = "entitynormalizer.store";
+    public static final String CLASSNAME = "BoundedInMemoryEntityStore";
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Map<String, Template> templates;
+
+    public BoundedInMemoryStoreTemplateGenerator() {
+        this.templates = new HashMap<>();
+    }
+
+    @Override
+    public boolean canProcess(TypeElement typeElement) {
+        return typeElement.getQualifiedName().toString().equals(EntitySpec.class.getCanonicalName());
+    }
+
+    @Override
+    public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        Template template = new Template(PACKAGE, CLASSNAME);
+
+        // Builder.
+        template.add(getTypeSpec_Builder(entitySpecs, processingEnv));
+        template.add(getMethodSpec_builder());
+
+        // Generate a cache field for every Entity.
+        Map<TypeName, FieldSpec> caches = new LinkedHashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec cache = getCacheFieldForEntity(entitySpec, processingEnv);
+            template.add(cache);
+            caches.put(Utils.getEntityType(entitySpec, processingEnv), cache);
+        }
+
+        // Eviction listeners.
+        FieldSpec evictionListeners = getFieldSpec_evictionListeners();
+        template.add(evictionListeners);
+
+        template.add(getConstructor(entitySpecs, caches, evictionListeners, processingEnv));
+        template.add(getMethodSpec_addEvictionListener(evictionListeners));
+
+        // Generate getters, setters and counters for every Entity.
+        for (Element entitySpec : entitySpecs) {
+            template.add(getPutterForEntity(entitySpec, caches, processingEnv));
+            template.add(getGetterForEntity(entitySpec, caches, processingEnv));
+            template.add(getMultiGetterForEntity(entitySpec, caches, processingEnv));
+            template.add(getStatsGetterForEntity(entitySpec, caches, processingEnv));
+        }
+        template.add(InMemoryStoreTemplateGenerator.getMethodSpec_putAll(entitySpecs, processingEnv));
+
+        // Generate a remover for every Entity.
+        Map<TypeName, MethodSpec> removers = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            MethodSpec remover = getRemoverForEntity(entitySpec, caches, processingEnv);
+            template.add(remover);
+            removers.put(Utils.getEntityType(entitySpec, processingEnv), remover);
+        }
+        template.add(InMemoryStoreTemplateGenerator.getMethodSpec_removeAll(entitySpecs, removers, processingEnv));
+
+        // Add reader and writer interfaces.
+        template.add(ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME));
+        template.add(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME));
+        template.add(ClassName.get(IEvictingEntityStore.class));
+
+        templates.put(CLASSNAME, template);
+    }
+
+    @Override
+    public Map<String, Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Generates an instance for the Builder class.
+     * @return builder() methodSpec.
+     */
+    private MethodSpec getMethodSpec_builder() {
+        ClassName builder = ClassName.bestGuess("Builder");
+        return MethodSpec.methodBuilder("builder")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(builder)
+                .addStatement("return new $T()", builder)
+                .build();
+    }
+
+    /**
+     * Generates a property field holding the Entities of a type by ID.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Bounded cache of ID to Entity for the Entity specified in the Entity spec.
+     */
+    private FieldSpec getCacheFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(BoundedEntityCache.class), boxedIdType, entityType),
+                String.format("%sById", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Name of the Builder fields configuring the budget of an Entity type, without suffix.
+     */
+    private String getBudgetName(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        return Utils.convertToCamelCase(Utils.getEntityType(entitySpecElement, processingEnv).simpleName(), processingEnv.getLocale());
+    }
+
+    /**
+     * Generates the field holding the listeners of evictions from every cache.
+     * @return evictionListeners fieldSpec.
+     */
+    private FieldSpec getFieldSpec_evictionListeners() {
+        TypeName IEvictionListener_EntityKey_Entity = ParameterizedTypeName.get(IEvictionListener.class, EntityKey.class, IEntity.class);
+
+        return FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), IEvictionListener_EntityKey_Entity), "evictionListeners", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", ParameterizedTypeName.get(ClassName.get(CopyOnWriteArrayList.class), IEvictionListener_EntityKey_Entity))
+                .build();
+    }
+
+    /**
+     * Generates a method registering a listener of evictions.
+     * @param evictionListeners Eviction listeners field.
+     * @return addEvictionListener(IEvictionListener<EntityKey, IEntity>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_addEvictionListener(FieldSpec evictionListeners) {
+        ParameterSpec listener = ParameterSpec.builder(ParameterizedTypeName.get(IEvictionListener.class, EntityKey.class, IEntity.class), "listener").build();
+
+        return MethodSpec.methodBuilder("addEvictionListener")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(listener)
+                .addStatement("$N.add($N)", evictionListeners, listener)
+                .build();
+    }
+
+    /**
+     * Generates a constructor that sizes every cache from a Builder, and forwards their evictions to the eviction
+     * listeners of the store.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param caches Map of cache fields by Entity types.
+     * @param evictionListeners Eviction listeners field.
+     * @param processingEnv Processing environment.
+     * @return Constructor methodSpec.
+     */
+    private MethodSpec getConstructor(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> caches, FieldSpec evictionListeners, ProcessingEnvironment processingEnv) {
+        ParameterSpec builderParameterSpec = ParameterSpec.builder(ClassName.bestGuess("Builder"), "builder").build();
+
+        MethodSpec.Builder builder = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(builderParameterSpec);
+
+        // Types without a weight budget hold up to the maximum size. Types with long IDs are looked up without boxing.
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec cache = caches.get(Utils.getEntityType(entitySpec, processingEnv));
+            String budgetName = getBudgetName(entitySpec, processingEnv);
+            builder.addStatement("this.$N = $L($N.$LMaximumWeight > 0 ? $N.$LMaximumWeight : $N.maximumSize, $N.$LWeigher)",
+                    cache,
+                    isLongKeyed(entitySpec) ?
+                            CodeBlock.of("$T.<$T>forLongKeys", BoundedEntityCache.class, Utils.getEntityType(entitySpec, processingEnv)) :
+                            CodeBlock.of("new $T", cache.type),
+                    builderParameterSpec,
+                    budgetName,
+                    builderParameterSpec,
+                    budgetName,
+                    builderParameterSpec,
+                    builderParameterSpec,
+                    budgetName);
+        }
+
+        TypeName IEvictionListener_EntityKey_Entity = ParameterizedTypeName.get(IEvictionListener.class, EntityKey.class, IEntity.class);
+        ParameterSpec id = ParameterSpec.builder(Object.class, "id").build();
+        ParameterSpec entity = ParameterSpec.builder(IEntity.class, "entity").build();
+        FieldSpec key = FieldSpec.builder(EntityKey.class, "key").build();
+        FieldSpec listener = FieldSpec.builder(IEvictionListener_EntityKey_Entity, "listener").build();
+        TypeSpec forwarder = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(IEvictionListener.class, Object.class, IEntity.class))
+                .addMethod(MethodSpec.methodBuilder("onEviction")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(id)
+                        .addParameter(entity)
+                        .addStatement("$T $N = new $T($N)", key.type, key, EntityKey.class, entity)
+                        .beginControlFlow("for ($T $N : $N)", listener.type, listener, evictionListeners)
+                        .addStatement("$N.onEviction($N, $N)", listener, key, entity)
+                        .endControlFlow()
+                        .build())
+                .build();
+
+        FieldSpec evictionForwarder = FieldSpec.builder(ParameterizedTypeName.get(IEvictionListener.class, Object.class, IEntity.class), "evictionForwarder").build();
+        builder.addStatement("$T $N = $L", evictionForwarder.type, evictionForwarder, forwarder);
+        for (FieldSpec cache : caches.values()) {
+            builder.addStatement("this.$N.addEvictionListener($N)", cache, evictionForwarder);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a putter method for an Entity, which may evict other Entities of its type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param caches Map of cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return put(Entity) -> True if succeeded, else false.
+     */
+    private MethodSpec getPutterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> caches, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+
+        return MethodSpec.methodBuilder("put")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("$N.put($L, $N)", caches.get(entityType), castId(entitySpecElement, CodeBlock.of("$N.$L()", entity, Utils.getIdGetterName(entitySpecElement, processingEnv.getLocale()))), entity)
+                .addStatement("return true")
+                .build();
+    }
+
+    /**
+     * Generates a remover method for an Entity. Removed Entities are not evicted, so eviction listeners are not called.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param caches Map of cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return removeEntity(ID) methodSpec.
+     */
+    private MethodSpec getRemoverForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> caches, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        return MethodSpec.methodBuilder(String.format("remove%s", entityType.simpleName()))
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(id)
+                .addStatement("$N.remove($L)", caches.get(entityType), castId(entitySpecElement, CodeBlock.of("$N", id)))
+                .build();
+    }
+
+    /**
+     * Generates a getter method for an Entity.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param caches Map of cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntity(ID) -> Entity methodSpec.
+     */
+    private MethodSpec getGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> caches, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        return MethodSpec.methodBuilder(String.format("get%s", entityType.simpleName()))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(id)
+                .returns(entityType)
+                .addStatement("return $N.get($L)", caches.get(entityType), castId(entitySpecElement, CodeBlock.of("$N", id)))
+                .build();
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @return True if the IDs of the Entity type are primitive longs, which its cache is keyed by without boxing.
+     */
+    private static boolean isLongKeyed(Element entitySpecElement) {
+        return Utils.getIdTypeName(entitySpecElement).equals(TypeName.LONG);
+    }
+
+    /**
+     * Boxes other primitive IDs explicitly, as they would otherwise widen into the long overloads of their cache.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param id ID expression.
+     * @return ID expression to pass to the cache.
+     */
+    private static CodeBlock castId(Element entitySpecElement, CodeBlock id) {
+        TypeName idType = Utils.getIdTypeName(entitySpecElement);
+        if (!idType.isPrimitive() || isLongKeyed(entitySpecElement)) {
+            return id;
+        }
+
+        return CodeBlock.of("($T) $L", idType.box(), id);
+    }
+
+    /**
+     * Generates a getter method for a batch of Entities.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param caches Map of cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntities(Collection<ID>) -> Map<ID, Entity> methodSpec, without IDs that are not in the store.
+     */
+    private MethodSpec getMultiGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> caches, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType);
+        TypeName HashMap_Id_Entity = ParameterizedTypeName.get(ClassName.get(HashMap.class), boxedIdType, entityType);
+
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ids)
+                .returns(Map_Id_Entity);
+
+        FieldSpec entities = FieldSpec.builder(Map_Id_Entity, "entities").build();
+        builder.addStatement("$T $N = new $T()", entities.type, entities, HashMap_Id_Entity);
+
+        FieldSpec id = FieldSpec.builder(boxedIdType, "id").build();
+        FieldSpec entity = FieldSpec.builder(entityType, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", id.type, id, ids);
+        builder.addStatement("$T $N = $N.get($N)", entity.type, entity, caches.get(entityType), id);
+        builder.beginControlFlow("if ($N != null)", entity);
+        builder.addStatement("$N.put($N, $N)", entities, id, entity);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", entities);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter for the hit, miss and eviction counters of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param caches Map of cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntitiesStats() -> CacheStats methodSpec.
+     */
+    private MethodSpec getStatsGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> caches, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return MethodSpec.methodBuilder(String.format("get%sStats", Utils.getPluralName(entityType)))
+                .addModifiers(Modifier.PUBLIC)
+                .returns(CacheStats.class)
+                .addStatement("return $N.stats()", caches.get(entityType))
+                .build();
+    }
+
+    /**
+     * Generates the Builder class.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param processingEnv Processing environment.
+     * @return Builder typeSpec.
+     */
+    private TypeSpec getTypeSpec_Builder(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        ClassName builderType = ClassName.bestGuess("Builder");
+
+        FieldSpec maximumSize = FieldSpec.builder(TypeName.LONG, "maximumSize", Modifier.PRIVATE)
+                .initializer("$L", DEFAULT_MAXIMUM_SIZE)
+                .build();
+        ParameterSpec maximumSizeParameterSpec = ParameterSpec.builder(TypeName.LONG, "maximumSize").build();
+
+        MethodSpec setMaximumSize = MethodSpec.methodBuilder("setMaximumSize")
+                .addJavadoc("Sets how many Entities of each type without a weight budget are held. Defaults to $L.\n", DEFAULT_MAXIMUM_SIZE)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(maximumSizeParameterSpec)
+                .returns(builderType)
+                .addStatement("this.$N = $N", maximumSize, maximumSizeParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder("Builder")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addField(maximumSize)
+                .addMethod(setMaximumSize);
+
+        // Weight budgets.
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            String budgetName = getBudgetName(entitySpec, processingEnv);
+
+            TypeName IWeigher_Entity = ParameterizedTypeName.get(ClassName.get(IWeigher.class), WildcardTypeName.supertypeOf(entityType));
+            FieldSpec maximumWeight = FieldSpec.builder(TypeName.LONG, String.format("%sMaximumWeight", budgetName), Modifier.PRIVATE).build();
+            FieldSpec weigher = FieldSpec.builder(IWeigher_Entity, String.format("%sWeigher", budgetName), Modifier.PRIVATE).build();
+            ParameterSpec maximumWeightParameterSpec = ParameterSpec.builder(TypeName.LONG, "maximumWeight").build();
+            ParameterSpec weigherParameterSpec = ParameterSpec.builder(IWeigher_Entity, "weigher").build();
+
+            builder.addField(maximumWeight);
+            builder.addField(weigher);
+            builder.addMethod(MethodSpec.methodBuilder(String.format("set%sMaximumWeight", entityType.simpleName()))
+                    .addJavadoc("Bounds the total estimated weight of the Entities of this type rather than their number.\n")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(maximumWeightParameterSpec)
+                    .addParameter(weigherParameterSpec)
+                    .returns(builderType)
+                    .addStatement("this.$N = $N", maximumWeight, maximumWeightParameterSpec)
+                    .addStatement("this.$N = $N", weigher, weigherParameterSpec)
+                    .addStatement("return this")
+                    .build());
+        }
+
+        builder.addMethod(MethodSpec.methodBuilder("build")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ClassName.get(PACKAGE, CLASSNAME))
+                .addStatement("return new $T(this)", ClassName.get(PACKAGE, CLASSNAME))
+                .build());
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,183 @@
+package annotations.processor.templategenerators;
+
+import annotations.EntitySpec;
+import annotations.processor.ITemplateGenerator;
+import annotations.processor.Template;
+import com.squareup.javapoet.*;
+import core.EntityOutput;
+import core.IEntityCodec;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a binary codec for every Entity, next to the Entity, see {@link EntityCodec}. Codecs are stateless and
+ * shared through their INSTANCE, and write to caller owned outputs that are reused across encodes, so that encoding
+ * only allocates when an output outgrows its buffer. Off-heap, mapped and log stores encode through these codecs. No
+ * codec is generated unless every property of every Entity can be encoded, see {@link EntityCodec#checkEncodable(Set)}.
+ */
+public class CodecTemplateGenerator implements ITemplateGenerator {
+    private final Map<String, Template> templates;
+
+    public CodecTemplateGenerator() {
+        this.templates = new HashMap<>();
+    }
+
+    @Override
+    public boolean canProcess(TypeElement typeElement) {
+        return typeElement.getQualifiedName().toString().equals(EntitySpec.class.getCanonicalName());
+    }
+
+    @Override
+    public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        EntityCodec entityCodec = new EntityCodec(entitySpecs, processingEnv);
+        if (!entityCodec.checkEncodable(entitySpecs)) {
+            return;
+        }
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName codecType = EntityCodec.getCodecType(entitySpec, processingEnv);
+
+            Template template = new Template(codecType.packageName(), codecType.simpleName());
+
+            FieldSpec outputs = getFieldSpec_outputs();
+            template.add(getFieldSpec_instance(codecType));
+            template.add(getFieldSpec_schemaFingerprint(entitySpec, entityCodec));
+            template.add(getFieldSpec_idCodec(entitySpec, entityCodec));
+            template.add(outputs);
+
+            template.add(entityCodec.getMethodSpec_encode(entitySpec));
+            template.add(entityCodec.getMethodSpec_decode(entitySpec));
+            template.add(getMethodSpec_toBytes(entitySpec, outputs, processingEnv));
+            template.add(getMethodSpec_fromBytes(entitySpec, processingEnv));
+
+            template.add(ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), Utils.getEntityType(entitySpec, processingEnv)));
+
+            templates.put(codecType.toString(), template);
+        }
+    }
+
+    @Override
+    public Map<String, Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Generates the shared instance of a codec.
+     * @param codecType Codec type.
+     * @return INSTANCE fieldSpec.
+     */
+    private FieldSpec getFieldSpec_instance(ClassName codecType) {
+        return FieldSpec.builder(codecType, "INSTANCE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", codecType)
+                .build();
+    }
+
+    /**
+     * Generates the fingerprint of the binary form of an Entity, that stores persisting encoded Entities check before
+     * decoding them.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param entityCodec Codec code generator.
+     * @return SCHEMA_FINGERPRINT fieldSpec.
+     */
+    private FieldSpec getFieldSpec_schemaFingerprint(Element entitySpecElement, EntityCodec entityCodec) {
+        return FieldSpec.builder(TypeName.LONG, "SCHEMA_FINGERPRINT", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$LL", entityCodec.getSchemaFingerprint(entitySpecElement))
+                .build();
+    }
+
+    /**
+     * Generates the codec of the IDs of an Entity, used to key encoded Entities.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param entityCodec Codec code generator.
+     * @return ID_CODEC fieldSpec.
+     */
+    private FieldSpec getFieldSpec_idCodec(Element entitySpecElement, EntityCodec entityCodec) {
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), boxedIdType),
+                "ID_CODEC",
+                Modifier.PUBLIC,
+                Modifier.STATIC,
+                Modifier.FINAL)
+                .initializer("$L", entityCodec.getAnonymousIdCodec(entitySpecElement))
+                .build();
+    }
+
+    /**
+     * Generates the per-thread outputs that toBytes() encodes into.
+     * @return outputs fieldSpec.
+     */
+    private FieldSpec getFieldSpec_outputs() {
+        TypeName ThreadLocal_EntityOutput = ParameterizedTypeName.get(ClassName.get(ThreadLocal.class), ClassName.get(EntityOutput.class));
+
+        TypeSpec initializer = TypeSpec.anonymousClassBuilder("")
+                .superclass(ThreadLocal_EntityOutput)
+                .addMethod(MethodSpec.methodBuilder("initialValue")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PROTECTED)
+                        .returns(EntityOutput.class)
+                        .addStatement("return new $T()", EntityOutput.class)
+                        .build())
+                .build();
+
+        return FieldSpec.builder(ThreadLocal_EntityOutput, "outputs", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("$L", initializer)
+                .build();
+    }
+
+    /**
+     * Generates a method encoding an Entity to a new array, through an output reused by the calling thread.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param outputs Per-thread outputs field.
+     * @param processingEnv Processing environment.
+     * @return toBytes(Entity) -> byte[] methodSpec.
+     */
+    private MethodSpec getMethodSpec_toBytes(Element entitySpecElement, FieldSpec outputs, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("toBytes")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .returns(byte[].class);
+
+        FieldSpec output = FieldSpec.builder(EntityOutput.class, "output").build();
+        FieldSpec bytes = FieldSpec.builder(byte[].class, "bytes").build();
+        builder.addStatement("$T $N = $N.get()", output.type, output, outputs);
+        builder.addStatement("$N.clear()", output);
+        builder.addStatement("encode($N, $N)", entity, output);
+        builder.addStatement("$T $N = new byte[$N.size()]", bytes.type, bytes, output);
+        builder.addStatement("$N.toByteBuffer().get($N)", output, bytes);
+        builder.addStatement("return $N", bytes);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method decoding an Entity from an array.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return fromBytes(byte[]) -> Entity methodSpec.
+     */
+    private MethodSpec getMethodSpec_fromBytes(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec bytes = ParameterSpec.builder(byte[].class, "bytes").build();
+
+        return MethodSpec.methodBuilder("fromBytes")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(bytes)
+                .returns(entityType)
+                .addStatement("return decode($T.wrap($N))", ByteBuffer.class, bytes)
+                .build();
+    }
+}
@@ -0,0 +1,494 @@
+package annotations.processor.templategenerators;
+
+import com.squareup.javapoet.*;
+import core.EntityInput;
+import core.EntityOutput;
+import core.IEntityCodec;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Generates the code that encodes Entities to and decodes them from the binary form of {@link IEntityCodec}, without
+ * reflection, see {@link CodecTemplateGenerator}. Scalars are written directly, Lists and Maps as their size followed by their elements, and embedded
+ * Entities as a presence flag followed by their ID. Decoded embedded Entities are stubs that hold only their ID, every
+ * other property having its default value, which the repository resolves like any other normalized Entity.
+ * Properties of any other type cannot be encoded, see {@link #checkEncodable(Set)}.
+ */
+public class EntityCodec {
+    private final Map<String, Element> entitySpecByGeneratedClassName;
+    private final Map<String, TypeName> typeNameByGeneratedClassName;
+    private final ProcessingEnvironment processingEnv;
+
+    /**
+     * @param entitySpecs EntitySpec annotated elements, of every Entity that may be embedded.
+     * @param processingEnv Processing environment.
+     */
+    public EntityCodec(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        this.entitySpecByGeneratedClassName = new HashMap<>();
+        this.typeNameByGeneratedClassName = new HashMap<>();
+        this.processingEnv = processingEnv;
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            entitySpecByGeneratedClassName.put(entityType.simpleName(), entitySpec);
+            typeNameByGeneratedClassName.put(entityType.simpleName(), entityType);
+        }
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Type of the generated codec of an Entity, in the package of the Entity.
+     */
+    public static ClassName getCodecType(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        return ClassName.get(entityType.packageName(), entityType.simpleName() + "Codec");
+    }
+
+    /**
+     * Generates an anonymous codec for the ID of an Entity.
+     * @param entitySpecElement EntitySpec annotated element, whose properties can be encoded.
+     * @return IEntityCodec<ID> anonymous typeSpec.
+     */
+    public TypeSpec getAnonymousIdCodec(Element entitySpecElement) {
+        TypeMirror idType = Utils.getIdElement(entitySpecElement).asType();
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(TypeName.get(idType));
+
+        ParameterSpec id = ParameterSpec.builder(boxedIdType, "id").build();
+        ParameterSpec output = ParameterSpec.builder(EntityOutput.class, "output").build();
+        ParameterSpec input = ParameterSpec.builder(ByteBuffer.class, "input").build();
+
+        MethodSpec.Builder encode = MethodSpec.methodBuilder("encode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(id)
+                .addParameter(output);
+        MethodSpec.Builder decode = MethodSpec.methodBuilder("decode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(input)
+                .returns(boxedIdType);
+
+        CodeBlock.Builder encodeCode = CodeBlock.builder();
+        encode(encodeCode, idType, CodeBlock.of("$N", id), "id", output);
+        encode.addCode(encodeCode.build());
+
+        CodeBlock.Builder decodeCode = CodeBlock.builder();
+        decode(decodeCode, idType, "decoded", input);
+        decode.addCode(decodeCode.build());
+        decode.addStatement("return decoded");
+
+        return TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), boxedIdType))
+                .addMethod(encode.build())
+                .addMethod(decode.build())
+                .build();
+    }
+
+    /**
+     * Generates a method appending every property of an Entity to an output, in declaration order.
+     * @param entitySpecElement EntitySpec annotated element, whose properties can be encoded.
+     * @return encode(Entity, EntityOutput) methodSpec.
+     */
+    public MethodSpec getMethodSpec_encode(Element entitySpecElement) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+        ParameterSpec output = ParameterSpec.builder(EntityOutput.class, "output").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("encode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .addParameter(output);
+
+        CodeBlock.Builder code = CodeBlock.builder();
+        for (Element field : getFields(entitySpecElement)) {
+            String name = field.getSimpleName().toString();
+            encode(code, field.asType(), CodeBlock.of("$N.get$L()", entity, Utils.convertToPascalCase(name, processingEnv.getLocale())), name, output);
+        }
+        builder.addCode(code.build());
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method reading every property of an Entity from an input, in declaration order.
+     * @param entitySpecElement EntitySpec annotated element, whose properties can be encoded.
+     * @return decode(ByteBuffer) -> Entity methodSpec.
+     */
+    public MethodSpec getMethodSpec_decode(Element entitySpecElement) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec input = ParameterSpec.builder(ByteBuffer.class, "input").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("decode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(input)
+                .returns(entityType);
+
+        CodeBlock.Builder code = CodeBlock.builder();
+        List<String> names = new LinkedList<>();
+        for (Element field : getFields(entitySpecElement)) {
+            String name = field.getSimpleName().toString();
+            decode(code, field.asType(), name, input);
+            names.add(name);
+        }
+        builder.addCode(code.build());
+        builder.addStatement("return new $T($L)", entityType, join(names));
+
+        return builder.build();
+    }
+
+    /**
+     * Fingerprints the binary form of an Entity: the name and type of every property in declaration order, the ID
+     * type of embedded Entities and the constants of enums, whose ordinals are encoded. Entities encoded with another
+     * fingerprint cannot be decoded.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @return 64-bit FNV-1a hash of the description of the binary form.
+     */
+    public long getSchemaFingerprint(Element entitySpecElement) {
+        StringBuilder schema = new StringBuilder(Utils.getEntityType(entitySpecElement, processingEnv).toString());
+        for (Element field : getFields(entitySpecElement)) {
+            schema.append(';').append(field.getSimpleName()).append(':');
+            describe(schema, field.asType());
+        }
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : schema.toString().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private void describe(StringBuilder schema, TypeMirror type) {
+        Element embeddedSpec = type.getKind().isPrimitive() ? null : getEmbeddedSpec(type);
+        if (embeddedSpec != null) {
+            schema.append("Entity<");
+            describe(schema, Utils.getIdElement(embeddedSpec).asType());
+            schema.append('>');
+        } else if (isEnum(type)) {
+            schema.append(type).append('{');
+            for (Element constant : ((DeclaredType) type).asElement().getEnclosedElements()) {
+                if (constant.getKind() == ElementKind.ENUM_CONSTANT) {
+                    schema.append(constant.getSimpleName()).append(',');
+                }
+            }
+            schema.append('}');
+        } else if (type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+            schema.append(((DeclaredType) type).asElement()).append('<');
+            for (TypeMirror typeArgument : ((DeclaredType) type).getTypeArguments()) {
+                describe(schema, typeArgument);
+                schema.append(',');
+            }
+            schema.append('>');
+        } else {
+            schema.append(type);
+        }
+    }
+
+    /**
+     * Determines if every property of every Entity can be encoded, warning at every property that cannot. Codecs,
+     * JSON readers, and the off-heap, mapped and log stores are only generated if they can, so that Entities with
+     * other properties still get their in-memory stores.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @return True if encodable, else false.
+     */
+    public boolean checkEncodable(Set<? extends Element> entitySpecs) {
+        boolean isEncodable = true;
+        for (Element entitySpec : entitySpecs) {
+            for (Element field : getFields(entitySpec)) {
+                if (!isEncodable(field.asType())) {
+                    processingEnv.getMessager().printMessage(
+                            Diagnostic.Kind.WARNING,
+                            "Property " + field.getSimpleName() + " of type " + field.asType() + " cannot be encoded, so no codecs, JSON readers, off-heap, mapped or log stores are generated",
+                            field);
+                    isEncodable = false;
+                }
+            }
+        }
+
+        return isEncodable;
+    }
+
+    /**
+     * Determines if every property of every Entity can be encoded, without warning.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @return True if encodable, else false.
+     */
+    public boolean isEncodable(Set<? extends Element> entitySpecs) {
+        for (Element entitySpec : entitySpecs) {
+            for (Element field : getFields(entitySpec)) {
+                if (!isEncodable(field.asType())) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isEncodable(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+
+        TypeName typeName = resolve(TypeName.get(type));
+        Element embeddedSpec = getEmbeddedSpec(type);
+        if (typeName.isBoxedPrimitive() || typeName.equals(ClassName.get(String.class)) || isEnum(type)) {
+            return true;
+        } else if (embeddedSpec != null) {
+            // Embedded Entities are encoded by ID.
+            return isEncodable(Utils.getIdElement(embeddedSpec).asType());
+        } else if (type.getKind() != TypeKind.DECLARED || !(Utils.isList(typeName) || Utils.isMap(typeName))) {
+            return false;
+        }
+
+        List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+        if (typeArguments.isEmpty()) {
+            return false;
+        }
+
+        for (TypeMirror typeArgument : typeArguments) {
+            if (!isEncodable(typeArgument)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Generates the code writing a value.
+     * @param code Code to append to.
+     * @param type Value type.
+     * @param value Value expression, evaluated more than once.
+     * @param name Name that local variables are derived from.
+     * @param output Output parameter.
+     */
+    private void encode(CodeBlock.Builder code, TypeMirror type, CodeBlock value, String name, ParameterSpec output) {
+        if (type.getKind().isPrimitive()) {
+            code.addStatement("$N.write$L($L)", output, getAccessorSuffix(TypeName.get(type)), value);
+            return;
+        }
+
+        TypeName typeName = resolve(TypeName.get(type));
+        Element embeddedSpec = getEmbeddedSpec(type);
+        if (typeName.isBoxedPrimitive()) {
+            code.addStatement("$N.writeBoolean($L != null)", output, value);
+            code.beginControlFlow("if ($L != null)", value);
+            code.addStatement("$N.write$L($L)", output, getAccessorSuffix(typeName.unbox()), value);
+            code.endControlFlow();
+        } else if (typeName.equals(ClassName.get(String.class))) {
+            code.addStatement("$N.writeString($L)", output, value);
+        } else if (isEnum(type)) {
+            code.addStatement("$N.writeInt($L == null ? -1 : $L.ordinal())", output, value, value);
+        } else if (embeddedSpec != null) {
+            code.addStatement("$N.writeBoolean($L != null)", output, value);
+            code.beginControlFlow("if ($L != null)", value);
+            encode(code,
+                    Utils.getIdElement(embeddedSpec).asType(),
+                    CodeBlock.of("$L.$L()", value, Utils.getIdGetterName(embeddedSpec, processingEnv.getLocale())),
+                    name + "Id",
+                    output);
+            code.endControlFlow();
+        } else if (Utils.isList(typeName)) {
+            TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+            String element = name + "Element";
+
+            code.addStatement("$N.writeInt($L == null ? -1 : $L.size())", output, value, value);
+            code.beginControlFlow("if ($L != null)", value);
+            code.beginControlFlow("for ($T $N : $L)", resolve(TypeName.get(elementType)), element, value);
+            encode(code, elementType, CodeBlock.of("$N", element), element, output);
+            code.endControlFlow();
+            code.endControlFlow();
+        } else {
+            TypeMirror keyType = ((DeclaredType) type).getTypeArguments().get(0);
+            TypeMirror valueType = ((DeclaredType) type).getTypeArguments().get(1);
+            TypeName Entry_Key_Value = ParameterizedTypeName.get(
+                    ClassName.get(Map.Entry.class),
+                    resolve(TypeName.get(keyType)),
+                    resolve(TypeName.get(valueType)));
+            String entry = name + "Entry";
+
+            code.addStatement("$N.writeInt($L == null ? -1 : $L.size())", output, value, value);
+            code.beginControlFlow("if ($L != null)", value);
+            code.beginControlFlow("for ($T $N : $L.entrySet())", Entry_Key_Value, entry, value);
+            encode(code, keyType, CodeBlock.of("$N.getKey()", entry), name + "Key", output);
+            encode(code, valueType, CodeBlock.of("$N.getValue()", entry), name + "Value", output);
+            code.endControlFlow();
+            code.endControlFlow();
+        }
+    }
+
+    /**
+     * Generates the code reading a value into a new local variable.
+     * @param code Code to append to.
+     * @param type Value type.
+     * @param name Name of the local variable, that further local variables are derived from.
+     * @param input Input parameter.
+     */
+    private void decode(CodeBlock.Builder code, TypeMirror type, String name, ParameterSpec input) {
+        if (type.getKind().isPrimitive()) {
+            code.addStatement("$T $N = $L", TypeName.get(type), name, read(TypeName.get(type), input));
+            return;
+        }
+
+        TypeName typeName = resolve(TypeName.get(type));
+        Element embeddedSpec = getEmbeddedSpec(type);
+        if (typeName.isBoxedPrimitive()) {
+            code.addStatement("$T $N = $T.readBoolean($N) ? $T.valueOf($L) : null", typeName, name, EntityInput.class, input, typeName, read(typeName.unbox(), input));
+        } else if (typeName.equals(ClassName.get(String.class))) {
+            code.addStatement("$T $N = $T.readString($N)", typeName, name, EntityInput.class, input);
+        } else if (isEnum(type)) {
+            String ordinal = name + "Ordinal";
+            code.addStatement("int $N = $N.getInt()", ordinal, input);
+            code.addStatement("$T $N = $N < 0 ? null : $T.values()[$N]", typeName, name, ordinal, typeName, ordinal);
+        } else if (embeddedSpec != null) {
+            String id = name + "Id";
+            code.addStatement("$T $N = null", typeName, name);
+            code.beginControlFlow("if ($T.readBoolean($N))", EntityInput.class, input);
+            decode(code, Utils.getIdElement(embeddedSpec).asType(), id, input);
+            code.addStatement("$N = new $T($L)", name, typeName, getStubArguments(embeddedSpec, id));
+            code.endControlFlow();
+        } else if (Utils.isList(typeName)) {
+            TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+            TypeName ArrayList_Element = ParameterizedTypeName.get(ClassName.get(ArrayList.class), resolve(TypeName.get(elementType)));
+            String size = name + "Size";
+            String index = name + "Index";
+            String element = name + "Element";
+
+            code.addStatement("$T $N = null", typeName, name);
+            code.addStatement("int $N = $N.getInt()", size, input);
+            code.beginControlFlow("if ($N >= 0)", size);
+            code.addStatement("$N = new $T($N)", name, ArrayList_Element, size);
+            code.beginControlFlow("for (int $N = 0; $N < $N; $N++)", index, index, size, index);
+            decode(code, elementType, element, input);
+            code.addStatement("$N.add($N)", name, element);
+            code.endControlFlow();
+            code.endControlFlow();
+        } else {
+            TypeMirror keyType = ((DeclaredType) type).getTypeArguments().get(0);
+            TypeMirror valueType = ((DeclaredType) type).getTypeArguments().get(1);
+            TypeName HashMap_Key_Value = ParameterizedTypeName.get(
+                    ClassName.get(HashMap.class),
+                    resolve(TypeName.get(keyType)),
+                    resolve(TypeName.get(valueType)));
+            String size = name + "Size";
+            String index = name + "Index";
+
+            code.addStatement("$T $N = null", typeName, name);
+            code.addStatement("int $N = $N.getInt()", size, input);
+            code.beginControlFlow("if ($N >= 0)", size);
+            code.addStatement("$N = new $T()", name, HashMap_Key_Value);
+            code.beginControlFlow("for (int $N = 0; $N < $N; $N++)", index, index, size, index);
+            decode(code, keyType, name + "Key", input);
+            decode(code, valueType, name + "Value", input);
+            code.addStatement("$N.put($N, $N)", name, name + "Key", name + "Value");
+            code.endControlFlow();
+            code.endControlFlow();
+        }
+    }
+
+    /**
+     * Generates the constructor arguments of a stub holding only an ID.
+     * @param entitySpecElement EntitySpec annotated element of the stub.
+     * @param id Name of the local variable holding the ID.
+     * @return Constructor arguments.
+     */
+    static CodeBlock getStubArguments(Element entitySpecElement, String id) {
+        CodeBlock.Builder arguments = CodeBlock.builder();
+
+        Element idElement = Utils.getIdElement(entitySpecElement);
+        Iterator<Element> iterator = getFields(entitySpecElement).iterator();
+        while (iterator.hasNext()) {
+            Element field = iterator.next();
+            TypeMirror type = field.asType();
+            if (field.equals(idElement)) {
+                arguments.add("$N", id);
+            } else if (type.getKind() == TypeKind.BOOLEAN) {
+                arguments.add("false");
+            } else if (type.getKind().isPrimitive()) {
+                arguments.add("($T) 0", TypeName.get(type));
+            } else {
+                arguments.add("null");
+            }
+
+            if (iterator.hasNext()) {
+                arguments.add(", ");
+            }
+        }
+
+        return arguments.build();
+    }
+
+    private CodeBlock read(TypeName primitiveType, ParameterSpec input) {
+        if (primitiveType.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("$T.readBoolean($N)", EntityInput.class, input);
+        } else if (primitiveType.equals(TypeName.BYTE)) {
+            return CodeBlock.of("$N.get()", input);
+        }
+
+        return CodeBlock.of("$N.get$L()", input, getAccessorSuffix(primitiveType));
+    }
+
+    private static String getAccessorSuffix(TypeName primitiveType) {
+        String name = primitiveType.toString();
+        return name.substring(0, 1).toUpperCase(Locale.ROOT) + name.substring(1);
+    }
+
+    private Element getEmbeddedSpec(TypeMirror type) {
+        return entitySpecByGeneratedClassName.get(TypeName.get(type).toString());
+    }
+
+    private TypeName resolve(TypeName typeName) {
+        if (typeName instanceof ParameterizedTypeName) {
+            return Utils.getParameterizedTypeWithGeneratedTypes((ParameterizedTypeName) typeName, typeNameByGeneratedClassName);
+        } else if (typeNameByGeneratedClassName.containsKey(typeName.toString())) {
+            return typeNameByGeneratedClassName.get(typeName.toString());
+        }
+
+        return typeName;
+    }
+
+    static boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED &&
+                ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    static List<Element> getFields(Element entitySpecElement) {
+        List<Element> fields = new LinkedList<>();
+        for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
+            if (enclosedElement.getKind() == ElementKind.FIELD) {
+                fields.add(enclosedElement);
+            }
+        }
+
+        return fields;
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(name);
+        }
+
+        return joined.toString();
+    }
+}
@@ -0,0 +1,288 @@
+package annotations.processor.templategenerators;
+
+import com.squareup.javapoet.*;
+import core.ConcurrentLongObjectMap;
+import core.ILongObjectMap;
+import core.LongObjectMap;
+import core.ReferenceEntityMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Describes a generated property field holding Entities by ID, and generates the code to access it. Entities with
+ * integral primitive IDs are held in primitive keyed maps and Entities with enum IDs in arrays indexed by ordinal, so
+ * that neither reads nor writes box or hash their IDs.
+ */
+public class EntityMap {
+    private enum Kind {
+        // Map keyed by boxed or reference IDs.
+        OBJECT,
+        // Map keyed by integral primitive IDs.
+        PRIMITIVE,
+        // Array indexed by enum ID ordinals.
+        ENUM,
+        // Map holding Entities through soft or weak references, keyed by boxed IDs.
+        REFERENCE
+    }
+
+    private final FieldSpec fieldSpec;
+    private final Kind kind;
+    private final TypeName idType;
+    private final boolean isConcurrent;
+    private final TypeName valueType;
+
+    private EntityMap(FieldSpec fieldSpec, Kind kind, TypeName idType, boolean isConcurrent) {
+        this(fieldSpec, kind, idType, isConcurrent, null);
+    }
+
+    private EntityMap(FieldSpec fieldSpec, Kind kind, TypeName idType, boolean isConcurrent, TypeName valueType) {
+        this.fieldSpec = fieldSpec;
+        this.kind = kind;
+        this.idType = idType;
+        this.isConcurrent = isConcurrent;
+        this.valueType = valueType;
+    }
+
+    /**
+     * Creates a property field holding the Entities specified in an Entity spec.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param fieldName Field name.
+     * @param isConcurrent True if the field is shared between threads.
+     * @param processingEnv Processing environment.
+     * @return EntityMap.
+     */
+    public static EntityMap of(Element entitySpecElement, String fieldName, boolean isConcurrent, ProcessingEnvironment processingEnv) {
+        return of(entitySpecElement, fieldName, Utils.getEntityType(entitySpecElement, processingEnv), isConcurrent, processingEnv);
+    }
+
+    /**
+     * Creates a property field holding values by the IDs of the Entities specified in an Entity spec.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param fieldName Field name.
+     * @param entityType Value type.
+     * @param isConcurrent True if the field is shared between threads.
+     * @param processingEnv Processing environment.
+     * @return EntityMap.
+     */
+    public static EntityMap of(Element entitySpecElement, String fieldName, ClassName entityType, boolean isConcurrent, ProcessingEnvironment processingEnv) {
+        TypeName idType = Utils.getIdTypeName(entitySpecElement);
+
+        FieldSpec.Builder builder;
+        Kind kind;
+        if (isEnum(Utils.getIdElement(entitySpecElement).asType())) {
+            kind = Kind.ENUM;
+            if (isConcurrent) {
+                TypeName AtomicReferenceArray_Entity = ParameterizedTypeName.get(ClassName.get(AtomicReferenceArray.class), entityType);
+                builder = FieldSpec.builder(AtomicReferenceArray_Entity, fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T($T.values().length)", AtomicReferenceArray_Entity, idType);
+            } else {
+                builder = FieldSpec.builder(ArrayTypeName.of(entityType), fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T[$T.values().length]", entityType, idType);
+            }
+        } else if (isPrimitiveKeyed(idType)) {
+            kind = Kind.PRIMITIVE;
+            TypeName Map_Id_Entity = ParameterizedTypeName.get(
+                    ClassName.get(isConcurrent ? ConcurrentLongObjectMap.class : LongObjectMap.class),
+                    entityType);
+            builder = FieldSpec.builder(Map_Id_Entity, fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", Map_Id_Entity);
+        } else {
+            kind = Kind.OBJECT;
+            TypeName Map_Id_Entity = ParameterizedTypeName.get(
+                    ClassName.get(isConcurrent ? ConcurrentMap.class : HashMap.class),
+                    Utils.getSafelyBoxedTypeName(idType),
+                    entityType);
+            TypeName Map_Id_Entity_Impl = ParameterizedTypeName.get(
+                    ClassName.get(isConcurrent ? ConcurrentHashMap.class : HashMap.class),
+                    Utils.getSafelyBoxedTypeName(idType),
+                    entityType);
+            builder = FieldSpec.builder(Map_Id_Entity, fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", Map_Id_Entity_Impl);
+        }
+
+        return new EntityMap(builder.build(), kind, idType, isConcurrent);
+    }
+
+    /**
+     * Creates a property field holding values by the IDs of the Entities specified in an Entity spec, whose owner only
+     * knows if it is shared between threads once it is constructed. Fields keyed by integral primitive IDs are declared
+     * as {@link ILongObjectMap} and assigned by {@link #initialize(CodeBlock)}, so that owners that are not shared use
+     * the unsynchronized {@link LongObjectMap}. Other fields are always concurrent.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param fieldName Field name.
+     * @param entityType Value type.
+     * @param processingEnv Processing environment.
+     * @return EntityMap.
+     */
+    public static EntityMap ofOptionallyConcurrent(Element entitySpecElement, String fieldName, ClassName entityType, ProcessingEnvironment processingEnv) {
+        TypeName idType = Utils.getIdTypeName(entitySpecElement);
+        if (!isPrimitiveKeyed(idType)) {
+            return of(entitySpecElement, fieldName, entityType, true, processingEnv);
+        }
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(ILongObjectMap.class), entityType);
+        FieldSpec fieldSpec = FieldSpec.builder(Map_Id_Entity, fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+
+        return new EntityMap(fieldSpec, Kind.PRIMITIVE, idType, true, entityType);
+    }
+
+    /**
+     * @param isConcurrent Boolean expression, true if the owner of the field is shared between threads.
+     * @return Statement assigning a field created by {@link #ofOptionallyConcurrent}, or null if the field is
+     * initialized where it is declared.
+     */
+    public CodeBlock initialize(CodeBlock isConcurrent) {
+        if (valueType == null) {
+            return null;
+        }
+
+        return CodeBlock.of("this.$N = $L ? new $T<$T>() : new $T<$T>()",
+                fieldSpec,
+                isConcurrent,
+                ConcurrentLongObjectMap.class,
+                valueType,
+                LongObjectMap.class,
+                valueType);
+    }
+
+    /**
+     * Creates a property field holding the Entities specified in an Entity spec through soft or weak references, so
+     * that the garbage collector may reclaim Entities that nothing else holds. The field is safe for use by multiple
+     * threads.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param fieldName Field name.
+     * @param strength Strength of the references holding Entities.
+     * @param processingEnv Processing environment.
+     * @return EntityMap.
+     */
+    public static EntityMap ofReferences(Element entitySpecElement, String fieldName, ReferenceEntityMap.Strength strength, ProcessingEnvironment processingEnv) {
+        TypeName idType = Utils.getIdTypeName(entitySpecElement);
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(
+                ClassName.get(ReferenceEntityMap.class),
+                Utils.getSafelyBoxedTypeName(idType),
+                Utils.getEntityType(entitySpecElement, processingEnv));
+        FieldSpec fieldSpec = FieldSpec.builder(Map_Id_Entity, fieldName, Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T($T.$L)", Map_Id_Entity, ReferenceEntityMap.Strength.class, strength.name())
+                .build();
+
+        return new EntityMap(fieldSpec, Kind.REFERENCE, idType, true);
+    }
+
+    public FieldSpec getFieldSpec() {
+        return fieldSpec;
+    }
+
+    /**
+     * @param id ID expression.
+     * @return Expression reading the Entity mapped to an ID, or null.
+     */
+    public CodeBlock get(CodeBlock id) {
+        if (kind == Kind.ENUM) {
+            return isConcurrent ?
+                    CodeBlock.of("$N.get($L.ordinal())", fieldSpec, id) :
+                    CodeBlock.of("$N[$L.ordinal()]", fieldSpec, id);
+        }
+
+        return CodeBlock.of("$N.get($L)", fieldSpec, id);
+    }
+
+    /**
+     * @param id ID expression.
+     * @param entity Entity expression.
+     * @return Expression mapping an ID to an Entity.
+     */
+    public CodeBlock put(CodeBlock id, CodeBlock entity) {
+        if (kind == Kind.ENUM) {
+            return isConcurrent ?
+                    CodeBlock.of("$N.set($L.ordinal(), $L)", fieldSpec, id, entity) :
+                    CodeBlock.of("$N[$L.ordinal()] = $L", fieldSpec, id, entity);
+        }
+
+        return CodeBlock.of("$N.put($L, $L)", fieldSpec, id, entity);
+    }
+
+    /**
+     * @param id ID expression.
+     * @return Expression removing the Entity mapped to an ID.
+     */
+    public CodeBlock remove(CodeBlock id) {
+        if (kind == Kind.ENUM) {
+            return isConcurrent ?
+                    CodeBlock.of("$N.set($L.ordinal(), null)", fieldSpec, id) :
+                    CodeBlock.of("$N[$L.ordinal()] = null", fieldSpec, id);
+        }
+
+        return CodeBlock.of("$N.remove($L)", fieldSpec, id);
+    }
+
+    /**
+     * @param id ID expression.
+     * @param entity Entity expression.
+     * @return Expression removing the Entity mapped to an ID, only if it is the given instance.
+     */
+    public CodeBlock remove(CodeBlock id, CodeBlock entity) {
+        if (!isConcurrent) {
+            throw new IllegalStateException("Conditional removal is only generated for concurrent maps");
+        }
+
+        if (kind == Kind.ENUM) {
+            return CodeBlock.of("$N.compareAndSet($L.ordinal(), $L, null)", fieldSpec, id, entity);
+        }
+
+        return CodeBlock.of("$N.remove($L, $L)", fieldSpec, id, entity);
+    }
+
+    /**
+     * @return Expression reading the number of Entities the garbage collector reclaimed from a reference map.
+     */
+    public CodeBlock reclaimedCount() {
+        if (kind != Kind.REFERENCE) {
+            throw new IllegalStateException("Reclaimed counts are only generated for reference maps");
+        }
+
+        return CodeBlock.of("$N.reclaimedCount()", fieldSpec);
+    }
+
+    /**
+     * Converts an untyped ID, such as EntityKey.getId(), to an ID expression that this map accepts.
+     * @param id Object ID expression.
+     * @return ID expression.
+     */
+    public CodeBlock castId(CodeBlock id) {
+        if (kind == Kind.OBJECT) {
+            return id;
+        }
+
+        return CodeBlock.of("(($T) $L)", Utils.getSafelyBoxedTypeName(idType), id);
+    }
+
+    /**
+     * Determines if Entities with an ID type are held in a primitive keyed map.
+     * @param idType ID type.
+     * @return True if the ID type is an integral primitive, else false.
+     */
+    public static final boolean isPrimitiveKeyed(TypeName idType) {
+        return idType.equals(TypeName.LONG) ||
+                idType.equals(TypeName.INT) ||
+                idType.equals(TypeName.SHORT) ||
+                idType.equals(TypeName.CHAR) ||
+                idType.equals(TypeName.BYTE);
+    }
+
+    private static boolean isEnum(TypeMirror typeMirror) {
+        return typeMirror.getKind() == TypeKind.DECLARED &&
+                ((DeclaredType) typeMirror).asElement().getKind() == ElementKind.ENUM;
+    }
+}
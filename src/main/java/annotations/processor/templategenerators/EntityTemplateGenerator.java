@@ -85,8 +85,16 @@ public class EntityTemplateGenerator implements ITemplateGenerator {
             throw new RuntimeException("Error processing EntitySpec: No ID defined in " + entitySpec.getSimpleName().toString());
         }
 
+        // Hash code, computed once since Entities are immutable.
+        FieldSpec hashCodeFieldSpec = getFieldSpec_hashCode();
+        template.add(hashCodeFieldSpec);
+
         // Constructor.
-        template.add(getConstructor(fieldSpecs));
+        template.add(getConstructor(fieldSpecs, hashCodeFieldSpec));
+
+        // equals() and hashCode()
+        template.add(getMethodSpec_equals(entityType, fieldSpecs, hashCodeFieldSpec));
+        template.add(getMethodSpec_hashCode(hashCodeFieldSpec));
 
         // Interface IEntity.
         template.add(ParameterizedTypeName.get(
@@ -103,9 +111,10 @@ public class EntityTemplateGenerator implements ITemplateGenerator {
     /**
      * Generates a constructor based on property fields.
      * @param fieldSpecs Specs for property fields.
+     * @param hashCodeFieldSpec Cached hash code field.
      * @return Constructor methodSpec.
      */
-    private MethodSpec getConstructor(List<FieldSpec> fieldSpecs) {
+    private MethodSpec getConstructor(List<FieldSpec> fieldSpecs, FieldSpec hashCodeFieldSpec) {
         MethodSpec.Builder builder = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PUBLIC);
         for (FieldSpec fieldSpec : fieldSpecs) {
@@ -114,9 +123,126 @@ public class EntityTemplateGenerator implements ITemplateGenerator {
             builder.addStatement("this.$N = $N", fieldSpec, parameterSpec);
         }
 
+        // Hash every property once, nested Entities contribute their own cached hash codes.
+        builder.addStatement("int result = 1");
+        for (FieldSpec fieldSpec : fieldSpecs) {
+            builder.addStatement("result = 31 * result + $L", getHashCode(fieldSpec));
+        }
+        builder.addStatement("this.$N = result", hashCodeFieldSpec);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates the field caching the hash code of an Entity.
+     * @return Cached hash code fieldSpec.
+     */
+    private FieldSpec getFieldSpec_hashCode() {
+        return FieldSpec.builder(TypeName.INT, "cachedHashCode", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates value based equality over every property field. Entities with different cached hash codes are
+     * rejected before any property is compared.
+     * @param entityType Entity type.
+     * @param fieldSpecs Specs for property fields.
+     * @param hashCodeFieldSpec Cached hash code field.
+     * @return equals(Object) methodSpec.
+     */
+    private MethodSpec getMethodSpec_equals(ClassName entityType, List<FieldSpec> fieldSpecs, FieldSpec hashCodeFieldSpec) {
+        ParameterSpec object = ParameterSpec.builder(Object.class, "object").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(object)
+                .returns(TypeName.BOOLEAN);
+
+        builder.beginControlFlow("if (this == $N)", object);
+        builder.addStatement("return true");
+        builder.endControlFlow();
+        builder.beginControlFlow("if (!($N instanceof $T))", object, entityType);
+        builder.addStatement("return false");
+        builder.endControlFlow();
+
+        FieldSpec other = FieldSpec.builder(entityType, "other").build();
+        builder.addStatement("$T $N = ($T) $N", other.type, other, entityType, object);
+        builder.beginControlFlow("if ($N != $N.$N)", hashCodeFieldSpec, other, hashCodeFieldSpec);
+        builder.addStatement("return false");
+        builder.endControlFlow();
+
+        CodeBlock.Builder comparison = CodeBlock.builder();
+        Iterator<FieldSpec> iterator = fieldSpecs.iterator();
+        while (iterator.hasNext()) {
+            FieldSpec fieldSpec = iterator.next();
+            comparison.add(getEquals(fieldSpec, other));
+            if (iterator.hasNext()) {
+                comparison.add(" &&\n");
+            }
+        }
+        builder.addStatement("return $L", comparison.build());
+
         return builder.build();
     }
 
+    /**
+     * Generates a getter for the cached hash code.
+     * @param hashCodeFieldSpec Cached hash code field.
+     * @return hashCode() methodSpec.
+     */
+    private MethodSpec getMethodSpec_hashCode(FieldSpec hashCodeFieldSpec) {
+        return MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $N", hashCodeFieldSpec)
+                .build();
+    }
+
+    /**
+     * Generates an expression hashing a property field without boxing primitives.
+     * @param fieldSpec FieldSpec for a property.
+     * @return Hash code expression.
+     */
+    private CodeBlock getHashCode(FieldSpec fieldSpec) {
+        TypeName type = fieldSpec.type;
+
+        if (type.equals(TypeName.LONG)) {
+            return CodeBlock.of("(int) ($N ^ ($N >>> 32))", fieldSpec, fieldSpec);
+        } else if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("(int) ($T.doubleToLongBits($N) ^ ($T.doubleToLongBits($N) >>> 32))", Double.class, fieldSpec, Double.class, fieldSpec);
+        } else if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($N)", Float.class, fieldSpec);
+        } else if (type.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("($N ? 1231 : 1237)", fieldSpec);
+        } else if (type.isPrimitive()) {
+            return CodeBlock.of("$N", fieldSpec);
+        }
+
+        return CodeBlock.of("$T.hashCode($N)", Objects.class, fieldSpec);
+    }
+
+    /**
+     * Generates an expression comparing a property field with the same field of another Entity.
+     * @param fieldSpec FieldSpec for a property.
+     * @param other The other Entity.
+     * @return Equality expression.
+     */
+    private CodeBlock getEquals(FieldSpec fieldSpec, FieldSpec other) {
+        TypeName type = fieldSpec.type;
+
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$T.compare($N, $N.$N) == 0", Double.class, fieldSpec, other, fieldSpec);
+        } else if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.compare($N, $N.$N) == 0", Float.class, fieldSpec, other, fieldSpec);
+        } else if (type.isPrimitive()) {
+            return CodeBlock.of("$N == $N.$N", fieldSpec, other, fieldSpec);
+        }
+
+        return CodeBlock.of("$T.equals($N, $N.$N)", Objects.class, fieldSpec, other, fieldSpec);
+    }
+
     /**
      * Generates property fields for an element.
      * @param element Element to generate property field for.
@@ -4,10 +4,16 @@ import annotations.EntitySpec;
 import annotations.processor.ITemplateGenerator;
 import annotations.processor.Template;
 import com.squareup.javapoet.*;
+import core.EntityKey;
+import core.IEntity;
+import core.IReclaimableEntityStore;
+import core.IVersionedEntityStore;
+import core.ReferenceEntityMap;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Generates a in-memory store template from EntitySpec annotated files.
@@ -15,11 +21,57 @@ import java.util.*;
 public class InMemoryStoreTemplateGenerator implements ITemplateGenerator {
     public static final String PACKAGE = "entitynormalizer.store";
     public static final String CLASSNAME = "InMemoryEntityStore";
+    public static final String CONCURRENT_CLASSNAME = "ConcurrentInMemoryEntityStore";
+    public static final String VERSIONED_CLASSNAME = "VersionedInMemoryEntityStore";
+    public static final String CONCURRENT_VERSIONED_CLASSNAME = "ConcurrentVersionedInMemoryEntityStore";
+    public static final String SOFT_CLASSNAME = "SoftInMemoryEntityStore";
+    public static final String WEAK_CLASSNAME = "WeakInMemoryEntityStore";
 
     private final Map<String, Template> templates;
 
+    private final String className;
+    private final boolean isConcurrent;
+    private final boolean isVersioned;
+    private final ReferenceEntityMap.Strength referenceStrength;
+
     public InMemoryStoreTemplateGenerator() {
+        this(CLASSNAME, false);
+    }
+
+    /**
+     * @param className Generated class name.
+     * @param isConcurrent True to back every Entity type with a concurrent map that can be shared between threads.
+     */
+    public InMemoryStoreTemplateGenerator(String className, boolean isConcurrent) {
+        this(className, isConcurrent, false);
+    }
+
+    /**
+     * @param className Generated class name.
+     * @param isConcurrent True to back every Entity type with a concurrent map that can be shared between threads.
+     * @param isVersioned True to stamp every put Entity with a version, see {@link IVersionedEntityStore}.
+     */
+    public InMemoryStoreTemplateGenerator(String className, boolean isConcurrent, boolean isVersioned) {
+        this(className, isConcurrent, isVersioned, null);
+    }
+
+    /**
+     * Generates a store holding every Entity through soft or weak references, so that it never keeps an Entity alive
+     * on its own. The store can be shared between threads, and reports per Entity type how many Entities the garbage
+     * collector reclaimed.
+     * @param className Generated class name.
+     * @param referenceStrength Strength of the references holding Entities.
+     */
+    public InMemoryStoreTemplateGenerator(String className, ReferenceEntityMap.Strength referenceStrength) {
+        this(className, true, false, referenceStrength);
+    }
+
+    private InMemoryStoreTemplateGenerator(String className, boolean isConcurrent, boolean isVersioned, ReferenceEntityMap.Strength referenceStrength) {
         this.templates = new HashMap<>();
+        this.className = className;
+        this.isConcurrent = isConcurrent;
+        this.isVersioned = isVersioned;
+        this.referenceStrength = referenceStrength;
     }
 
     @Override
@@ -29,27 +81,60 @@ public class InMemoryStoreTemplateGenerator implements ITemplateGenerator {
 
     @Override
     public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
-        Template template = new Template(PACKAGE, CLASSNAME);
+        Template template = new Template(PACKAGE, className);
 
         // Generate property fields for every Entity.
-        Map<TypeName, FieldSpec> entityFieldSpecs = new HashMap<>();
+        Map<TypeName, EntityMap> entityMaps = new HashMap<>();
         for (Element entitySpec : entitySpecs) {
-            FieldSpec fieldSpec = getEntityField(entitySpec, processingEnv);
-            template.add(fieldSpec);
-            entityFieldSpecs.put(Utils.getEntityType(entitySpec, processingEnv), fieldSpec);
+            EntityMap entityMap = getEntityField(entitySpec, processingEnv);
+            template.add(entityMap.getFieldSpec());
+            entityMaps.put(Utils.getEntityType(entitySpec, processingEnv), entityMap);
+        }
+
+        // Versions.
+        FieldSpec version = null;
+        Map<TypeName, EntityMap> versionMaps = new HashMap<>();
+        if (isVersioned) {
+            version = getFieldSpec_version();
+            template.add(version);
+            for (Element entitySpec : entitySpecs) {
+                EntityMap versionMap = getVersionField(entitySpec, processingEnv);
+                template.add(versionMap.getFieldSpec());
+                versionMaps.put(Utils.getEntityType(entitySpec, processingEnv), versionMap);
+            }
+            template.add(getMethodSpec_version(version));
+            template.add(getMethodSpec_versionOfKey(entitySpecs, versionMaps, processingEnv));
+            template.add(ClassName.get(IVersionedEntityStore.class));
         }
 
         // Generate getters and setters for every Entity.
         for (Element entitySpec : entitySpecs) {
-            template.add(getPutterForEntity(entitySpec, entityFieldSpecs, processingEnv));
-            template.add(getGetterForEntity(entitySpec, entityFieldSpecs, processingEnv));
+            template.add(getPutterForEntity(entitySpec, entityMaps, version, versionMaps, processingEnv));
+            template.add(getGetterForEntity(entitySpec, entityMaps, processingEnv));
+            template.add(getMultiGetterForEntity(entitySpec, entityMaps, processingEnv));
+            if (referenceStrength != null) {
+                template.add(getReclaimedCountGetterForEntity(entitySpec, entityMaps, processingEnv));
+            }
         }
+        template.add(getMethodSpec_putAll(entitySpecs, processingEnv));
+
+        // Generate a remover for every Entity.
+        Map<TypeName, MethodSpec> removers = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            MethodSpec remover = getRemoverForEntity(entitySpec, entityMaps, version, versionMaps, processingEnv);
+            template.add(remover);
+            removers.put(Utils.getEntityType(entitySpec, processingEnv), remover);
+        }
+        template.add(getMethodSpec_removeAll(entitySpecs, removers, processingEnv));
 
         // Add reader and writer interfaces.
         template.add(ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME));
         template.add(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME));
+        if (referenceStrength != null) {
+            template.add(ClassName.get(IReclaimableEntityStore.class));
+        }
 
-        templates.put(CLASSNAME, template);
+        templates.put(className, template);
     }
 
     @Override
@@ -58,34 +143,117 @@ public class InMemoryStoreTemplateGenerator implements ITemplateGenerator {
     }
 
     /**
-     * Generates a property field mapping an Entity by ID.
+     * Generates a property field mapping an Entity by ID. Concurrent stores use a map per Entity type, so that writers
+     * of one Entity type never contend with readers or writers of another.
      * @param entitySpecElement EntitySpec annotated element.
      * @param processingEnv Processing environment.
      * @return Map of ID to Entity for the Entity specified in the Entity spec.
      */
-    private FieldSpec getEntityField(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+    private EntityMap getEntityField(Element entitySpecElement, ProcessingEnvironment processingEnv) {
         ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
-        ParameterizedTypeName Map_Id_Entity = ParameterizedTypeName.get(
-                ClassName.get(HashMap.class),
-                Utils.getIdTypeName(entitySpecElement),
-                entityType);
-
         String fieldName = String.format("%sById", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale()));
 
-        return FieldSpec.builder(Map_Id_Entity, fieldName, Modifier.PRIVATE)
-                .initializer("new $T()", Map_Id_Entity)
+        if (referenceStrength != null) {
+            return EntityMap.ofReferences(entitySpecElement, fieldName, referenceStrength, processingEnv);
+        }
+
+        return EntityMap.of(entitySpecElement, fieldName, isConcurrent, processingEnv);
+    }
+
+    /**
+     * Generates the counter incremented by every write to a versioned store.
+     * @return version fieldSpec.
+     */
+    private FieldSpec getFieldSpec_version() {
+        if (isConcurrent) {
+            return FieldSpec.builder(AtomicLong.class, "version", Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", AtomicLong.class)
+                    .build();
+        }
+
+        return FieldSpec.builder(TypeName.LONG, "version", Modifier.PRIVATE)
+                .build();
+    }
+
+    /**
+     * Generates the field holding the version of the latest write of every Entity of a type in a versioned store. It is
+     * keyed like the Entities themselves, so that a put neither builds an EntityKey nor boxes the ID.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Map of ID to version for the Entity specified in the Entity spec.
+     */
+    private EntityMap getVersionField(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        String fieldName = String.format("%sVersionById", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale()));
+
+        return EntityMap.of(entitySpecElement, fieldName, ClassName.get(Long.class), isConcurrent, processingEnv);
+    }
+
+    /**
+     * Generates a getter for the store version.
+     * @param version Version counter field.
+     * @return version() methodSpec.
+     */
+    private MethodSpec getMethodSpec_version(FieldSpec version) {
+        return MethodSpec.methodBuilder("version")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG)
+                .addStatement(isConcurrent ? "return $N.get()" : "return $N", version)
                 .build();
     }
 
+    /**
+     * Generates a getter for the version of an Entity.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param versionMaps Map of Entity version fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return version(EntityKey) methodSpec.
+     */
+    private MethodSpec getMethodSpec_versionOfKey(Set<? extends Element> entitySpecs, Map<TypeName, EntityMap> versionMaps, ProcessingEnvironment processingEnv) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("version")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(key)
+                .returns(TypeName.LONG);
+
+        FieldSpec entityVersion = FieldSpec.builder(Long.class, "entityVersion").build();
+        builder.addStatement("$T $N = null", entityVersion.type, entityVersion);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            EntityMap versionMap = versionMaps.get(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getEntityTypeName(entityType), key);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", getEntityTypeName(entityType), key);
+            }
+            builder.addStatement("$N = $L", entityVersion, versionMap.get(versionMap.castId(CodeBlock.of("$N.getId()", key))));
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.addStatement("return $N == null ? 0 : $N", entityVersion, entityVersion);
+
+        return builder.build();
+    }
+
     /**
      * Generates a putter method for an Entity that returns the success of the write operation..
      * @param entitySpecElement EntitySpec annotated element.
-     * @param entityFieldSpecs Map of Entity (map) fieldSpecs by Entity types.
+     * @param entityMaps Map of Entity (map) fields by Entity types.
+     * @param version Version counter field, or null if the store is not versioned.
+     * @param versionMaps Map of Entity version fields by Entity types, empty if the store is not versioned.
      * @param processingEnv Processing environment.
      * @return put(Entity) -> True if succeeded, else false.
      */
-    private MethodSpec getPutterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> entityFieldSpecs, ProcessingEnvironment processingEnv) {
+    private MethodSpec getPutterForEntity(Element entitySpecElement, Map<TypeName, EntityMap> entityMaps, FieldSpec version, Map<TypeName, EntityMap> versionMaps, ProcessingEnvironment processingEnv) {
         TypeName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
         ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
@@ -97,21 +265,147 @@ public class InMemoryStoreTemplateGenerator implements ITemplateGenerator {
                 .returns(TypeName.BOOLEAN);
 
         // Add current entity to the store.
-        builder.addStatement("$N.put($N.id(), $N)", entityFieldSpecs.get(entityType), entity, entity);
+        CodeBlock id = CodeBlock.of("$N.$L()", entity, Utils.getIdGetterName(entitySpecElement, processingEnv.getLocale()));
+        builder.addStatement("$L", entityMaps.get(entityType).put(id, CodeBlock.of("$N", entity)));
+
+        // Published after the Entity, so that a reader never pairs a new version with an old Entity.
+        if (version != null) {
+            builder.addStatement("$L", versionMaps.get(entityType).put(
+                    id,
+                    isConcurrent ? CodeBlock.of("$N.incrementAndGet()", version) : CodeBlock.of("++$N", version)));
+        }
 
         builder.addStatement("return true");
 
         return builder.build();
     }
 
+    /**
+     * Generates a putter method for a batch of Entities of any type.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param processingEnv Processing environment.
+     * @return putAll(Collection<? extends IEntity>) -> True if every write succeeded, else false.
+     */
+    static MethodSpec getMethodSpec_putAll(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entities)
+                .returns(TypeName.BOOLEAN);
+
+        FieldSpec isSuccessful = FieldSpec.builder(TypeName.BOOLEAN, "isSuccessful").build();
+        builder.addStatement("$T $N = true", isSuccessful.type, isSuccessful);
+
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", entity.type, entity, entities);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($N instanceof $T)", entity, entityType);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($N instanceof $T)", entity, entityType);
+            }
+            builder.addStatement("$N &= put(($T) $N)", isSuccessful, entityType, entity);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.entityType())", IllegalArgumentException.class, "Unknown Entity type: ", entity);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", isSuccessful);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a remover method for an Entity.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param entityMaps Map of Entity (map) fields by Entity types.
+     * @param version Version counter field, or null if the store is not versioned.
+     * @param versionMaps Map of Entity version fields by Entity types, empty if the store is not versioned.
+     * @param processingEnv Processing environment.
+     * @return removeEntity(ID) methodSpec.
+     */
+    private MethodSpec getRemoverForEntity(Element entitySpecElement, Map<TypeName, EntityMap> entityMaps, FieldSpec version, Map<TypeName, EntityMap> versionMaps, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("remove%s", entityType.simpleName()))
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(id);
+
+        builder.addStatement("$L", entityMaps.get(entityType).remove(CodeBlock.of("$N", id)));
+
+        // A removal is a write, so that views built from the removed Entity are no longer current.
+        if (version != null) {
+            builder.addStatement("$L", versionMaps.get(entityType).remove(CodeBlock.of("$N", id)));
+            builder.addStatement(isConcurrent ? "$N.incrementAndGet()" : "$N++", version);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a remover method for a batch of Entities of any type.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param removers Map of remover methods by Entity types, each taking the ID of the Entity to remove.
+     * @param processingEnv Processing environment.
+     * @return removeAll(Collection<EntityKey>) methodSpec.
+     */
+    static MethodSpec getMethodSpec_removeAll(Set<? extends Element> entitySpecs, Map<TypeName, MethodSpec> removers, ProcessingEnvironment processingEnv) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("removeAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(keys);
+
+        FieldSpec key = FieldSpec.builder(EntityKey.class, "key").build();
+        builder.beginControlFlow("for ($T $N : $N)", key.type, key, keys);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getEntityTypeName(entityType), key);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", getEntityTypeName(entityType), key);
+            }
+            builder.addStatement("$N(($T) $N.getId())", removers.get(entityType), Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpec)), key);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.getEntityType())", IllegalArgumentException.class, "Unknown Entity type: ", key);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * @param entityType Entity type.
+     * @return Fully qualified name of the Entity type, as returned by entityType().
+     */
+    static String getEntityTypeName(ClassName entityType) {
+        return String.format("%s.%s", entityType.packageName(), entityType.simpleName());
+    }
+
     /**
      * Generates a getter method for an Entity.
      * @param entitySpecElement EntitySpec annotated element.
-     * @param entityFieldSpecs Map of Entity (map) fieldSpecs by Entity types.
+     * @param entityMaps Map of Entity (map) fields by Entity types.
      * @param processingEnv Processing environment.
      * @return getEntity(ID) -> Entity methodSpec.
      */
-    private MethodSpec getGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> entityFieldSpecs, ProcessingEnvironment processingEnv) {
+    private MethodSpec getGetterForEntity(Element entitySpecElement, Map<TypeName, EntityMap> entityMaps, ProcessingEnvironment processingEnv) {
         ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
         ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
@@ -122,8 +416,64 @@ public class InMemoryStoreTemplateGenerator implements ITemplateGenerator {
                 .addParameter(id)
                 .returns(entityType);
 
-        builder.addStatement("return $N.get($N)", entityFieldSpecs.get(entityType), id);
+        builder.addStatement("return $L", entityMaps.get(entityType).get(CodeBlock.of("$N", id)));
 
         return builder.build();
     }
+
+    /**
+     * Generates a getter method for a batch of Entities.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param entityMaps Map of Entity (map) fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntities(Collection<ID>) -> Map<ID, Entity> methodSpec, without IDs that are not in the store.
+     */
+    private MethodSpec getMultiGetterForEntity(Element entitySpecElement, Map<TypeName, EntityMap> entityMaps, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType);
+        TypeName HashMap_Id_Entity = ParameterizedTypeName.get(ClassName.get(HashMap.class), boxedIdType, entityType);
+
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ids)
+                .returns(Map_Id_Entity);
+
+        FieldSpec entities = FieldSpec.builder(Map_Id_Entity, "entities").build();
+        builder.addStatement("$T $N = new $T()", entities.type, entities, HashMap_Id_Entity);
+
+        FieldSpec id = FieldSpec.builder(boxedIdType, "id").build();
+        FieldSpec entity = FieldSpec.builder(entityType, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", id.type, id, ids);
+        builder.addStatement("$T $N = $L", entity.type, entity, entityMaps.get(entityType).get(CodeBlock.of("$N", id)));
+        builder.beginControlFlow("if ($N != null)", entity);
+        builder.addStatement("$N.put($N, $N)", entities, id, entity);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", entities);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter for the number of Entities of a type that the garbage collector reclaimed from the store.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param entityMaps Map of Entity (map) fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntitiesReclaimedCount() -> long methodSpec.
+     */
+    private MethodSpec getReclaimedCountGetterForEntity(Element entitySpecElement, Map<TypeName, EntityMap> entityMaps, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return MethodSpec.methodBuilder(String.format("get%sReclaimedCount", Utils.getPluralName(entityType)))
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG)
+                .addStatement("return $L", entityMaps.get(entityType).reclaimedCount())
+                .build();
+    }
 }
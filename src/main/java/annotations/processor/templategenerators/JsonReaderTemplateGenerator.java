@@ -0,0 +1,417 @@
+package annotations.processor.templategenerators;
+
+import annotations.EntitySpec;
+import annotations.processor.ITemplateGenerator;
+import annotations.processor.Template;
+import com.squareup.javapoet.*;
+import core.EntitySink;
+import core.IEntity;
+import core.JsonReader;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Generates a streaming JSON reader for every Entity, next to the Entity, and a sink that puts what they read to the
+ * repository. Readers pull one token at a time from a {@link JsonReader}, and emit every embedded Entity to an
+ * {@link EntitySink} as soon as its object ends, keeping only a stub holding its ID in the embedding Entity. Only the
+ * Entity being read is ever held, so payloads of any size are normalized into stores in bounded memory.
+ * <p>
+ * Properties are read by name in any order, and unknown properties are skipped. Embedded Entities are either objects
+ * or their bare IDs. Maps keyed by Strings, boxed primitives or enums are objects, other Maps are arrays of
+ * [key, value] arrays. Properties of any other type cannot be read, in which case neither readers nor the sink are
+ * generated, see {@link EntityCodec#checkEncodable(Set)}.
+ */
+public class JsonReaderTemplateGenerator implements ITemplateGenerator {
+    public static final String PACKAGE = "entitynormalizer.store";
+    public static final String SINK_CLASSNAME = "EntityStoreSink";
+
+    private final Map<String, Template> templates;
+
+    private final Map<String, Element> entitySpecByGeneratedClassName;
+    private final Map<String, TypeName> typeNameByGeneratedClassName;
+    private ProcessingEnvironment processingEnv;
+
+    public JsonReaderTemplateGenerator() {
+        this.templates = new HashMap<>();
+        this.entitySpecByGeneratedClassName = new HashMap<>();
+        this.typeNameByGeneratedClassName = new HashMap<>();
+    }
+
+    @Override
+    public boolean canProcess(TypeElement typeElement) {
+        return typeElement.getQualifiedName().toString().equals(EntitySpec.class.getCanonicalName());
+    }
+
+    @Override
+    public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        this.processingEnv = processingEnv;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            entitySpecByGeneratedClassName.put(entityType.simpleName(), entitySpec);
+            typeNameByGeneratedClassName.put(entityType.simpleName(), entityType);
+        }
+
+        // Properties that can be encoded are exactly those that can be read.
+        if (!new EntityCodec(entitySpecs, processingEnv).isEncodable(entitySpecs)) {
+            return;
+        }
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName readerType = getReaderType(entitySpec, processingEnv);
+
+            Template template = new Template(readerType.packageName(), readerType.simpleName());
+            template.add(getFieldSpec_instance(readerType));
+            template.add(getMethodSpec_read(entitySpec, processingEnv));
+            template.add(getMethodSpec_readAll());
+
+            templates.put(readerType.toString(), template);
+        }
+
+        templates.put(SINK_CLASSNAME, getTemplate_sink());
+    }
+
+    @Override
+    public Map<String, Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Type of the generated JSON reader of an Entity, in the package of the Entity.
+     */
+    public static ClassName getReaderType(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        return ClassName.get(entityType.packageName(), entityType.simpleName() + "JsonReader");
+    }
+
+    /**
+     * Generates the shared instance of a reader.
+     * @param readerType Reader type.
+     * @return INSTANCE fieldSpec.
+     */
+    private FieldSpec getFieldSpec_instance(ClassName readerType) {
+        return FieldSpec.builder(readerType, "INSTANCE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", readerType)
+                .build();
+    }
+
+    /**
+     * Generates a method reading an Entity from the next object of a document. Embedded Entities are emitted to the
+     * sink, the Entity itself is left to the caller.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return read(JsonReader, EntitySink) -> Entity methodSpec.
+     */
+    private MethodSpec getMethodSpec_read(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec reader = ParameterSpec.builder(JsonReader.class, "reader").build();
+        ParameterSpec sink = ParameterSpec.builder(EntitySink.class, "sink").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("read")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(reader)
+                .addParameter(sink)
+                .addException(IOException.class)
+                .returns(entityType);
+
+        // Properties missing from the object keep their default values.
+        List<String> names = new LinkedList<>();
+        for (Element field : EntityCodec.getFields(entitySpecElement)) {
+            String name = field.getSimpleName().toString();
+            builder.addStatement("$T $N = $L", resolve(TypeName.get(field.asType())), name, getDefaultValue(field.asType()));
+            names.add(name);
+        }
+
+        CodeBlock.Builder code = CodeBlock.builder();
+        code.addStatement("$N.beginObject()", reader);
+        code.beginControlFlow("while ($N.hasNext())", reader);
+        code.beginControlFlow("switch ($N.nextName())", reader);
+        for (Element field : EntityCodec.getFields(entitySpecElement)) {
+            String name = field.getSimpleName().toString();
+            code.add("case $S:\n", name);
+            code.indent();
+            read(code, field.asType(), name, name, reader, sink);
+            code.addStatement("break");
+            code.unindent();
+        }
+        code.add("default:\n");
+        code.indent();
+        code.addStatement("$N.skipValue()", reader);
+        code.unindent();
+        code.endControlFlow();
+        code.endControlFlow();
+        code.addStatement("$N.endObject()", reader);
+        builder.addCode(code.build());
+
+        StringBuilder arguments = new StringBuilder();
+        for (String name : names) {
+            if (arguments.length() > 0) {
+                arguments.append(", ");
+            }
+            arguments.append(name);
+        }
+        builder.addStatement("return new $T($L)", entityType, arguments.toString());
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method reading a document holding either one Entity or an array of Entities, and emitting all of
+     * them to a sink. The sink is flushed once the document ends. The reader of the document is left open.
+     * @return readAll(Reader, EntitySink) -> long methodSpec.
+     */
+    private MethodSpec getMethodSpec_readAll() {
+        ParameterSpec in = ParameterSpec.builder(Reader.class, "in").build();
+        ParameterSpec sink = ParameterSpec.builder(EntitySink.class, "sink").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("readAll")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(in)
+                .addParameter(sink)
+                .addException(IOException.class)
+                .returns(TypeName.LONG);
+
+        ClassName Token = ClassName.get(JsonReader.Token.class);
+
+        FieldSpec reader = FieldSpec.builder(JsonReader.class, "reader").build();
+        FieldSpec count = FieldSpec.builder(TypeName.LONG, "count").build();
+        builder.addStatement("$T $N = new $T($N)", reader.type, reader, JsonReader.class, in);
+        builder.addStatement("$T $N = 0", count.type, count);
+
+        builder.beginControlFlow("if ($N.peek() == $T.BEGIN_ARRAY)", reader, Token);
+        builder.addStatement("$N.beginArray()", reader);
+        builder.beginControlFlow("while ($N.hasNext())", reader);
+        builder.beginControlFlow("if (!$N.skipNull())", reader);
+        builder.addStatement("$N.emit(read($N, $N))", sink, reader, sink);
+        builder.addStatement("$N++", count);
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.addStatement("$N.endArray()", reader);
+        builder.nextControlFlow("else");
+        builder.addStatement("$N.emit(read($N, $N))", sink, reader, sink);
+        builder.addStatement("$N++", count);
+        builder.endControlFlow();
+
+        builder.beginControlFlow("if ($N.peek() != $T.END_DOCUMENT)", reader, Token);
+        builder.addStatement("throw new $T($S)", IOException.class, "Expected the end of the document");
+        builder.endControlFlow();
+
+        builder.addStatement("$N.flush()", sink);
+        builder.addStatement("return $N", count);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a sink that puts every batch to a repository as normalized Entities, so that the repository filters,
+     * links, invalidates and publishes them as it does any other put.
+     * @return EntityStoreSink template.
+     */
+    private Template getTemplate_sink() {
+        Template template = new Template(PACKAGE, SINK_CLASSNAME);
+        template.setSuperclass(ClassName.get(EntitySink.class));
+
+        ClassName repositoryType = ClassName.get(RepositoryWriterInterfaceTemplateGenerator.PACKAGE, RepositoryWriterInterfaceTemplateGenerator.CLASSNAME);
+        FieldSpec repository = FieldSpec.builder(repositoryType, "repository", Modifier.PRIVATE, Modifier.FINAL).build();
+        template.add(repository);
+
+        ParameterSpec batchSize = ParameterSpec.builder(TypeName.INT, "batchSize").build();
+        ParameterSpec dedupeWindow = ParameterSpec.builder(TypeName.INT, "dedupeWindow").build();
+        ParameterSpec repositoryParameter = ParameterSpec.builder(repositoryType, "repository").build();
+
+        template.add(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(repositoryParameter)
+                .addStatement("this($T.DEFAULT_BATCH_SIZE, $T.DEFAULT_DEDUPE_WINDOW, $N)", EntitySink.class, EntitySink.class, repositoryParameter)
+                .build());
+
+        template.add(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(batchSize)
+                .addParameter(dedupeWindow)
+                .addParameter(repositoryParameter)
+                .addStatement("super($N, $N)", batchSize, dedupeWindow)
+                .addStatement("this.$N = $N", repository, repositoryParameter)
+                .build());
+
+        ParameterSpec batch = ParameterSpec.builder(ParameterizedTypeName.get(List.class, IEntity.class), "batch").build();
+        template.add(MethodSpec.methodBuilder("write")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PROTECTED)
+                .addParameter(batch)
+                .addStatement("$N.putNormalized($N)", repository, batch)
+                .build());
+
+        return template;
+    }
+
+    /**
+     * Generates the code reading a value, possibly null, into a variable. Nulls leave the variable unchanged.
+     * @param code Code to append to.
+     * @param type Value type.
+     * @param target Name of the variable.
+     * @param name Name that local variables are derived from.
+     * @param reader JSON reader parameter.
+     * @param sink Sink parameter.
+     */
+    private void read(CodeBlock.Builder code, TypeMirror type, String target, String name, ParameterSpec reader, ParameterSpec sink) {
+        code.beginControlFlow("if (!$N.skipNull())", reader);
+        readValue(code, type, target, name, reader, sink);
+        code.endControlFlow();
+    }
+
+    /**
+     * Generates the code reading a value that is not null into a variable.
+     * @param code Code to append to.
+     * @param type Value type.
+     * @param target Name of the variable.
+     * @param name Name that local variables are derived from.
+     * @param reader JSON reader parameter.
+     * @param sink Sink parameter.
+     */
+    private void readValue(CodeBlock.Builder code, TypeMirror type, String target, String name, ParameterSpec reader, ParameterSpec sink) {
+        TypeName typeName = resolve(TypeName.get(type));
+        Element embeddedSpec = getEmbeddedSpec(type);
+
+        if (type.getKind().isPrimitive() || typeName.isBoxedPrimitive()) {
+            code.addStatement("$N = $L", target, readScalar(typeName.isBoxedPrimitive() ? typeName.unbox() : typeName, reader));
+        } else if (typeName.equals(ClassName.get(String.class))) {
+            code.addStatement("$N = $N.nextString()", target, reader);
+        } else if (EntityCodec.isEnum(type)) {
+            code.addStatement("$N = $T.valueOf($N.nextString())", target, typeName, reader);
+        } else if (embeddedSpec != null) {
+            // Embedded objects are emitted as they end, the embedding Entity keeps only their ID.
+            TypeMirror idType = Utils.getIdElement(embeddedSpec).asType();
+            String entity = name + "Entity";
+            String id = name + "Id";
+
+            code.addStatement("$T $N = $L", resolve(TypeName.get(idType)), id, getDefaultValue(idType));
+            code.beginControlFlow("if ($N.peek() == $T.BEGIN_OBJECT)", reader, ClassName.get(JsonReader.Token.class));
+            code.addStatement("$T $N = $T.INSTANCE.read($N, $N)", typeName, entity, getReaderType(embeddedSpec, processingEnv), reader, sink);
+            code.addStatement("$N.emit($N)", sink, entity);
+            code.addStatement("$N = $N.$L()", id, entity, Utils.getIdGetterName(embeddedSpec, processingEnv.getLocale()));
+            code.nextControlFlow("else");
+            readValue(code, idType, id, id, reader, sink);
+            code.endControlFlow();
+            code.addStatement("$N = new $T($L)", target, typeName, EntityCodec.getStubArguments(embeddedSpec, id));
+        } else if (Utils.isList(typeName)) {
+            TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+            TypeName resolvedElementType = resolve(TypeName.get(elementType));
+            String element = name + "Element";
+
+            code.addStatement("$N = new $T()", target, ParameterizedTypeName.get(ClassName.get(ArrayList.class), resolvedElementType));
+            code.addStatement("$N.beginArray()", reader);
+            code.beginControlFlow("while ($N.hasNext())", reader);
+            code.addStatement("$T $N = null", resolvedElementType, element);
+            read(code, elementType, element, element, reader, sink);
+            code.addStatement("$N.add($N)", target, element);
+            code.endControlFlow();
+            code.addStatement("$N.endArray()", reader);
+        } else {
+            TypeMirror keyType = ((DeclaredType) type).getTypeArguments().get(0);
+            TypeMirror valueType = ((DeclaredType) type).getTypeArguments().get(1);
+            TypeName resolvedKeyType = resolve(TypeName.get(keyType));
+            TypeName resolvedValueType = resolve(TypeName.get(valueType));
+            String key = name + "Key";
+            String value = name + "Value";
+
+            code.addStatement("$N = new $T()", target, ParameterizedTypeName.get(ClassName.get(HashMap.class), resolvedKeyType, resolvedValueType));
+            if (isNameKey(keyType)) {
+                code.addStatement("$N.beginObject()", reader);
+                code.beginControlFlow("while ($N.hasNext())", reader);
+                code.addStatement("$T $N = $L", resolvedKeyType, key, parseName(keyType, CodeBlock.of("$N.nextName()", reader)));
+                code.addStatement("$T $N = null", resolvedValueType, value);
+                read(code, valueType, value, value, reader, sink);
+                code.addStatement("$N.put($N, $N)", target, key, value);
+                code.endControlFlow();
+                code.addStatement("$N.endObject()", reader);
+            } else {
+                code.addStatement("$N.beginArray()", reader);
+                code.beginControlFlow("while ($N.hasNext())", reader);
+                code.addStatement("$N.beginArray()", reader);
+                code.addStatement("$T $N = null", resolvedKeyType, key);
+                read(code, keyType, key, key, reader, sink);
+                code.addStatement("$T $N = null", resolvedValueType, value);
+                read(code, valueType, value, value, reader, sink);
+                code.addStatement("$N.endArray()", reader);
+                code.addStatement("$N.put($N, $N)", target, key, value);
+                code.endControlFlow();
+                code.addStatement("$N.endArray()", reader);
+            }
+        }
+    }
+
+    private CodeBlock readScalar(TypeName primitiveType, ParameterSpec reader) {
+        if (primitiveType.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("$N.nextBoolean()", reader);
+        } else if (primitiveType.equals(TypeName.LONG)) {
+            return CodeBlock.of("$N.nextLong()", reader);
+        } else if (primitiveType.equals(TypeName.INT)) {
+            return CodeBlock.of("$N.nextInt()", reader);
+        } else if (primitiveType.equals(TypeName.SHORT) || primitiveType.equals(TypeName.BYTE)) {
+            return CodeBlock.of("($T) $N.nextInt()", primitiveType, reader);
+        } else if (primitiveType.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$N.nextDouble()", reader);
+        } else if (primitiveType.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("(float) $N.nextDouble()", reader);
+        }
+
+        return CodeBlock.of("$N.nextString().charAt(0)", reader);
+    }
+
+    /**
+     * Determines if the keys of a Map can be property names.
+     * @param keyType Key type.
+     * @return True if Strings, boxed primitives or enums, else false.
+     */
+    private boolean isNameKey(TypeMirror keyType) {
+        TypeName typeName = TypeName.get(keyType);
+        return typeName.equals(ClassName.get(String.class)) || typeName.isBoxedPrimitive() || EntityCodec.isEnum(keyType);
+    }
+
+    private CodeBlock parseName(TypeMirror keyType, CodeBlock name) {
+        TypeName typeName = TypeName.get(keyType);
+        if (typeName.equals(ClassName.get(String.class))) {
+            return name;
+        } else if (typeName.equals(ClassName.get(Character.class))) {
+            return CodeBlock.of("$L.charAt(0)", name);
+        }
+
+        return CodeBlock.of("$T.valueOf($L)", typeName, name);
+    }
+
+    private CodeBlock getDefaultValue(TypeMirror type) {
+        if (type.getKind() == TypeKind.BOOLEAN) {
+            return CodeBlock.of("false");
+        } else if (type.getKind().isPrimitive()) {
+            return CodeBlock.of("($T) 0", TypeName.get(type));
+        }
+
+        return CodeBlock.of("null");
+    }
+
+    private Element getEmbeddedSpec(TypeMirror type) {
+        return entitySpecByGeneratedClassName.get(TypeName.get(type).toString());
+    }
+
+    private TypeName resolve(TypeName typeName) {
+        if (typeName instanceof ParameterizedTypeName) {
+            return Utils.getParameterizedTypeWithGeneratedTypes((ParameterizedTypeName) typeName, typeNameByGeneratedClassName);
+        } else if (typeNameByGeneratedClassName.containsKey(typeName.toString())) {
+            return typeNameByGeneratedClassName.get(typeName.toString());
+        }
+
+        return typeName;
+    }
+}
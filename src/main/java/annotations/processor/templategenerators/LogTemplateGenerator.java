@@ -0,0 +1,529 @@
+package annotations.processor.templategenerators;
+
+import annotations.EntitySpec;
+import annotations.processor.ITemplateGenerator;
+import annotations.processor.Template;
+import com.squareup.javapoet.*;
+import core.EntityKey;
+import core.EntityOutput;
+import core.EntityStorageException;
+import core.IEntity;
+import core.IEntityCodec;
+import core.WriteAheadLog;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Generates a store writer that appends every Entity put to a {@link WriteAheadLog}, and restores the latest version
+ * of every logged Entity into another store writer, so that an in-memory store can be rebuilt after a crash. Listed
+ * first among the writers of a repository, the log holds every normalized Entity before any store does.
+ * <p>
+ * Records are keyed by the Entity type, as the hash code of its qualified name so that adding Entity types does not
+ * change the keys of logged Entities, followed by the encoded ID. Values are encoded Entities, see
+ * {@link EntityCodec}, or empty for removed Entities. Not generated unless every property of every Entity can be
+ * encoded.
+ * <p>
+ * Every file of the log starts with the type tag and schema fingerprint of every Entity type, see
+ * {@link WriteAheadLog#getHeaders()}. A log holding Entities of a type whose encoding has changed since is rejected
+ * when it is opened, rather than decoded into wrong Entities.
+ */
+public class LogTemplateGenerator implements ITemplateGenerator {
+    public static final String PACKAGE = "entitynormalizer.store";
+    public static final String CLASSNAME = "EntityLog";
+
+    private final Map<String, Template> templates;
+
+    public LogTemplateGenerator() {
+        this.templates = new HashMap<>();
+    }
+
+    @Override
+    public boolean canProcess(TypeElement typeElement) {
+        return typeElement.getQualifiedName().toString().equals(EntitySpec.class.getCanonicalName());
+    }
+
+    @Override
+    public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        if (!new EntityCodec(entitySpecs, processingEnv).isEncodable(entitySpecs)) {
+            return;
+        }
+
+        Template template = new Template(PACKAGE, CLASSNAME);
+
+        FieldSpec log = FieldSpec.builder(WriteAheadLog.class, "log", Modifier.PRIVATE, Modifier.FINAL).build();
+        template.add(log);
+
+        // Generate a type tag, a codec and an ID codec for every Entity.
+        Map<TypeName, FieldSpec> typeTags = new LinkedHashMap<>();
+        Map<TypeName, FieldSpec> codecs = new HashMap<>();
+        Map<TypeName, FieldSpec> idCodecs = new HashMap<>();
+        Map<Integer, ClassName> entityTypeByTypeTag = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            int typeTag = entityType.toString().hashCode();
+            if (entityTypeByTypeTag.containsKey(typeTag)) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        entityType + " and " + entityTypeByTypeTag.get(typeTag) + " have the same log type tag, rename either to generate " + CLASSNAME,
+                        entitySpec);
+                return;
+            }
+            entityTypeByTypeTag.put(typeTag, entityType);
+
+            FieldSpec typeTagField = getTypeTagFieldForEntity(entitySpec, typeTag, processingEnv);
+            template.add(typeTagField);
+            typeTags.put(entityType, typeTagField);
+
+            FieldSpec codec = getCodecFieldForEntity(entitySpec, processingEnv);
+            template.add(codec);
+            codecs.put(entityType, codec);
+
+            FieldSpec idCodec = getIdCodecFieldForEntity(entitySpec, processingEnv);
+            template.add(idCodec);
+            idCodecs.put(entityType, idCodec);
+        }
+
+        template.add(getConstructor_directory());
+        template.add(getConstructor_log(log));
+        template.add(getMethodSpec_getSchema(entitySpecs, typeTags, processingEnv));
+        template.add(getMethodSpec_checkSchema(entitySpecs, typeTags, processingEnv));
+
+        for (Element entitySpec : entitySpecs) {
+            template.add(getPutterForEntity(entitySpec, processingEnv));
+        }
+        template.add(getMethodSpec_putAll(entitySpecs, log, typeTags, codecs, idCodecs, processingEnv));
+        template.add(getMethodSpec_removeAll(entitySpecs, log, typeTags, idCodecs, processingEnv));
+        template.add(getMethodSpec_restore(entitySpecs, log, typeTags, codecs, idCodecs, processingEnv));
+        template.add(getMethodSpec_snapshot(log));
+        template.add(getMethodSpec_close(log));
+
+        template.add(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME));
+        template.add(ClassName.get(Closeable.class));
+
+        templates.put(CLASSNAME, template);
+    }
+
+    @Override
+    public Map<String, Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Generates the constant that the records of an Entity type are keyed by.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param typeTag Type tag.
+     * @param processingEnv Processing environment.
+     * @return Type tag fieldSpec.
+     */
+    private FieldSpec getTypeTagFieldForEntity(Element entitySpecElement, int typeTag, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                TypeName.INT,
+                String.format("%s_TYPE", entityType.simpleName().toUpperCase(processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.STATIC,
+                Modifier.FINAL)
+                .initializer("$L", typeTag)
+                .build();
+    }
+
+    /**
+     * Generates the codec of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Codec fieldSpec.
+     */
+    private FieldSpec getCodecFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), entityType),
+                String.format("%sCodec", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("$T.INSTANCE", EntityCodec.getCodecType(entitySpecElement, processingEnv))
+                .build();
+    }
+
+    /**
+     * Generates the codec of the IDs of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return ID codec fieldSpec.
+     */
+    private FieldSpec getIdCodecFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), boxedIdType),
+                String.format("%sIdCodec", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("$T.ID_CODEC", EntityCodec.getCodecType(entitySpecElement, processingEnv))
+                .build();
+    }
+
+    /**
+     * Generates a constructor opening the log in a directory with the default segment size.
+     * @return Constructor(File) methodSpec.
+     */
+    private MethodSpec getConstructor_directory() {
+        ParameterSpec directory = ParameterSpec.builder(File.class, "directory").build();
+
+        return MethodSpec.constructorBuilder()
+                .addJavadoc("@param $N Directory holding the files of the log, shared by no other log.\n", directory)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(directory)
+                .addException(IOException.class)
+                .addStatement("this($T.open($N, $T.DEFAULT_SEGMENT_SIZE, getSchema()))", WriteAheadLog.class, directory, WriteAheadLog.class)
+                .build();
+    }
+
+    /**
+     * Generates a constructor adopting an opened log, for callers that configure its segment size or snapshots. The
+     * log is closed if it holds Entities encoded with another schema.
+     * @param log Log field.
+     * @return Constructor(WriteAheadLog) methodSpec.
+     */
+    private MethodSpec getConstructor_log(FieldSpec log) {
+        ParameterSpec logParameter = ParameterSpec.builder(WriteAheadLog.class, "log").build();
+
+        return MethodSpec.constructorBuilder()
+                .addJavadoc("@param $N Log opened with the header returned by getSchema(), closed with this writer.\n", logParameter)
+                .addJavadoc("@throws $T If the log holds Entities encoded with another schema.\n", IOException.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(logParameter)
+                .addException(IOException.class)
+                .beginControlFlow("try")
+                .addStatement("checkSchema($N)", logParameter)
+                .nextControlFlow("catch ($T e)", IOException.class)
+                .addStatement("$N.close()", logParameter)
+                .addStatement("throw e")
+                .endControlFlow()
+                .addStatement("this.$N = $N", log, logParameter)
+                .build();
+    }
+
+    /**
+     * Generates a method describing the encoding of every Entity type, written at the start of every file of the log.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param typeTags Map of type tag fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getSchema() -> byte[] methodSpec.
+     */
+    private MethodSpec getMethodSpec_getSchema(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> typeTags, ProcessingEnvironment processingEnv) {
+        FieldSpec schema = FieldSpec.builder(ByteBuffer.class, "schema").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("getSchema")
+                .addJavadoc("@return Type tag and schema fingerprint of every Entity type, the header of the files of the log.\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(byte[].class)
+                .addStatement("$T $N = $T.allocate($L)", schema.type, schema, ByteBuffer.class, entitySpecs.size() * 12);
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            builder.addStatement("$N.putInt($N).putLong($T.SCHEMA_FINGERPRINT)", schema, typeTags.get(entityType), EntityCodec.getCodecType(entitySpec, processingEnv));
+        }
+        builder.addStatement("return $N.array()", schema);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method rejecting a log whose files hold an Entity type with another schema fingerprint. Entity types
+     * added since are not in the headers of older files, and are accepted.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param typeTags Map of type tag fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return checkSchema(WriteAheadLog) methodSpec.
+     */
+    private MethodSpec getMethodSpec_checkSchema(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> typeTags, ProcessingEnvironment processingEnv) {
+        ParameterSpec log = ParameterSpec.builder(WriteAheadLog.class, "log").build();
+        FieldSpec header = FieldSpec.builder(ByteBuffer.class, "header").build();
+        FieldSpec typeTag = FieldSpec.builder(TypeName.INT, "typeTag").build();
+        FieldSpec fingerprint = FieldSpec.builder(TypeName.LONG, "fingerprint").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("checkSchema")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(log)
+                .addException(IOException.class);
+
+        builder.beginControlFlow("for ($T $N : $N.getHeaders())", header.type, header, log);
+        builder.beginControlFlow("while ($N.remaining() >= 12)", header);
+        builder.addStatement("$T $N = $N.getInt()", typeTag.type, typeTag, header);
+        builder.addStatement("$T $N = $N.getLong()", fingerprint.type, fingerprint, header);
+
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            String condition = "$N == $N && $N != $T.SCHEMA_FINGERPRINT";
+            Object[] arguments = {typeTag, typeTags.get(entityType), fingerprint, EntityCodec.getCodecType(entitySpec, processingEnv)};
+            if (isFirst) {
+                builder.beginControlFlow("if (" + condition + ")", arguments);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if (" + condition + ")", arguments);
+            }
+            builder.addStatement("throw new $T($S)", IOException.class, "Log holds " + entityType.simpleName() + " Entities encoded with another schema");
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a putter method for an Entity, appending it as a batch of its own.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return put(Entity) -> True once the Entity is durable.
+     */
+    private MethodSpec getPutterForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+
+        return MethodSpec.methodBuilder("put")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("return putAll($T.singletonList($N))", Collections.class, entity)
+                .build();
+    }
+
+    /**
+     * Generates a method appending a batch of Entities with a single write, durable once it returns.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param log Log field.
+     * @param typeTags Map of type tag fields by Entity types.
+     * @param codecs Map of codec fields by Entity types.
+     * @param idCodecs Map of ID codec fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return putAll(Collection<? extends IEntity>) -> True once the Entities are durable, throwing
+     *         EntityStorageException if the log could not be written.
+     */
+    private MethodSpec getMethodSpec_putAll(Set<? extends Element> entitySpecs, FieldSpec log, Map<TypeName, FieldSpec> typeTags, Map<TypeName, FieldSpec> codecs, Map<TypeName, FieldSpec> idCodecs, ProcessingEnvironment processingEnv) {
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entities)
+                .returns(TypeName.BOOLEAN);
+
+        FieldSpec batch = FieldSpec.builder(EntityOutput.class, "batch").build();
+        FieldSpec key = FieldSpec.builder(EntityOutput.class, "key").build();
+        FieldSpec value = FieldSpec.builder(EntityOutput.class, "value").build();
+        builder.addStatement("$T $N = new $T()", batch.type, batch, EntityOutput.class);
+        builder.addStatement("$T $N = new $T()", key.type, key, EntityOutput.class);
+        builder.addStatement("$T $N = new $T()", value.type, value, EntityOutput.class);
+
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", entity.type, entity, entities);
+        builder.addStatement("$N.clear()", key);
+        builder.addStatement("$N.clear()", value);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($N instanceof $T)", entity, entityType);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($N instanceof $T)", entity, entityType);
+            }
+            builder.addStatement("$N.writeInt($N)", key, typeTags.get(entityType));
+            builder.addStatement("$N.encode((($T) $N).$L(), $N)", idCodecs.get(entityType), entityType, entity, Utils.getIdGetterName(entitySpec, processingEnv.getLocale()), key);
+            builder.addStatement("$N.encode(($T) $N, $N)", codecs.get(entityType), entityType, entity, value);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.entityType())", IllegalArgumentException.class, "Unknown Entity type: ", entity);
+        builder.endControlFlow();
+        builder.addStatement("$T.writeRecord($N, $N, $N)", WriteAheadLog.class, batch, key, value);
+        builder.endControlFlow();
+
+        builder.beginControlFlow("if ($N.size() > 0)", batch);
+        builder.beginControlFlow("try");
+        builder.addStatement("$N.append($N)", log, batch);
+        builder.nextControlFlow("catch ($T e)", IOException.class);
+        builder.addStatement("throw new $T($S, e)", EntityStorageException.class, "Could not append Entities to the log");
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return true");
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method appending a tombstone for every Entity of a batch with a single write, durable once it
+     * returns. Snapshots drop tombstones together with the records they remove.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param log Log field.
+     * @param typeTags Map of type tag fields by Entity types.
+     * @param idCodecs Map of ID codec fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return removeAll(Collection<EntityKey>) methodSpec, throwing EntityStorageException if the log could not be
+     *         written.
+     */
+    private MethodSpec getMethodSpec_removeAll(Set<? extends Element> entitySpecs, FieldSpec log, Map<TypeName, FieldSpec> typeTags, Map<TypeName, FieldSpec> idCodecs, ProcessingEnvironment processingEnv) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("removeAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(keys);
+
+        FieldSpec batch = FieldSpec.builder(EntityOutput.class, "batch").build();
+        FieldSpec key = FieldSpec.builder(EntityOutput.class, "key").build();
+        FieldSpec tombstone = FieldSpec.builder(EntityOutput.class, "tombstone").build();
+        builder.addStatement("$T $N = new $T()", batch.type, batch, EntityOutput.class);
+        builder.addStatement("$T $N = new $T()", key.type, key, EntityOutput.class);
+        builder.addStatement("$T $N = new $T()", tombstone.type, tombstone, EntityOutput.class);
+
+        FieldSpec entityKey = FieldSpec.builder(EntityKey.class, "entityKey").build();
+        builder.beginControlFlow("for ($T $N : $N)", entityKey.type, entityKey, keys);
+        builder.addStatement("$N.clear()", key);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            String entityTypeName = InMemoryStoreTemplateGenerator.getEntityTypeName(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", entityTypeName, entityKey);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", entityTypeName, entityKey);
+            }
+            builder.addStatement("$N.writeInt($N)", key, typeTags.get(entityType));
+            builder.addStatement("$N.encode(($T) $N.getId(), $N)", idCodecs.get(entityType), Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpec)), entityKey, key);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.getEntityType())", IllegalArgumentException.class, "Unknown Entity type: ", entityKey);
+        builder.endControlFlow();
+        builder.addStatement("$T.writeRecord($N, $N, $N)", WriteAheadLog.class, batch, key, tombstone);
+        builder.endControlFlow();
+
+        builder.beginControlFlow("if ($N.size() > 0)", batch);
+        builder.beginControlFlow("try");
+        builder.addStatement("$N.append($N)", log, batch);
+        builder.nextControlFlow("catch ($T e)", IOException.class);
+        builder.addStatement("throw new $T($S, e)", EntityStorageException.class, "Could not append removals to the log");
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method putting the latest logged version of every Entity into a store writer, snapshot first and log
+     * tail after, and removing the Entities whose latest record is a tombstone. Embedded Entities are restored as stubs
+     * holding only their IDs, which a repository reading the store resolves like any other normalized Entity.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param log Log field.
+     * @param typeTags Map of type tag fields by Entity types.
+     * @param codecs Map of codec fields by Entity types.
+     * @param idCodecs Map of ID codec fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return restore(IEntityStoreWriter) -> long methodSpec, the number of records replayed.
+     */
+    private MethodSpec getMethodSpec_restore(Set<? extends Element> entitySpecs, FieldSpec log, Map<TypeName, FieldSpec> typeTags, Map<TypeName, FieldSpec> codecs, Map<TypeName, FieldSpec> idCodecs, ProcessingEnvironment processingEnv) {
+        ParameterSpec target = ParameterSpec.builder(
+                ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME),
+                "target",
+                Modifier.FINAL).build();
+
+        ParameterSpec key = ParameterSpec.builder(ByteBuffer.class, "key").build();
+        ParameterSpec value = ParameterSpec.builder(ByteBuffer.class, "value").build();
+
+        MethodSpec.Builder handle = MethodSpec.methodBuilder("handle")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(key)
+                .addParameter(value);
+
+        FieldSpec typeTag = FieldSpec.builder(TypeName.INT, "typeTag").build();
+        handle.addStatement("$T $N = $N.getInt()", typeTag.type, typeTag, key);
+        handle.beginControlFlow("switch ($N)", typeTag);
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            handle.addCode("case $N:\n$>", typeTags.get(entityType));
+            handle.beginControlFlow("if ($N.hasRemaining())", value);
+            handle.addStatement("$N.put($N.decode($N))", target, codecs.get(entityType), value);
+            handle.nextControlFlow("else");
+            handle.addStatement("$N.removeAll($T.singletonList(new $T($S, $N.decode($N))))",
+                    target,
+                    Collections.class,
+                    EntityKey.class,
+                    InMemoryStoreTemplateGenerator.getEntityTypeName(entityType),
+                    idCodecs.get(entityType),
+                    key);
+            handle.endControlFlow();
+            handle.addStatement("break$<");
+        }
+        handle.addCode("default:\n");
+        handle.addStatement("$>throw new $T($S + $N, null)$<", EntityStorageException.class, "Unknown Entity type tag in the log: ", typeTag);
+        handle.endControlFlow();
+
+        TypeSpec handler = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(WriteAheadLog.IRecordHandler.class)
+                .addMethod(handle.build())
+                .build();
+
+        return MethodSpec.methodBuilder("restore")
+                .addJavadoc("Puts the latest logged version of every Entity into a store, meant to be called before the log is written to.\n")
+                .addJavadoc("@param $N Store to restore into.\n", target)
+                .addJavadoc("@return Number of records replayed.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(target)
+                .addException(IOException.class)
+                .returns(TypeName.LONG)
+                .addStatement("return $N.replay($L)", log, handler)
+                .build();
+    }
+
+    /**
+     * Generates a method compacting the log into a snapshot of the latest version of every Entity.
+     * @param log Log field.
+     * @return snapshot() methodSpec.
+     */
+    private MethodSpec getMethodSpec_snapshot(FieldSpec log) {
+        return MethodSpec.methodBuilder("snapshot")
+                .addModifiers(Modifier.PUBLIC)
+                .addException(IOException.class)
+                .addStatement("$N.snapshot()", log)
+                .build();
+    }
+
+    /**
+     * Generates a method closing the log.
+     * @param log Log field.
+     * @return close() methodSpec.
+     */
+    private MethodSpec getMethodSpec_close(FieldSpec log) {
+        return MethodSpec.methodBuilder("close")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addException(IOException.class)
+                .addStatement("$N.close()", log)
+                .build();
+    }
+}
@@ -0,0 +1,611 @@
+package annotations.processor.templategenerators;
+
+import annotations.EntitySpec;
+import annotations.processor.ITemplateGenerator;
+import annotations.processor.Template;
+import com.squareup.javapoet.*;
+import core.IEntityCodec;
+import core.MappedEntityTable;
+import core.OffHeapEntityTable;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a store template that holds Entities encoded outside of the Java heap, see {@link OffHeapEntityTable}, so
+ * that the heap footprint of a store is proportional to the Entities being read rather than to the Entities held.
+ * Entities are encoded normalized, embedded Entities by ID only, see {@link EntityCodec}, and decoded on every get.
+ * Integral and enum IDs are used as keys of the off-heap index directly, other IDs are mapped to sequential keys on
+ * the heap. Not generated unless every property of every Entity can be encoded.
+ * <p>
+ * Mapped stores hold their tables in memory-mapped files instead, see {@link MappedEntityTable}, so that a store
+ * reopened on the same directory serves the Entities it held right away. The keys of IDs that are not keys are then
+ * kept in a table of their own, which is read back into the heap when the store is opened. Only a store that was
+ * closed, and whose Entity types have not changed since, is reopened with its Entities. Any other store is reopened
+ * empty, so stores whose Entities must survive a crash are backed by a log they can be restored from, see
+ * {@link LogTemplateGenerator}.
+ */
+public class OffHeapStoreTemplateGenerator implements ITemplateGenerator {
+    public static final String PACKAGE = "entitynormalizer.store";
+    public static final String CLASSNAME = "OffHeapEntityStore";
+    public static final String MAPPED_CLASSNAME = "MappedEntityStore";
+
+    private final Map<String, Template> templates;
+
+    private final String className;
+    private final boolean isMapped;
+
+    public OffHeapStoreTemplateGenerator() {
+        this(CLASSNAME, false);
+    }
+
+    /**
+     * @param className Generated class name.
+     * @param isMapped True to hold Entities in memory-mapped files that outlive the process, else in direct memory.
+     */
+    public OffHeapStoreTemplateGenerator(String className, boolean isMapped) {
+        this.templates = new HashMap<>();
+        this.className = className;
+        this.isMapped = isMapped;
+    }
+
+    @Override
+    public boolean canProcess(TypeElement typeElement) {
+        return typeElement.getQualifiedName().toString().equals(EntitySpec.class.getCanonicalName());
+    }
+
+    @Override
+    public void process(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        if (!new EntityCodec(entitySpecs, processingEnv).isEncodable(entitySpecs)) {
+            return;
+        }
+
+        Template template = new Template(PACKAGE, className);
+
+        // Generate a table, a codec and, for IDs that are not keys, a key map for every Entity.
+        Map<TypeName, FieldSpec> tables = new LinkedHashMap<>();
+        Map<TypeName, FieldSpec> codecs = new HashMap<>();
+        Map<TypeName, MethodSpec> keyGetters = new HashMap<>();
+        Map<TypeName, FieldSpec> keyTables = new LinkedHashMap<>();
+        Map<TypeName, FieldSpec> keyMaps = new HashMap<>();
+        Map<TypeName, FieldSpec> idCodecs = new HashMap<>();
+        FieldSpec nextKey = getFieldSpec_nextKey();
+        boolean hasKeyMaps = false;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            FieldSpec table = getTableFieldForEntity(entitySpec, processingEnv);
+            template.add(table);
+            tables.put(entityType, table);
+
+            FieldSpec codec = getCodecFieldForEntity(entitySpec, processingEnv);
+            template.add(codec);
+            codecs.put(entityType, codec);
+
+            if (getKeyKind(entitySpec) == KeyKind.MAPPED) {
+                FieldSpec keys = getKeysFieldForEntity(entitySpec, processingEnv);
+                template.add(keys);
+                keyMaps.put(entityType, keys);
+
+                // Mapped keys are persisted with the ID they were mapped from.
+                FieldSpec keyTable = null;
+                FieldSpec idCodec = null;
+                if (isMapped) {
+                    keyTable = getKeyTableFieldForEntity(entitySpec, processingEnv);
+                    template.add(keyTable);
+                    keyTables.put(entityType, keyTable);
+
+                    idCodec = getIdCodecFieldForEntity(entitySpec, processingEnv);
+                    template.add(idCodec);
+                    idCodecs.put(entityType, idCodec);
+                }
+
+                keyGetters.put(entityType, getKeyGetterForEntity(entitySpec, keys, nextKey, keyTable, idCodec, processingEnv));
+                template.add(keyGetters.get(entityType));
+                hasKeyMaps = true;
+            }
+        }
+        if (hasKeyMaps) {
+            template.add(nextKey);
+        }
+
+        if (isMapped) {
+            template.add(getConstructor_directory());
+            template.add(getConstructor_directory_slabSize(entitySpecs, tables, keyTables, keyMaps, idCodecs, nextKey, processingEnv));
+            template.add(getMethodSpec_close(tables.values(), keyTables.values()));
+            template.add(ClassName.get(Closeable.class));
+        } else {
+            template.add(getConstructor());
+            template.add(getConstructor_slabSize(tables.values()));
+        }
+
+        // Generate getters and setters for every Entity.
+        for (Element entitySpec : entitySpecs) {
+            template.add(getPutterForEntity(entitySpec, tables, codecs, keyGetters, processingEnv));
+            template.add(getGetterForEntity(entitySpec, tables, codecs, keyGetters, processingEnv));
+            template.add(getMultiGetterForEntity(entitySpec, processingEnv));
+        }
+        template.add(InMemoryStoreTemplateGenerator.getMethodSpec_putAll(entitySpecs, processingEnv));
+
+        // Generate a remover for every Entity.
+        Map<TypeName, MethodSpec> removers = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            MethodSpec remover = getRemoverForEntity(entitySpec, tables, keyGetters, processingEnv);
+            template.add(remover);
+            removers.put(Utils.getEntityType(entitySpec, processingEnv), remover);
+        }
+        template.add(InMemoryStoreTemplateGenerator.getMethodSpec_removeAll(entitySpecs, removers, processingEnv));
+        template.add(getMethodSpec_getOffHeapBytes(tables.values()));
+
+        // Add reader and writer interfaces.
+        template.add(ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME));
+        template.add(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME));
+
+        templates.put(className, template);
+    }
+
+    @Override
+    public Map<String, Template> getTemplates() {
+        return templates;
+    }
+
+    private enum KeyKind {
+        // Integral primitive IDs are keys.
+        PRIMITIVE,
+        // Enum ID ordinals are keys.
+        ENUM,
+        // Other IDs are mapped to sequential keys.
+        MAPPED
+    }
+
+    private static KeyKind getKeyKind(Element entitySpecElement) {
+        TypeMirror idType = Utils.getIdElement(entitySpecElement).asType();
+        if (EntityMap.isPrimitiveKeyed(TypeName.get(idType))) {
+            return KeyKind.PRIMITIVE;
+        } else if (idType.getKind() == TypeKind.DECLARED && ((DeclaredType) idType).asElement().getKind() == ElementKind.ENUM) {
+            return KeyKind.ENUM;
+        }
+
+        return KeyKind.MAPPED;
+    }
+
+    /**
+     * Generates a property field holding the encoded Entities of a type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Off-heap table fieldSpec.
+     */
+    private FieldSpec getTableFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                isMapped ? MappedEntityTable.class : OffHeapEntityTable.class,
+                String.format("%sTable", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the codec of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Codec fieldSpec.
+     */
+    private FieldSpec getCodecFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), entityType),
+                String.format("%sCodec", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("$T.INSTANCE", EntityCodec.getCodecType(entitySpecElement, processingEnv))
+                .build();
+    }
+
+    /**
+     * Generates a property field mapping IDs that are not keys to the keys of their Entities in the off-heap table.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Map of ID to key fieldSpec.
+     */
+    private FieldSpec getKeysFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        TypeName Map_Id_Long = ParameterizedTypeName.get(ClassName.get(ConcurrentMap.class), boxedIdType, ClassName.get(Long.class));
+        TypeName Map_Id_Long_Impl = ParameterizedTypeName.get(ClassName.get(ConcurrentHashMap.class), boxedIdType, ClassName.get(Long.class));
+
+        return FieldSpec.builder(
+                Map_Id_Long,
+                String.format("%sKeys", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("new $T()", Map_Id_Long_Impl)
+                .build();
+    }
+
+    /**
+     * Generates the counter that mapped keys are taken from.
+     * @return nextKey fieldSpec.
+     */
+    private FieldSpec getFieldSpec_nextKey() {
+        return FieldSpec.builder(AtomicLong.class, "nextKey", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", AtomicLong.class)
+                .build();
+    }
+
+    /**
+     * Generates a method getting the key of an ID that is not a key, optionally mapping it to a new key.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param keys Map of ID to key field.
+     * @param nextKey Key counter field.
+     * @param keyTable Table persisting mapped keys, or null if the store is not mapped.
+     * @param idCodec Codec of the IDs in the key table, or null if the store is not mapped.
+     * @param processingEnv Processing environment.
+     * @return getEntityKey(ID, boolean) -> Long methodSpec, null if the ID is not mapped and not created.
+     */
+    private MethodSpec getKeyGetterForEntity(Element entitySpecElement, FieldSpec keys, FieldSpec nextKey, FieldSpec keyTable, FieldSpec idCodec, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+        ParameterSpec create = ParameterSpec.builder(TypeName.BOOLEAN, "create").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("get%sKey", entityType.simpleName()))
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(id)
+                .addParameter(create)
+                .returns(Long.class);
+
+        FieldSpec key = FieldSpec.builder(Long.class, "key").build();
+        builder.addStatement("$T $N = $N.get($N)", key.type, key, keys, id);
+        builder.beginControlFlow("if ($N == null && $N)", key, create);
+        FieldSpec created = FieldSpec.builder(Long.class, "created").build();
+        builder.addStatement("$T $N = $N.getAndIncrement()", created.type, created, nextKey);
+        builder.addStatement("$N = $N.putIfAbsent($N, $N)", key, keys, id, created);
+        builder.beginControlFlow("if ($N == null)", key);
+        builder.addStatement("$N = $N", key, created);
+        if (keyTable != null) {
+            builder.addStatement("$N.put($N, $N, $N)", keyTable, key, id, idCodec);
+        }
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.addStatement("return $N", key);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a property field persisting the keys that IDs are mapped to, keyed by the mapped key.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Key table fieldSpec.
+     */
+    private FieldSpec getKeyTableFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                MappedEntityTable.class,
+                String.format("%sKeyTable", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the codec of the IDs of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return ID codec fieldSpec.
+     */
+    private FieldSpec getIdCodecFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntityCodec.class), boxedIdType),
+                String.format("%sIdCodec", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("$T.ID_CODEC", EntityCodec.getCodecType(entitySpecElement, processingEnv))
+                .build();
+    }
+
+    /**
+     * Generates a constructor opening a mapped store with the default slab size.
+     * @return Constructor(File) methodSpec.
+     */
+    private MethodSpec getConstructor_directory() {
+        ParameterSpec directory = ParameterSpec.builder(File.class, "directory").build();
+
+        return MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(directory)
+                .addException(IOException.class)
+                .addStatement("this($N, $T.DEFAULT_SLAB_SIZE)", directory, OffHeapEntityTable.class)
+                .build();
+    }
+
+    /**
+     * Generates a constructor that opens every table of a mapped store, and reads the mapped keys back into the heap.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param tables Map of table fields by Entity types.
+     * @param keyTables Map of key table fields by Entity types.
+     * @param keyMaps Map of ID to key fields by Entity types.
+     * @param idCodecs Map of ID codec fields by Entity types.
+     * @param nextKey Key counter field.
+     * @param processingEnv Processing environment.
+     * @return Constructor(File, int) methodSpec.
+     */
+    private MethodSpec getConstructor_directory_slabSize(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> tables, Map<TypeName, FieldSpec> keyTables, Map<TypeName, FieldSpec> keyMaps, Map<TypeName, FieldSpec> idCodecs, FieldSpec nextKey, ProcessingEnvironment processingEnv) {
+        ParameterSpec directory = ParameterSpec.builder(File.class, "directory").build();
+        ParameterSpec slabSize = ParameterSpec.builder(TypeName.INT, "slabSize").build();
+
+        MethodSpec.Builder builder = MethodSpec.constructorBuilder()
+                .addJavadoc("Opens the store, serving the Entities it held when it was last closed. A store that was not closed, for example\n")
+                .addJavadoc("because the process crashed, or whose Entities were encoded with another schema, is reopened empty, and\n")
+                .addJavadoc("is to be restored from a log if its Entities must survive a crash.\n")
+                .addJavadoc("@param $N Directory holding the files of the store, shared by no other store.\n", directory)
+                .addJavadoc("@param $N Size in bytes of the files that Entities are appended to, must not change between opens.\n", slabSize)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(directory)
+                .addParameter(slabSize)
+                .addException(IOException.class);
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            ClassName codecType = EntityCodec.getCodecType(entitySpec, processingEnv);
+            builder.addStatement("this.$N = $T.open($N, $S, $N, $T.SCHEMA_FINGERPRINT)", tables.get(entityType), MappedEntityTable.class, directory, entityType.simpleName(), slabSize, codecType);
+
+            FieldSpec keyTable = keyTables.get(entityType);
+            if (keyTable == null) {
+                continue;
+            }
+
+            builder.addStatement("this.$N = $T.open($N, $S, $N, $T.SCHEMA_FINGERPRINT)", keyTable, MappedEntityTable.class, directory, entityType.simpleName() + "Keys", slabSize, codecType);
+            builder.beginControlFlow("for (long key : $N.keys())", keyTable);
+            builder.addStatement("$N.put($N.get(key, $N), key)", keyMaps.get(entityType), keyTable, idCodecs.get(entityType));
+            builder.beginControlFlow("if (key >= $N.get())", nextKey);
+            builder.addStatement("$N.set(key + 1)", nextKey);
+            builder.endControlFlow();
+            builder.endControlFlow();
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method closing every table of a mapped store, so that it can be reopened.
+     * @param tables Table fields.
+     * @param keyTables Key table fields.
+     * @return close() methodSpec.
+     */
+    private MethodSpec getMethodSpec_close(Collection<FieldSpec> tables, Collection<FieldSpec> keyTables) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("close")
+                .addJavadoc("Flushes every table, so that the store is reopened with the Entities it holds now. A store that is not\n")
+                .addJavadoc("closed is reopened empty.\n")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addException(IOException.class);
+
+        for (FieldSpec table : tables) {
+            builder.addStatement("$N.close()", table);
+        }
+        for (FieldSpec keyTable : keyTables) {
+            builder.addStatement("$N.close()", keyTable);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a constructor with the default slab size.
+     * @return Constructor methodSpec.
+     */
+    private MethodSpec getConstructor() {
+        return MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("this($T.DEFAULT_SLAB_SIZE)", OffHeapEntityTable.class)
+                .build();
+    }
+
+    /**
+     * Generates a constructor that creates every off-heap table.
+     * @param tables Off-heap table fields.
+     * @return Constructor(int) methodSpec.
+     */
+    private MethodSpec getConstructor_slabSize(Collection<FieldSpec> tables) {
+        ParameterSpec slabSize = ParameterSpec.builder(TypeName.INT, "slabSize").build();
+
+        MethodSpec.Builder builder = MethodSpec.constructorBuilder()
+                .addJavadoc("@param $N Size in bytes of the direct memory slabs that Entities are appended to.\n", slabSize)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(slabSize);
+        for (FieldSpec table : tables) {
+            builder.addStatement("this.$N = new $T($N)", table, OffHeapEntityTable.class, slabSize);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param id ID expression.
+     * @param create True to map IDs that are not keys to new keys.
+     * @param keyGetters Map of key getters by Entity types.
+     * @param processingEnv Processing environment.
+     * @return Expression converting an ID to a key.
+     */
+    private CodeBlock getKey(Element entitySpecElement, CodeBlock id, boolean create, Map<TypeName, MethodSpec> keyGetters, ProcessingEnvironment processingEnv) {
+        switch (getKeyKind(entitySpecElement)) {
+            case PRIMITIVE:
+                return id;
+            case ENUM:
+                return CodeBlock.of("$L.ordinal()", id);
+            default:
+                return CodeBlock.of("$N($L, $L)", keyGetters.get(Utils.getEntityType(entitySpecElement, processingEnv)), id, create);
+        }
+    }
+
+    /**
+     * Generates a putter method for an Entity that encodes it into its off-heap table.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param tables Map of off-heap table fields by Entity types.
+     * @param codecs Map of codec fields by Entity types.
+     * @param keyGetters Map of key getters by Entity types.
+     * @param processingEnv Processing environment.
+     * @return put(Entity) -> True if succeeded, else false.
+     */
+    private MethodSpec getPutterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> tables, Map<TypeName, FieldSpec> codecs, Map<TypeName, MethodSpec> keyGetters, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+
+        CodeBlock id = CodeBlock.of("$N.$L()", entity, Utils.getIdGetterName(entitySpecElement, processingEnv.getLocale()));
+
+        return MethodSpec.methodBuilder("put")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("$N.put($L, $N, $N)", tables.get(entityType), getKey(entitySpecElement, id, true, keyGetters, processingEnv), entity, codecs.get(entityType))
+                .addStatement("return true")
+                .build();
+    }
+
+    /**
+     * Generates a remover method for an Entity. Mapped keys are kept, so that the ID maps to the same key if the Entity
+     * is put again.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param tables Map of off-heap table fields by Entity types.
+     * @param keyGetters Map of key getters by Entity types.
+     * @param processingEnv Processing environment.
+     * @return removeEntity(ID) methodSpec.
+     */
+    private MethodSpec getRemoverForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> tables, Map<TypeName, MethodSpec> keyGetters, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("remove%s", entityType.simpleName()))
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(id);
+
+        CodeBlock key = getKey(entitySpecElement, CodeBlock.of("$N", id), false, keyGetters, processingEnv);
+        if (getKeyKind(entitySpecElement) == KeyKind.MAPPED) {
+            FieldSpec mappedKey = FieldSpec.builder(Long.class, "key").build();
+            builder.addStatement("$T $N = $L", mappedKey.type, mappedKey, key);
+            builder.beginControlFlow("if ($N != null)", mappedKey);
+            builder.addStatement("$N.remove($N)", tables.get(entityType), mappedKey);
+            builder.endControlFlow();
+        } else {
+            builder.addStatement("$N.remove($L)", tables.get(entityType), key);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter method for an Entity that decodes it from its off-heap table.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param tables Map of off-heap table fields by Entity types.
+     * @param codecs Map of codec fields by Entity types.
+     * @param keyGetters Map of key getters by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntity(ID) -> Entity methodSpec, embedded Entities are stubs holding only their IDs.
+     */
+    private MethodSpec getGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> tables, Map<TypeName, FieldSpec> codecs, Map<TypeName, MethodSpec> keyGetters, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("get%s", entityType.simpleName()))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(id)
+                .returns(entityType);
+
+        CodeBlock key = getKey(entitySpecElement, CodeBlock.of("$N", id), false, keyGetters, processingEnv);
+        if (getKeyKind(entitySpecElement) == KeyKind.MAPPED) {
+            FieldSpec mappedKey = FieldSpec.builder(Long.class, "key").build();
+            builder.addStatement("$T $N = $L", mappedKey.type, mappedKey, key);
+            builder.addStatement("return $N == null ? null : $N.get($N, $N)", mappedKey, tables.get(entityType), mappedKey, codecs.get(entityType));
+        } else {
+            builder.addStatement("return $N.get($L, $N)", tables.get(entityType), key, codecs.get(entityType));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter method for a batch of Entities.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return getEntities(Collection<ID>) -> Map<ID, Entity> methodSpec, without IDs that are not in the store.
+     */
+    private MethodSpec getMultiGetterForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType);
+        TypeName HashMap_Id_Entity = ParameterizedTypeName.get(ClassName.get(HashMap.class), boxedIdType, entityType);
+
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ids)
+                .returns(Map_Id_Entity);
+
+        FieldSpec entities = FieldSpec.builder(Map_Id_Entity, "entities").build();
+        builder.addStatement("$T $N = new $T()", entities.type, entities, HashMap_Id_Entity);
+
+        FieldSpec id = FieldSpec.builder(boxedIdType, "id").build();
+        FieldSpec entity = FieldSpec.builder(entityType, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", id.type, id, ids);
+        builder.addStatement("$T $N = get$L($N)", entity.type, entity, entityType.simpleName(), id);
+        builder.beginControlFlow("if ($N != null)", entity);
+        builder.addStatement("$N.put($N, $N)", entities, id, entity);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", entities);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter for the direct memory held by the store.
+     * @param tables Off-heap table fields.
+     * @return getOffHeapBytes() -> long methodSpec.
+     */
+    private MethodSpec getMethodSpec_getOffHeapBytes(Collection<FieldSpec> tables) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("getOffHeapBytes")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG);
+
+        CodeBlock.Builder sum = CodeBlock.builder();
+        Iterator<FieldSpec> iterator = tables.iterator();
+        while (iterator.hasNext()) {
+            sum.add("$N.offHeapBytes()", iterator.next());
+            if (iterator.hasNext()) {
+                sum.add(" + ");
+            }
+        }
+        builder.addStatement("return $L", tables.isEmpty() ? CodeBlock.of("0") : sum.build());
+
+        return builder.build();
+    }
+}
@@ -9,6 +9,7 @@ import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +40,7 @@ public class RepositoryReaderInterfaceTemplateGenerator implements ITemplateGene
         // Generate getters and setters for every Entity.
         for (Element entitySpec : entitySpecs) {
             template.add(getGetterForEntity(entitySpec, processingEnv));
+            template.add(getMultiGetterForEntity(entitySpec, processingEnv));
         }
 
         templates.put(CLASSNAME, template);
@@ -61,4 +63,18 @@ public class RepositoryReaderInterfaceTemplateGenerator implements ITemplateGene
 
         return builder.build();
     }
+
+    private MethodSpec getMultiGetterForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(ids)
+                .returns(ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType));
+
+        return builder.build();
+    }
 }
@@ -4,11 +4,39 @@ import annotations.EntitySpec;
 import annotations.processor.ITemplateGenerator;
 import annotations.processor.Template;
 import com.squareup.javapoet.*;
+import core.BloomFilter;
+import core.ChangeNotifier;
+import core.CycleGuard;
+import core.EntityKey;
+import core.EntityPublisher;
+import core.ExpirySweeper;
+import core.ExpiryTracker;
+import core.IChangeListener;
+import core.ISubscription;
 import core.IEntity;
+import core.IBatchEntityLoader;
+import core.IEntityLoader;
+import core.IEvictingEntityStore;
+import core.IEvictionListener;
+import core.IPublisher;
+import core.IReclaimableEntityStore;
+import core.ISweepable;
+import core.ITicker;
+import core.IVersionedEntityStore;
+import core.NegativeCache;
+import core.ReferenceIndex;
+import core.SingleFlight;
+import core.SweepSchedule;
+import core.VersionStamp;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.*;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Generates a in-memory store template from EntitySpec annotated files.
@@ -17,15 +45,28 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
     private final String PACKAGE = "entitynormalizer.store";
     private final String CLASSNAME = "NormalizedEntityRepository";
 
+    private static final ParameterizedTypeName Map_EntityKey_Entity = ParameterizedTypeName.get(Map.class, EntityKey.class, IEntity.class);
+    private static final ParameterizedTypeName LinkedHashMap_EntityKey_Entity = ParameterizedTypeName.get(LinkedHashMap.class, EntityKey.class, IEntity.class);
+    private static final ParameterizedTypeName Set_EntityKey = ParameterizedTypeName.get(Set.class, EntityKey.class);
+    private static final ParameterizedTypeName HashSet_EntityKey = ParameterizedTypeName.get(HashSet.class, EntityKey.class);
+    private static final ParameterizedTypeName Set_IEntity = ParameterizedTypeName.get(Set.class, IEntity.class);
+    private static final CodeBlock newVisitedSet = CodeBlock.of("$T.newSetFromMap(new $T<$T, $T>())", Collections.class, IdentityHashMap.class, IEntity.class, Boolean.class);
+
     private final Map<String, Template> templates;
 
     private final Set<TypeName> entityClasses;
     private final Map<String, TypeName> typeNameByGeneratedClassName;
+    private final Map<TypeName, String> idGetterNameByEntityType;
+    private final Map<TypeName, TypeName> idTypeNameByEntityType;
+    private final Map<TypeName, Element> entitySpecByEntityType;
 
     public RepositoryTemplateGenerator() {
         this.templates = new HashMap<>();
         this.entityClasses = new HashSet<>();
         this.typeNameByGeneratedClassName = new HashMap<>();
+        this.idGetterNameByEntityType = new HashMap<>();
+        this.idTypeNameByEntityType = new HashMap<>();
+        this.entitySpecByEntityType = new HashMap<>();
     }
 
     @Override
@@ -42,12 +83,11 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
 
             typeNameByGeneratedClassName.put(entityType.simpleName(), entityType);
             entityClasses.add(entityType);
+            idGetterNameByEntityType.put(entityType, Utils.getIdGetterName(entitySpec, processingEnv.getLocale()));
+            idTypeNameByEntityType.put(entityType, Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpec)));
+            entitySpecByEntityType.put(entityType, entitySpec);
         }
 
-        // Builder.
-        template.add(getTypeSpec_Builder());
-        template.add(getFieldSpec_builder());
-
         // IEntityStoreReader chain.
         FieldSpec readers = getFieldSpec_readers();
         template.add(readers);
@@ -56,18 +96,161 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
         FieldSpec writers = getFieldSpec_writers();
         template.add(writers);
 
+        // Denormalized view caches.
+        Map<TypeName, EntityMap> denormalizedMaps = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            EntityMap entityMap = getDenormalizedMap(entitySpec, processingEnv);
+            template.add(entityMap.getFieldSpec());
+            denormalizedMaps.put(Utils.getEntityType(entitySpec, processingEnv), entityMap);
+        }
+
+        // Version stamps of denormalized views, only used when the first reader is versioned.
+        FieldSpec versions = getFieldSpec_versions();
+        template.add(versions);
+        Map<TypeName, EntityMap> stampMaps = new HashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            EntityMap entityMap = getStampMap(entitySpec, processingEnv);
+            template.add(entityMap.getFieldSpec());
+            stampMaps.put(Utils.getEntityType(entitySpec, processingEnv), entityMap);
+        }
+
+        // Reverse-reference index.
+        FieldSpec referenceIndex = getFieldSpec_referenceIndex();
+        template.add(referenceIndex);
+
+        // Invalidation counter.
+        FieldSpec generation = getFieldSpec_generation();
+        template.add(generation);
+
+        // Whether hits at lower readers are written to the writers of upper readers.
+        FieldSpec promoteHits = getFieldSpec_promoteHits();
+        template.add(promoteHits);
+
+        // Whether views are memoized, which they are not when a reader lets the garbage collector reclaim Entities.
+        FieldSpec memoizes = getFieldSpec_memoizes();
+        template.add(memoizes);
+
+        // Change notifications.
+        FieldSpec changeNotifier = getFieldSpec_changeNotifier();
+        template.add(changeNotifier);
+
+        // Publishers of denormalized Entities after puts.
+        Map<TypeName, FieldSpec> publishers = new LinkedHashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec publisher = getPublisherFieldForEntity(entitySpec, processingEnv);
+            template.add(publisher);
+            publishers.put(Utils.getEntityType(entitySpec, processingEnv), publisher);
+        }
+
+        // Read-through loaders, each with its in-flight loads and the IDs it found absent.
+        Map<TypeName, FieldSpec> loaders = new LinkedHashMap<>();
+        Map<TypeName, FieldSpec> loads = new HashMap<>();
+        Map<TypeName, FieldSpec> absences = new LinkedHashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec loader = getLoaderFieldForEntity(entitySpec, processingEnv);
+            template.add(loader);
+            loaders.put(entityType, loader);
+            FieldSpec load = getLoadsFieldForEntity(entitySpec, processingEnv);
+            template.add(load);
+            loads.put(entityType, load);
+            FieldSpec absence = getAbsencesFieldForEntity(entitySpec, processingEnv);
+            template.add(absence);
+            absences.put(entityType, absence);
+        }
+
+        // Filters of the IDs put so far.
+        Map<TypeName, FieldSpec> filters = new LinkedHashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec filter = getFilterFieldForEntity(entitySpec, processingEnv);
+            template.add(filter);
+            filters.put(Utils.getEntityType(entitySpec, processingEnv), filter);
+        }
+
+        // Expiry of Entities after writes or accesses.
+        Map<TypeName, FieldSpec> expiries = new LinkedHashMap<>();
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec expiry = getExpiryFieldForEntity(entitySpec, processingEnv);
+            template.add(expiry);
+            expiries.put(Utils.getEntityType(entitySpec, processingEnv), expiry);
+        }
+        FieldSpec checksEmbeddedExpiry = getFieldSpec_checksEmbeddedExpiry();
+        template.add(checksEmbeddedExpiry);
+        FieldSpec expiryLock = getFieldSpec_expiryLock();
+        template.add(expiryLock);
+        FieldSpec sweepSchedule = getFieldSpec_sweepSchedule();
+        template.add(sweepSchedule);
+
+        // Builder.
+        template.add(getTypeSpec_Builder(entitySpecs, processingEnv));
+        template.add(getFieldSpec_builder());
+
         // Constructor.
-        template.add(getConstructor(readers, writers));
+        template.add(getConstructor(readers, writers, versions, promoteHits, memoizes, changeNotifier, referenceIndex, denormalizedMaps, stampMaps, publishers, loaders, absences, filters, expiries, checksEmbeddedExpiry, expiryLock, sweepSchedule));
+
+        // Invalidation.
+        MethodSpec drop = getMethodSpec_drop(entitySpecs, denormalizedMaps, stampMaps, referenceIndex, generation, processingEnv);
+        template.add(drop);
+        MethodSpec invalidate = getMethodSpec_invalidate(drop, changeNotifier);
+        template.add(invalidate);
+        template.add(getMethodSpec_evict(drop, referenceIndex));
+        template.add(getMethodSpec_getReferencingKeys(referenceIndex));
+        template.add(getMethodSpec_subscribeToEmbedding(changeNotifier));
+        MethodSpec expire = getMethodSpec_expire(entitySpecs, writers, expiries, referenceIndex, invalidate, expiryLock, processingEnv);
+        template.add(expire);
+        MethodSpec sweepExpired = getMethodSpec_sweepExpired(entitySpecs, expiries, expire, processingEnv);
+        template.add(sweepExpired);
+        MethodSpec sweepIfDue = getMethodSpec_sweepIfDue(sweepSchedule, sweepExpired);
+        template.add(sweepIfDue);
+        MethodSpec isExpired = getMethodSpec_isExpired(entitySpecs, expiries, processingEnv);
+        template.add(isExpired);
+        MethodSpec hasExpiredEmbedded = getMethodSpec_hasExpiredEmbedded(referenceIndex, isExpired);
+        template.add(hasExpiredEmbedded);
+        template.add(getMethodSpec_seedFilters(entitySpecs, filters, processingEnv));
+
+        // Version stamps.
+        template.add(getMethodSpec_isCurrent(versions));
+        template.add(getMethodSpec_observeVersions(versions));
+        MethodSpec getStamp = getMethodSpec_getStamp(entitySpecs, stampMaps, processingEnv);
+        template.add(getStamp);
+        template.add(getMethodSpec_stamp(referenceIndex, getStamp));
+
+        // Batch writes.
+        MethodSpec publish = getMethodSpec_publish(entitySpecs, publishers, processingEnv);
+        template.add(publish);
+        MethodSpec remember = getMethodSpec_remember(entitySpecs, filters, expiries, absences, processingEnv);
+        template.add(remember);
+        MethodSpec write = getMethodSpec_write(writers, remember, invalidate, publish, expiryLock, sweepIfDue);
+        template.add(write);
+        MethodSpec promote = getMethodSpec_promote(writers, expiryLock);
+        template.add(promote);
+        MethodSpec collect = getMethodSpec_collect(entitySpecs, processingEnv);
+        template.add(collect);
+        template.add(getMethodSpec_putAll(collect, write));
+        template.add(getMethodSpec_putNormalized(entitySpecs, write, processingEnv));
 
         // Generate getters and setters for every Entity.
         for (Element entitySpec : entitySpecs) {
-            template.add(getPutterForEntity(entitySpec, writers, processingEnv));
-            template.add(getGetterForEntity(entitySpec, readers, processingEnv));
+            template.add(getPutterForEntity(entitySpec, write, processingEnv));
+            template.add(getCollectorForEntity(entitySpec, referenceIndex, true, processingEnv));
+            template.add(getCollectorForEntity(entitySpec, referenceIndex, false, processingEnv));
+            CodeBlock isMemoLive = getMemoLivenessCheck(entitySpec, expiries, checksEmbeddedExpiry, hasExpiredEmbedded, processingEnv);
+            template.add(getGetterForEntity(entitySpec, denormalizedMaps, stampMaps, versions, isMemoLive, processingEnv));
+            template.add(getMultiGetterForEntity(entitySpec, readers, denormalizedMaps, stampMaps, versions, generation, loaders, absences, filters, expiries, isMemoLive, expire, sweepIfDue, promoteHits, memoizes, promote, processingEnv));
+            if (isSelfEmbedding(Utils.getEntityType(entitySpec, processingEnv), processingEnv)) {
+                template.add(getGuardedMultiGetterEntryForEntity(entitySpec, processingEnv));
+            }
+            template.add(getLoaderForEntity(entitySpec, loaders, loads, absences, processingEnv));
+            template.add(getDenormalizerForEntity(entitySpec, referenceIndex, processingEnv));
+            template.add(getTypeSubscriberForEntity(entitySpec, changeNotifier, processingEnv));
+            template.add(getKeySubscriberForEntity(entitySpec, changeNotifier, processingEnv));
+            template.add(getPublisherGetterForEntity(entitySpec, publishers, processingEnv));
         }
 
         // Add reader and writer interfaces.
         template.add(ClassName.get(RepositoryReaderInterfaceTemplateGenerator.PACKAGE, RepositoryReaderInterfaceTemplateGenerator.CLASSNAME));
         template.add(ClassName.get(RepositoryWriterInterfaceTemplateGenerator.PACKAGE, RepositoryWriterInterfaceTemplateGenerator.CLASSNAME));
+        template.add(ClassName.get(ISweepable.class));
 
         templates.put(CLASSNAME, template);
     }
@@ -116,144 +299,1904 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
     }
 
     /**
-     * Generates a constructor to take in reader and writer chains.
-     * @param readers Varargs reader chain.
-     * @param writers Varargs writer chain.
-     * @return Constructor methodSpec.
+     * Generates a property field caching denormalized Entities by ID.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Map of ID to denormalized Entity for the Entity specified in the Entity spec.
      */
-    private MethodSpec getConstructor(FieldSpec readers, FieldSpec writers) {
-        ParameterSpec readerParameterSpec = ParameterSpec.builder(readers.type, "readers").build();
-        ParameterSpec writerParameterSpec = ParameterSpec.builder(writers.type, "writers").build();
+    private EntityMap getDenormalizedMap(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
-        return MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PRIVATE)
-                .addParameter(readerParameterSpec)
-                .addParameter(writerParameterSpec)
-                .addStatement("this.$N = $N", readers, readerParameterSpec)
-                .addStatement("this.$N = $N", writers, writerParameterSpec)
+        String fieldName = String.format("denormalized%sById", entityType.simpleName());
+
+        return EntityMap.ofOptionallyConcurrent(entitySpecElement, fieldName, entityType, processingEnv);
+    }
+
+    /**
+     * Generates a property field holding the version stamps of denormalized Entities by ID.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Map of ID to version stamp for the Entity specified in the Entity spec.
+     */
+    private EntityMap getStampMap(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        String fieldName = String.format("%sStampById", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale()));
+
+        return EntityMap.ofOptionallyConcurrent(entitySpecElement, fieldName, ClassName.get(VersionStamp.class), processingEnv);
+    }
+
+    /**
+     * Generates the field holding the versioned store that denormalized views are checked against.
+     * @return versions fieldSpec.
+     */
+    private FieldSpec getFieldSpec_versions() {
+        return FieldSpec.builder(IVersionedEntityStore.class, "versions", Modifier.PRIVATE, Modifier.FINAL)
                 .build();
     }
 
     /**
-     * Generates a putter method for an Entity that returns a Set of Entities that have been modified.
+     * Generates a counter that is incremented whenever denormalized views are invalidated. Getters use it to avoid
+     * memoizing a view that was built while a concurrent put was invalidating it.
+     * @return generation fieldSpec.
+     */
+    private FieldSpec getFieldSpec_generation() {
+        return FieldSpec.builder(AtomicLong.class, "generation", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", AtomicLong.class)
+                .build();
+    }
+
+    /**
+     * Generates the field enabling hit promotion.
+     * @return promoteHits fieldSpec.
+     */
+    private FieldSpec getFieldSpec_promoteHits() {
+        return FieldSpec.builder(TypeName.BOOLEAN, "promoteHits", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field telling whether views are memoized. A memoized view holds the Entities it was built from
+     * strongly, so views are not memoized when a reader holds Entities through soft or weak references.
+     * @return memoizes fieldSpec.
+     */
+    private FieldSpec getFieldSpec_memoizes() {
+        return FieldSpec.builder(TypeName.BOOLEAN, "memoizes", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field telling whether memoized views are checked for expired embedded Entities when they are read,
+     * which is only needed when expired Entities are not swept.
+     * @return checksEmbeddedExpiry fieldSpec.
+     */
+    private FieldSpec getFieldSpec_checksEmbeddedExpiry() {
+        return FieldSpec.builder(TypeName.BOOLEAN, "checksEmbeddedExpiry", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the lock that serializes the removal of expired Entities with writes, so that an Entity written again
+     * while it expires is not removed. Writes share it, expiry holds it exclusively. Only concurrent repositories with
+     * expiry have one.
+     * @return expiryLock fieldSpec.
+     */
+    private FieldSpec getFieldSpec_expiryLock() {
+        return FieldSpec.builder(ReadWriteLock.class, "expiryLock", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field scheduling sweeps on the threads using the repository, which repositories that are not
+     * concurrent use instead of the background sweeper.
+     * @return sweepSchedule fieldSpec.
+     */
+    private FieldSpec getFieldSpec_sweepSchedule() {
+        return FieldSpec.builder(SweepSchedule.class, "sweepSchedule", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field notifying subscribers of changed Entities.
+     * @return changeNotifier fieldSpec.
+     */
+    private FieldSpec getFieldSpec_changeNotifier() {
+        return FieldSpec.builder(ChangeNotifier.class, "changeNotifier", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field publishing the denormalized views of an Entity type after they are put.
      * @param entitySpecElement EntitySpec annotated element.
-     * @param writers Array of store writers.
      * @param processingEnv Processing environment.
-     * @return put(Entity) -> Set<IEntity> methodSpec.
+     * @return entityPublisher fieldSpec.
      */
-    private MethodSpec getPutterForEntity(Element entitySpecElement, FieldSpec writers, ProcessingEnvironment processingEnv) {
-        TypeName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+    private FieldSpec getPublisherFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
-        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
-        ParameterizedTypeName HashSet_Entity = ParameterizedTypeName.get(HashSet.class, IEntity.class);
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(EntityPublisher.class), entityType),
+                String.format("%sPublisher", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
 
-        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+    /**
+     * Generates the field holding the optional loader of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return entityLoader fieldSpec.
+     */
+    private FieldSpec getLoaderFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
 
-        MethodSpec.Builder builder = MethodSpec.methodBuilder("put")
-                .addAnnotation(Override.class)
+        return FieldSpec.builder(
+                getLoaderType(entitySpecElement, processingEnv),
+                String.format("%sLoader", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field collapsing concurrent loads of the same Entity.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return entityLoads fieldSpec.
+     */
+    private FieldSpec getLoadsFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+        TypeName SingleFlight_Id_Entity = ParameterizedTypeName.get(ClassName.get(SingleFlight.class), boxedIdType, entityType);
+
+        return FieldSpec.builder(
+                SingleFlight_Id_Entity,
+                String.format("%sLoads", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .initializer("new $T()", SingleFlight_Id_Entity)
+                .build();
+    }
+
+    /**
+     * Generates the field holding the optional cache of the IDs that the loader of an Entity type found absent.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return entityAbsences fieldSpec.
+     */
+    private FieldSpec getAbsencesFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                NegativeCache.class,
+                String.format("%sAbsences", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field holding the optional filter of the IDs of an Entity type that have been put.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return entityFilter fieldSpec.
+     */
+    private FieldSpec getFilterFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                BloomFilter.class,
+                String.format("%sFilter", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * Generates the field holding the optional expiry tracker of an Entity type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return entityExpiry fieldSpec.
+     */
+    private FieldSpec getExpiryFieldForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return FieldSpec.builder(
+                ExpiryTracker.class,
+                String.format("%sExpiry", Utils.convertToCamelCase(entityType.simpleName(), processingEnv.getLocale())),
+                Modifier.PRIVATE,
+                Modifier.FINAL)
+                .build();
+    }
+
+    /**
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return IEntityLoader<ID, Entity> type.
+     */
+    private TypeName getLoaderType(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        return ParameterizedTypeName.get(
+                ClassName.get(IEntityLoader.class),
+                Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement)),
+                Utils.getEntityType(entitySpecElement, processingEnv));
+    }
+
+    /**
+     * Generates the reverse-reference index field.
+     * @return referenceIndex fieldSpec.
+     */
+    private FieldSpec getFieldSpec_referenceIndex() {
+        return FieldSpec.builder(ReferenceIndex.class, "referenceIndex", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", ReferenceIndex.class)
+                .build();
+    }
+
+    /**
+     * Generates a method that drops the denormalized views of Entities and of every Entity that embeds them.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param denormalizedMaps Map of denormalized Entity cache fields by Entity types.
+     * @param stampMaps Map of version stamp fields by Entity types.
+     * @param referenceIndex Reverse-reference index field.
+     * @param generation Invalidation counter field.
+     * @param processingEnv Processing environment.
+     * @return drop(Collection<EntityKey>) -> Set<EntityKey> methodSpec, returning the keys of the Entities whose views
+     * were dropped, starting with the given keys.
+     */
+    private MethodSpec getMethodSpec_drop(Set<? extends Element> entitySpecs, Map<TypeName, EntityMap> denormalizedMaps, Map<TypeName, EntityMap> stampMaps, FieldSpec referenceIndex, FieldSpec generation, ProcessingEnvironment processingEnv) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("drop")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(keys)
+                .returns(Set_EntityKey);
+
+        // Must be incremented before views are removed, see getGetterForEntity.
+        builder.addStatement("$N.incrementAndGet()", generation);
+
+        FieldSpec stale = FieldSpec.builder(Set_EntityKey, "stale").build();
+        builder.addStatement("$T $N = new $T($N)", stale.type, stale, ParameterizedTypeName.get(LinkedHashSet.class, EntityKey.class), keys);
+        FieldSpec key = FieldSpec.builder(EntityKey.class, "key").build();
+        builder.beginControlFlow("for ($T $N : $N)", key.type, key, keys);
+        builder.addStatement("$N.addAll($N.getReferencingKeys($N))", stale, referenceIndex, key);
+        builder.endControlFlow();
+
+        FieldSpec staleKey = FieldSpec.builder(EntityKey.class, "staleKey").build();
+        builder.beginControlFlow("for ($T $N : $N)", staleKey.type, staleKey, stale);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            String fullyQualifiedName = String.format("%s.%s", entityType.packageName(), entityType.simpleName());
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", fullyQualifiedName, staleKey);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", fullyQualifiedName, staleKey);
+            }
+            EntityMap denormalizedMap = denormalizedMaps.get(entityType);
+            builder.addStatement("$L", denormalizedMap.remove(denormalizedMap.castId(CodeBlock.of("$N.getId()", staleKey))));
+            EntityMap stampMap = stampMaps.get(entityType);
+            builder.addStatement("$L", stampMap.remove(stampMap.castId(CodeBlock.of("$N.getId()", staleKey))));
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", stale);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that drops the denormalized views of changed Entities and of every Entity that embeds them,
+     * then notifies the listeners of their changes.
+     * @param drop Denormalized view drop method.
+     * @param changeNotifier Change notifier field.
+     * @return invalidate(Collection<EntityKey>) -> Set<EntityKey> methodSpec, returning the keys of the Entities whose
+     * views were dropped, starting with the given keys.
+     */
+    private MethodSpec getMethodSpec_invalidate(MethodSpec drop, FieldSpec changeNotifier) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+        FieldSpec stale = FieldSpec.builder(Set_EntityKey, "stale").build();
+
+        return MethodSpec.methodBuilder("invalidate")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(keys)
+                .returns(Set_EntityKey)
+                .addStatement("$T $N = $N($N)", stale.type, stale, drop, keys)
+                // Notified once the views are gone, so that listeners read the new versions.
+                .addStatement("$N.publish($N)", changeNotifier, stale)
+                .addStatement("return $N", stale)
+                .build();
+    }
+
+    /**
+     * Generates a method that drops the denormalized views of an Entity that a store evicted and of every Entity that
+     * embeds it, so that the views do not outlive the store's budget. Nothing changed, so listeners are not notified.
+     * The evicted Entity is then forgotten by the reference index, the views that embedded it link it again when they
+     * are rebuilt.
+     * @param drop Denormalized view drop method.
+     * @param referenceIndex Reverse-reference index field.
+     * @return evict(EntityKey) methodSpec.
+     */
+    private MethodSpec getMethodSpec_evict(MethodSpec drop, FieldSpec referenceIndex) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+
+        return MethodSpec.methodBuilder("evict")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(key)
+                .addStatement("$N($T.singleton($N))", drop, Collections.class, key)
+                .addStatement("$N.remove($N)", referenceIndex, key)
+                .build();
+    }
+
+    /**
+     * Generates a method exposing the Entities that embed an Entity.
+     * @param referenceIndex Reverse-reference index field.
+     * @return getReferencingKeys(IEntity) -> Set<EntityKey> methodSpec.
+     */
+    private MethodSpec getMethodSpec_getReferencingKeys(FieldSpec referenceIndex) {
+        ParameterSpec entity = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntity.class), WildcardTypeName.subtypeOf(Object.class)),
+                "entity").build();
+
+        return MethodSpec.methodBuilder("getReferencingKeys")
+                .addJavadoc("Gets the keys of every Entity that embeds an Entity, either directly or through other Entities.\n")
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(entity)
-                .returns(Set_Entity);
+                .returns(ParameterizedTypeName.get(Set.class, EntityKey.class))
+                .addStatement("return $N.getReferencingKeys(new $T($N))", referenceIndex, EntityKey.class, entity)
+                .build();
+    }
+
+    /**
+     * Generates a method subscribing to changes of the Entities that embed an Entity.
+     * @param changeNotifier Change notifier field.
+     * @return subscribeToEmbedding(IEntity, IChangeListener) -> ISubscription methodSpec.
+     */
+    private MethodSpec getMethodSpec_subscribeToEmbedding(FieldSpec changeNotifier) {
+        ParameterSpec entity = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(IEntity.class), WildcardTypeName.subtypeOf(Object.class)),
+                "entity").build();
+        ParameterSpec listener = ParameterSpec.builder(IChangeListener.class, "listener").build();
+
+        return MethodSpec.methodBuilder("subscribeToEmbedding")
+                .addJavadoc("Notifies a listener whenever an Entity that embeds an Entity, either directly or through other Entities,\n" +
+                        "changes.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .addParameter(listener)
+                .returns(ISubscription.class)
+                .addStatement("return $N.subscribeToEmbedding(new $T($N), $N)", changeNotifier, EntityKey.class, entity, listener)
+                .build();
+    }
 
-        // Store modified entities.
-        FieldSpec dirty = FieldSpec.builder(Set_Entity, "dirty").build();
-        builder.addStatement("$T $N = new $T()", Set_Entity, dirty, HashSet_Entity);
+    /**
+     * Generates a method that removes expired Entities from every writer, drops their views together with the views
+     * embedding them, and notifies their subscribers. Expired Entities are then forgotten by the reference index, the
+     * views that embedded them link them again when they are rebuilt, and by their expiry trackers, which only hold
+     * stored Entities. Entities written again since they expired are left alone, and writes wait for expiry to finish,
+     * so that a write never races with the removal of the Entity it wrote.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param writers Array of store writers.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param referenceIndex Reverse-reference index field.
+     * @param invalidate Denormalized view invalidation method.
+     * @param expiryLock Expiry lock field.
+     * @param processingEnv Processing environment.
+     * @return expire(Collection<EntityKey>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_expire(Set<? extends Element> entitySpecs, FieldSpec writers, Map<TypeName, FieldSpec> expiries, FieldSpec referenceIndex, MethodSpec invalidate, FieldSpec expiryLock, ProcessingEnvironment processingEnv) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
 
-        // Mark current entity as dirty.
-        builder.addStatement("$N.add($N)", dirty, entity);
-        // Add current entity to the stores.
-        ClassName writerType = ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME);
-        FieldSpec writer = FieldSpec.builder(writerType, "reader").build();
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("expire")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(keys);
+
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.writeLock().lock()", expiryLock);
+        builder.endControlFlow();
+        builder.beginControlFlow("try");
+
+        // Keys are checked while writes wait, an Entity that is still expired cannot be written until it is removed.
+        FieldSpec expired = FieldSpec.builder(ParameterizedTypeName.get(List.class, EntityKey.class), "expired").build();
+        builder.addStatement("$T $N = new $T()", expired.type, expired, ParameterizedTypeName.get(ArrayList.class, EntityKey.class));
+        FieldSpec key = FieldSpec.builder(EntityKey.class, "key").build();
+        builder.beginControlFlow("for ($T $N : $N)", key.type, key, keys);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec expiry = expiries.get(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+            }
+            builder.beginControlFlow("if ($N != null && $N.isExpired($N.getId()))", expiry, expiry, key);
+            builder.addStatement("$N.add($N)", expired, key);
+            builder.endControlFlow();
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+        builder.beginControlFlow("if ($N.isEmpty())", expired);
+        builder.addStatement("return");
+        builder.endControlFlow();
+
+        // Removed before the views are dropped, so that views rebuilt meanwhile do not find them.
+        FieldSpec writer = FieldSpec.builder(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME), "writer").build();
         builder.beginControlFlow("for ($T $N : $N)", writer.type, writer, writers);
-        builder.addStatement("$N.put($N)", writer, entity);
+        builder.addStatement("$N.removeAll($N)", writer, expired);
         builder.endControlFlow();
+        builder.addStatement("$N($N)", invalidate, expired);
 
-        // Store all Entities that appear as properties within this Entity.
-        for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
-            if (enclosedElement.getKind() != ElementKind.FIELD) {
-                continue;
+        builder.beginControlFlow("for ($T $N : $N)", key.type, key, expired);
+        builder.addStatement("$N.remove($N)", referenceIndex, key);
+        isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec expiry = expiries.get(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
             }
+            builder.addStatement("$N.remove($N.getId())", expiry, key);
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
 
-            // Handle nested Entities.
-            TypeName enclosedElementType = TypeName.get(enclosedElement.asType());
-            boolean isParameterizable = Utils.isList(enclosedElementType) || Utils.isMap(enclosedElementType);
-            if (isParameterizable && !Utils.getParameterizedEntities(enclosedElementType, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
-                // Extract parameterized Entity in field.
-                FieldSpec source = FieldSpec.builder(
-                        enclosedElementType,
-                        enclosedElement.getSimpleName().toString()
-                ).build();
-                builder.addStatement("$T $N = $N.get$L()",
-                        source.type,
-                        source,
-                        entity,
-                        Utils.convertToPascalCase(enclosedElement.getSimpleName().toString(), processingEnv.getLocale()));
+        builder.nextControlFlow("finally");
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.writeLock().unlock()", expiryLock);
+        builder.endControlFlow();
+        builder.endControlFlow();
 
-                // Add put CodeBlock.
-                CodeBlock putter = generatePutterCodeBlock(
-                        source,
-                        0,
-                        dirty);
-                builder.addCode(putter);
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that expires every Entity that expired since the previous sweep.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param expire Expiry method.
+     * @param processingEnv Processing environment.
+     * @return sweepExpired() methodSpec.
+     */
+    private MethodSpec getMethodSpec_sweepExpired(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> expiries, MethodSpec expire, ProcessingEnvironment processingEnv) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("sweepExpired")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC);
+
+        FieldSpec expired = FieldSpec.builder(ParameterizedTypeName.get(List.class, EntityKey.class), "expired").build();
+        builder.addStatement("$T $N = new $T()", expired.type, expired, ParameterizedTypeName.get(LinkedList.class, EntityKey.class));
+
+        FieldSpec id = FieldSpec.builder(Object.class, "id").build();
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec expiry = expiries.get(entityType);
+
+            builder.beginControlFlow("if ($N != null)", expiry);
+            builder.beginControlFlow("for ($T $N : $N.sweep())", id.type, id, expiry);
+            builder.addStatement("$N.add(new $T($S, $N))", expired, EntityKey.class, getFullyQualifiedName(entityType), id);
+            builder.endControlFlow();
+            builder.endControlFlow();
+        }
+
+        builder.beginControlFlow("if (!$N.isEmpty())", expired);
+        builder.addStatement("$N($N)", expire, expired);
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that sweeps expired Entities on the calling thread once the sweep interval has passed, for
+     * repositories that are not swept in the background.
+     * @param sweepSchedule Sweep schedule field.
+     * @param sweepExpired Sweep method.
+     * @return sweepIfDue() methodSpec.
+     */
+    private MethodSpec getMethodSpec_sweepIfDue(FieldSpec sweepSchedule, MethodSpec sweepExpired) {
+        return MethodSpec.methodBuilder("sweepIfDue")
+                .addModifiers(Modifier.PRIVATE)
+                .beginControlFlow("if ($N != null && $N.isDue())", sweepSchedule, sweepSchedule)
+                .addStatement("$N()", sweepExpired)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Generates a method that checks whether an Entity has expired, counting as an access to it if not.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return isExpired(EntityKey) -> boolean methodSpec.
+     */
+    private MethodSpec getMethodSpec_isExpired(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> expiries, ProcessingEnvironment processingEnv) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("isExpired")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(key)
+                .returns(TypeName.BOOLEAN);
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec expiry = expiries.get(entityType);
+
+            builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+            builder.addStatement("return $N != null && !$N.access($N.getId())", expiry, expiry, key);
+            builder.endControlFlow();
+        }
+        builder.addStatement("return false");
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that checks whether any Entity embedded in the view of an Entity, directly or through other
+     * Entities, has expired. Without sweeps, nothing else drops a memoized view when an Entity it embeds expires.
+     * @param referenceIndex Reverse-reference index field.
+     * @param isExpired Expiry check method.
+     * @return hasExpiredEmbedded(EntityKey) -> boolean methodSpec.
+     */
+    private MethodSpec getMethodSpec_hasExpiredEmbedded(FieldSpec referenceIndex, MethodSpec isExpired) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+        FieldSpec children = FieldSpec.builder(Set_EntityKey, "children").build();
+        FieldSpec visited = FieldSpec.builder(Set_EntityKey, "visited").build();
+        FieldSpec pending = FieldSpec.builder(ParameterizedTypeName.get(Deque.class, EntityKey.class), "pending").build();
+        FieldSpec child = FieldSpec.builder(EntityKey.class, "child").build();
+
+        return MethodSpec.methodBuilder("hasExpiredEmbedded")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(key)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("$T $N = $N.getChildren($N)", children.type, children, referenceIndex, key)
+                .beginControlFlow("if ($N.isEmpty())", children)
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("$T $N = new $T()", visited.type, visited, HashSet_EntityKey)
+                .addStatement("$T $N = new $T($N)", pending.type, pending, ParameterizedTypeName.get(ArrayDeque.class, EntityKey.class), children)
+                .beginControlFlow("while (!$N.isEmpty())", pending)
+                .addStatement("$T $N = $N.pop()", child.type, child, pending)
+                .beginControlFlow("if (!$N.add($N))", visited, child)
+                .addStatement("continue")
+                .endControlFlow()
+                .beginControlFlow("if ($N($N))", isExpired, child)
+                .addStatement("return true")
+                .endControlFlow()
+                .addStatement("$N.addAll($N.getChildren($N))", pending, referenceIndex, child)
+                .endControlFlow()
+                .addStatement("return false")
+                .build();
+    }
+
+    /**
+     * Generates the expiry checks that a memoized view must pass before it is returned, besides its version stamp.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param checksEmbeddedExpiry Embedded expiry check flag field.
+     * @param hasExpiredEmbedded Embedded expiry check method.
+     * @param processingEnv Processing environment.
+     * @return Condition on a local "id", true if the view is alive.
+     */
+    private CodeBlock getMemoLivenessCheck(Element entitySpecElement, Map<TypeName, FieldSpec> expiries, FieldSpec checksEmbeddedExpiry, MethodSpec hasExpiredEmbedded, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        FieldSpec expiry = expiries.get(entityType);
+
+        CodeBlock.Builder check = CodeBlock.builder().add("($N == null || $N.access(id))", expiry, expiry);
+        if (!getNestedEntityTypes(entitySpecElement, processingEnv).isEmpty()) {
+            check.add(" && (!$N || !$N(new $T($S, id)))", checksEmbeddedExpiry, hasExpiredEmbedded, EntityKey.class, getFullyQualifiedName(entityType));
+        }
+
+        return check.build();
+    }
+
+    /**
+     * Generates a method that wraps a store writer so that the IDs of the Entities written through it are added to the
+     * filters of their types. Stores that are filled without this repository, typically restored from a log, are
+     * written through it so that the filters do not hide their Entities.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param filters Map of ID filter fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return seedFilters(IEntityStoreWriter) -> IEntityStoreWriter methodSpec.
+     */
+    private MethodSpec getMethodSpec_seedFilters(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> filters, ProcessingEnvironment processingEnv) {
+        ClassName writerType = ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME);
+        ParameterSpec writer = ParameterSpec.builder(writerType, "writer", Modifier.FINAL).build();
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        TypeSpec.Builder seedingWriter = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(writerType);
+
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        MethodSpec.Builder putAll = MethodSpec.methodBuilder("putAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entities)
+                .returns(TypeName.BOOLEAN)
+                .beginControlFlow("for ($T $N : $N)", entity.type, entity, entities);
+
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec filter = filters.get(entityType);
+            String idGetterName = idGetterNameByEntityType.get(entityType);
+            ParameterSpec typedEntity = ParameterSpec.builder(entityType, "entity").build();
+
+            seedingWriter.addMethod(MethodSpec.methodBuilder("put")
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(typedEntity)
+                    .returns(TypeName.BOOLEAN)
+                    .beginControlFlow("if ($N != null)", filter)
+                    .addStatement("$N.add($N.$L())", filter, typedEntity, idGetterName)
+                    .endControlFlow()
+                    .addStatement("return $N.put($N)", writer, typedEntity)
+                    .build());
+
+            if (isFirst) {
+                putAll.beginControlFlow("if ($N instanceof $T && $N != null)", entity, entityType, filter);
+                isFirst = false;
+            } else {
+                putAll.nextControlFlow("else if ($N instanceof $T && $N != null)", entity, entityType, filter);
+            }
+            putAll.addStatement("$N.add((($T) $N).$L())", filter, entityType, entity, idGetterName);
+        }
+        if (!isFirst) {
+            putAll.endControlFlow();
+        }
+        putAll.endControlFlow();
+        putAll.addStatement("return $N.putAll($N)", writer, entities);
+        seedingWriter.addMethod(putAll.build());
+
+        // Filters cannot forget IDs, removed Entities are only missed by the readers.
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+        seedingWriter.addMethod(MethodSpec.methodBuilder("removeAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(keys)
+                .addStatement("$N.removeAll($N)", writer, keys)
+                .build());
+
+        return MethodSpec.methodBuilder("seedFilters")
+                .addJavadoc("Wraps a store writer so that the IDs of the Entities written through it are added to the ID filters.\n" +
+                        "Stores filled without this repository, such as ones restored from a log, must be filled through it\n" +
+                        "before they are read, or the filters hide their Entities.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(writer)
+                .returns(writerType)
+                .addStatement("return $L", seedingWriter.build())
+                .build();
+    }
+
+    /**
+     * Generates a method subscribing to changes of every Entity of a type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param changeNotifier Change notifier field.
+     * @param processingEnv Processing environment.
+     * @return subscribeToEntities(IChangeListener) -> ISubscription methodSpec.
+     */
+    private MethodSpec getTypeSubscriberForEntity(Element entitySpecElement, FieldSpec changeNotifier, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec listener = ParameterSpec.builder(IChangeListener.class, "listener").build();
+
+        return MethodSpec.methodBuilder(String.format("subscribeTo%s", Utils.getPluralName(entityType)))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(listener)
+                .returns(ISubscription.class)
+                .addStatement("return $N.subscribeToType($S, $N)", changeNotifier, getFullyQualifiedName(entityType), listener)
+                .build();
+    }
+
+    /**
+     * Generates a method subscribing to changes of a single Entity, including changes of the Entities it embeds.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param changeNotifier Change notifier field.
+     * @param processingEnv Processing environment.
+     * @return subscribeToEntity(ID, IChangeListener) -> ISubscription methodSpec.
+     */
+    private MethodSpec getKeySubscriberForEntity(Element entitySpecElement, FieldSpec changeNotifier, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+        ParameterSpec listener = ParameterSpec.builder(IChangeListener.class, "listener").build();
+
+        return MethodSpec.methodBuilder(String.format("subscribeTo%s", entityType.simpleName()))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(id)
+                .addParameter(listener)
+                .returns(ISubscription.class)
+                .addStatement("return $N.subscribeToKey(new $T($S, $N), $N)", changeNotifier, EntityKey.class, getFullyQualifiedName(entityType), id, listener)
+                .build();
+    }
+
+    /**
+     * Generates a constructor that takes its reader and writer chains and options from a Builder.
+     * @param readers Reader chain field.
+     * @param writers Writer chain field.
+     * @param versions Versioned store field.
+     * @param promoteHits Hit promotion field.
+     * @param memoizes Memoization flag field.
+     * @param changeNotifier Change notifier field.
+     * @param referenceIndex Reverse-reference index field.
+     * @param publishers Map of publisher fields by Entity types.
+     * @param loaders Map of loader fields by Entity types.
+     * @param absences Map of absent ID cache fields by Entity types.
+     * @param filters Map of ID filter fields by Entity types.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param checksEmbeddedExpiry Embedded expiry check flag field.
+     * @param expiryLock Expiry lock field.
+     * @param sweepSchedule Sweep schedule field.
+     * @return Constructor methodSpec.
+     */
+    private MethodSpec getConstructor(FieldSpec readers, FieldSpec writers, FieldSpec versions, FieldSpec promoteHits, FieldSpec memoizes, FieldSpec changeNotifier, FieldSpec referenceIndex, Map<TypeName, EntityMap> denormalizedMaps, Map<TypeName, EntityMap> stampMaps, Map<TypeName, FieldSpec> publishers, Map<TypeName, FieldSpec> loaders, Map<TypeName, FieldSpec> absences, Map<TypeName, FieldSpec> filters, Map<TypeName, FieldSpec> expiries, FieldSpec checksEmbeddedExpiry, FieldSpec expiryLock, FieldSpec sweepSchedule) {
+        ParameterSpec builderParameterSpec = ParameterSpec.builder(ClassName.bestGuess("Builder"), "builder").build();
+
+        MethodSpec.Builder builder = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(builderParameterSpec)
+                .addStatement("this.$N = $N.$N", readers, builderParameterSpec, readers)
+                .addStatement("this.$N = $N.$N", writers, builderParameterSpec, writers)
+                .addStatement("this.$N = $N.$N", promoteHits, builderParameterSpec, promoteHits)
+                .addStatement("this.$N = new $T($N.executor, $N)", changeNotifier, ChangeNotifier.class, builderParameterSpec, referenceIndex)
+                // Views are checked against the first reader, writes that bypass this repository are only seen there.
+                .addStatement("this.$N = $N[0] instanceof $T ? ($T) $N[0] : null",
+                        versions,
+                        readers,
+                        IVersionedEntityStore.class,
+                        IVersionedEntityStore.class,
+                        readers);
+
+        for (FieldSpec publisher : publishers.values()) {
+            builder.addStatement("this.$N = new $T($N.executor, $N.publisherBufferSize)", publisher, publisher.type, builderParameterSpec, builderParameterSpec);
+        }
+
+        for (FieldSpec loader : loaders.values()) {
+            builder.addStatement("this.$N = $N.$N", loader, builderParameterSpec, loader);
+        }
+
+        for (FieldSpec absence : absences.values()) {
+            builder.addStatement("this.$N = $N.$LMaximumSize > 0 ? new $T($N.$LMaximumSize, $N.$LTtlNanos, $N.ticker) : null",
+                    absence,
+                    builderParameterSpec,
+                    absence.name,
+                    NegativeCache.class,
+                    builderParameterSpec,
+                    absence.name,
+                    builderParameterSpec,
+                    absence.name,
+                    builderParameterSpec);
+        }
+
+        for (FieldSpec filter : filters.values()) {
+            String expectedInsertions = String.format("%sExpectedInsertions", filter.name);
+            builder.addStatement("this.$N = $N.$L > 0 ? new $T($N.$L, $N.$LFalsePositiveRate) : null",
+                    filter,
+                    builderParameterSpec,
+                    expectedInsertions,
+                    BloomFilter.class,
+                    builderParameterSpec,
+                    expectedInsertions,
+                    builderParameterSpec,
+                    filter.name);
+            builder.beginControlFlow("if ($N != null)", filter);
+            builder.beginControlFlow("for ($T id : $N.$LSeed)", Object.class, builderParameterSpec, filter.name);
+            builder.addStatement("$N.add(id)", filter);
+            builder.endControlFlow();
+            builder.endControlFlow();
+        }
+
+        for (FieldSpec expiry : expiries.values()) {
+            builder.addStatement("this.$N = $N.$LAfterWriteNanos > 0 || $N.$LAfterAccessNanos > 0 ? new $T($N.$LAfterWriteNanos, $N.$LAfterAccessNanos, $N.ticker) : null",
+                    expiry,
+                    builderParameterSpec,
+                    expiry.name,
+                    builderParameterSpec,
+                    expiry.name,
+                    ExpiryTracker.class,
+                    builderParameterSpec,
+                    expiry.name,
+                    builderParameterSpec,
+                    expiry.name,
+                    builderParameterSpec);
+        }
+
+        // Expired Entities are dropped lazily when read, sweeping also drops views and notifies subscribers. Only
+        // concurrent repositories are swept in the background, as their stores and listeners are safe for it, others
+        // are swept by the threads using them.
+        FieldSpec isSweeping = FieldSpec.builder(TypeName.BOOLEAN, "isSweeping").build();
+        StringBuilder hasExpiry = new StringBuilder();
+        for (FieldSpec expiry : expiries.values()) {
+            hasExpiry.append(hasExpiry.length() == 0 ? "" : " || ").append(expiry.name).append(" != null");
+        }
+        builder.addStatement("$T $N = ($L) && $N.sweepIntervalNanos > 0",
+                isSweeping.type,
+                isSweeping,
+                hasExpiry.length() == 0 ? "false" : hasExpiry,
+                builderParameterSpec);
+        builder.addStatement("this.$N = ($L) && !$N",
+                checksEmbeddedExpiry,
+                hasExpiry.length() == 0 ? "false" : hasExpiry,
+                isSweeping);
+
+        builder.addStatement("this.$N = $N.concurrent && ($L) ? new $T() : null",
+                expiryLock,
+                builderParameterSpec,
+                hasExpiry.length() == 0 ? "false" : hasExpiry,
+                ReentrantReadWriteLock.class);
+        builder.addStatement("this.$N = $N && !$N.concurrent ? new $T($N.ticker, $N.sweepIntervalNanos) : null",
+                sweepSchedule,
+                isSweeping,
+                builderParameterSpec,
+                SweepSchedule.class,
+                builderParameterSpec,
+                builderParameterSpec);
+
+        // Views are only shared with other threads when the repository is.
+        CodeBlock isShared = CodeBlock.of("$N.concurrent", builderParameterSpec);
+        for (EntityMap entityMap : denormalizedMaps.values()) {
+            CodeBlock initializer = entityMap.initialize(isShared);
+            if (initializer != null) {
+                builder.addStatement("$L", initializer);
+            }
+        }
+        for (EntityMap entityMap : stampMaps.values()) {
+            CodeBlock initializer = entityMap.initialize(isShared);
+            if (initializer != null) {
+                builder.addStatement("$L", initializer);
+            }
+        }
+
+        // Views built from Entities that a reader evicts are dropped with them.
+        TypeSpec evictionListener = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(IEvictionListener.class, EntityKey.class, IEntity.class))
+                .addMethod(MethodSpec.methodBuilder("onEviction")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(EntityKey.class, "key")
+                        .addParameter(IEntity.class, "entity")
+                        .addStatement("evict(key)")
+                        .build())
+                .build();
+        FieldSpec reader = FieldSpec.builder(ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME), "reader").build();
+        FieldSpec isReclaimable = FieldSpec.builder(TypeName.BOOLEAN, "isReclaimable").build();
+        builder.addStatement("$T $N = false", isReclaimable.type, isReclaimable);
+        builder.beginControlFlow("for ($T $N : $N)", reader.type, reader, readers);
+        builder.beginControlFlow("if ($N instanceof $T)", reader, IEvictingEntityStore.class);
+        builder.addStatement("(($T) $N).addEvictionListener($L)", IEvictingEntityStore.class, reader, evictionListener);
+        builder.endControlFlow();
+        builder.addStatement("$N |= $N instanceof $T", isReclaimable, reader, IReclaimableEntityStore.class);
+        builder.endControlFlow();
+        builder.addStatement("this.$N = !$N", memoizes, isReclaimable);
+
+        builder.beginControlFlow("if ($N && $N.concurrent)", isSweeping, builderParameterSpec);
+        builder.addStatement("$T.schedule(this, $N.sweepIntervalNanos)", ExpirySweeper.class, builderParameterSpec);
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that checks a denormalized view against its version stamp.
+     * @param versions Versioned store field.
+     * @return isCurrent(VersionStamp, Object) -> boolean methodSpec.
+     */
+    private MethodSpec getMethodSpec_isCurrent(FieldSpec versions) {
+        ParameterSpec stamp = ParameterSpec.builder(VersionStamp.class, "stamp").build();
+        ParameterSpec view = ParameterSpec.builder(Object.class, "view").build();
+
+        return MethodSpec.methodBuilder("isCurrent")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(stamp)
+                .addParameter(view)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("return $N != null && $N.isCurrent($N, $N)", stamp, stamp, view, versions)
+                .build();
+    }
+
+    /**
+     * Generates a method that reads the versions of Entities before they are read, see {@link VersionStamp.Builder}.
+     * @param versions Versioned store field.
+     * @return observeVersions(String, Collection<?>, Map<EntityKey, Long>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_observeVersions(FieldSpec versions) {
+        ParameterSpec entityType = ParameterSpec.builder(String.class, "entityType").build();
+        ParameterSpec ids = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(Object.class)),
+                "ids").build();
+        ParameterSpec observedVersions = ParameterSpec.builder(ParameterizedTypeName.get(Map.class, EntityKey.class, Long.class), "observedVersions").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("observeVersions")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(entityType)
+                .addParameter(ids)
+                .addParameter(observedVersions);
+
+        builder.beginControlFlow("for ($T id : $N)", Object.class, ids);
+        builder.addStatement("$T key = new $T($N, id)", EntityKey.class, EntityKey.class, entityType);
+        builder.addStatement("$N.put(key, $N.version(key))", observedVersions, versions);
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that gets the version stamp of any denormalized Entity.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param stampMaps Map of version stamp fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getStamp(EntityKey) -> VersionStamp methodSpec.
+     */
+    private MethodSpec getMethodSpec_getStamp(Set<? extends Element> entitySpecs, Map<TypeName, EntityMap> stampMaps, ProcessingEnvironment processingEnv) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("getStamp")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(key)
+                .returns(VersionStamp.class);
+
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            EntityMap stampMap = stampMaps.get(entityType);
+
+            builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+            builder.addStatement("return $L", stampMap.get(stampMap.castId(CodeBlock.of("$N.getId()", key))));
+            builder.endControlFlow();
+        }
+        builder.addStatement("return null");
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that stamps a denormalized view with the versions of the Entities it was built from. The
+     * stamps of the views embedded in it are included, so that Entities embedded at any depth are checked.
+     * @param referenceIndex Reverse-reference index field.
+     * @param getStamp Stamp getter method.
+     * @return stamp(EntityKey, Object, long, Map<EntityKey, Long>) -> VersionStamp methodSpec.
+     */
+    private MethodSpec getMethodSpec_stamp(FieldSpec referenceIndex, MethodSpec getStamp) {
+        ParameterSpec key = ParameterSpec.builder(EntityKey.class, "key").build();
+        ParameterSpec view = ParameterSpec.builder(Object.class, "view").build();
+        ParameterSpec observedVersion = ParameterSpec.builder(TypeName.LONG, "observedVersion").build();
+        ParameterSpec observedVersions = ParameterSpec.builder(ParameterizedTypeName.get(Map.class, EntityKey.class, Long.class), "observedVersions").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("stamp")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(key)
+                .addParameter(view)
+                .addParameter(observedVersion)
+                .addParameter(observedVersions)
+                .returns(VersionStamp.class);
+
+        builder.addStatement("$T stamp = new $T($N)", VersionStamp.Builder.class, VersionStamp.Builder.class, observedVersion);
+        builder.addStatement("stamp.add($N, $N.get($N))", key, observedVersions, key);
+
+        builder.beginControlFlow("for ($T child : $N.getChildren($N))", EntityKey.class, referenceIndex, key);
+        builder.addStatement("$T childVersion = $N.get(child)", Long.class, observedVersions);
+        builder.beginControlFlow("if (childVersion != null)");
+        builder.addStatement("stamp.add(child, childVersion)");
+        builder.endControlFlow();
+        builder.addStatement("$T childStamp = $N(child)", VersionStamp.class, getStamp);
+        builder.beginControlFlow("if (childStamp != null)");
+        builder.addStatement("stamp.addNested(childStamp)");
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        builder.addStatement("return stamp.build($N)", view);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a putter method for an Entity that returns a Set of Entities that have been modified.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param write Batch write method.
+     * @param processingEnv Processing environment.
+     * @return put(Entity) -> Set<IEntity> methodSpec.
+     */
+    private MethodSpec getPutterForEntity(Element entitySpecElement, MethodSpec write, ProcessingEnvironment processingEnv) {
+        TypeName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("put")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entity)
+                .returns(Set_Entity);
+
+        // Collect this Entity and every Entity nested within it, then write them as a single batch.
+        FieldSpec batch = FieldSpec.builder(Map_EntityKey_Entity, "batch").build();
+        builder.addStatement("$T $N = new $T()", batch.type, batch, LinkedHashMap_EntityKey_Entity);
+        builder.addStatement("collect($N, new $T($N), $N, $L)", entity, EntityKey.class, entity, batch, newVisitedSet);
+        builder.addStatement("return $N($N)", write, batch);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that adds an Entity, and every Entity that appears as a property within it, to a batch.
+     * Instances that have already been visited while collecting the same batch are not traversed again, so shared
+     * Entities are collected once and nesting terminates. Another instance of an Entity already in the batch replaces
+     * it, as do its embedded Entities, so the batch holds the last instance of each Entity to appear, counting a shared
+     * instance where it first appears. The key of each Entity is built once, by the caller, and used both to link and
+     * to collect it.
+     * <p>
+     * Normalized Entities only hold stubs of the Entities they embed, so their linker links the stubs and collects
+     * nothing. Properties and elements left null, as those missing from a stream are, embed nothing.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param referenceIndex Reverse-reference index field.
+     * @param collects True to collect embedded Entities, false to only link them.
+     * @param processingEnv Processing environment.
+     * @return collect(Entity, EntityKey, Map<EntityKey, IEntity>, Set<IEntity>) or link(Entity, EntityKey)
+     * methodSpec.
+     */
+    private MethodSpec getCollectorForEntity(Element entitySpecElement, FieldSpec referenceIndex, boolean collects, ProcessingEnvironment processingEnv) {
+        TypeName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec entity = ParameterSpec.builder(entityType, "entity").build();
+        ParameterSpec entityKey = ParameterSpec.builder(EntityKey.class, "entityKey").build();
+        ParameterSpec batch = collects ? ParameterSpec.builder(Map_EntityKey_Entity, "batch").build() : null;
+        ParameterSpec visited = collects ? ParameterSpec.builder(Set_IEntity, "visited").build() : null;
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(collects ? "collect" : "link")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(entity)
+                .addParameter(entityKey);
+
+        if (collects) {
+            builder.addParameter(batch);
+            builder.addParameter(visited);
+            builder.beginControlFlow("if (!$N.add($N))", visited, entity);
+            builder.addStatement("return");
+            builder.endControlFlow();
+            builder.addStatement("$N.put($N, $N)", batch, entityKey, entity);
+        }
+        // Forget previously embedded Entities, they are re-linked below.
+        builder.addStatement("$N.unlinkChildren($N)", referenceIndex, entityKey);
+
+        // Collect all Entities that appear as properties within this Entity.
+        for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
+            if (enclosedElement.getKind() != ElementKind.FIELD) {
+                continue;
+            }
+
+            // Handle nested Entities.
+            TypeName enclosedElementType = TypeName.get(enclosedElement.asType());
+            boolean isParameterizable = Utils.isList(enclosedElementType) || Utils.isMap(enclosedElementType);
+            if (isParameterizable && !Utils.getParameterizedEntities(enclosedElementType, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
+                // Extract parameterized Entity in field.
+                FieldSpec source = FieldSpec.builder(
+                        enclosedElementType,
+                        enclosedElement.getSimpleName().toString()
+                ).build();
+                builder.addStatement("$T $N = $N.get$L()",
+                        source.type,
+                        source,
+                        entity,
+                        Utils.convertToPascalCase(enclosedElement.getSimpleName().toString(), processingEnv.getLocale()));
+
+                // Add put CodeBlock.
+                CodeBlock putter = generatePutterCodeBlock(
+                        source,
+                        0,
+                        batch,
+                        visited,
+                        entityKey,
+                        referenceIndex);
+                builder.addCode(putter);
+            }
+
+            // Handle un-nested Entity.
+            else if (typeNameByGeneratedClassName.containsKey(enclosedElementType.toString())) {
+                FieldSpec enclosedEntity = FieldSpec.builder(
+                        enclosedElementType,
+                        enclosedElement.getSimpleName().toString()
+                ).build();
+                builder.addStatement("$T $N = $N.get$L()",
+                        enclosedEntity.type,
+                        enclosedEntity,
+                        entity,
+                        Utils.convertToPascalCase(enclosedEntity.name, processingEnv.getLocale()));
+
+                builder.addCode(generateChildCollectorCodeBlock(enclosedEntity, batch, visited, entityKey, referenceIndex));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that adds an Entity of any type to a batch.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param processingEnv Processing environment.
+     * @return collect(IEntity, Map<EntityKey, IEntity>, Set<IEntity>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_collect(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
+        ParameterSpec entity = ParameterSpec.builder(IEntity.class, "entity").build();
+        ParameterSpec batch = ParameterSpec.builder(Map_EntityKey_Entity, "batch").build();
+        ParameterSpec visited = ParameterSpec.builder(Set_IEntity, "visited").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("collect")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(entity)
+                .addParameter(batch)
+                .addParameter(visited);
+
+        FieldSpec entityKey = FieldSpec.builder(EntityKey.class, "entityKey").build();
+        builder.addStatement("$T $N = new $T($N)", entityKey.type, entityKey, EntityKey.class, entity);
+
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($N instanceof $T)", entity, entityType);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($N instanceof $T)", entity, entityType);
+            }
+            builder.addStatement("collect(($T) $N, $N, $N, $N)", entityType, entity, entityKey, batch, visited);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.entityType())", IllegalArgumentException.class, "Unknown Entity type: ", entity);
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that writes a batch of Entities to every store writer, then invalidates and publishes the
+     * denormalized views of every Entity in the batch and of every Entity that embeds them.
+     * @param writers Array of store writers.
+     * @param remember ID filter update method.
+     * @param invalidate Denormalized view invalidation method.
+     * @param publish Denormalized view publishing method.
+     * @param expiryLock Expiry lock field.
+     * @param sweepIfDue Caller sweep method.
+     * @return write(Map<EntityKey, IEntity>) -> Set<IEntity> methodSpec.
+     */
+    private MethodSpec getMethodSpec_write(FieldSpec writers, MethodSpec remember, MethodSpec invalidate, MethodSpec publish, FieldSpec expiryLock, MethodSpec sweepIfDue) {
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+        ParameterizedTypeName HashSet_Entity = ParameterizedTypeName.get(HashSet.class, IEntity.class);
+        ParameterizedTypeName Collection_Entity = ParameterizedTypeName.get(Collection.class, IEntity.class);
+
+        ParameterSpec batch = ParameterSpec.builder(Map_EntityKey_Entity, "batch").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("write")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(batch)
+                .returns(Set_Entity);
+
+        FieldSpec entities = FieldSpec.builder(Collection_Entity, "entities").build();
+        builder.addStatement("$T $N = $N.values()", entities.type, entities, batch);
+        builder.addStatement("$N()", sweepIfDue);
+
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.readLock().lock()", expiryLock);
+        builder.endControlFlow();
+        builder.beginControlFlow("try");
+        // IDs are filtered in before they can be read, so that the filters never hide a stored Entity.
+        builder.addStatement("$N($N)", remember, batch);
+
+        // Each writer receives the whole batch in one call.
+        ClassName writerType = ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME);
+        FieldSpec writer = FieldSpec.builder(writerType, "writer").build();
+        builder.beginControlFlow("for ($T $N : $N)", writer.type, writer, writers);
+        builder.addStatement("$N.putAll($N)", writer, entities);
+        builder.endControlFlow();
+        builder.nextControlFlow("finally");
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.readLock().unlock()", expiryLock);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        // Entities that embed the batch changed as well, so their views are published with the batch.
+        builder.addStatement("$N($N($N.keySet()))", publish, invalidate, batch);
+
+        builder.addStatement("return new $T($N)", HashSet_Entity, entities);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that adds the IDs of written Entities to the filters of their types, restarts their lifetimes
+     * and forgets that their loaders found them absent. IDs are taken from the keys of the batch, or from the primitive
+     * ID getters, rather than boxed again.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param filters Map of ID filter fields by Entity types.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param absences Map of absent ID cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return remember(Map<EntityKey, IEntity>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_remember(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> filters, Map<TypeName, FieldSpec> expiries, Map<TypeName, FieldSpec> absences, ProcessingEnvironment processingEnv) {
+        ParameterSpec batch = ParameterSpec.builder(Map_EntityKey_Entity, "batch").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("remember")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(batch);
+
+        FieldSpec entry = FieldSpec.builder(ParameterizedTypeName.get(Map.Entry.class, EntityKey.class, IEntity.class), "entry").build();
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        FieldSpec id = FieldSpec.builder(Object.class, "id").build();
+        builder.beginControlFlow("for ($T $N : $N.entrySet())", entry.type, entry, batch);
+        builder.addStatement("$T $N = $N.getValue()", entity.type, entity, entry);
+        builder.addStatement("$T $N = $N.getKey().getId()", id.type, id, entry);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec filter = filters.get(entityType);
+            FieldSpec expiry = expiries.get(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($N instanceof $T)", entity, entityType);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($N instanceof $T)", entity, entityType);
+            }
+            builder.beginControlFlow("if ($N != null)", filter);
+            if (EntityMap.isPrimitiveKeyed(Utils.getIdTypeName(entitySpec))) {
+                builder.addStatement("$N.add((($T) $N).$L())", filter, entityType, entity, idGetterNameByEntityType.get(entityType));
+            } else {
+                builder.addStatement("$N.add($N)", filter, id);
+            }
+            builder.endControlFlow();
+            builder.beginControlFlow("if ($N != null)", expiry);
+            builder.addStatement("$N.onWrite($N)", expiry, id);
+            builder.endControlFlow();
+            builder.beginControlFlow("if ($N != null)", absences.get(entityType));
+            builder.addStatement("$N.remove($N)", absences.get(entityType), id);
+            builder.endControlFlow();
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that writes Entities found at a reader to the writers paired with every reader above it, so
+     * that later reads of them stop at a faster reader. Promoted Entities are unchanged, so no views are invalidated.
+     * @param writers Array of store writers.
+     * @param expiryLock Expiry lock field.
+     * @return promote(int, Collection<? extends IEntity>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_promote(FieldSpec writers, FieldSpec expiryLock) {
+        ParameterSpec readerIndex = ParameterSpec.builder(TypeName.INT, "readerIndex").build();
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("promote")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(readerIndex)
+                .addParameter(entities);
+
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.readLock().lock()", expiryLock);
+        builder.endControlFlow();
+        builder.beginControlFlow("try");
+        FieldSpec i = FieldSpec.builder(TypeName.INT, "i").build();
+        builder.beginControlFlow("for (int $N = 0; $N < $N && $N < $N.length; $N++)", i, i, readerIndex, i, writers, i);
+        builder.addStatement("$N[$N].putAll($N)", writers, i, entities);
+        builder.endControlFlow();
+        builder.nextControlFlow("finally");
+        builder.beginControlFlow("if ($N != null)", expiryLock);
+        builder.addStatement("$N.readLock().unlock()", expiryLock);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method that publishes the denormalized views of changed Entities to the subscribers of their types,
+     * both of written Entities and of the Entities that embed them. Views are only built for types that have
+     * subscribers, and once for all of them, so that subscribers do not need to read the repository again after a put.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param publishers Map of publisher fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return publish(Collection<EntityKey>) methodSpec.
+     */
+    private MethodSpec getMethodSpec_publish(Set<? extends Element> entitySpecs, Map<TypeName, FieldSpec> publishers, ProcessingEnvironment processingEnv) {
+        ParameterSpec keys = ParameterSpec.builder(ParameterizedTypeName.get(Collection.class, EntityKey.class), "keys").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("publish")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(keys);
+
+        FieldSpec key = FieldSpec.builder(EntityKey.class, "key").build();
+        builder.beginControlFlow("for ($T $N : $N)", key.type, key, keys);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec publisher = publishers.get(entityType);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($S.equals($N.getEntityType()))", getFullyQualifiedName(entityType), key);
+            }
+            builder.beginControlFlow("if ($N.hasSubscribers())", publisher);
+            FieldSpec view = FieldSpec.builder(entityType, "view").build();
+            builder.addStatement("$T $N = get$L(($T) $N.getId())",
+                    view.type,
+                    view,
+                    entityType.simpleName(),
+                    idTypeNameByEntityType.get(entityType),
+                    key);
+            // A concurrent write may have replaced the view, which is then published by that write as well.
+            builder.beginControlFlow("if ($N != null)", view);
+            builder.addStatement("$N.publish($N)", publisher, view);
+            builder.endControlFlow();
+            builder.endControlFlow();
+        }
+        if (!isFirst) {
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a method exposing the publisher of the denormalized views of an Entity type after they are put.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param publishers Map of publisher fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return getEntityPublisher() -> IPublisher<Entity> methodSpec.
+     */
+    private MethodSpec getPublisherGetterForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> publishers, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        return MethodSpec.methodBuilder(String.format("get%sPublisher", entityType.simpleName()))
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(IPublisher.class), entityType))
+                .addStatement("return $N", publishers.get(entityType))
+                .build();
+    }
+
+    /**
+     * Generates a putter method for a batch of Entities of any type. The top-level Entities are collected into one
+     * batch, like the Entities nested in a single put, so an Entity that appears under several of them is written
+     * once, as its last instance.
+     * @param collect Untyped collect method.
+     * @param write Batch write method.
+     * @return putAll(Collection<? extends IEntity>) -> Set<IEntity> methodSpec.
+     */
+    private MethodSpec getMethodSpec_putAll(MethodSpec collect, MethodSpec write) {
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putAll")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entities)
+                .returns(Set_Entity);
+
+        FieldSpec batch = FieldSpec.builder(Map_EntityKey_Entity, "batch").build();
+        builder.addStatement("$T $N = new $T()", batch.type, batch, LinkedHashMap_EntityKey_Entity);
+
+        FieldSpec visited = FieldSpec.builder(Set_IEntity, "visited").build();
+        builder.addStatement("$T $N = $L", visited.type, visited, newVisitedSet);
+
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        builder.beginControlFlow("for ($T $N : $N)", entity.type, entity, entities);
+        builder.addStatement("$N($N, $N, $N)", collect, entity, batch, visited);
+        builder.endControlFlow();
+
+        builder.addStatement("return $N($N)", write, batch);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a putter method for a batch of normalized Entities of any type, such as those read from a stream, whose
+     * embedded Entities are stubs holding only their IDs. Stubs are linked to the Entities embedding them but not
+     * collected, so that they never overwrite the stored Entities they stand for. The batch is otherwise written like
+     * any other, and the views embedding it are invalidated and published.
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param write Batch write method.
+     * @param processingEnv Processing environment.
+     * @return putNormalized(Collection<? extends IEntity>) -> Set<IEntity> methodSpec.
+     */
+    private MethodSpec getMethodSpec_putNormalized(Set<? extends Element> entitySpecs, MethodSpec write, ProcessingEnvironment processingEnv) {
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putNormalized")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(entities)
+                .returns(Set_Entity);
+
+        FieldSpec batch = FieldSpec.builder(Map_EntityKey_Entity, "batch").build();
+        builder.addStatement("$T $N = new $T()", batch.type, batch, LinkedHashMap_EntityKey_Entity);
+
+        FieldSpec entity = FieldSpec.builder(IEntity.class, "entity").build();
+        FieldSpec entityKey = FieldSpec.builder(EntityKey.class, "entityKey").build();
+        builder.beginControlFlow("for ($T $N : $N)", entity.type, entity, entities);
+        builder.addStatement("$T $N = new $T($N)", entityKey.type, entityKey, EntityKey.class, entity);
+        boolean isFirst = true;
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+
+            if (isFirst) {
+                builder.beginControlFlow("if ($N instanceof $T)", entity, entityType);
+                isFirst = false;
+            } else {
+                builder.nextControlFlow("else if ($N instanceof $T)", entity, entityType);
+            }
+            builder.addStatement("link(($T) $N, $N)", entityType, entity, entityKey);
+        }
+        builder.nextControlFlow("else");
+        builder.addStatement("throw new $T($S + $N.entityType())", IllegalArgumentException.class, "Unknown Entity type: ", entity);
+        builder.endControlFlow();
+        builder.addStatement("$N.put($N, $N)", batch, entityKey, entity);
+        builder.endControlFlow();
+
+        builder.addStatement("return $N($N)", write, batch);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter method for an Entity. Views that are not memoized are built by the batch getter.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param denormalizedMaps Map of denormalized Entity cache fields by Entity types.
+     * @param stampMaps Map of version stamp fields by Entity types.
+     * @param versions Versioned store field.
+     * @param isMemoLive Expiry checks of a memoized view.
+     * @param processingEnv Processing environment.
+     * @return getEntity(ID) -> Entity methodSpec.
+     */
+    private MethodSpec getGetterForEntity(Element entitySpecElement, Map<TypeName, EntityMap> denormalizedMaps, Map<TypeName, EntityMap> stampMaps, FieldSpec versions, CodeBlock isMemoLive, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("get%s", entityType.simpleName()))
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(id)
+                .returns(entityType);
+
+        // Return the memoized view if nothing it depends on has been put since it was built.
+        EntityMap denormalizedMap = denormalizedMaps.get(entityType);
+        FieldSpec denormalized = FieldSpec.builder(entityType, "denormalized").build();
+        builder.addStatement("$T $N = $L", denormalized.type, denormalized, denormalizedMap.get(CodeBlock.of("$N", id)));
+        builder.beginControlFlow("if ($N != null && ($N == null || isCurrent($L, $N)) && $L)",
+                denormalized,
+                versions,
+                stampMaps.get(entityType).get(CodeBlock.of("$N", id)),
+                denormalized,
+                isMemoLive);
+        builder.addStatement("return $N", denormalized);
+        builder.endControlFlow();
+
+        builder.addStatement("return $L($T.<$T>singleton($N)).get($N)",
+                Utils.getMultiGetterName(entityType),
+                Collections.class,
+                Utils.getSafelyBoxedTypeName(id.type),
+                id,
+                id);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a getter method for a batch of Entities. IDs that are not memoized fall through the readers as a
+     * batch, and the Entities embedded in them are resolved with one batch per Entity type and nesting level. Types
+     * that can embed themselves get a private getter instead, which also takes the CycleGuard of the resolution so
+     * that reference cycles between stored Entities terminate.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param readers Array of store readers.
+     * @param denormalizedMaps Map of denormalized Entity cache fields by Entity types.
+     * @param stampMaps Map of version stamp fields by Entity types.
+     * @param versions Versioned store field.
+     * @param generation Invalidation counter field.
+     * @param loaders Map of loader fields by Entity types.
+     * @param absences Map of absent ID cache fields by Entity types.
+     * @param filters Map of ID filter fields by Entity types.
+     * @param expiries Map of expiry tracker fields by Entity types.
+     * @param isMemoLive Expiry checks of a memoized view.
+     * @param expire Expiry method.
+     * @param sweepIfDue Caller sweep method.
+     * @param promoteHits Hit promotion field.
+     * @param memoizes Memoization flag field.
+     * @param promote Hit promotion method.
+     * @param processingEnv Processing environment.
+     * @return getEntities(Collection<ID>) -> Map<ID, Entity> methodSpec.
+     */
+    private MethodSpec getMultiGetterForEntity(Element entitySpecElement, FieldSpec readers, Map<TypeName, EntityMap> denormalizedMaps, Map<TypeName, EntityMap> stampMaps, FieldSpec versions, FieldSpec generation, Map<TypeName, FieldSpec> loaders, Map<TypeName, FieldSpec> absences, Map<TypeName, FieldSpec> filters, Map<TypeName, FieldSpec> expiries, CodeBlock isMemoLive, MethodSpec expire, MethodSpec sweepIfDue, FieldSpec promoteHits, FieldSpec memoizes, MethodSpec promote, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType);
+        TypeName HashMap_Id_Entity = ParameterizedTypeName.get(ClassName.get(HashMap.class), boxedIdType, entityType);
+        TypeName Set_Id = ParameterizedTypeName.get(ClassName.get(Set.class), boxedIdType);
+        TypeName HashSet_Id = ParameterizedTypeName.get(ClassName.get(HashSet.class), boxedIdType);
+
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+        ParameterSpec cycleGuard = ParameterSpec.builder(CycleGuard.class, "cycleGuard").build();
+        boolean isSelfEmbedding = isSelfEmbedding(entityType, processingEnv);
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
+                .addParameter(ids)
+                .returns(Map_Id_Entity);
+        if (isSelfEmbedding) {
+            builder.addModifiers(Modifier.PRIVATE).addParameter(cycleGuard);
+        } else {
+            builder.addAnnotation(Override.class).addModifiers(Modifier.PUBLIC);
+        }
+
+        // Return memoized views.
+        EntityMap denormalizedMap = denormalizedMaps.get(entityType);
+        FieldSpec denormalizedById = FieldSpec.builder(Map_Id_Entity, "denormalizedById").build();
+        builder.addStatement("$T $N = new $T()", denormalizedById.type, denormalizedById, HashMap_Id_Entity);
+        FieldSpec missingIds = FieldSpec.builder(Set_Id, "missingIds").build();
+        builder.addStatement("$T $N = new $T()", missingIds.type, missingIds, HashSet_Id);
+
+        FieldSpec id = FieldSpec.builder(boxedIdType, "id").build();
+        FieldSpec denormalized = FieldSpec.builder(entityType, "denormalized").build();
+        EntityMap stampMap = stampMaps.get(entityType);
+        FieldSpec expiry = expiries.get(entityType);
+        builder.beginControlFlow("for ($T $N : $N)", id.type, id, ids);
+        builder.addStatement("$T $N = $L", denormalized.type, denormalized, denormalizedMap.get(CodeBlock.of("$N", id)));
+        builder.beginControlFlow("if ($N != null && ($N == null || isCurrent($L, $N)) && $L)",
+                denormalized,
+                versions,
+                stampMap.get(CodeBlock.of("$N", id)),
+                denormalized,
+                isMemoLive);
+        builder.addStatement("$N.put($N, $N)", denormalizedById, id, denormalized);
+        builder.nextControlFlow("else");
+        builder.addStatement("$N.add($N)", missingIds, id);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        // IDs that were never put skip the readers, but may still be loaded.
+        FieldSpec filter = filters.get(entityType);
+        FieldSpec loader = loaders.get(entityType);
+        FieldSpec absence = absences.get(entityType);
+        FieldSpec absentIds = FieldSpec.builder(Set_Id, "absentIds").build();
+        builder.addStatement("$T $N = new $T()", absentIds.type, absentIds, HashSet_Id);
+        builder.beginControlFlow("if ($N != null)", filter);
+        builder.beginControlFlow("for ($T $N : $N)", id.type, id, missingIds);
+        if (EntityMap.isPrimitiveKeyed(Utils.getIdTypeName(entitySpecElement))) {
+            builder.beginControlFlow("if (!$N.mightContain(($T) $N))", filter, TypeName.LONG, id);
+        } else {
+            builder.beginControlFlow("if (!$N.mightContain($N))", filter, id);
+        }
+        builder.addStatement("$N.add($N)", absentIds, id);
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.addStatement("$N.removeAll($N)", missingIds, absentIds);
+        builder.endControlFlow();
+
+        builder.beginControlFlow("if ($N.isEmpty() && ($N == null || $N.isEmpty()))", missingIds, loader, absentIds);
+        builder.addStatement("return $N", denormalizedById);
+        builder.endControlFlow();
+
+        // Swept before the generation is observed, so that views dropped by the sweep are not memoized again.
+        builder.addStatement("$N()", sweepIfDue);
+        FieldSpec observedGeneration = FieldSpec.builder(TypeName.LONG, "observedGeneration").build();
+        builder.addStatement("$T $N = $N.get()", observedGeneration.type, observedGeneration, generation);
+
+        // Versions are read before the Entities they stamp.
+        FieldSpec observedVersion = FieldSpec.builder(TypeName.LONG, "observedVersion").build();
+        FieldSpec observedVersions = FieldSpec.builder(ParameterizedTypeName.get(Map.class, EntityKey.class, Long.class), "observedVersions").build();
+        builder.addStatement("$T $N = 0", observedVersion.type, observedVersion);
+        builder.addStatement("$T $N = null", observedVersions.type, observedVersions);
+        builder.beginControlFlow("if ($N != null)", versions);
+        builder.addStatement("$N = $N.version()", observedVersion, versions);
+        builder.addStatement("$N = new $T()", observedVersions, ParameterizedTypeName.get(HashMap.class, EntityKey.class, Long.class));
+        builder.addStatement("observeVersions($S, $N, $N)", getFullyQualifiedName(entityType), missingIds, observedVersions);
+        builder.endControlFlow();
+
+        // Loop through readers, each one only receives the IDs that the previous ones did not have.
+        FieldSpec cachedById = FieldSpec.builder(Map_Id_Entity, "cachedById").build();
+        builder.addStatement("$T $N = new $T()", cachedById.type, cachedById, HashMap_Id_Entity);
+
+        FieldSpec expired = FieldSpec.builder(ParameterizedTypeName.get(List.class, EntityKey.class), "expired").build();
+        builder.addStatement("$T $N = null", expired.type, expired);
+
+        FieldSpec i = FieldSpec.builder(TypeName.INT, "i").build();
+        FieldSpec found = FieldSpec.builder(Map_Id_Entity, "found").build();
+        builder.beginControlFlow("for (int $N = 0; $N < $N.length && !$N.isEmpty(); $N++)", i, i, readers, missingIds, i);
+        builder.addStatement("$T $N = $N[$N].$L($N)", found.type, found, readers, i, Utils.getMultiGetterName(entityType), missingIds);
+        // Expired Entities are misses, so that lower readers or the loader are asked for newer ones.
+        builder.beginControlFlow("if ($N != null)", expiry);
+        FieldSpec iterator = FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Iterator.class), boxedIdType), "iterator").build();
+        FieldSpec foundId = FieldSpec.builder(boxedIdType, "foundId").build();
+        builder.beginControlFlow("for ($T $N = $N.keySet().iterator(); $N.hasNext(); )", iterator.type, iterator, found, iterator);
+        builder.addStatement("$T $N = $N.next()", foundId.type, foundId, iterator);
+        builder.beginControlFlow("if (!$N.access($N))", expiry, foundId);
+        builder.addStatement("$N.remove()", iterator);
+        builder.beginControlFlow("if ($N == null)", expired);
+        builder.addStatement("$N = new $T()", expired, ParameterizedTypeName.get(LinkedList.class, EntityKey.class));
+        builder.endControlFlow();
+        builder.addStatement("$N.add(new $T($S, $N))", expired, EntityKey.class, getFullyQualifiedName(entityType), foundId);
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.addStatement("$N.putAll($N)", cachedById, found);
+        builder.addStatement("$N.removeAll($N.keySet())", missingIds, found);
+        builder.beginControlFlow("if ($N && $N > 0 && !$N.isEmpty())", promoteHits, i, found);
+        builder.addStatement("$N($N, $N.values())", promote, i, found);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        // Expired Entities found by this read are removed, unless a sweep gets to them first.
+        builder.beginControlFlow("if ($N != null)", expired);
+        builder.addStatement("$N($N)", expire, expired);
+        builder.endControlFlow();
+
+        // Load what no reader has in one batch, skipping the IDs the loader recently found absent.
+        builder.beginControlFlow("if ($N != null)", loader);
+        builder.addStatement("$N.addAll($N)", missingIds, absentIds);
+        builder.beginControlFlow("if ($N != null)", absence);
+        builder.beginControlFlow("for ($T $N = $N.iterator(); $N.hasNext(); )", iterator.type, iterator, missingIds, iterator);
+        builder.beginControlFlow("if ($N.contains($N.next()))", absence, iterator);
+        builder.addStatement("$N.remove()", iterator);
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.beginControlFlow("if (!$N.isEmpty())", missingIds);
+        builder.addStatement("$N.putAll(load$Ls($N))", cachedById, entityType.simpleName(), missingIds);
+        builder.endControlFlow();
+        builder.endControlFlow();
+
+        // Levels that can only be reached through a reference cycle are returned as stored.
+        if (isSelfEmbedding) {
+            builder.beginControlFlow("if ($N == null)", cycleGuard);
+            builder.addStatement("$N = new $T()", cycleGuard, CycleGuard.class);
+            builder.endControlFlow();
+            builder.beginControlFlow("if (!$N.descend($S, $N.keySet()))", cycleGuard, getFullyQualifiedName(entityType), cachedById);
+            builder.addStatement("$N.ascend()", cycleGuard);
+            builder.addStatement("$N.putAll($N)", denormalizedById, cachedById);
+            builder.addStatement("return $N", denormalizedById);
+            builder.endControlFlow();
+        }
+
+        // Resolve the embedded Entities of the whole batch, a type at a time.
+        Set<TypeName> nestedEntityTypes = getNestedEntityTypes(entitySpecElement, processingEnv);
+        FieldSpec cached = FieldSpec.builder(entityType, "cached").build();
+        if (!nestedEntityTypes.isEmpty()) {
+            for (TypeName nestedEntityType : nestedEntityTypes) {
+                TypeName Set_NestedId = ParameterizedTypeName.get(ClassName.get(Set.class), idTypeNameByEntityType.get(nestedEntityType));
+                TypeName HashSet_NestedId = ParameterizedTypeName.get(ClassName.get(HashSet.class), idTypeNameByEntityType.get(nestedEntityType));
+                builder.addStatement("$T $L = new $T()", Set_NestedId, getNestedIdsName(nestedEntityType), HashSet_NestedId);
             }
 
-            // Handle un-nested Entity.
-            else if (typeNameByGeneratedClassName.containsKey(enclosedElementType.toString())) {
-                TypeName enclosedEntityType = typeNameByGeneratedClassName.get(enclosedElementType.toString());
-                FieldSpec enclosedEntity = FieldSpec.builder(
-                        enclosedElementType,
-                        enclosedElement.getSimpleName().toString()
-                ).build();
-                builder.addStatement("$T $N = $N.get$L()",
-                        enclosedEntity.type,
-                        enclosedEntity,
-                        entity,
-                        Utils.convertToPascalCase(enclosedEntity.name, processingEnv.getLocale()));
+            builder.beginControlFlow("for ($T $N : $N.values())", cached.type, cached, cachedById);
+            builder.addCode(generateIdCollectorCodeBlock(entitySpecElement, cached, processingEnv));
+            builder.endControlFlow();
 
-                builder.addStatement("$N.add($N)", dirty, enclosedEntity);
-                builder.addStatement("put($N)", enclosedEntity);
+            builder.beginControlFlow("if ($N != null)", versions);
+            for (TypeName nestedEntityType : nestedEntityTypes) {
+                builder.addStatement("observeVersions($S, $L, $N)",
+                        getFullyQualifiedName((ClassName) nestedEntityType),
+                        getNestedIdsName(nestedEntityType),
+                        observedVersions);
             }
+            builder.endControlFlow();
+
+            for (TypeName nestedEntityType : nestedEntityTypes) {
+                TypeName Map_NestedId_NestedEntity = ParameterizedTypeName.get(ClassName.get(Map.class), idTypeNameByEntityType.get(nestedEntityType), nestedEntityType);
+                if (isSelfEmbedding && isSelfEmbedding(nestedEntityType, processingEnv)) {
+                    builder.addStatement("$T $L = $L($L, $N)",
+                            Map_NestedId_NestedEntity,
+                            getResolvedMapName(nestedEntityType),
+                            Utils.getMultiGetterName((ClassName) nestedEntityType),
+                            getNestedIdsName(nestedEntityType),
+                            cycleGuard);
+                } else {
+                    builder.addStatement("$T $L = $L($L)",
+                            Map_NestedId_NestedEntity,
+                            getResolvedMapName(nestedEntityType),
+                            Utils.getMultiGetterName((ClassName) nestedEntityType),
+                            getNestedIdsName(nestedEntityType));
+                }
+            }
+        }
+        if (isSelfEmbedding) {
+            builder.addStatement("$N.ascend()", cycleGuard);
+        }
+
+        // Denormalize and memoize.
+        StringBuilder denormalizeArgs = new StringBuilder("$N");
+        for (TypeName nestedEntityType : nestedEntityTypes) {
+            denormalizeArgs.append(", ").append(getResolvedMapName(nestedEntityType));
+        }
+
+        TypeName Entry_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.Entry.class), boxedIdType, entityType);
+        FieldSpec entry = FieldSpec.builder(Entry_Id_Entity, "entry").build();
+        builder.beginControlFlow("for ($T $N : $N.entrySet())", entry.type, entry, cachedById);
+        builder.addStatement("$T $N = $N.getKey()", id.type, id, entry);
+        builder.addStatement("$T $N = $N.getValue()", cached.type, cached, entry);
+        builder.addStatement("$T $N = denormalize(" + denormalizeArgs + ")", denormalized.type, denormalized, cached);
+        // Views that embed a level left as stored are incomplete.
+        if (isSelfEmbedding) {
+            builder.beginControlFlow("if ($N && !$N.isCut())", memoizes, cycleGuard);
+        } else {
+            builder.beginControlFlow("if ($N)", memoizes);
         }
+        builder.beginControlFlow("if ($N != null)", versions);
+        builder.addStatement("$L", stampMap.put(
+                CodeBlock.of("$N", id),
+                CodeBlock.of("stamp(new $T($N), $N, $N, $N)", EntityKey.class, cached, denormalized, observedVersion, observedVersions)));
+        builder.endControlFlow();
+
+        // A put that raced with this read may already have invalidated the view, so it must not be kept.
+        builder.addStatement("$L", denormalizedMap.put(CodeBlock.of("$N", id), CodeBlock.of("$N", denormalized)));
+        builder.beginControlFlow("if ($N.get() != $N)", generation, observedGeneration);
+        builder.addStatement("$L", denormalizedMap.remove(CodeBlock.of("$N", id), CodeBlock.of("$N", denormalized)));
+        builder.endControlFlow();
+        builder.endControlFlow();
+        builder.addStatement("$N.put($N, $N)", denormalizedById, id, denormalized);
+        builder.endControlFlow();
 
-        builder.addStatement("return $N", dirty);
+        builder.addStatement("return $N", denormalizedById);
 
         return builder.build();
     }
 
     /**
-     * Generates a getter method for an Entity.
+     * Generates the getter method for a batch of Entities of a type that can embed itself, which starts a resolution
+     * with its own CycleGuard.
      * @param entitySpecElement EntitySpec annotated element.
-     * @param readers Array of store readers.
      * @param processingEnv Processing environment.
-     * @return getEntity(ID) -> Entity methodSpec.
+     * @return getEntities(Collection<ID>) -> Map<ID, Entity> methodSpec.
      */
-    private MethodSpec getGetterForEntity(Element entitySpecElement, FieldSpec readers, ProcessingEnvironment processingEnv) {
+    private MethodSpec getGuardedMultiGetterEntryForEntity(Element entitySpecElement, ProcessingEnvironment processingEnv) {
         ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
 
-        ParameterSpec id = ParameterSpec.builder(Utils.getIdTypeName(entitySpecElement), "id").build();
+        ParameterSpec ids = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
 
-        MethodSpec.Builder builder = MethodSpec.methodBuilder(String.format("get%s", entityType.simpleName()))
+        // The guard is only created once the memoized views do not cover the batch.
+        return MethodSpec.methodBuilder(Utils.getMultiGetterName(entityType))
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(id)
+                .addParameter(ids)
+                .returns(ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType))
+                .addStatement("return $L($N, null)", Utils.getMultiGetterName(entityType), ids)
+                .build();
+    }
+
+    /**
+     * Generates a method that loads Entities through the loader of their type and puts them, so that they are
+     * normalized like any other put. Batch loaders receive all the IDs in one call, other loaders one ID at a time.
+     * IDs that already have a load in flight wait for it rather than being loaded again, and IDs that the loader finds
+     * absent are remembered if the type caches absences.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param loaders Map of loader fields by Entity types.
+     * @param loads Map of in-flight load fields by Entity types.
+     * @param absences Map of absent ID cache fields by Entity types.
+     * @param processingEnv Processing environment.
+     * @return loadEntities(Collection<ID>) -> Map<ID, Entity> methodSpec.
+     */
+    private MethodSpec getLoaderForEntity(Element entitySpecElement, Map<TypeName, FieldSpec> loaders, Map<TypeName, FieldSpec> loads, Map<TypeName, FieldSpec> absences, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+        TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpecElement));
+        TypeName Collection_Id = ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType);
+        TypeName Map_Id_Entity = ParameterizedTypeName.get(ClassName.get(Map.class), boxedIdType, entityType);
+        TypeName HashMap_Id_Entity = ParameterizedTypeName.get(ClassName.get(HashMap.class), boxedIdType, entityType);
+        FieldSpec loader = loaders.get(entityType);
+        FieldSpec absence = absences.get(entityType);
+
+        ParameterSpec ids = ParameterSpec.builder(Collection_Id, "ids").build();
+        ParameterSpec batchIds = ParameterSpec.builder(Collection_Id, "batchIds").build();
+        FieldSpec loadedById = FieldSpec.builder(Map_Id_Entity, "loadedById").build();
+        FieldSpec id = FieldSpec.builder(boxedIdType, "id").build();
+        FieldSpec loaded = FieldSpec.builder(entityType, "loaded").build();
+
+        MethodSpec call = MethodSpec.methodBuilder("call")
+                .addAnnotation(Override.class)
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build())
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(batchIds)
+                .addException(Exception.class)
+                .returns(Map_Id_Entity)
+                .addStatement("$T $N", loadedById.type, loadedById)
+                .beginControlFlow("if ($N instanceof $T)", loader, IBatchEntityLoader.class)
+                .addStatement("$N = (($T) $N).loadAll($N)",
+                        loadedById,
+                        ParameterizedTypeName.get(ClassName.get(IBatchEntityLoader.class), boxedIdType, entityType),
+                        loader,
+                        batchIds)
+                .nextControlFlow("else")
+                .addStatement("$N = new $T()", loadedById, HashMap_Id_Entity)
+                .beginControlFlow("for ($T $N : $N)", id.type, id, batchIds)
+                .addStatement("$T $N = $N.load($N)", loaded.type, loaded, loader, id)
+                .beginControlFlow("if ($N != null)", loaded)
+                .addStatement("$N.put($N, $N)", loadedById, id, loaded)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .beginControlFlow("if ($N != null)", absence)
+                .beginControlFlow("for ($T $N : $N)", id.type, id, batchIds)
+                .beginControlFlow("if (!$N.containsKey($N))", loadedById, id)
+                .addStatement("$N.add($N)", absence, id)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .beginControlFlow("if (!$N.isEmpty())", loadedById)
+                .addStatement("putAll($N.values())", loadedById)
+                .endControlFlow()
+                .addStatement("return $N", loadedById)
+                .build();
+
+        TypeSpec batchCall = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(SingleFlight.IBatchCall.class), boxedIdType, entityType))
+                .addMethod(call)
+                .build();
+
+        return MethodSpec.methodBuilder(String.format("load%ss", entityType.simpleName()))
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(ids)
+                .returns(Map_Id_Entity)
+                .addStatement("return $N.executeAll($N, $L)", loads.get(entityType), ids, batchCall)
+                .build();
+    }
+
+    /**
+     * Generates a method that builds the denormalized view of an Entity from the latest versions of the Entities
+     * embedded in it, which have already been resolved by the batch getter.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param referenceIndex Reverse-reference index field.
+     * @param processingEnv Processing environment.
+     * @return denormalize(Entity, Map<ID, NestedEntity>...) -> Entity methodSpec.
+     */
+    private MethodSpec getDenormalizerForEntity(Element entitySpecElement, FieldSpec referenceIndex, ProcessingEnvironment processingEnv) {
+        ClassName entityType = Utils.getEntityType(entitySpecElement, processingEnv);
+
+        ParameterSpec cached = ParameterSpec.builder(entityType, "cached").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("denormalize")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(cached)
                 .returns(entityType);
 
-        FieldSpec cached = FieldSpec.builder(entityType, "cached").build();
-        builder.addStatement("$T $N = null", cached.type, cached);
+        for (TypeName nestedEntityType : getNestedEntityTypes(entitySpecElement, processingEnv)) {
+            TypeName Map_NestedId_NestedEntity = ParameterizedTypeName.get(ClassName.get(Map.class), idTypeNameByEntityType.get(nestedEntityType), nestedEntityType);
+            builder.addParameter(Map_NestedId_NestedEntity, getResolvedMapName(nestedEntityType));
+        }
 
-        // Loop through readers.
-        ClassName readerType = ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME);
-        FieldSpec reader = FieldSpec.builder(readerType, "reader").build();
-        builder.beginControlFlow("for ($T $N : $N)", reader.type, reader, readers);
-        builder.addStatement("$N = $N.get$L($N)", cached, reader, entityType.simpleName(), id);
-        builder.beginControlFlow("if ($N != null)", cached);
-        builder.addStatement("break");
-        builder.endControlFlow();
-        builder.endControlFlow();
+        FieldSpec denormalized = FieldSpec.builder(entityType, "denormalized").build();
+        builder.addStatement("$T $N", denormalized.type, denormalized);
 
-        builder.beginControlFlow("if ($N == null)", cached);
-        builder.addStatement("return null");
-        builder.endControlFlow();
+        // Embedded Entities are linked so that the memoized view is invalidated when they are put.
+        FieldSpec entityKey = FieldSpec.builder(EntityKey.class, "entityKey").build();
+        builder.addStatement("$T $N = new $T($N)", entityKey.type, entityKey, EntityKey.class, cached);
 
         FieldSpec dirty = FieldSpec.builder(TypeName.BOOLEAN, "dirty").build();
         builder.addStatement("$T $N = false", dirty.type, dirty);
@@ -307,8 +2250,12 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                         source,
                         sourceCopy,
                         nestedDirty,
-                        0);
+                        0,
+                        entityKey,
+                        referenceIndex);
+                builder.beginControlFlow("if ($N != null)", source);
                 builder.addCode(codeBlock);
+                builder.endControlFlow();
 
                 // Check for equality and add to constructor.
                 builder.beginControlFlow("if ($N)", nestedDirty);
@@ -323,10 +2270,19 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
 
             // Entity.
             else if (typeNameByGeneratedClassName.containsKey(enclosedElementType.toString())) {
-                builder.addStatement("$T $N = get$L($N.get$L().id())",
-                        enclosedElementField.type,
+                // Entities left null stay null.
+                builder.addStatement("$T $N = null", enclosedElementField.type, enclosedElementField);
+                builder.beginControlFlow("if ($N.get$L() != null)", cached, enclosedElementName);
+                builder.addStatement("$N = $L.get($N.get$L().$L())",
                         enclosedElementField,
-                        enclosedElementType.toString(),
+                        getResolvedMapName(typeNameByGeneratedClassName.get(enclosedElementType.toString())),
+                        cached,
+                        enclosedElementName,
+                        idGetterNameByEntityType.get(typeNameByGeneratedClassName.get(enclosedElementType.toString())));
+                builder.addStatement("$N.link($N, new $T($N.get$L()))",
+                        referenceIndex,
+                        entityKey,
+                        EntityKey.class,
                         cached,
                         enclosedElementName);
 
@@ -337,6 +2293,7 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                         enclosedElementField);
                 builder.addStatement("$N = true", dirty);
                 builder.endControlFlow();
+                builder.endControlFlow();
 
                 constructorString.append("$N");
                 constructorArgs.add(enclosedElementField);
@@ -355,29 +2312,226 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
             }
         }
 
-        // Add entity type name to list so that it is included in array.
+        // Add entity type name and target to list so that they are included in array.
         constructorArgs.add(0, entityType);
+        constructorArgs.add(0, denormalized);
 
         Object[] constructorArgsArray = new Object[constructorArgs.size()];
         constructorArgs.toArray(constructorArgsArray);
 
         builder.beginControlFlow("if ($N)", dirty);
-        builder.addStatement("return new $T(" + constructorString.toString() + ")", constructorArgsArray);
+        builder.addStatement("$N = new $T(" + constructorString.toString() + ")", constructorArgsArray);
         builder.nextControlFlow("else");
-        builder.addStatement("return $N", cached);
+        builder.addStatement("$N = $N", denormalized, cached);
+        builder.endControlFlow();
+
+        builder.addStatement("return $N", denormalized);
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a CodeBlock that adds the IDs of the Entities embedded in an Entity to the nested ID set of their type.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param source The Entity.
+     * @param processingEnv Processing environment.
+     * @return Codeblock.
+     */
+    private CodeBlock generateIdCollectorCodeBlock(Element entitySpecElement, FieldSpec source, ProcessingEnvironment processingEnv) {
+        CodeBlock.Builder builder = CodeBlock.builder();
+
+        for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
+            if (enclosedElement.getKind() != ElementKind.FIELD) {
+                continue;
+            }
+
+            TypeName enclosedElementType = TypeName.get(enclosedElement.asType());
+            String enclosedElementName = Utils.convertToPascalCase(enclosedElement.getSimpleName().toString(), processingEnv.getLocale());
+
+            boolean isParameterizable = Utils.isList(enclosedElementType) || Utils.isMap(enclosedElementType);
+            if (isParameterizable && !Utils.getParameterizedEntities(enclosedElementType, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
+                FieldSpec nestedSource = FieldSpec.builder(enclosedElementType, enclosedElement.getSimpleName().toString()).build();
+                builder.addStatement("$T $N = $N.get$L()", nestedSource.type, nestedSource, source, enclosedElementName);
+                builder.add(generateIdCollectorCodeBlock(nestedSource, 0));
+            } else if (typeNameByGeneratedClassName.containsKey(enclosedElementType.toString())) {
+                TypeName nestedEntityType = typeNameByGeneratedClassName.get(enclosedElementType.toString());
+                builder.beginControlFlow("if ($N.get$L() != null)", source, enclosedElementName);
+                builder.addStatement("$L.add($N.get$L().$L())",
+                        getNestedIdsName(nestedEntityType),
+                        source,
+                        enclosedElementName,
+                        idGetterNameByEntityType.get(nestedEntityType));
+                builder.endControlFlow();
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Generates a CodeBlock that adds the IDs of the Entities in a type to the nested ID set of their type. Nulls are
+     * skipped at every level.
+     * @param source The type containing Entities.
+     * @param depth Recursion depth.
+     * @return Codeblock.
+     */
+    private CodeBlock generateIdCollectorCodeBlock(FieldSpec source, int depth) {
+        CodeBlock.Builder builder = CodeBlock.builder();
+
+        TypeName sourceType = source.type;
+
+        if (entityClasses.contains(sourceType)) {
+            builder.beginControlFlow("if ($N != null)", source);
+            builder.addStatement("$L.add($N.$L())", getNestedIdsName(sourceType), source, idGetterNameByEntityType.get(sourceType));
+            builder.endControlFlow();
+            return builder.build();
+        }
+
+        if (Utils.getParameterizedEntities(sourceType, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
+            return builder.build();
+        }
+
+        List<TypeName> parameterTypes = Utils.getParameterTypeNames(sourceType, typeNameByGeneratedClassName);
+
+        builder.beginControlFlow("if ($N != null)", source);
+        if (Utils.isList(sourceType)) {
+            FieldSpec nestedSource = FieldSpec.builder(parameterTypes.get(0), String.format("item%d", depth)).build();
+            builder.beginControlFlow("for ($T $N : $N)", nestedSource.type, nestedSource, source);
+            builder.add(generateIdCollectorCodeBlock(nestedSource, depth + 1));
+            builder.endControlFlow();
+        } else if (Utils.isMap(sourceType)) {
+            TypeName Entry_Key_Value = ParameterizedTypeName.get(ClassName.get(Map.Entry.class), parameterTypes.get(0), parameterTypes.get(1));
+            FieldSpec entry = FieldSpec.builder(Entry_Key_Value, String.format("entry%d", depth)).build();
+            FieldSpec nestedKeySource = FieldSpec.builder(parameterTypes.get(0), String.format("key%d", depth)).build();
+            FieldSpec nestedValueSource = FieldSpec.builder(parameterTypes.get(1), String.format("value%d", depth)).build();
+
+            builder.beginControlFlow("for ($T $N : $N.entrySet())", entry.type, entry, source);
+            CodeBlock keyCode = generateIdCollectorCodeBlock(nestedKeySource, depth + 1);
+            if (!keyCode.isEmpty()) {
+                builder.addStatement("$T $N = $N.getKey()", nestedKeySource.type, nestedKeySource, entry);
+                builder.add(keyCode);
+            }
+            CodeBlock valueCode = generateIdCollectorCodeBlock(nestedValueSource, depth + 1);
+            if (!valueCode.isEmpty()) {
+                builder.addStatement("$T $N = $N.getValue()", nestedValueSource.type, nestedValueSource, entry);
+                builder.add(valueCode);
+            }
+            builder.endControlFlow();
+        }
+        builder.endControlFlow();
+
+        return builder.build();
+    }
+
+    /**
+     * Gets the Entity types that are embedded in an Entity, directly or within Lists and Maps.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param processingEnv Processing environment.
+     * @return Embedded Entity types, in the order they are first declared.
+     */
+    private Set<TypeName> getNestedEntityTypes(Element entitySpecElement, ProcessingEnvironment processingEnv) {
+        Set<TypeName> nestedEntityTypes = new LinkedHashSet<>();
+
+        for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
+            if (enclosedElement.getKind() != ElementKind.FIELD) {
+                continue;
+            }
+
+            TypeName enclosedElementType = TypeName.get(enclosedElement.asType());
+            if (Utils.isList(enclosedElementType) || Utils.isMap(enclosedElementType)) {
+                nestedEntityTypes.addAll(Utils.getParameterizedEntities(enclosedElementType, entityClasses, typeNameByGeneratedClassName));
+            } else if (typeNameByGeneratedClassName.containsKey(enclosedElementType.toString())) {
+                nestedEntityTypes.add(typeNameByGeneratedClassName.get(enclosedElementType.toString()));
+            }
+        }
+
+        return nestedEntityTypes;
+    }
+
+    /**
+     * Determines if an Entity of a type can embed another Entity of the same type, directly or through other Entities,
+     * so that stored Entities may form reference cycles.
+     * @param entityType Entity type.
+     * @param processingEnv Processing environment.
+     * @return True if self-embedding, else false.
+     */
+    private boolean isSelfEmbedding(TypeName entityType, ProcessingEnvironment processingEnv) {
+        Set<TypeName> visited = new HashSet<>();
+        Deque<TypeName> pending = new ArrayDeque<>();
+        pending.push(entityType);
+        while (!pending.isEmpty()) {
+            for (TypeName nestedEntityType : getNestedEntityTypes(entitySpecByEntityType.get(pending.pop()), processingEnv)) {
+                if (nestedEntityType.equals(entityType)) {
+                    return true;
+                } else if (visited.add(nestedEntityType)) {
+                    pending.push(nestedEntityType);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param entityType Entity type.
+     * @return Fully qualified name of the Entity type, as returned by entityType().
+     */
+    private String getFullyQualifiedName(ClassName entityType) {
+        return String.format("%s.%s", entityType.packageName(), entityType.simpleName());
+    }
+
+    /**
+     * @param entityType Entity type.
+     * @return Name of the local set collecting the IDs of embedded Entities of a type.
+     */
+    private String getNestedIdsName(TypeName entityType) {
+        return String.format("nested%sIds", ((ClassName) entityType).simpleName());
+    }
+
+    /**
+     * @param entityType Entity type.
+     * @return Name of the local map holding the resolved embedded Entities of a type by ID.
+     */
+    private String getResolvedMapName(TypeName entityType) {
+        return String.format("resolved%sById", ((ClassName) entityType).simpleName());
+    }
+
+    /**
+     * Generates a CodeBlock that links an embedded Entity, unless null, to the Entity containing it and adds it to a
+     * batch.
+     * @param child The embedded Entity.
+     * @param batch Batch of collected Entities, or null to only link the embedded Entity.
+     * @param visited Instances visited while collecting the batch.
+     * @param entityKey Key of the Entity containing the embedded Entity.
+     * @param referenceIndex Reverse-reference index field.
+     * @return Codeblock.
+     */
+    private CodeBlock generateChildCollectorCodeBlock(FieldSpec child, ParameterSpec batch, ParameterSpec visited, ParameterSpec entityKey, FieldSpec referenceIndex) {
+        FieldSpec childKey = FieldSpec.builder(EntityKey.class, String.format("%sKey", child.name)).build();
+
+        CodeBlock.Builder builder = CodeBlock.builder()
+                .beginControlFlow("if ($N != null)", child)
+                .addStatement("$T $N = new $T($N)", childKey.type, childKey, EntityKey.class, child)
+                .addStatement("$N.link($N, $N)", referenceIndex, entityKey, childKey);
+        if (batch != null) {
+            builder.addStatement("collect($N, $N, $N, $N)", child, childKey, batch, visited);
+        }
         builder.endControlFlow();
 
         return builder.build();
     }
 
     /**
-     * Generates a CodeBlock to add Entities in a type to the store and dirty set.
+     * Generates a CodeBlock to add Entities in a type to a batch.
      * @param source The type containing Entities.
      * @param depth Recursion depth.
-     * @param dirty Dirty Entity field.
+     * @param batch Batch of collected Entities, or null to only link them.
+     * @param visited Instances visited while collecting the batch.
+     * @param entityKey Key of the Entity containing the type.
+     * @param referenceIndex Reverse-reference index field.
      * @return Codeblock.
      */
-    private CodeBlock generatePutterCodeBlock(FieldSpec source, int depth, FieldSpec dirty) {
+    private CodeBlock generatePutterCodeBlock(FieldSpec source, int depth, ParameterSpec batch, ParameterSpec visited, ParameterSpec entityKey, FieldSpec referenceIndex) {
         CodeBlock.Builder builder = CodeBlock.builder();
 
         TypeName sourceType = source.type;
@@ -386,13 +2540,13 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
         boolean isParameterizedMap = sourceType instanceof ParameterizedTypeName && Utils.isMap(sourceType);
 
         if (Utils.getParameterizedEntities(sourceType, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
-            builder.addStatement("$N.add($N)", dirty, source);
-            builder.addStatement("put($N)", source);
-            return builder.build();
+            return generateChildCollectorCodeBlock(source, batch, visited, entityKey, referenceIndex);
         }
 
         List<TypeName> parameterTypes = Utils.getParameterTypeNames(sourceType, typeNameByGeneratedClassName);
 
+        // Lists and Maps left null embed nothing.
+        builder.beginControlFlow("if ($N != null)", source);
         if (isParameterizedList) {
             TypeName listParameter = parameterTypes.get(0);
             FieldSpec nestedSource = FieldSpec.builder(listParameter, String.format("item%d", depth)).build();
@@ -402,7 +2556,7 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                     nestedSource,
                     source);
 
-            CodeBlock nestedCode = generatePutterCodeBlock(nestedSource, depth + 1, dirty);
+            CodeBlock nestedCode = generatePutterCodeBlock(nestedSource, depth + 1, batch, visited, entityKey, referenceIndex);
             builder.add(nestedCode);
 
             builder.endControlFlow();
@@ -419,7 +2573,7 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                     source);
 
             if (!Utils.getParameterizedEntities(keyParameter, entityClasses, typeNameByGeneratedClassName).isEmpty() || entityClasses.contains(keyParameter)) {
-                CodeBlock nestedCode = generatePutterCodeBlock(nestedKeySource, depth + 1, dirty);
+                CodeBlock nestedCode = generatePutterCodeBlock(nestedKeySource, depth + 1, batch, visited, entityKey, referenceIndex);
                 builder.add(nestedCode);
             }
 
@@ -430,12 +2584,13 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                         nestedValueSource,
                         source,
                         nestedKeySource);
-                CodeBlock nestedCode = generatePutterCodeBlock(nestedValueSource, depth + 1, dirty);
+                CodeBlock nestedCode = generatePutterCodeBlock(nestedValueSource, depth + 1, batch, visited, entityKey, referenceIndex);
                 builder.add(nestedCode);
             }
 
             builder.endControlFlow();
         }
+        builder.endControlFlow();
 
         return builder.build();
     }
@@ -446,9 +2601,11 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
      * @param copy The type that will contain updated versions of the Entities.
      * @param dirty Dirty field.
      * @param depth Recursion depth.
+     * @param entityKey Key of the Entity containing the source.
+     * @param referenceIndex Reverse-reference index field.
      * @return Codeblock.
      */
-    private CodeBlock generateGetterCodeBlock(FieldSpec source, FieldSpec copy, FieldSpec dirty, int depth) {
+    private CodeBlock generateGetterCodeBlock(FieldSpec source, FieldSpec copy, FieldSpec dirty, int depth, FieldSpec entityKey, FieldSpec referenceIndex) {
         CodeBlock.Builder builder = CodeBlock.builder();
 
         TypeName sourceType = source.type;
@@ -471,6 +2628,10 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                     nestedSource,
                     source);
 
+            // Null elements are copied as they are.
+            builder.beginControlFlow("if ($N == null)", nestedSource);
+            builder.addStatement("$N.add(null)", copy);
+            builder.nextControlFlow("else");
             if (nestedSource.type instanceof ParameterizedTypeName) {
                 FieldSpec nestedSourceCopy = FieldSpec.builder(listParameter, String.format("item%dCopy", depth)).build();
                 builder.addStatement("$T $N = new $T()",
@@ -478,7 +2639,7 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                         nestedSourceCopy,
                         convertAbstractTypeToReal(nestedSourceCopy.type));
 
-                CodeBlock nestedCode = generateGetterCodeBlock(nestedSource, nestedSourceCopy, dirty, depth + 1);
+                CodeBlock nestedCode = generateGetterCodeBlock(nestedSource, nestedSourceCopy, dirty, depth + 1, entityKey, referenceIndex);
                 builder.add(nestedCode);
 
                 builder.addStatement("$N.add($N)",
@@ -486,7 +2647,8 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                         nestedSourceCopy);
             } else {
                 FieldSpec item = FieldSpec.builder(nestedSource.type, "item").build();
-                builder.addStatement("$T $N = get$L($N.id())", item.type, item, ((ClassName) nestedSource.type).simpleName(), nestedSource);
+                builder.addStatement("$T $N = $L.get($N.$L())", item.type, item, getResolvedMapName(nestedSource.type), nestedSource, idGetterNameByEntityType.get(nestedSource.type));
+                builder.addStatement("$N.link($N, new $T($N))", referenceIndex, entityKey, EntityKey.class, nestedSource);
 
                 // Check for equality and add to constructor.
                 String equalityChecker = item.type.isPrimitive() ?
@@ -500,6 +2662,7 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                 builder.addStatement("$N.add($N)", copy, item);
                 builder.endControlFlow();
             }
+            builder.endControlFlow();
 
             builder.endControlFlow();
         }
@@ -521,54 +2684,68 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                     source,
                     nestedKeySource);
 
+            // Null keys are copied as they are.
             FieldSpec nestedKeySourceCopy = null;
             if (!Utils.getParameterizedEntities(keyParameter, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
                 nestedKeySourceCopy = FieldSpec.builder(keyParameter, String.format("key%dCopy", depth)).build();
-                builder.addStatement("$T $N = new $T()",
-                        nestedKeySourceCopy.type,
+                builder.addStatement("$T $N = null", nestedKeySourceCopy.type, nestedKeySourceCopy);
+                builder.beginControlFlow("if ($N != null)", nestedKeySource);
+                builder.addStatement("$N = new $T()",
                         nestedKeySourceCopy,
                         convertAbstractTypeToReal(nestedKeySourceCopy.type));
 
-                CodeBlock nestedCode = generateGetterCodeBlock(nestedKeySource, nestedKeySourceCopy, dirty, depth + 1);
+                CodeBlock nestedCode = generateGetterCodeBlock(nestedKeySource, nestedKeySourceCopy, dirty, depth + 1, entityKey, referenceIndex);
                 builder.add(nestedCode);
+                builder.endControlFlow();
             } else if (entityClasses.contains(keyParameter)) {
                 nestedKeySourceCopy = FieldSpec.builder(keyParameter, String.format("key%dCopy", depth)).build();
-                builder.addStatement("$T $N = get$L($N.id())",
-                        nestedKeySourceCopy.type,
+                builder.addStatement("$T $N = null", nestedKeySourceCopy.type, nestedKeySourceCopy);
+                builder.beginControlFlow("if ($N != null)", nestedKeySource);
+                builder.addStatement("$N = $L.get($N.$L())",
                         nestedKeySourceCopy,
-                        ((ClassName) keyParameter).simpleName(),
-                        nestedKeySource);
+                        getResolvedMapName(keyParameter),
+                        nestedKeySource,
+                        idGetterNameByEntityType.get(keyParameter));
+                builder.addStatement("$N.link($N, new $T($N))", referenceIndex, entityKey, EntityKey.class, nestedKeySource);
                 // Equality check.
                 builder.beginControlFlow("if (!($N.equals($N)))",
                         nestedKeySource,
                         nestedKeySourceCopy);
                 builder.addStatement("$N = true", dirty);
                 builder.endControlFlow();
+                builder.endControlFlow();
             }
 
+            // Null values are copied as they are.
             FieldSpec nestedValueSourceCopy = null;
             if (!Utils.getParameterizedEntities(valueParameter, entityClasses, typeNameByGeneratedClassName).isEmpty()) {
                 nestedValueSourceCopy = FieldSpec.builder(valueParameter, String.format("value%dCopy", depth)).build();
-                builder.addStatement("$T $N = new $T()",
-                        nestedValueSourceCopy.type,
+                builder.addStatement("$T $N = null", nestedValueSourceCopy.type, nestedValueSourceCopy);
+                builder.beginControlFlow("if ($N != null)", nestedValueSource);
+                builder.addStatement("$N = new $T()",
                         nestedValueSourceCopy,
                         convertAbstractTypeToReal(nestedValueSourceCopy.type));
 
-                CodeBlock nestedCode = generateGetterCodeBlock(nestedValueSource, nestedValueSourceCopy, dirty, depth + 1);
+                CodeBlock nestedCode = generateGetterCodeBlock(nestedValueSource, nestedValueSourceCopy, dirty, depth + 1, entityKey, referenceIndex);
                 builder.add(nestedCode);
+                builder.endControlFlow();
             } else if (entityClasses.contains(valueParameter)) {
                 nestedValueSourceCopy = FieldSpec.builder(valueParameter, String.format("value%dCopy", depth)).build();
-                builder.addStatement("$T $N = get$L($N.id())",
-                        nestedValueSourceCopy.type,
+                builder.addStatement("$T $N = null", nestedValueSourceCopy.type, nestedValueSourceCopy);
+                builder.beginControlFlow("if ($N != null)", nestedValueSource);
+                builder.addStatement("$N = $L.get($N.$L())",
                         nestedValueSourceCopy,
-                        ((ClassName) valueParameter).simpleName(),
-                        nestedValueSource);
+                        getResolvedMapName(valueParameter),
+                        nestedValueSource,
+                        idGetterNameByEntityType.get(valueParameter));
+                builder.addStatement("$N.link($N, new $T($N))", referenceIndex, entityKey, EntityKey.class, nestedValueSource);
                 // Equality check.
                 builder.beginControlFlow("if (!($N.equals($N)))",
                         nestedValueSource,
                         nestedValueSourceCopy);
                 builder.addStatement("$N = true", dirty);
                 builder.endControlFlow();
+                builder.endControlFlow();
             }
 
             builder.addStatement("$N.put($N, $N)",
@@ -584,9 +2761,11 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
 
     /**
      * Generates the Builder class.
-     * @return
+     * @param entitySpecs EntitySpec annotated elements.
+     * @param processingEnv Processing environment.
+     * @return Builder typeSpec.
      */
-    private TypeSpec getTypeSpec_Builder() {
+    private TypeSpec getTypeSpec_Builder(Set<? extends Element> entitySpecs, ProcessingEnvironment processingEnv) {
         FieldSpec readers = getFieldSpec_readers();
         FieldSpec writers = getFieldSpec_writers();
 
@@ -611,42 +2790,295 @@ public class RepositoryTemplateGenerator implements ITemplateGenerator {
                 .addStatement("return this")
                 .build();
 
+        // Concurrent default store.
+        FieldSpec concurrent = FieldSpec.builder(TypeName.BOOLEAN, "concurrent", Modifier.PRIVATE).build();
+        ParameterSpec concurrentParameterSpec = ParameterSpec.builder(TypeName.BOOLEAN, "concurrent").build();
+
+        MethodSpec setConcurrent = MethodSpec.methodBuilder("setConcurrent")
+                .addJavadoc("Backs the default store, and the memoized views, with maps that can be read and written by multiple threads.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(concurrentParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", concurrent, concurrentParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        // Executor delivering change notifications.
+        FieldSpec executor = FieldSpec.builder(Executor.class, "executor", Modifier.PRIVATE).build();
+        ParameterSpec executorParameterSpec = ParameterSpec.builder(Executor.class, "executor").build();
+
+        MethodSpec setExecutor = MethodSpec.methodBuilder("setExecutor")
+                .addJavadoc("Sets the executor that delivers change notifications to subscribers. Defaults to a shared daemon thread.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(executorParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", executor, executorParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        // Subscriber buffer of publishers.
+        FieldSpec publisherBufferSize = FieldSpec.builder(TypeName.INT, "publisherBufferSize", Modifier.PRIVATE)
+                .initializer("$T.DEFAULT_BUFFER_SIZE", EntityPublisher.class)
+                .build();
+        ParameterSpec publisherBufferSizeParameterSpec = ParameterSpec.builder(TypeName.INT, "publisherBufferSize").build();
+
+        MethodSpec setPublisherBufferSize = MethodSpec.methodBuilder("setPublisherBufferSize")
+                .addJavadoc("Sets how many distinct Entities a publisher buffers for a subscriber that has not requested them. A\n" +
+                        "subscriber that falls further behind is failed rather than slowing down puts.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(publisherBufferSizeParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", publisherBufferSize, publisherBufferSizeParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        // Hit promotion.
+        FieldSpec promoteHits = FieldSpec.builder(TypeName.BOOLEAN, "promoteHits", Modifier.PRIVATE).build();
+        ParameterSpec promoteHitsParameterSpec = ParameterSpec.builder(TypeName.BOOLEAN, "promoteHits").build();
+
+        MethodSpec setPromoteHits = MethodSpec.methodBuilder("setPromoteHits")
+                .addJavadoc("Writes Entities found at a reader to the writers at the indices of every reader above it, so that readers\n" +
+                        "and writers at the same index act as the tiers of a cache.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(promoteHitsParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", promoteHits, promoteHitsParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        // Expiry.
+        FieldSpec ticker = FieldSpec.builder(ITicker.class, "ticker", Modifier.PRIVATE)
+                .initializer("$T.SYSTEM", ITicker.class)
+                .build();
+        ParameterSpec tickerParameterSpec = ParameterSpec.builder(ITicker.class, "ticker").build();
+
+        MethodSpec setTicker = MethodSpec.methodBuilder("setTicker")
+                .addJavadoc("Sets the time source that expiry is measured with. Defaults to System.nanoTime().\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(tickerParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", ticker, tickerParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        FieldSpec sweepIntervalNanos = FieldSpec.builder(TypeName.LONG, "sweepIntervalNanos", Modifier.PRIVATE)
+                .initializer("$T.SECONDS.toNanos(1)", TimeUnit.class)
+                .build();
+        ParameterSpec durationParameterSpec = ParameterSpec.builder(TypeName.LONG, "duration").build();
+        ParameterSpec unitParameterSpec = ParameterSpec.builder(TimeUnit.class, "unit").build();
+
+        MethodSpec setSweepInterval = MethodSpec.methodBuilder("setSweepInterval")
+                .addJavadoc("Sets how often expired Entities are swept, 0 to only expire them when they are read. Concurrent repositories\n" +
+                        "are swept on a background thread, so their writers and listeners must be safe for use by multiple threads.\n" +
+                        "Other repositories are swept by the put or get that finds the interval has passed. Defaults to one second.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(durationParameterSpec)
+                .addParameter(unitParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N.toNanos($N)", sweepIntervalNanos, unitParameterSpec, durationParameterSpec)
+                .addStatement("return this")
+                .build();
+
+        List<FieldSpec> expiryOptions = new LinkedList<>();
+        List<MethodSpec> setExpiries = new LinkedList<>();
+        for (Element entitySpec : entitySpecs) {
+            ClassName entityType = Utils.getEntityType(entitySpec, processingEnv);
+            FieldSpec entityExpiry = getExpiryFieldForEntity(entitySpec, processingEnv);
+
+            for (String kind : new String[] {"Write", "Access"}) {
+                FieldSpec afterNanos = FieldSpec.builder(TypeName.LONG, String.format("%sAfter%sNanos", entityExpiry.name, kind), Modifier.PRIVATE).build();
+                expiryOptions.add(afterNanos);
+                setExpiries.add(MethodSpec.methodBuilder(String.format("set%sExpireAfter%s", entityType.simpleName(), kind))
+                        .addJavadoc("Expires Entities of this type a fixed time after they were last $L, so that gets treat them as\n" +
+                                "misses and ask the readers and loader for newer ones.\n", kind.equals("Write") ? "written" : "read or written")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(durationParameterSpec)
+                        .addParameter(unitParameterSpec)
+                        .returns(ClassName.bestGuess("Builder"))
+                        .addStatement("this.$N = $N.toNanos($N)", afterNanos, unitParameterSpec, durationParameterSpec)
+                        .addStatement("return this")
+                        .build());
+            }
+        }
+
+        // Read-through loaders and ID filters.
+        List<FieldSpec> loaders = new LinkedList<>();
+        List<MethodSpec> setLoaders = new LinkedList<>();
+        List<FieldSpec> filterOptions = new LinkedList<>();
+        List<MethodSpec> setFilters = new LinkedList<>();
+        for (Element entitySpec : entitySpecs) {
+            FieldSpec entityLoader = getLoaderFieldForEntity(entitySpec, processingEnv);
+            FieldSpec loader = FieldSpec.builder(entityLoader.type, entityLoader.name, Modifier.PRIVATE).build();
+            ParameterSpec loaderParameterSpec = ParameterSpec.builder(loader.type, loader.name).build();
+            loaders.add(loader);
+
+            setLoaders.add(MethodSpec.methodBuilder(String.format("set%sLoader", Utils.getEntityType(entitySpec, processingEnv).simpleName()))
+                    .addJavadoc("Loads the Entities that no reader has, they are then put like any other Entity. The misses of a get\n" +
+                            "are loaded in one call if the loader is an IBatchEntityLoader.\n")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(loaderParameterSpec)
+                    .returns(ClassName.bestGuess("Builder"))
+                    .addStatement("this.$N = $N", loader, loaderParameterSpec)
+                    .addStatement("return this")
+                    .build());
+
+            FieldSpec entityAbsences = getAbsencesFieldForEntity(entitySpec, processingEnv);
+            FieldSpec absencesMaximumSize = FieldSpec.builder(TypeName.INT, String.format("%sMaximumSize", entityAbsences.name), Modifier.PRIVATE).build();
+            FieldSpec absencesTtlNanos = FieldSpec.builder(TypeName.LONG, String.format("%sTtlNanos", entityAbsences.name), Modifier.PRIVATE).build();
+            ParameterSpec maximumSizeParameterSpec = ParameterSpec.builder(TypeName.INT, "maximumSize").build();
+            loaders.add(absencesMaximumSize);
+            loaders.add(absencesTtlNanos);
+
+            setLoaders.add(MethodSpec.methodBuilder(String.format("set%sNegativeCache", Utils.getEntityType(entitySpec, processingEnv).simpleName()))
+                    .addJavadoc("Remembers the IDs that the loader found absent for a fixed time, so that gets for them return null\n" +
+                            "without loading them again. Putting an Entity forgets its ID.\n")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(maximumSizeParameterSpec)
+                    .addParameter(durationParameterSpec)
+                    .addParameter(unitParameterSpec)
+                    .returns(ClassName.bestGuess("Builder"))
+                    .addStatement("this.$N = $N", absencesMaximumSize, maximumSizeParameterSpec)
+                    .addStatement("this.$N = $N.toNanos($N)", absencesTtlNanos, unitParameterSpec, durationParameterSpec)
+                    .addStatement("return this")
+                    .build());
+
+            FieldSpec entityFilter = getFilterFieldForEntity(entitySpec, processingEnv);
+            FieldSpec expectedInsertions = FieldSpec.builder(TypeName.INT, String.format("%sExpectedInsertions", entityFilter.name), Modifier.PRIVATE).build();
+            FieldSpec falsePositiveRate = FieldSpec.builder(TypeName.DOUBLE, String.format("%sFalsePositiveRate", entityFilter.name), Modifier.PRIVATE).build();
+            ParameterSpec expectedInsertionsParameterSpec = ParameterSpec.builder(TypeName.INT, "expectedInsertions").build();
+            ParameterSpec falsePositiveRateParameterSpec = ParameterSpec.builder(TypeName.DOUBLE, "falsePositiveRate").build();
+            filterOptions.add(expectedInsertions);
+            filterOptions.add(falsePositiveRate);
+
+            TypeName boxedIdType = Utils.getSafelyBoxedTypeName(Utils.getIdTypeName(entitySpec));
+            FieldSpec seed = FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), boxedIdType), String.format("%sSeed", entityFilter.name), Modifier.PRIVATE)
+                    .initializer("new $T()", ParameterizedTypeName.get(ClassName.get(LinkedList.class), boxedIdType))
+                    .build();
+            ParameterSpec idsParameterSpec = ParameterSpec.builder(ParameterizedTypeName.get(ClassName.get(Collection.class), boxedIdType), "ids").build();
+            filterOptions.add(seed);
+
+            setFilters.add(MethodSpec.methodBuilder(String.format("seed%sFilter", Utils.getEntityType(entitySpec, processingEnv).simpleName()))
+                    .addJavadoc("Adds IDs to the filter when it is built, typically the IDs of the Entities already in the stores.\n")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(idsParameterSpec)
+                    .returns(ClassName.bestGuess("Builder"))
+                    .addStatement("this.$N.addAll($N)", seed, idsParameterSpec)
+                    .addStatement("return this")
+                    .build());
+
+            setFilters.add(MethodSpec.methodBuilder(String.format("set%sFilter", Utils.getEntityType(entitySpec, processingEnv).simpleName()))
+                    .addJavadoc("Keeps a Bloom filter of the IDs that have been put, so that gets for other IDs return null without\n" +
+                            "consulting the readers. Only sound if every Entity of this type is put through the repository, or its ID\n" +
+                            "is seeded, either when the filter is built or by writing the stores through seedFilters.\n")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(expectedInsertionsParameterSpec)
+                    .addParameter(falsePositiveRateParameterSpec)
+                    .returns(ClassName.bestGuess("Builder"))
+                    .addStatement("this.$N = $N", expectedInsertions, expectedInsertionsParameterSpec)
+                    .addStatement("this.$N = $N", falsePositiveRate, falsePositiveRateParameterSpec)
+                    .addStatement("return this")
+                    .build());
+        }
+
+        // Versioned default store.
+        FieldSpec versioned = FieldSpec.builder(TypeName.BOOLEAN, "versioned", Modifier.PRIVATE).build();
+        ParameterSpec versionedParameterSpec = ParameterSpec.builder(TypeName.BOOLEAN, "versioned").build();
+
+        MethodSpec setVersioned = MethodSpec.methodBuilder("setVersioned")
+                .addJavadoc("Backs the default store with a versioned store, so that memoized Entities are checked against writes\n" +
+                        "made to the store directly rather than through the repository.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(versionedParameterSpec)
+                .returns(ClassName.bestGuess("Builder"))
+                .addStatement("this.$N = $N", versioned, versionedParameterSpec)
+                .addStatement("return this")
+                .build();
+
         // Default in-memory store.
+        FieldSpec defaultReader = FieldSpec.builder(ClassName.get(StoreReaderInterfaceTemplateGenerator.PACKAGE, StoreReaderInterfaceTemplateGenerator.CLASSNAME), "defaultReader")
+                .build();
+        FieldSpec defaultWriter = FieldSpec.builder(ClassName.get(StoreWriterInterfaceTemplateGenerator.PACKAGE, StoreWriterInterfaceTemplateGenerator.CLASSNAME), "defaultWriter")
+                .build();
         FieldSpec defaultStore = FieldSpec.builder(ClassName.get(InMemoryStoreTemplateGenerator.PACKAGE, InMemoryStoreTemplateGenerator.CLASSNAME), "defaultStore")
                 .build();
+        FieldSpec concurrentDefaultStore = FieldSpec.builder(ClassName.get(InMemoryStoreTemplateGenerator.PACKAGE, InMemoryStoreTemplateGenerator.CONCURRENT_CLASSNAME), "defaultStore")
+                .build();
+        FieldSpec versionedDefaultStore = FieldSpec.builder(ClassName.get(InMemoryStoreTemplateGenerator.PACKAGE, InMemoryStoreTemplateGenerator.VERSIONED_CLASSNAME), "defaultStore")
+                .build();
+        FieldSpec concurrentVersionedDefaultStore = FieldSpec.builder(ClassName.get(InMemoryStoreTemplateGenerator.PACKAGE, InMemoryStoreTemplateGenerator.CONCURRENT_VERSIONED_CLASSNAME), "defaultStore")
+                .build();
 
         MethodSpec build = MethodSpec.methodBuilder("build")
                 .addModifiers(Modifier.PUBLIC)
                 .returns(ClassName.get(PACKAGE, CLASSNAME))
                 // In-memory store instance.
+                .addStatement("$T $N", defaultReader.type, defaultReader)
+                .addStatement("$T $N", defaultWriter.type, defaultWriter)
+                .beginControlFlow("if ($N && $N)", concurrent, versioned)
+                .addStatement("$T $N = new $T()", concurrentVersionedDefaultStore.type, concurrentVersionedDefaultStore, concurrentVersionedDefaultStore.type)
+                .addStatement("$N = $N", defaultReader, concurrentVersionedDefaultStore)
+                .addStatement("$N = $N", defaultWriter, concurrentVersionedDefaultStore)
+                .nextControlFlow("else if ($N)", concurrent)
+                .addStatement("$T $N = new $T()", concurrentDefaultStore.type, concurrentDefaultStore, concurrentDefaultStore.type)
+                .addStatement("$N = $N", defaultReader, concurrentDefaultStore)
+                .addStatement("$N = $N", defaultWriter, concurrentDefaultStore)
+                .nextControlFlow("else if ($N)", versioned)
+                .addStatement("$T $N = new $T()", versionedDefaultStore.type, versionedDefaultStore, versionedDefaultStore.type)
+                .addStatement("$N = $N", defaultReader, versionedDefaultStore)
+                .addStatement("$N = $N", defaultWriter, versionedDefaultStore)
+                .nextControlFlow("else")
                 .addStatement("$T $N = new $T()", defaultStore.type, defaultStore, defaultStore.type)
+                .addStatement("$N = $N", defaultReader, defaultStore)
+                .addStatement("$N = $N", defaultWriter, defaultStore)
+                .endControlFlow()
                 // Default getter.
                 .beginControlFlow("if ($N == null || $N.length == 0)", readers, readers)
                 .addStatement("$N = new $T { $N }",
                         readers,
                         readers.type,
-                        defaultStore)
+                        defaultReader)
                 .endControlFlow()
                 // Default setter.
                 .beginControlFlow("if ($N == null || $N.length == 0)", writers, writers)
                 .addStatement("$N = new $T { $N }",
                         writers,
                         writers.type,
-                        defaultStore)
+                        defaultWriter)
+                .endControlFlow()
+                // Default executor.
+                .beginControlFlow("if ($N == null)", executor)
+                .addStatement("$N = $T.defaultExecutor()", executor, ChangeNotifier.class)
                 .endControlFlow()
                 // Construct.
-                .addStatement("return new $T($N, $N)",
-                        ClassName.get(PACKAGE, CLASSNAME),
-                        readers,
-                        writers)
+                .addStatement("return new $T(this)", ClassName.get(PACKAGE, CLASSNAME))
                 .build();
 
         return TypeSpec.classBuilder("Builder")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                 .addField(readers)
                 .addField(writers)
+                .addField(concurrent)
+                .addField(versioned)
+                .addField(executor)
+                .addField(publisherBufferSize)
+                .addField(promoteHits)
+                .addFields(loaders)
+                .addFields(filterOptions)
+                .addField(ticker)
+                .addField(sweepIntervalNanos)
+                .addFields(expiryOptions)
                 .addMethod(setReaders)
                 .addMethod(setWriters)
+                .addMethod(setConcurrent)
+                .addMethod(setVersioned)
+                .addMethod(setExecutor)
+                .addMethod(setPublisherBufferSize)
+                .addMethod(setPromoteHits)
+                .addMethods(setLoaders)
+                .addMethods(setFilters)
+                .addMethod(setTicker)
+                .addMethod(setSweepInterval)
+                .addMethods(setExpiries)
                 .addMethod(build)
                 .build();
 
@@ -10,6 +10,7 @@ import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +42,8 @@ public class RepositoryWriterInterfaceTemplateGenerator implements ITemplateGene
         for (Element entitySpec : entitySpecs) {
             template.add(getWriterForEntity(entitySpec, processingEnv));
         }
+        template.add(getMethodSpec_putAll());
+        template.add(getMethodSpec_putNormalized());
 
         templates.put(CLASSNAME, template);
     }
@@ -64,4 +67,34 @@ public class RepositoryWriterInterfaceTemplateGenerator implements ITemplateGene
 
         return builder.build();
     }
+
+    private MethodSpec getMethodSpec_putAll() {
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putAll")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(entities)
+                .returns(Set_Entity);
+
+        return builder.build();
+    }
+
+    private MethodSpec getMethodSpec_putNormalized() {
+        ParameterizedTypeName Set_Entity = ParameterizedTypeName.get(Set.class, IEntity.class);
+
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putNormalized")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(entities)
+                .returns(Set_Entity);
+
+        return builder.build();
+    }
 }
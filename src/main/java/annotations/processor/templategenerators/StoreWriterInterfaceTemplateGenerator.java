@@ -4,12 +4,14 @@ import annotations.EntitySpec;
 import annotations.processor.ITemplateGenerator;
 import annotations.processor.Template;
 import com.squareup.javapoet.*;
+import core.EntityKey;
 import core.IEntity;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -37,6 +39,8 @@ public class StoreWriterInterfaceTemplateGenerator implements ITemplateGenerator
         for (Element entitySpec : entitySpecs) {
             template.add(getGetterForEntity(entitySpec, processingEnv));
         }
+        template.add(getMethodSpec_putAll());
+        template.add(getMethodSpec_removeAll());
 
         templates.put(CLASSNAME, template);
     }
@@ -58,4 +62,29 @@ public class StoreWriterInterfaceTemplateGenerator implements ITemplateGenerator
 
         return builder.build();
     }
+
+    private MethodSpec getMethodSpec_putAll() {
+        ParameterSpec entities = ParameterSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Collection.class), WildcardTypeName.subtypeOf(IEntity.class)),
+                "entities").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("putAll")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(entities)
+                .returns(TypeName.BOOLEAN);
+
+        return builder.build();
+    }
+
+    private MethodSpec getMethodSpec_removeAll() {
+        ParameterSpec keys = ParameterSpec.builder(
+                ParameterizedTypeName.get(Collection.class, EntityKey.class),
+                "keys").build();
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("removeAll")
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addParameter(keys);
+
+        return builder.build();
+    }
 }
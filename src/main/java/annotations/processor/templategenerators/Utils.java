@@ -95,15 +95,60 @@ public class Utils {
     }
 
     /**
-     * Gets the ID type for the Entity in the EntitySpec annotated element.
+     * Gets the ID type for the Entity in the EntitySpec annotated element. Primitive IDs are not boxed.
      * @param entitySpecElement EntitySpec annotated element.
      * @return ID typeName.
      */
     public static final TypeName getIdTypeName(Element entitySpecElement) {
+        return TypeName.get(getIdElement(entitySpecElement).asType());
+    }
+
+    /**
+     * Gets the name of the generated getter for the ID of the Entity in the EntitySpec annotated element. Unlike id(),
+     * the getter returns primitive IDs without boxing them.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @param locale Locale.
+     * @return ID getter name.
+     */
+    public static final String getIdGetterName(Element entitySpecElement, Locale locale) {
+        return String.format("get%s", convertToPascalCase(getIdElement(entitySpecElement).getSimpleName().toString(), locale));
+    }
+
+    /**
+     * Gets the name of the generated method that gets a batch of Entities by ID, e.g. getUsers.
+     * @param entityType Entity type.
+     * @return Batch getter name.
+     */
+    public static final String getMultiGetterName(ClassName entityType) {
+        return String.format("get%s", getPluralName(entityType));
+    }
+
+    /**
+     * Gets the plural of an Entity type name, e.g. Users.
+     * @param entityType Entity type.
+     * @return Plural name.
+     */
+    public static final String getPluralName(ClassName entityType) {
+        String name = entityType.simpleName();
+        if (name.endsWith("s") || name.endsWith("x") || name.endsWith("z") || name.endsWith("ch") || name.endsWith("sh")) {
+            return String.format("%ses", name);
+        } else if (name.length() > 1 && name.endsWith("y") && "aeiou".indexOf(name.charAt(name.length() - 2)) < 0) {
+            return String.format("%sies", name.substring(0, name.length() - 1));
+        }
+
+        return String.format("%ss", name);
+    }
+
+    /**
+     * Gets the EntityId annotated field in the EntitySpec annotated element.
+     * @param entitySpecElement EntitySpec annotated element.
+     * @return ID field element.
+     */
+    public static final Element getIdElement(Element entitySpecElement) {
         for (Element enclosedElement : entitySpecElement.getEnclosedElements()) {
             if (enclosedElement.getKind() == ElementKind.FIELD) {
                 if (enclosedElement.getAnnotation(EntityId.class) != null) {
-                    return Utils.getSafelyBoxedTypeName(TypeName.get(enclosedElement.asType()));
+                    return enclosedElement;
                 }
             }
         }
@@ -0,0 +1,115 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probabilistic set of keys that answers "definitely absent" or "possibly present", so that lookups for keys that were
+ * never added can skip slow stores. Keys cannot be removed. Safe for use by multiple threads.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions Number of keys the filter is sized for.
+     * @param falsePositiveRate Rate at which absent keys are reported as possibly present once the expected number of
+     *                          keys was added, between 0 and 1 exclusive.
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("Expected insertions must be positive: " + expectedInsertions);
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+
+        // m = -n ln(p) / ln(2)^2 and k = m / n ln(2) minimise the false positive rate for n keys.
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (optimalBits + 63) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * @param key Key, compared by hashCode().
+     */
+    public void add(Object key) {
+        addHash(mix(key.hashCode()));
+    }
+
+    /**
+     * Adds a primitive key without boxing it. Agrees with {@link #add(Object)} for the boxed key when it is a Long.
+     * @param key Key.
+     */
+    public void add(long key) {
+        addHash(mix(hashOf(key)));
+    }
+
+    /**
+     * @param key Key, compared by hashCode().
+     * @return False if the key was never added, true if it may have been.
+     */
+    public boolean mightContain(Object key) {
+        return mightContainHash(mix(key.hashCode()));
+    }
+
+    /**
+     * Checks a primitive key without boxing it. Agrees with {@link #mightContain(Object)} for the boxed key when it is a
+     * Long.
+     * @param key Key.
+     * @return False if the key was never added, true if it may have been.
+     */
+    public boolean mightContain(long key) {
+        return mightContainHash(mix(hashOf(key)));
+    }
+
+    private void addHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            set(indexOf(h1 + i * h2));
+        }
+    }
+
+    private boolean mightContainHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long index = indexOf(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long indexOf(int hash) {
+        return (hash & 0x7FFFFFFFL) % bitCount;
+    }
+
+    private void set(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    // Same as Long.hashCode(), which is not available on Java 7.
+    private static int hashOf(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+
+    // Spreads hashCode() over 64 bits, so that sequential IDs do not set adjacent bits.
+    private static long mix(int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+}
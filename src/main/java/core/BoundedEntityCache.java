@@ -0,0 +1,514 @@
+package core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Map that holds values up to a weight budget and evicts with W-TinyLFU: new values enter a small LRU window, and only
+ * leave it for the main segmented LRU when they have been requested more often than the value they would evict. This
+ * keeps frequently requested values under skewed access while still admitting bursts of new ones. Frequencies are
+ * estimated with a count-min sketch of 4-bit counters that are halved periodically, so that old popularity fades.
+ * Large caches are striped into segments by key hash, each with its own lock, budget and sketch, so that threads
+ * reading different keys rarely contend; small caches use a single segment, so that they evict exactly. Eviction
+ * listeners are notified once the lock is released, so they may call back into the cache.
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class BoundedEntityCache<K, V> {
+    private static final long MINIMUM_SEGMENT_WEIGHT = 1024;
+    private static final int MAXIMUM_SEGMENTS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final IWeigher<? super V> weigher;
+    private final List<IEvictionListener<? super K, ? super V>> evictionListeners;
+
+    /**
+     * @param maximumSize Maximum number of values.
+     */
+    public BoundedEntityCache(long maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * @param maximumWeight Maximum total weight of values.
+     * @param weigher Weigher of values, or null to give every value a weight of 1.
+     */
+    public BoundedEntityCache(long maximumWeight, IWeigher<? super V> weigher) {
+        this(maximumWeight, weigher, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BoundedEntityCache(long maximumWeight, IWeigher<? super V> weigher, boolean isLongKeyed) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < MAXIMUM_SEGMENTS && maximumWeight / (segmentCount * 2) >= MINIMUM_SEGMENT_WEIGHT) {
+            segmentCount <<= 1;
+        }
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentWeight = maximumWeight / segmentCount + (i < maximumWeight % segmentCount ? 1 : 0);
+            segments[i] = new Segment<>(segmentWeight, isLongKeyed);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.weigher = weigher;
+        this.evictionListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Creates a cache of values by primitive long keys, whose long overloads neither box their keys nor hash them
+     * through boxes.
+     * @param maximumWeight Maximum total weight of values.
+     * @param weigher Weigher of values, or null to give every value a weight of 1.
+     * @param <V> Value type.
+     * @return Long keyed cache.
+     */
+    public static <V> BoundedEntityCache<Long, V> forLongKeys(long maximumWeight, IWeigher<? super V> weigher) {
+        return new BoundedEntityCache<>(maximumWeight, weigher, true);
+    }
+
+    /**
+     * @param key Key.
+     * @return Value, or null if it is not held.
+     */
+    public V get(K key) {
+        int hashCode = key.hashCode();
+        return segmentFor(hashCode).get(key, hashCode);
+    }
+
+    /**
+     * @param key Key, only for caches keyed by Long.
+     * @return Value, or null if it is not held.
+     */
+    public V get(long key) {
+        int hashCode = hashCode(key);
+        return segmentFor(hashCode).get(key, hashCode);
+    }
+
+    /**
+     * Holds a value, possibly evicting others, or the value itself when it loses admission.
+     * @param key Key.
+     * @param value Value, must not be null.
+     */
+    public void put(K key, V value) {
+        int hashCode = key.hashCode();
+        notifyEvicted(segmentFor(hashCode).put(key, hashCode, value, weigh(value)));
+    }
+
+    /**
+     * Holds a value, see {@link #put(Object, Object)}.
+     * @param key Key, only for caches keyed by Long.
+     * @param value Value, must not be null.
+     */
+    @SuppressWarnings("unchecked")
+    public void put(long key, V value) {
+        int hashCode = hashCode(key);
+        notifyEvicted(segmentFor(hashCode).put((K) Long.valueOf(key), hashCode, value, weigh(value)));
+    }
+
+    /**
+     * @param listener Listener notified of every value evicted from now on, but not of values removed explicitly.
+     */
+    public void addEvictionListener(IEvictionListener<? super K, ? super V> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * @param key Key.
+     * @return Removed value, or null if it was not held.
+     */
+    public V remove(K key) {
+        return segmentFor(key.hashCode()).remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return Counters summed over the segments, each read under its own lock.
+     */
+    public CacheStats stats() {
+        long hitCount = 0;
+        long missCount = 0;
+        long evictionCount = 0;
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                hitCount += segment.hitCount;
+                missCount += segment.missCount;
+                evictionCount += segment.evictionCount;
+                weight += segment.weight;
+            }
+        }
+
+        return new CacheStats(hitCount, missCount, evictionCount, weight);
+    }
+
+    private int weigh(V value) {
+        int valueWeight = weigher == null ? 1 : weigher.weigh(value);
+        if (valueWeight < 0) {
+            throw new IllegalArgumentException("Weight must not be negative: " + valueWeight);
+        }
+
+        return valueWeight;
+    }
+
+    private Segment<K, V> segmentFor(int hashCode) {
+        return segments[(hashCode ^ (hashCode >>> 16)) & segmentMask];
+    }
+
+    private void notifyEvicted(List<Node<K, V>> evicted) {
+        for (Node<K, V> node : evicted) {
+            for (IEvictionListener<? super K, ? super V> listener : evictionListeners) {
+                listener.onEviction(node.key, node.value);
+            }
+        }
+    }
+
+    // Same as Long.hashCode, so that long and boxed keys agree.
+    private static int hashCode(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+
+    // W-TinyLFU over a share of the budget. Operations are synchronized on the segment.
+    private static final class Segment<K, V> {
+        private final long maximumWeight;
+        private final long windowMaximum;
+        private final long protectedMaximum;
+        private final FrequencySketch sketch;
+
+        // Guarded by this. Long keyed segments index their nodes by primitive key.
+        private final Map<K, Node<K, V>> nodes;
+        private final LongObjectMap<Node<K, V>> nodesByLongKey;
+        private final Deque<K, V> window;
+        private final Deque<K, V> probation;
+        private final Deque<K, V> protectedDeque;
+        private long windowWeight;
+        private long protectedWeight;
+        private long weight;
+        private long hitCount;
+        private long missCount;
+        private long evictionCount;
+
+        private Segment(long maximumWeight, boolean isLongKeyed) {
+            this.maximumWeight = maximumWeight;
+            this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_RATIO));
+            this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_RATIO);
+            this.sketch = new FrequencySketch(maximumWeight);
+            this.nodes = isLongKeyed ? null : new HashMap<K, Node<K, V>>();
+            this.nodesByLongKey = isLongKeyed ? new LongObjectMap<Node<K, V>>() : null;
+            this.window = new Deque<>();
+            this.probation = new Deque<>();
+            this.protectedDeque = new Deque<>();
+        }
+
+        private synchronized V get(K key, int hashCode) {
+            return onRequest(nodes == null ? nodesByLongKey.get((Long) key) : nodes.get(key), hashCode);
+        }
+
+        private synchronized V get(long key, int hashCode) {
+            return onRequest(nodes == null ? nodesByLongKey.get(key) : nodes.get(Long.valueOf(key)), hashCode);
+        }
+
+        private V onRequest(Node<K, V> node, int hashCode) {
+            sketch.increment(hashCode);
+
+            if (node == null) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            onAccess(node);
+            return node.value;
+        }
+
+        /**
+         * @return Evicted nodes, to be notified once the lock is released.
+         */
+        private synchronized List<Node<K, V>> put(K key, int hashCode, V value, int valueWeight) {
+            sketch.increment(hashCode);
+
+            Node<K, V> node = find(key);
+            if (node != null) {
+                adjustWeight(node, valueWeight - node.weight);
+                node.value = value;
+                node.weight = valueWeight;
+                onAccess(node);
+            } else {
+                node = new Node<>(key, hashCode, value, valueWeight);
+                if (nodes == null) {
+                    nodesByLongKey.put((Long) key, node);
+                } else {
+                    nodes.put(key, node);
+                }
+                node.queue = WINDOW;
+                window.addLast(node);
+                windowWeight += valueWeight;
+                weight += valueWeight;
+            }
+
+            return evict();
+        }
+
+        private synchronized V remove(K key) {
+            Node<K, V> node = find(key);
+            if (node == null) {
+                return null;
+            }
+
+            unlink(node);
+            return node.value;
+        }
+
+        private synchronized int size() {
+            return nodes == null ? nodesByLongKey.size() : nodes.size();
+        }
+
+        private Node<K, V> find(K key) {
+            return nodes == null ? nodesByLongKey.get((Long) key) : nodes.get(key);
+        }
+
+        private void onAccess(Node<K, V> node) {
+            if (node.queue == WINDOW) {
+                window.moveToLast(node);
+            } else if (node.queue == PROBATION) {
+                // A second request promotes a value into the protected segment, demoting its least recent value.
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedDeque.addLast(node);
+                protectedWeight += node.weight;
+                while (protectedWeight > protectedMaximum && protectedDeque.first != node) {
+                    Node<K, V> demoted = protectedDeque.removeFirst();
+                    protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            } else {
+                protectedDeque.moveToLast(node);
+            }
+        }
+
+        private void adjustWeight(Node<K, V> node, int delta) {
+            weight += delta;
+            if (node.queue == WINDOW) {
+                windowWeight += delta;
+            } else if (node.queue == PROTECTED) {
+                protectedWeight += delta;
+            }
+        }
+
+        /**
+         * @return Evicted nodes, only allocated when there are any.
+         */
+        private List<Node<K, V>> evict() {
+            List<Node<K, V>> evicted = Collections.emptyList();
+
+            // Values leaving the window compete with the least recent probation value for a place in the main segments.
+            while (windowWeight > windowMaximum) {
+                Node<K, V> candidate = window.removeFirst();
+                windowWeight -= candidate.weight;
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+
+                if (weight > maximumWeight) {
+                    Node<K, V> victim = probation.first;
+                    if (victim != candidate && sketch.frequency(candidate.hashCode) > sketch.frequency(victim.hashCode)) {
+                        evicted = evict(victim, evicted);
+                    } else {
+                        evicted = evict(candidate, evicted);
+                    }
+                }
+            }
+
+            while (weight > maximumWeight) {
+                if (probation.first != null) {
+                    evicted = evict(probation.first, evicted);
+                } else if (protectedDeque.first != null) {
+                    evicted = evict(protectedDeque.first, evicted);
+                } else {
+                    evicted = evict(window.first, evicted);
+                }
+            }
+
+            return evicted;
+        }
+
+        private List<Node<K, V>> evict(Node<K, V> node, List<Node<K, V>> evicted) {
+            unlink(node);
+            evictionCount++;
+            if (evicted.isEmpty()) {
+                evicted = new LinkedList<>();
+            }
+            evicted.add(node);
+            return evicted;
+        }
+
+        private void unlink(Node<K, V> node) {
+            if (nodes == null) {
+                nodesByLongKey.remove((Long) node.key);
+            } else {
+                nodes.remove(node.key);
+            }
+            weight -= node.weight;
+            if (node.queue == WINDOW) {
+                window.remove(node);
+                windowWeight -= node.weight;
+            } else if (node.queue == PROBATION) {
+                probation.remove(node);
+            } else {
+                protectedDeque.remove(node);
+                protectedWeight -= node.weight;
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final int hashCode;
+        private V value;
+        private int weight;
+        private int queue;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        private Node(K key, int hashCode, V value, int weight) {
+            this.key = key;
+            this.hashCode = hashCode;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    // Intrusive doubly linked list, least recent first.
+    private static final class Deque<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        private void addLast(Node<K, V> node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        private Node<K, V> removeFirst() {
+            Node<K, V> node = first;
+            remove(node);
+            return node;
+        }
+
+        private void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        private void moveToLast(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, sixteen to a word, with one counter per hash in each of four words.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(long maximumSize) {
+            int size = 16;
+            while (size < maximumSize && size < (1 << 24)) {
+                size <<= 1;
+            }
+
+            this.table = new long[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        private int frequency(int hashCode) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash = hash(hashCode, i);
+                frequency = Math.min(frequency, (int) ((table[index(hash)] >>> offset(hash)) & 0xF));
+            }
+
+            return frequency;
+        }
+
+        private void increment(int hashCode) {
+            boolean isAdded = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash = hash(hashCode, i);
+                int index = index(hash);
+                int offset = offset(hash);
+                if (((table[index] >>> offset) & 0xF) != 0xF) {
+                    table[index] += 1L << offset;
+                    isAdded = true;
+                }
+            }
+
+            // Halving every counter once enough increments were sampled lets old popularity fade.
+            if (isAdded && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int index(long hash) {
+            return (int) hash & mask;
+        }
+
+        private static int offset(long hash) {
+            return (int) (hash >>> 60) << 2;
+        }
+
+        private static long hash(int hashCode, int i) {
+            long hash = (hashCode + SEEDS[i]) * SEEDS[i];
+            return hash ^ (hash >>> 31);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package core;
+
+/**
+ * Snapshot of the counters of a {@link BoundedEntityCache}.
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long weight;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long weight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.weight = weight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return Total weight of the values held, their number when values are not weighed.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return Ratio of hits to lookups, 1 if there were no lookups.
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStats{hitCount=%d, missCount=%d, evictionCount=%d, weight=%d}", hitCount, missCount, evictionCount, weight);
+    }
+}
@@ -0,0 +1,228 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Notifies listeners of changed Entities. Subscriptions select changes by Entity type, by Entity key, or by embedding
+ * a given Entity. Changes are coalesced per subscription and delivered on an {@link Executor}, one batch at a time,
+ * so that publishing never waits for a listener. Safe for use by multiple threads.
+ */
+public class ChangeNotifier {
+    private final Executor executor;
+    private final ReferenceIndex referenceIndex;
+
+    private final ConcurrentMap<String, Set<Subscription>> subscriptionsByType;
+    private final ConcurrentMap<EntityKey, Set<Subscription>> subscriptionsByKey;
+    private final ConcurrentMap<EntityKey, Set<Subscription>> subscriptionsByEmbeddedKey;
+
+    // Lets publish() return immediately while nobody is subscribed.
+    private volatile int subscriptionCount;
+
+    /**
+     * @param executor Executor delivering notifications.
+     * @param referenceIndex Index used to find the Entities that an Entity embeds.
+     */
+    public ChangeNotifier(Executor executor, ReferenceIndex referenceIndex) {
+        this.executor = executor;
+        this.referenceIndex = referenceIndex;
+        this.subscriptionsByType = new ConcurrentHashMap<>();
+        this.subscriptionsByKey = new ConcurrentHashMap<>();
+        this.subscriptionsByEmbeddedKey = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return Executor shared by every notifier that is not given one. Its single daemon thread is started on first use.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Subscribes to changes of every Entity of a type.
+     * @param entityType Entity type, as returned by entityType().
+     * @param listener Listener.
+     * @return Subscription.
+     */
+    public ISubscription subscribeToType(String entityType, IChangeListener listener) {
+        return subscribe(subscriptionsByType, entityType, listener);
+    }
+
+    /**
+     * Subscribes to changes of a single Entity, including changes of the Entities it embeds.
+     * @param key Entity key.
+     * @param listener Listener.
+     * @return Subscription.
+     */
+    public ISubscription subscribeToKey(EntityKey key, IChangeListener listener) {
+        return subscribe(subscriptionsByKey, key, listener);
+    }
+
+    /**
+     * Subscribes to changes of every Entity that embeds an Entity, either directly or through other Entities.
+     * @param key Embedded Entity key.
+     * @param listener Listener.
+     * @return Subscription.
+     */
+    public ISubscription subscribeToEmbedding(EntityKey key, IChangeListener listener) {
+        return subscribe(subscriptionsByEmbeddedKey, key, listener);
+    }
+
+    /**
+     * Queues the changed Entities for every matching subscription.
+     * @param changed Keys of changed Entities.
+     */
+    public void publish(Collection<EntityKey> changed) {
+        if (subscriptionCount == 0) {
+            return;
+        }
+
+        Map<Subscription, Set<EntityKey>> matched = new HashMap<>();
+        for (EntityKey key : changed) {
+            match(matched, subscriptionsByType.get(key.getEntityType()), key);
+            match(matched, subscriptionsByKey.get(key), key);
+        }
+
+        // Walks down from the changed Entities rather than up from the subscribed ones, so that the cost follows the
+        // change rather than how widely the subscribed Entities are embedded.
+        if (hasEmbeddingSubscriptions()) {
+            for (EntityKey key : changed) {
+                for (EntityKey embedded : referenceIndex.getEmbeddedKeys(key)) {
+                    match(matched, subscriptionsByEmbeddedKey.get(embedded), key);
+                }
+            }
+        }
+
+        for (Map.Entry<Subscription, Set<EntityKey>> entry : matched.entrySet()) {
+            entry.getKey().enqueue(entry.getValue());
+        }
+    }
+
+    private boolean hasEmbeddingSubscriptions() {
+        for (Set<Subscription> subscriptions : subscriptionsByEmbeddedKey.values()) {
+            if (!subscriptions.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void match(Map<Subscription, Set<EntityKey>> matched, Set<Subscription> subscriptions, EntityKey key) {
+        if (subscriptions == null) {
+            return;
+        }
+
+        for (Subscription subscription : subscriptions) {
+            Set<EntityKey> keys = matched.get(subscription);
+            if (keys == null) {
+                keys = new LinkedHashSet<>();
+                matched.put(subscription, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private <K> ISubscription subscribe(final ConcurrentMap<K, Set<Subscription>> subscriptionsByTarget, final K target, IChangeListener listener) {
+        final Subscription subscription = new Subscription(listener);
+
+        Set<Subscription> subscriptions = subscriptionsByTarget.get(target);
+        if (subscriptions == null) {
+            Set<Subscription> created = Collections.newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+            subscriptions = subscriptionsByTarget.putIfAbsent(target, created);
+            if (subscriptions == null) {
+                subscriptions = created;
+            }
+        }
+        subscriptions.add(subscription);
+        synchronized (this) {
+            subscriptionCount++;
+        }
+
+        final Set<Subscription> targetSubscriptions = subscriptions;
+        subscription.onUnsubscribe = new Runnable() {
+            @Override
+            public void run() {
+                if (targetSubscriptions.remove(subscription)) {
+                    synchronized (ChangeNotifier.this) {
+                        subscriptionCount--;
+                    }
+                }
+            }
+        };
+
+        return subscription;
+    }
+
+    private class Subscription implements ISubscription, Runnable {
+        private final IChangeListener listener;
+        private volatile boolean isActive;
+        private Runnable onUnsubscribe;
+
+        // Guarded by this.
+        private Set<EntityKey> pending;
+        private boolean isScheduled;
+
+        private Subscription(IChangeListener listener) {
+            this.listener = listener;
+            this.isActive = true;
+            this.pending = new LinkedHashSet<>();
+        }
+
+        @Override
+        public void unsubscribe() {
+            isActive = false;
+            onUnsubscribe.run();
+        }
+
+        private void enqueue(Set<EntityKey> keys) {
+            synchronized (this) {
+                pending.addAll(keys);
+                if (isScheduled) {
+                    return;
+                }
+                isScheduled = true;
+            }
+
+            executor.execute(this);
+        }
+
+        // Delivers one batch, then reschedules itself if more changes arrived meanwhile, so that a listener is never
+        // called by two threads at once.
+        @Override
+        public void run() {
+            Set<EntityKey> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashSet<>();
+            }
+
+            try {
+                if (isActive && !batch.isEmpty()) {
+                    listener.onChanged(Collections.unmodifiableSet(batch));
+                }
+            } finally {
+                boolean hasPending;
+                synchronized (this) {
+                    hasPending = !pending.isEmpty();
+                    isScheduled = hasPending;
+                }
+
+                if (hasPending) {
+                    executor.execute(this);
+                }
+            }
+        }
+    }
+
+    private static class DefaultExecutorHolder {
+        private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "entity-normalizer-notifier");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package core;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe map from primitive long keys to values. Keys are striped across {@link LongObjectMap} segments that are
+ * each guarded by their own read-write lock, so readers never block each other and writers only block operations on
+ * the same stripe.
+ * @param <V> Value type.
+ */
+public class ConcurrentLongObjectMap<V> implements ILongObjectMap<V> {
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final LongObjectMap<V>[] segments;
+    private final ReadWriteLock[] locks;
+    private final int mask;
+
+    public ConcurrentLongObjectMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes Minimum number of independently locked segments, rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int stripes) {
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+
+        this.segments = new LongObjectMap[count];
+        this.locks = new ReadWriteLock[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new LongObjectMap<>();
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @Override
+    public V get(long key) {
+        int stripe = stripeOf(key);
+        locks[stripe].readLock().lock();
+        try {
+            return segments[stripe].get(key);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        int stripe = stripeOf(key);
+        locks[stripe].readLock().lock();
+        try {
+            return segments[stripe].containsKey(key);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(long key, V value) {
+        int stripe = stripeOf(key);
+        locks[stripe].writeLock().lock();
+        try {
+            return segments[stripe].put(key, value);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(long key) {
+        int stripe = stripeOf(key);
+        locks[stripe].writeLock().lock();
+        try {
+            return segments[stripe].remove(key);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(long key, V value) {
+        int stripe = stripeOf(key);
+        locks[stripe].writeLock().lock();
+        try {
+            return segments[stripe].remove(key, value);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int stripe = 0; stripe < segments.length; stripe++) {
+            locks[stripe].writeLock().lock();
+            try {
+                segments[stripe].clear();
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return Number of mappings. Not a snapshot when the map is being written concurrently.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (int stripe = 0; stripe < segments.length; stripe++) {
+            locks[stripe].readLock().lock();
+            try {
+                size += segments[stripe].size();
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+
+        return size;
+    }
+
+    private int stripeOf(long key) {
+        // Uses different bits than LongObjectMap's slot hash so that each segment stays evenly filled.
+        long hash = key * 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash >>> 40) & mask;
+    }
+}
@@ -0,0 +1,81 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounds the resolution of Entities whose types can embed themselves, which is done a nesting level at a time. Each
+ * level holds the Entities embedded in the level above it, so once a level holds the same Entities as one of its
+ * ancestors, the levels below it repeat forever. That can only happen through a reference cycle, and the level is left
+ * as stored rather than resolved again. Levels are only compared with the levels on the current path, so the depth a
+ * cycle is cut at does not grow with the number of Entities resolved beside it. As a backstop for cycles whose levels
+ * take long to repeat, a level is also cut once the depth reaches the number of distinct Entities read, which without
+ * cycles it never does. Views built after a cycle was cut are incomplete, so must not be memoized. Not safe for use by
+ * multiple threads.
+ */
+public class CycleGuard {
+    private final Set<EntityKey> readKeys;
+    private final List<Set<EntityKey>> levels;
+    private final List<Integer> levelHashes;
+    private boolean isCut;
+
+    public CycleGuard() {
+        this.readKeys = new HashSet<>();
+        this.levels = new ArrayList<>();
+        this.levelHashes = new ArrayList<>();
+    }
+
+    /**
+     * Enters the next nesting level.
+     * @param entityType Type of the Entities read at the level.
+     * @param ids IDs of the Entities read at the level.
+     * @return True if the level must be resolved, false if it can only be reached through a cycle.
+     */
+    public boolean descend(String entityType, Collection<?> ids) {
+        Set<EntityKey> level = new HashSet<>();
+        for (Object id : ids) {
+            level.add(new EntityKey(entityType, id));
+        }
+        readKeys.addAll(level);
+
+        int depth = levels.size();
+        int hash = level.hashCode();
+        levels.add(level);
+        levelHashes.add(hash);
+
+        if (readKeys.size() <= depth || repeatsAncestor(level, hash)) {
+            isCut = true;
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean repeatsAncestor(Set<EntityKey> level, int hash) {
+        for (int i = levels.size() - 2; i >= 0; i--) {
+            if (levelHashes.get(i) == hash && levels.get(i).equals(level)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Leaves the current nesting level.
+     */
+    public void ascend() {
+        levels.remove(levels.size() - 1);
+        levelHashes.remove(levelHashes.size() - 1);
+    }
+
+    /**
+     * @return True if a level was left unresolved.
+     */
+    public boolean isCut() {
+        return isCut;
+    }
+}
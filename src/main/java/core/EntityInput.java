@@ -0,0 +1,42 @@
+package core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the values written by {@link EntityOutput} that ByteBuffer has no accessor for.
+ */
+public final class EntityInput {
+    private EntityInput() {
+    }
+
+    public static boolean readBoolean(ByteBuffer input) {
+        return input.get() != 0;
+    }
+
+    /**
+     * @param input Input positioned at a string written by {@link EntityOutput#writeString(String)}.
+     * @return String, or null.
+     */
+    public static String readString(ByteBuffer input) {
+        int encodedLength = input.getInt();
+        if (encodedLength < 0) {
+            return null;
+        }
+
+        char[] chars = new char[encodedLength];
+        int length = 0;
+        int end = input.position() + encodedLength;
+        while (input.position() < end) {
+            int b = input.get() & 0xFF;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | (input.get() & 0x3F));
+            } else {
+                chars[length++] = (char) (((b & 0x0F) << 12) | ((input.get() & 0x3F) << 6) | (input.get() & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,50 @@
+package core;
+
+/**
+ * Identifies an Entity by its type and ID.
+ */
+public final class EntityKey {
+    private final String entityType;
+    private final Object id;
+
+    public EntityKey(String entityType, Object id) {
+        this.entityType = entityType;
+        this.id = id;
+    }
+
+    public EntityKey(IEntity<?> entity) {
+        this(entity.entityType(), entity.id());
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EntityKey)) {
+            return false;
+        }
+
+        EntityKey other = (EntityKey) o;
+        return entityType.equals(other.entityType) &&
+                (id == null ? other.id == null : id.equals(other.id));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * entityType.hashCode() + (id == null ? 0 : id.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return entityType + "#" + id;
+    }
+}
@@ -0,0 +1,10 @@
+package core;
+
+/**
+ * Thrown when an {@link IEntityLoader} fails to load an Entity.
+ */
+public class EntityLoadException extends RuntimeException {
+    public EntityLoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,158 @@
+package core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Growable buffer that encoded Entities are written to. The buffer is kept across clear() calls, so that an output
+ * reused for every encode only allocates when an Entity is larger than any before it. Not safe for use by multiple
+ * threads.
+ */
+public class EntityOutput {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+
+    public EntityOutput() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity Initial capacity in bytes.
+     */
+    public EntityOutput(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 16)];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Discards everything written, keeping the buffer for reuse.
+     */
+    public void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * @return Number of bytes written.
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return Bytes written, backed by this output until it is next written to or cleared.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, buffer.position()).slice();
+    }
+
+    /**
+     * Copies the bytes written to a target buffer.
+     * @param target Target buffer, advanced by size().
+     */
+    public void copyTo(ByteBuffer target) {
+        target.put(bytes, 0, buffer.position());
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer, without their length.
+     * @param value Buffer, not advanced.
+     */
+    public void writeBytes(ByteBuffer value) {
+        ensureRemaining(value.remaining());
+        buffer.put(value.duplicate());
+    }
+
+    public void writeBoolean(boolean value) {
+        ensureRemaining(1);
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    public void writeByte(byte value) {
+        ensureRemaining(1);
+        buffer.put(value);
+    }
+
+    public void writeShort(short value) {
+        ensureRemaining(2);
+        buffer.putShort(value);
+    }
+
+    public void writeChar(char value) {
+        ensureRemaining(2);
+        buffer.putChar(value);
+    }
+
+    public void writeInt(int value) {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) {
+        ensureRemaining(8);
+        buffer.putLong(value);
+    }
+
+    public void writeFloat(float value) {
+        ensureRemaining(4);
+        buffer.putFloat(value);
+    }
+
+    public void writeDouble(double value) {
+        ensureRemaining(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes a nullable string as its encoded length followed by UTF-8 bytes, without allocating. Surrogate pairs are
+     * encoded as two 3 byte sequences, see {@link EntityInput#readString(ByteBuffer)}.
+     * @param value String, or null.
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+
+        int length = value.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            encodedLength += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+
+        writeInt(encodedLength);
+        ensureRemaining(encodedLength);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+
+        int position = buffer.position();
+        int capacity = bytes.length;
+        while (capacity - position < length) {
+            capacity <<= 1;
+        }
+
+        byte[] grown = new byte[capacity];
+        System.arraycopy(bytes, 0, grown, 0, position);
+        bytes = grown;
+        buffer = ByteBuffer.wrap(bytes);
+        buffer.position(position);
+    }
+}
@@ -0,0 +1,180 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes Entities to subscribers on an {@link Executor}, only as fast as each subscriber requests them. Every
+ * subscriber has a bounded buffer in which a newer version of an Entity replaces a pending older one, so a buffer only
+ * fills up with distinct Entities. A subscriber whose buffer overflows receives onError() and is cancelled, publishing
+ * never waits for a subscriber. Safe for use by multiple threads.
+ * @param <T> Entity type.
+ */
+public class EntityPublisher<T extends IEntity<?>> implements IPublisher<T> {
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final Executor executor;
+    private final int bufferSize;
+    private final List<Subscription> subscriptions;
+
+    /**
+     * @param executor Executor delivering items.
+     * @param bufferSize Maximum number of distinct Entities pending per subscriber.
+     */
+    public EntityPublisher(Executor executor, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public void subscribe(ISubscriber<? super T> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * @return True if any subscriber would receive a published Entity.
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Buffers an Entity for every subscriber.
+     * @param entity Entity.
+     */
+    public void publish(T entity) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(entity);
+        }
+    }
+
+    private class Subscription implements IFlowSubscription, Runnable {
+        private final ISubscriber<? super T> subscriber;
+
+        // Guarded by this.
+        private final LinkedHashMap<EntityKey, T> pending;
+        private long demand;
+        private Throwable error;
+        private boolean isCancelled;
+        private boolean isScheduled;
+
+        private Subscription(ISubscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            this.pending = new LinkedHashMap<>();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Requested items must be positive: " + n));
+                } else {
+                    // Demand saturates rather than overflowing.
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                isCancelled = true;
+                pending.clear();
+            }
+
+            subscriptions.remove(this);
+        }
+
+        private void offer(T entity) {
+            synchronized (this) {
+                if (isCancelled || error != null) {
+                    return;
+                }
+
+                EntityKey key = new EntityKey(entity);
+                if (pending.containsKey(key) || pending.size() < bufferSize) {
+                    pending.put(key, entity);
+                } else {
+                    fail(new IllegalStateException(String.format("Subscriber fell behind by more than %d Entities", bufferSize)));
+                }
+            }
+
+            schedule();
+        }
+
+        // Must hold this.
+        private void fail(Throwable throwable) {
+            error = throwable;
+            pending.clear();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                boolean hasWork = error != null || (demand > 0 && !pending.isEmpty());
+                if (isScheduled || isCancelled || !hasWork) {
+                    return;
+                }
+                isScheduled = true;
+            }
+
+            executor.execute(this);
+        }
+
+        // Delivers items until demand or pending items run out, so that a subscriber is never called by two threads at
+        // once.
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    T item;
+                    Throwable failure = null;
+                    synchronized (this) {
+                        if (isCancelled) {
+                            return;
+                        }
+
+                        if (error != null) {
+                            failure = error;
+                            isCancelled = true;
+                            item = null;
+                        } else if (demand > 0 && !pending.isEmpty()) {
+                            Iterator<T> iterator = pending.values().iterator();
+                            item = iterator.next();
+                            iterator.remove();
+                            demand--;
+                        } else {
+                            return;
+                        }
+                    }
+
+                    if (failure != null) {
+                        subscriptions.remove(this);
+                        subscriber.onError(failure);
+                        return;
+                    }
+
+                    subscriber.onNext(item);
+                }
+            } finally {
+                synchronized (this) {
+                    isScheduled = false;
+                }
+                schedule();
+            }
+        }
+    }
+}
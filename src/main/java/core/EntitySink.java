@@ -0,0 +1,98 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives normalized Entities as they are read, and writes them in batches. An Entity equal to one of the most
+ * recently emitted Entities with its key is dropped, so that Entities repeated across a stream are written once, while
+ * the memory held stays bounded by the batch size and the dedupe window whatever the length of the stream. Entities
+ * that fell out of the window are written again, which leaves stores unchanged. Not safe for use by multiple threads.
+ */
+public abstract class EntitySink {
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    public static final int DEFAULT_DEDUPE_WINDOW = 4096;
+
+    private final int batchSize;
+    private final List<IEntity> batch;
+    private final Map<EntityKey, IEntity> recent;
+    private long emittedCount;
+    private long duplicateCount;
+
+    /**
+     * @param batchSize Number of Entities written at once.
+     * @param dedupeWindow Number of most recently emitted Entities that repeats are checked against, or 0 to not
+     *                     dedupe.
+     */
+    protected EntitySink(int batchSize, final int dedupeWindow) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        } else if (dedupeWindow < 0) {
+            throw new IllegalArgumentException("Dedupe window must not be negative: " + dedupeWindow);
+        }
+
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        this.recent = new LinkedHashMap<EntityKey, IEntity>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EntityKey, IEntity> eldest) {
+                return size() > dedupeWindow;
+            }
+        };
+    }
+
+    /**
+     * Adds an Entity to the batch, unless it repeats a recently emitted Entity. Writes the batch once it is full.
+     * @param entity Normalized Entity.
+     * @return True if the Entity was added, false if it was a repeat.
+     */
+    public boolean emit(IEntity entity) {
+        IEntity previous = recent.put(new EntityKey(entity), entity);
+        if (entity.equals(previous)) {
+            duplicateCount++;
+            return false;
+        }
+
+        batch.add(entity);
+        emittedCount++;
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the Entities added since the last write.
+     */
+    public void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        write(batch);
+        batch.clear();
+    }
+
+    /**
+     * @return Number of Entities added to batches.
+     */
+    public long getEmittedCount() {
+        return emittedCount;
+    }
+
+    /**
+     * @return Number of Entities dropped as repeats.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Writes a batch, in emission order. The batch is cleared once this returns, so it must not be retained.
+     * @param batch Normalized Entities.
+     */
+    protected abstract void write(List<IEntity> batch);
+}
@@ -0,0 +1,10 @@
+package core;
+
+/**
+ * Thrown when a persistent store fails to read or write the files backing it.
+ */
+public class EntityStorageException extends RuntimeException {
+    public EntityStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
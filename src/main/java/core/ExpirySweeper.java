@@ -0,0 +1,56 @@
+package core;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.*;
+
+/**
+ * Sweeps {@link ISweepable}s periodically on a shared daemon thread. Targets are only weakly referenced, so a sweep
+ * schedule never keeps a target alive, and is cancelled once its target is collected.
+ */
+public final class ExpirySweeper {
+    private ExpirySweeper() {
+    }
+
+    /**
+     * @param target Target to sweep.
+     * @param intervalNanos Time between sweeps.
+     */
+    public static void schedule(ISweepable target, long intervalNanos) {
+        SweepTask task = new SweepTask(target);
+        task.future = SchedulerHolder.SCHEDULER.scheduleWithFixedDelay(task, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static final class SweepTask implements Runnable {
+        private final WeakReference<ISweepable> target;
+        private volatile ScheduledFuture<?> future;
+
+        private SweepTask(ISweepable target) {
+            this.target = new WeakReference<>(target);
+        }
+
+        @Override
+        public void run() {
+            ISweepable sweepable = target.get();
+            if (sweepable == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+
+            sweepable.sweepExpired();
+        }
+    }
+
+    // Created on first use, so that repositories without expiry never start the thread.
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "entity-normalizer-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
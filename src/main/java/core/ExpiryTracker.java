@@ -0,0 +1,222 @@
+package core;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks when the Entities of a type were written and accessed, so that they can expire a fixed time after either.
+ * Entities that are seen before any write, e.g. ones already in a store, are treated as written when first seen. An
+ * expired Entity stays expired until it is written again, or until it is removed once it has left every store. Safe
+ * for use by multiple threads.
+ * <p>
+ * Entries that were written again or removed are dropped from the sweep queue by sweeps, and, when the queue holds
+ * many more entries than there are Entities, by the write that finds it so. The queue therefore stays proportional to
+ * the tracked Entities even when nothing sweeps.
+ */
+public class ExpiryTracker {
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final ITicker ticker;
+    private final ConcurrentMap<Object, Entry> entries;
+
+    // In order of the deadline each entry had when it was queued, accesses only move deadlines later.
+    private final Queue<Entry> pending;
+    private final AtomicInteger pendingCount;
+    private final AtomicBoolean isPruning;
+
+    /**
+     * @param expireAfterWriteNanos Lifetime after a write, or 0 for none.
+     * @param expireAfterAccessNanos Lifetime after an access, or 0 for none.
+     * @param ticker Time source.
+     */
+    public ExpiryTracker(long expireAfterWriteNanos, long expireAfterAccessNanos, ITicker ticker) {
+        if (expireAfterWriteNanos < 0 || expireAfterAccessNanos < 0) {
+            throw new IllegalArgumentException("Lifetimes must not be negative");
+        }
+
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.expireAfterAccessNanos = expireAfterAccessNanos;
+        this.ticker = ticker;
+        this.entries = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.isPruning = new AtomicBoolean();
+    }
+
+    /**
+     * Restarts the lifetime of an Entity.
+     * @param id Entity ID.
+     */
+    public void onWrite(Object id) {
+        Entry entry = new Entry(id, ticker.read());
+        entries.put(id, entry);
+        offer(entry);
+    }
+
+    /**
+     * Checks whether an Entity is still alive, and if so counts as an access to it.
+     * @param id Entity ID.
+     * @return False if the Entity has expired.
+     */
+    public boolean access(Object id) {
+        long now = ticker.read();
+
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            Entry created = new Entry(id, now);
+            entry = entries.putIfAbsent(id, created);
+            if (entry == null) {
+                offer(created);
+                return true;
+            }
+        }
+
+        if (entry.isExpired || now - entry.getDeadline() >= 0) {
+            entry.isExpired = true;
+            return false;
+        }
+
+        if (expireAfterAccessNanos > 0) {
+            entry.accessTime = now;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether an Entity is known to have expired, without counting as an access to it.
+     * @param id Entity ID.
+     * @return True if the Entity expired and has not been written since.
+     */
+    public boolean isExpired(Object id) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.isExpired;
+    }
+
+    /**
+     * Forgets an expired Entity, once it has been removed from every store, so that the tracker only holds Entities
+     * that are stored. An Entity written again since it expired is kept.
+     * @param id Entity ID.
+     */
+    public void remove(Object id) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.isExpired) {
+            entries.remove(id, entry);
+        }
+    }
+
+    /**
+     * @return Number of tracked Entities.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the Entities that expired since the previous sweep. Only visits Entities that are due or whose lifetime was
+     * extended by an access, so sweeping is cheap when few Entities expire.
+     * @return IDs of newly expired Entities.
+     */
+    public List<Object> sweep() {
+        long now = ticker.read();
+        List<Object> expired = new LinkedList<>();
+
+        int requeueLimit = pending.size();
+        Entry entry;
+        while ((entry = pending.peek()) != null) {
+            // Rewritten Entities were queued again by their write.
+            if (isStale(entry)) {
+                poll();
+                continue;
+            }
+
+            long deadline = entry.getDeadline();
+            if (entry.isExpired || now - deadline >= 0) {
+                poll();
+                entry.isExpired = true;
+                entry.isSwept = true;
+                expired.add(entry.id);
+            } else if (deadline != entry.queuedDeadline && requeueLimit-- > 0) {
+                // An access moved the deadline, so the Entities behind this one may be due sooner.
+                poll();
+                offer(entry);
+            } else {
+                break;
+            }
+        }
+
+        return expired;
+    }
+
+    private boolean isStale(Entry entry) {
+        return entries.get(entry.id) != entry || entry.isSwept;
+    }
+
+    private void offer(Entry entry) {
+        entry.queuedDeadline = entry.getDeadline();
+        pending.offer(entry);
+        if (pendingCount.incrementAndGet() > 2 * entries.size() + 64) {
+            prune();
+        }
+    }
+
+    private void poll() {
+        pending.poll();
+        pendingCount.decrementAndGet();
+    }
+
+    /**
+     * Drops stale entries from anywhere in the queue, which sweeps only do from its head. The count is reset to what
+     * the pruner saw, so that drift between concurrent polls and removals does not accumulate.
+     */
+    private void prune() {
+        if (!isPruning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            int count = 0;
+            for (Iterator<Entry> iterator = pending.iterator(); iterator.hasNext(); ) {
+                if (isStale(iterator.next())) {
+                    iterator.remove();
+                } else {
+                    count++;
+                }
+            }
+            pendingCount.set(count);
+        } finally {
+            isPruning.set(false);
+        }
+    }
+
+    private final class Entry {
+        private final Object id;
+        private final long writeTime;
+        private volatile long accessTime;
+        private volatile long queuedDeadline;
+        private volatile boolean isExpired;
+        private volatile boolean isSwept;
+
+        private Entry(Object id, long writeTime) {
+            this.id = id;
+            this.writeTime = writeTime;
+            this.accessTime = writeTime;
+        }
+
+        private long getDeadline() {
+            if (expireAfterWriteNanos > 0 && expireAfterAccessNanos > 0) {
+                return Math.min(writeTime + expireAfterWriteNanos, accessTime + expireAfterAccessNanos);
+            } else if (expireAfterWriteNanos > 0) {
+                return writeTime + expireAfterWriteNanos;
+            }
+
+            return accessTime + expireAfterAccessNanos;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package core;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Loads Entities a batch at a time, so that the misses of a batch get reach the backing service in one call rather
+ * than in one call per ID.
+ * @param <I> ID type.
+ * @param <T> Entity type.
+ */
+public interface IBatchEntityLoader<I, T extends IEntity<I>> extends IEntityLoader<I, T> {
+    /**
+     * Loads Entities. The repository ensures that none of the IDs has another load in flight.
+     * @param ids Entity IDs.
+     * @return Map of the Entities that exist by their IDs.
+     * @throws Exception If the Entities could not be loaded.
+     */
+    Map<I, T> loadAll(Collection<I> ids) throws Exception;
+}
@@ -0,0 +1,8 @@
+package core;
+
+import java.util.Set;
+
+public interface IChangeListener {
+    // Called with the keys of every Entity, or denormalized view, that changed since the previous call.
+    void onChanged(Set<EntityKey> changed);
+}
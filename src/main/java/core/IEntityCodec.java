@@ -0,0 +1,16 @@
+package core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes Entities to and decodes them from a compact binary form without reflection. Embedded Entities are encoded
+ * by ID only, so that encoded Entities stay normalized.
+ * @param <T> Entity type.
+ */
+public interface IEntityCodec<T> {
+    // Appends an Entity to an output.
+    void encode(T entity, EntityOutput output);
+
+    // Decodes an Entity from the remaining bytes of an input, embedded Entities are stubs holding only their IDs.
+    T decode(ByteBuffer input);
+}
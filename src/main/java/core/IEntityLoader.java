@@ -0,0 +1,17 @@
+package core;
+
+/**
+ * Loads Entities that none of the stores of a repository have, typically from a backing service.
+ * @param <I> ID type.
+ * @param <T> Entity type.
+ */
+public interface IEntityLoader<I, T extends IEntity<I>> {
+    /**
+     * Loads an Entity. Asynchronous sources may block on their result here, the repository ensures that only one load
+     * per ID is in flight at a time.
+     * @param id Entity ID.
+     * @return Entity, or null if it does not exist.
+     * @throws Exception If the Entity could not be loaded.
+     */
+    T load(I id) throws Exception;
+}
@@ -0,0 +1,12 @@
+package core;
+
+/**
+ * Store that may drop Entities on its own to stay within a budget, so that the views built from them can be dropped
+ * with them.
+ */
+public interface IEvictingEntityStore {
+    /**
+     * @param listener Listener notified with the key of every evicted Entity.
+     */
+    void addEvictionListener(IEvictionListener<EntityKey, IEntity> listener);
+}
@@ -0,0 +1,15 @@
+package core;
+
+/**
+ * Receives the values that a bounded store or cache drops on its own to stay within its budget. Called by the thread
+ * whose write caused the eviction, once the cache no longer holds its lock.
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public interface IEvictionListener<K, V> {
+    /**
+     * @param key Key of the evicted value.
+     * @param value Evicted value.
+     */
+    void onEviction(K key, V value);
+}
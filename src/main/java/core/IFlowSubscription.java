@@ -0,0 +1,12 @@
+package core;
+
+/**
+ * Link between a {@link IPublisher} and a {@link ISubscriber}, shaped after the Reactive Streams Subscription.
+ */
+public interface IFlowSubscription {
+    // Allows n more items to be delivered, n must be positive.
+    void request(long n);
+
+    // Stops delivery, items already being delivered may still arrive.
+    void cancel();
+}
@@ -0,0 +1,48 @@
+package core;
+
+/**
+ * Map from primitive long keys to values, so that Entities with integral IDs can be looked up without boxing their IDs.
+ * Lets a holder pick {@link LongObjectMap} or {@link ConcurrentLongObjectMap} once it knows if it is shared between
+ * threads.
+ * @param <V> Value type.
+ */
+public interface ILongObjectMap<V> {
+    /**
+     * @param key Key.
+     * @return Value mapped to the key, or null if there is none.
+     */
+    V get(long key);
+
+    /**
+     * @param key Key.
+     * @return True if the key is mapped.
+     */
+    boolean containsKey(long key);
+
+    /**
+     * Maps a key to a value.
+     * @param key Key.
+     * @param value Value, must not be null.
+     * @return Value previously mapped to the key, or null if there was none.
+     */
+    V put(long key, V value);
+
+    /**
+     * Removes the mapping for a key.
+     * @param key Key.
+     * @return Value previously mapped to the key, or null if there was none.
+     */
+    V remove(long key);
+
+    /**
+     * Removes the mapping for a key only if it is mapped to a value.
+     * @param key Key.
+     * @param value Expected value, compared by identity.
+     * @return True if the mapping was removed.
+     */
+    boolean remove(long key, V value);
+
+    void clear();
+
+    int size();
+}
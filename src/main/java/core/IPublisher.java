@@ -0,0 +1,10 @@
+package core;
+
+/**
+ * Source of items delivered to subscribers on demand, shaped after the Reactive Streams Publisher.
+ * @param <T> Item type.
+ */
+public interface IPublisher<T> {
+    // Subscribes a subscriber, which is handed its subscription through onSubscribe().
+    void subscribe(ISubscriber<? super T> subscriber);
+}
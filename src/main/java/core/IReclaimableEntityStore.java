@@ -0,0 +1,8 @@
+package core;
+
+/**
+ * Store that holds Entities through soft or weak references, so that the garbage collector may reclaim them. A
+ * repository reading it does not memoize views, which would hold the Entities they were built from strongly.
+ */
+public interface IReclaimableEntityStore {
+}
@@ -0,0 +1,19 @@
+package core;
+
+/**
+ * Receiver of items from a {@link IPublisher}, shaped after the Reactive Streams Subscriber.
+ * @param <T> Item type.
+ */
+public interface ISubscriber<T> {
+    // Called once, before any other method. No items are delivered until they are requested.
+    void onSubscribe(IFlowSubscription subscription);
+
+    // Called for every delivered item, never more often than requested.
+    void onNext(T item);
+
+    // Called when the subscription fails, no methods are called afterwards.
+    void onError(Throwable throwable);
+
+    // Called when the publisher has no more items, no methods are called afterwards.
+    void onComplete();
+}
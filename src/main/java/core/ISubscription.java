@@ -0,0 +1,6 @@
+package core;
+
+public interface ISubscription {
+    // Stops notifications, batches already being delivered may still arrive.
+    void unsubscribe();
+}
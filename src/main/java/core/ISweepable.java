@@ -0,0 +1,9 @@
+package core;
+
+/**
+ * Holder of Entities that expire, swept periodically by {@link ExpirySweeper}.
+ */
+public interface ISweepable {
+    // Drops every Entity that has expired since the previous sweep.
+    void sweepExpired();
+}
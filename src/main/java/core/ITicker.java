@@ -0,0 +1,16 @@
+package core;
+
+/**
+ * Source of nanosecond time readings, replaceable so that expiry can be tested without waiting.
+ */
+public interface ITicker {
+    ITicker SYSTEM = new ITicker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    // Nanoseconds since an arbitrary origin, only meaningful relative to other readings.
+    long read();
+}
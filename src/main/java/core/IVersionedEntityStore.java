@@ -0,0 +1,13 @@
+package core;
+
+/**
+ * A store that stamps every Entity it holds with the value of a counter incremented by every write, so that readers can
+ * tell whether Entities have changed by comparing longs. A write stores the Entity before publishing its version.
+ */
+public interface IVersionedEntityStore {
+    // Version of the latest write to this store.
+    long version();
+
+    // Version of the latest write of an Entity, or 0 if it has never been written.
+    long version(EntityKey key);
+}
@@ -0,0 +1,10 @@
+package core;
+
+/**
+ * Estimates how much of a bounded store's budget a value takes up.
+ * @param <V> Value type.
+ */
+public interface IWeigher<V> {
+    // Weight of a value, must not be negative.
+    int weigh(V value);
+}
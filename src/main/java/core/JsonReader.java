@@ -0,0 +1,461 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser reading a JSON document one token at a time, so that documents of any size are read with a fixed
+ * buffer. Values are only materialized when they are consumed, and skipped values are never materialized. Not safe for
+ * use by multiple threads.
+ */
+public class JsonReader implements Closeable {
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Scopes of the values being read, the innermost last.
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer;
+    private final StringBuilder text;
+    private int position;
+    private int limit;
+    private long offset;
+
+    private int[] scopes;
+    private int depth;
+
+    // Token peeked but not consumed, and its value if it is a literal.
+    private Token peeked;
+    private boolean peekedBoolean;
+    private String peekedNumber;
+
+    /**
+     * @param in Reader of the document, closed with this reader.
+     */
+    public JsonReader(Reader in) {
+        this.in = in;
+        this.buffer = new char[BUFFER_SIZE];
+        this.text = new StringBuilder();
+        this.scopes = new int[32];
+        this.scopes[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return Next token, without consuming it.
+     * @throws IOException If the document could not be read or is malformed.
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+
+        return peeked;
+    }
+
+    /**
+     * @return True if the current object or array has another element, else false.
+     * @throws IOException If the document could not be read or is malformed.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * @return Name of the next property of the current object.
+     * @throws IOException If the document could not be read, or the next token is not a name.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * @return Next string, or the text of the next number.
+     * @throws IOException If the document could not be read, or the next token is neither a string nor a number.
+     */
+    public String nextString() throws IOException {
+        if (peek() == Token.NUMBER) {
+            peeked = null;
+            return peekedNumber;
+        }
+
+        expect(Token.STRING);
+        return readString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes the next value if it is null.
+     * @return True if a null was consumed, else false.
+     * @throws IOException If the document could not be read or is malformed.
+     */
+    public boolean skipNull() throws IOException {
+        if (peek() != Token.NULL) {
+            return false;
+        }
+
+        peeked = null;
+        return true;
+    }
+
+    /**
+     * @return Next number, which must be integral and fit in a long.
+     * @throws IOException If the document could not be read, or the next token is not such a number.
+     */
+    public long nextLong() throws IOException {
+        String number = nextNumber();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            double value = Double.parseDouble(number);
+            if (value != (long) value) {
+                throw syntaxError("Expected an integral number but was " + number);
+            }
+
+            return (long) value;
+        }
+    }
+
+    /**
+     * @return Next number, which must be integral and fit in an int.
+     * @throws IOException If the document could not be read, or the next token is not such a number.
+     */
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("Expected an int but was " + value);
+        }
+
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        return Double.parseDouble(nextNumber());
+    }
+
+    /**
+     * Consumes the next value, including every value nested in it, without materializing any.
+     * @throws IOException If the document could not be read or is malformed.
+     */
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nesting--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nesting--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    peeked = null;
+            }
+        } while (nesting > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + peeked);
+        }
+
+        peeked = null;
+    }
+
+    private String nextNumber() throws IOException {
+        expect(Token.NUMBER);
+        return peekedNumber;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(scopes, 0, grown, 0, depth);
+            scopes = grown;
+        }
+
+        scopes[depth++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope == EMPTY_ARRAY) {
+            scopes[depth - 1] = NONEMPTY_ARRAY;
+        } else if (scope == NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return Token.END_ARRAY;
+            } else if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+            scopes[depth - 1] = DANGLING_NAME;
+            int c = nextNonWhitespace();
+            if (scope == NONEMPTY_OBJECT) {
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+
+            if (c == '"') {
+                return Token.NAME;
+            } else if (c == '}' && scope == EMPTY_OBJECT) {
+                return Token.END_OBJECT;
+            }
+            throw syntaxError("Expected a name");
+        } else if (scope == DANGLING_NAME) {
+            scopes[depth - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+        } else if (scope == EMPTY_DOCUMENT) {
+            scopes[depth - 1] = NONEMPTY_DOCUMENT;
+        } else if (nextNonWhitespace() == -1) {
+            return Token.END_DOCUMENT;
+        } else {
+            throw syntaxError("Expected a single top-level value");
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                if (scope == EMPTY_ARRAY) {
+                    return Token.END_ARRAY;
+                }
+                throw syntaxError("Expected a value");
+            case '"':
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                peekedBoolean = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("alse");
+                peekedBoolean = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    peekedNumber = readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Malformed literal");
+            }
+        }
+    }
+
+    private String readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (position < limit || fill()) {
+            char c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote is consumed.
+     * @return String, unescaped.
+     * @throws IOException If the document could not be read, or the string is malformed.
+     */
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            // Copy runs of unescaped characters at once.
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"') {
+                    text.append(buffer, start, position - start);
+                    position++;
+                    return text.toString();
+                } else if (c == '\\') {
+                    text.append(buffer, start, position - start);
+                    position++;
+                    text.append(readEscape());
+                    start = position;
+                } else {
+                    position++;
+                }
+            }
+            text.append(buffer, start, position - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Malformed escape");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+
+        limit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + (offset + position));
+    }
+}
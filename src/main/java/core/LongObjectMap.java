@@ -0,0 +1,232 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from primitive long keys to values, so that Entities with integral IDs can be stored and looked
+ * up without boxing their IDs or allocating an entry per mapping. Not safe for use by multiple threads, see
+ * {@link ConcurrentLongObjectMap}.
+ * @param <V> Value type.
+ */
+public class LongObjectMap<V> implements ILongObjectMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // Key 0 marks a free slot, so its mapping is held separately.
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    private long[] keys;
+    private V[] values;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    public LongObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @param key Key.
+     * @return Value mapped to the key, or null if there is none.
+     */
+    @Override
+    public V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * @param key Key.
+     * @return True if the key is mapped.
+     */
+    @Override
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value.
+     * @param key Key.
+     * @param value Value, must not be null.
+     * @return Value previously mapped to the key, or null if there was none.
+     */
+    @Override
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LongObjectMap does not support null values");
+        }
+
+        if (key == 0) {
+            V previous = zeroValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        int index = slotOf(key);
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                V previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size >= resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping for a key.
+     * @param key Key.
+     * @return Value previously mapped to the key, or null if there was none.
+     */
+    @Override
+    public V remove(long key) {
+        if (key == 0) {
+            V previous = zeroValue;
+            if (hasZeroKey) {
+                hasZeroKey = false;
+                zeroValue = null;
+                size--;
+            }
+            return previous;
+        }
+
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        V previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    /**
+     * Removes the mapping for a key only if it is mapped to a value.
+     * @param key Key.
+     * @param value Expected value, compared by identity.
+     * @return True if the mapping was removed.
+     */
+    @Override
+    public boolean remove(long key, V value) {
+        if (get(key) != value || value == null) {
+            return false;
+        }
+
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        hasZeroKey = false;
+        zeroValue = null;
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long key) {
+        int index = slotOf(key);
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Backward-shift deletion keeps probe sequences intact without tombstones.
+    private void removeAt(int index) {
+        size--;
+
+        int free = index;
+        int next = (free + 1) & mask;
+        while (keys[next] != 0) {
+            int slot = slotOf(keys[next]);
+            boolean isDisplaced = free <= next ?
+                    free >= slot || slot > next :
+                    free >= slot && slot > next;
+            if (isDisplaced) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+
+        allocate(capacity);
+        size = hasZeroKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = slotOf(oldKeys[i]);
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR <= expectedSize) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+}
@@ -0,0 +1,213 @@
+package core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * {@link OffHeapEntityTable} whose index and slabs are memory-mapped files, so that the Entities it holds survive the
+ * process. Reopening a table maps its files again without reading them, so that reads are served immediately and the
+ * operating system pages in only the records that are read.
+ * <p>
+ * The files of a table named "User" in a directory are its index segments "User.&lt;n&gt;.index", its slabs
+ * "User.&lt;n&gt;.slab", and the manifest "User.manifest". The manifest starts with the version of the file format
+ * and the schema fingerprint of the encoded Entities, followed by the index segments and slabs in use, with an empty
+ * line for every released slab number. The manifest is written by close() and deleted when the table is opened, so a
+ * table that was not closed, for example because the process crashed while writes were being applied to its files,
+ * is discarded and reopened empty, as is a table written in another format or with another schema. Entities that must
+ * survive a crash are to be restored from a write-ahead log instead. A table must only be opened by one process at a
+ * time.
+ */
+public class MappedEntityTable extends OffHeapEntityTable implements Closeable {
+    private static final String INDEX_SUFFIX = ".index";
+    private static final String SLAB_SUFFIX = ".slab";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final int FORMAT_VERSION = 2;
+
+    private final File directory;
+    private final String name;
+    private final String version;
+
+    // Guarded by lock.
+    private final Map<ByteBuffer, File> files;
+    private int nextFileNumber;
+    private boolean isClosed;
+
+    private MappedEntityTable(int slabSize, List<ByteBuffer> segments, List<ByteBuffer> slabs, File directory, String name, Map<ByteBuffer, File> files, int nextFileNumber, String version) {
+        super(slabSize, segments, slabs);
+        this.directory = directory;
+        this.name = name;
+        this.version = version;
+        this.files = files;
+        this.nextFileNumber = nextFileNumber;
+    }
+
+    /**
+     * Opens the table with a name in a directory, mapping the files left by the last close(), or creating an empty
+     * table if it was not closed or was closed with another schema fingerprint.
+     * @param directory Directory holding the files of the table, created if it does not exist.
+     * @param name Name of the table, unique within the directory.
+     * @param slabSize Size in bytes of the slab files records are appended to, must not change between opens.
+     * @param schemaFingerprint Fingerprint of the encoding of the Entities held by the table.
+     * @return Table.
+     * @throws IOException If the files of the table could not be mapped.
+     */
+    public static MappedEntityTable open(File directory, String name, int slabSize, long schemaFingerprint) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File manifest = new File(directory, name + MANIFEST_SUFFIX);
+        List<String> fileNames = manifest.exists() ?
+                Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8) :
+                Collections.<String>emptyList();
+        String version = getVersion(schemaFingerprint);
+        fileNames = fileNames.isEmpty() || !fileNames.get(0).equals(version) ?
+                Collections.<String>emptyList() :
+                fileNames.subList(1, fileNames.size());
+
+        // Files of a table that was not closed, or that were released after the manifest was written, are discarded.
+        int nextFileNumber = 0;
+        File[] existingFiles = directory.listFiles();
+        for (File file : existingFiles == null ? new File[0] : existingFiles) {
+            String fileName = file.getName();
+            if (fileName.startsWith(name + ".") && (fileName.endsWith(INDEX_SUFFIX) || fileName.endsWith(SLAB_SUFFIX))) {
+                if (fileNames.contains(fileName)) {
+                    nextFileNumber = Math.max(nextFileNumber, getFileNumber(name, fileName) + 1);
+                } else {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+
+        Map<ByteBuffer, File> files = new IdentityHashMap<>();
+        List<ByteBuffer> segments = new ArrayList<>();
+        List<ByteBuffer> slabs = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (fileName.isEmpty()) {
+                slabs.add(null);
+                continue;
+            }
+
+            File file = new File(directory, fileName);
+            ByteBuffer buffer = map(file, (int) file.length());
+            files.put(buffer, file);
+            if (fileName.endsWith(INDEX_SUFFIX)) {
+                segments.add(buffer);
+            } else {
+                slabs.add(buffer);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            for (int i = 0; i < INDEX_SEGMENTS; i++) {
+                File file = new File(directory, name + "." + nextFileNumber++ + INDEX_SUFFIX);
+                ByteBuffer segment = map(file, (int) segmentBytes(DEFAULT_SEGMENT_CAPACITY));
+                files.put(segment, file);
+                segments.add(segment);
+            }
+        }
+
+        // The table is open until it is closed again.
+        Files.deleteIfExists(manifest.toPath());
+
+        return new MappedEntityTable(slabSize, segments, slabs, directory, name, files, nextFileNumber, version);
+    }
+
+    @Override
+    protected ByteBuffer allocateSlab(int size) {
+        return allocate(SLAB_SUFFIX, size);
+    }
+
+    @Override
+    protected ByteBuffer allocateIndex(int bytes) {
+        return allocate(INDEX_SUFFIX, bytes);
+    }
+
+    @Override
+    protected void release(ByteBuffer buffer) {
+        File file = files.remove(buffer);
+        if (file != null && !file.delete()) {
+            // Mapped files cannot be deleted on some platforms, they are discarded by the next open instead.
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Flushes every mapped file and writes the manifest, so that the next open() finds the table as it is now. The
+     * table must not be used after it is closed.
+     * @throws IOException If the manifest could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+
+            List<String> fileNames = new ArrayList<>();
+            fileNames.add(version);
+            for (ByteBuffer segment : getIndexSegments()) {
+                ((MappedByteBuffer) segment).force();
+                fileNames.add(files.get(segment).getName());
+            }
+            for (ByteBuffer slab : getSlabs()) {
+                if (slab == null) {
+                    fileNames.add("");
+                    continue;
+                }
+
+                ((MappedByteBuffer) slab).force();
+                fileNames.add(files.get(slab).getName());
+            }
+
+            Files.write(new File(directory, name + MANIFEST_SUFFIX).toPath(), fileNames, StandardCharsets.UTF_8);
+            isClosed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ByteBuffer allocate(String suffix, int size) {
+        File file = new File(directory, name + "." + nextFileNumber++ + suffix);
+        try {
+            ByteBuffer buffer = map(file, size);
+            files.put(buffer, file);
+            return buffer;
+        } catch (IOException e) {
+            throw new EntityStorageException("Could not map " + file, e);
+        }
+    }
+
+    private static ByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * @param schemaFingerprint Fingerprint of the encoding of the Entities held by the table.
+     * @return First line of the manifest.
+     */
+    private static String getVersion(long schemaFingerprint) {
+        return FORMAT_VERSION + " " + Long.toHexString(schemaFingerprint);
+    }
+
+    private static int getFileNumber(String name, String fileName) {
+        String number = fileName.substring(name.length() + 1, fileName.lastIndexOf('.'));
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
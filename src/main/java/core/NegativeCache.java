@@ -0,0 +1,92 @@
+package core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the IDs that a loader reported as absent for a while, so that repeated gets of them do not reach the
+ * loader every time. Holds a bounded number of IDs and forgets the oldest first; forgetting an ID early only costs a
+ * load, so the bound is kept loosely rather than under a lock. Safe for use by multiple threads.
+ */
+public class NegativeCache {
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final ITicker ticker;
+    private final ConcurrentMap<Object, Long> deadlineById;
+    private final Queue<Object> addedIds;
+    private final AtomicInteger addedCount;
+
+    /**
+     * @param maximumSize Maximum number of IDs remembered.
+     * @param ttlNanos Time for which an ID is remembered as absent.
+     * @param ticker Time source.
+     */
+    public NegativeCache(int maximumSize, long ttlNanos, ITicker ticker) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttlNanos;
+        this.ticker = ticker;
+        this.deadlineById = new ConcurrentHashMap<>();
+        this.addedIds = new ConcurrentLinkedQueue<>();
+        this.addedCount = new AtomicInteger();
+    }
+
+    /**
+     * Remembers an ID as absent.
+     * @param id Entity ID.
+     */
+    public void add(Object id) {
+        if (deadlineById.put(id, ticker.read() + ttlNanos) != null) {
+            return;
+        }
+
+        // The queue also holds IDs removed since they were added, so it is bounded rather than the map.
+        addedIds.offer(id);
+        if (addedCount.incrementAndGet() > maximumSize) {
+            Object oldest = addedIds.poll();
+            if (oldest != null) {
+                addedCount.decrementAndGet();
+                deadlineById.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * @param id Entity ID.
+     * @return True if the ID was reported as absent and has not been put since.
+     */
+    public boolean contains(Object id) {
+        Long deadline = deadlineById.get(id);
+        if (deadline == null) {
+            return false;
+        }
+
+        if (ticker.read() - deadline >= 0) {
+            deadlineById.remove(id, deadline);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Forgets an ID, typically because its Entity has been put.
+     * @param id Entity ID.
+     */
+    public void remove(Object id) {
+        deadlineById.remove(id);
+    }
+
+    /**
+     * @return Number of IDs remembered, including expired ones that have not been looked up since.
+     */
+    public int size() {
+        return deadlineById.size();
+    }
+}
@@ -0,0 +1,566 @@
+package core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds encoded Entities by long key outside of the Java heap. Records are appended to direct memory slabs, and found
+ * through an open addressing index that is itself held in direct memory, so that the heap holds neither the Entities
+ * nor their keys. Safe for use by multiple threads: readers decode under a shared lock, so that a record is never
+ * rewritten while it is decoded.
+ * <p>
+ * The index is split into a fixed number of segments chosen by the hash of a key, each growing on its own, so that no
+ * segment outgrows the 2 GB limit of a buffer and growing the index only rehashes one segment at a time. A record is
+ * rewritten in place when the new encoding fits. Every record carries its key, so that a slab can be compacted on its
+ * own: once most of the bytes of a slab belong to replaced or removed records, its live records are moved to the slab
+ * being filled and the slab is released. Records larger than a slab are given a slab of their own, released once the
+ * record is replaced or removed.
+ * <p>
+ * Every segment keeps its number of keys in its header and every slab records its own fill level and live bytes, so
+ * that subclasses backing the index and slabs with persistent memory can reopen a table from them, see
+ * {@link MappedEntityTable}.
+ */
+public class OffHeapEntityTable {
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    protected static final int INDEX_SEGMENTS = 64;
+    protected static final int DEFAULT_SEGMENT_CAPACITY = 32;
+    // Largest power of two number of entries whose segment fits in a buffer.
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 26;
+    private static final int SEGMENT_BITS = Integer.numberOfTrailingZeros(INDEX_SEGMENTS);
+
+    // Segment header: number of keys.
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    // Index entry: key and record address + 1, so that 0 marks an empty entry.
+    private static final int ENTRY_SIZE = 16;
+
+    // Slab header: offset of the first free byte and bytes of live records.
+    private static final int SLAB_HEADER_SIZE = 8;
+    // Record header: capacity and length of the encoded Entity, and its key.
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    protected final ReadWriteLock lock;
+
+    private final int slabSize;
+    private final ThreadLocal<EntityOutput> outputs;
+
+    // Guarded by lock.
+    private final ByteBuffer[] segments;
+    private final List<ByteBuffer> slabs;
+    // Slab records are appended to, or -1 if none is.
+    private int currentSlab;
+
+    public OffHeapEntityTable() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize Size in bytes of the direct memory slabs records are appended to. Records larger than a slab are
+     *                 given a slab of their own.
+     */
+    public OffHeapEntityTable(int slabSize) {
+        this(slabSize, allocateDirectSegments(), new ArrayList<ByteBuffer>());
+    }
+
+    /**
+     * Adopts index segments and slabs, either zeroed or previously written by a table with the same slab size.
+     * @param slabSize Size in bytes of the slabs records are appended to.
+     * @param segments {@link #INDEX_SEGMENTS} index segments in order, see {@link #segmentBytes(int)}.
+     * @param slabs Slabs, by slab number, with null for numbers whose slab was released.
+     */
+    protected OffHeapEntityTable(int slabSize, List<ByteBuffer> segments, List<ByteBuffer> slabs) {
+        if (slabSize <= SLAB_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Slab size must be greater than " + (SLAB_HEADER_SIZE + RECORD_HEADER_SIZE) + ": " + slabSize);
+        } else if (segments.size() != INDEX_SEGMENTS) {
+            throw new IllegalArgumentException("Index must have " + INDEX_SEGMENTS + " segments: " + segments.size());
+        }
+
+        this.lock = new ReentrantReadWriteLock();
+        this.slabSize = slabSize;
+        this.outputs = new ThreadLocal<EntityOutput>() {
+            @Override
+            protected EntityOutput initialValue() {
+                return new EntityOutput();
+            }
+        };
+        this.segments = segments.toArray(new ByteBuffer[INDEX_SEGMENTS]);
+        this.slabs = new ArrayList<>(slabs);
+
+        // Appending resumes in the shared slab with the most free bytes.
+        this.currentSlab = -1;
+        int freeBytes = 0;
+        for (int i = 0; i < this.slabs.size(); i++) {
+            ByteBuffer slab = this.slabs.get(i);
+            if (slab != null && slab.capacity() == slabSize && slab.capacity() - slab.getInt(0) > freeBytes) {
+                currentSlab = i;
+                freeBytes = slab.capacity() - slab.getInt(0);
+            }
+        }
+    }
+
+    /**
+     * @param capacity Number of segment entries, a power of two.
+     * @return Bytes of an index segment with the given number of entries.
+     */
+    protected static long segmentBytes(int capacity) {
+        return SEGMENT_HEADER_SIZE + (long) capacity * ENTRY_SIZE;
+    }
+
+    /**
+     * Allocates a slab. Slabs are zeroed on allocation.
+     * @param size Size in bytes.
+     * @return Slab.
+     */
+    protected ByteBuffer allocateSlab(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Allocates an index segment, when a segment outgrows its entries. Segments are zeroed on allocation.
+     * @param bytes Size in bytes.
+     * @return Index segment.
+     */
+    protected ByteBuffer allocateIndex(int bytes) {
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * Releases a slab or index segment that the table no longer uses, after compaction or segment growth.
+     * @param buffer Slab or index segment.
+     */
+    protected void release(ByteBuffer buffer) {
+    }
+
+    /**
+     * @return Index segments in order, only to be read under the lock.
+     */
+    protected List<ByteBuffer> getIndexSegments() {
+        List<ByteBuffer> indexSegments = new ArrayList<>(INDEX_SEGMENTS);
+        for (ByteBuffer segment : segments) {
+            indexSegments.add(segment);
+        }
+
+        return indexSegments;
+    }
+
+    /**
+     * @return Slabs by slab number, with null for released slabs, only to be read under the lock.
+     */
+    protected List<ByteBuffer> getSlabs() {
+        return slabs;
+    }
+
+    /**
+     * Encodes an Entity and maps a key to it, replacing any Entity previously mapped to the key. The Entity is encoded
+     * before the lock is taken.
+     * @param key Key.
+     * @param entity Entity.
+     * @param codec Codec of the Entity.
+     */
+    public <T> void put(long key, T entity, IEntityCodec<? super T> codec) {
+        EntityOutput output = outputs.get();
+        output.clear();
+        codec.encode(entity, output);
+        int length = output.size();
+
+        lock.writeLock().lock();
+        try {
+            long hash = hash(key);
+            int segmentNumber = segmentOf(hash);
+            int entry = find(segments[segmentNumber], hash, key);
+            long address = entry < 0 ? -1 : segments[segmentNumber].getLong(entry + 8) - 1;
+            long replaced = -1;
+            int retiredSlab = -1;
+            if (entry < 0 || capacityAt(address) < length) {
+                replaced = address;
+                int previousSlab = currentSlab;
+                address = allocate(key, length);
+                retiredSlab = currentSlab != previousSlab ? previousSlab : -1;
+
+                entry = entry >= 0 ? entry : insert(segmentNumber, hash, key);
+                segments[segmentNumber].putLong(entry + 8, address + 1);
+            }
+
+            ByteBuffer record = slabs.get(slabOf(address)).duplicate();
+            int offset = offsetOf(address);
+            record.putInt(offset + 4, length);
+            record.position(offset + RECORD_HEADER_SIZE);
+            output.copyTo(record);
+
+            if (replaced >= 0) {
+                discard(replaced);
+            }
+            // A slab left behind by the append is only compacted by the writes that follow it if any of its records
+            // is still replaced or removed, so it is checked once here.
+            if (retiredSlab >= 0) {
+                compactIfSparse(retiredSlab);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Decodes the Entity mapped to a key.
+     * @param key Key.
+     * @param codec Codec of the Entity.
+     * @return Entity, or null if none is mapped to the key.
+     */
+    public <T> T get(long key, IEntityCodec<? extends T> codec) {
+        lock.readLock().lock();
+        try {
+            long hash = hash(key);
+            ByteBuffer segment = segments[segmentOf(hash)];
+            int entry = find(segment, hash, key);
+            if (entry < 0) {
+                return null;
+            }
+
+            long address = segment.getLong(entry + 8) - 1;
+            ByteBuffer record = slabs.get(slabOf(address)).duplicate();
+            int offset = offsetOf(address);
+            record.limit(offset + RECORD_HEADER_SIZE + record.getInt(offset + 4));
+            record.position(offset + RECORD_HEADER_SIZE);
+
+            return codec.decode(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param key Key.
+     * @return True if an Entity was mapped to the key, else false.
+     */
+    public boolean remove(long key) {
+        lock.writeLock().lock();
+        try {
+            long hash = hash(key);
+            ByteBuffer segment = segments[segmentOf(hash)];
+            int entry = find(segment, hash, key);
+            if (entry < 0) {
+                return false;
+            }
+
+            long address = segment.getLong(entry + 8) - 1;
+            delete(segment, entry);
+            discard(address);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Every mapped key, in no particular order.
+     */
+    public long[] keys() {
+        lock.readLock().lock();
+        try {
+            long[] keys = new long[sizeOf()];
+            int i = 0;
+            for (ByteBuffer segment : segments) {
+                for (int entry = SEGMENT_HEADER_SIZE; entry < segment.capacity(); entry += ENTRY_SIZE) {
+                    if (segment.getLong(entry + 8) != 0) {
+                        keys[i++] = segment.getLong(entry);
+                    }
+                }
+            }
+
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of mapped keys.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return sizeOf();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Bytes of memory held by slabs and the index.
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (ByteBuffer segment : segments) {
+                bytes += segment.capacity();
+            }
+            for (ByteBuffer slab : slabs) {
+                bytes += slab == null ? 0 : slab.capacity();
+            }
+
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int sizeOf() {
+        long size = 0;
+        for (ByteBuffer segment : segments) {
+            size += segment.getLong(0);
+        }
+
+        return (int) size;
+    }
+
+    private int capacityAt(long address) {
+        return slabs.get(slabOf(address)).getInt(offsetOf(address));
+    }
+
+    /**
+     * Reserves space for a record at the end of the current slab, in a new slab if it does not fit, or in a slab of its
+     * own if it is larger than a slab.
+     * @param key Key of the record.
+     * @param length Encoded length.
+     * @return Address of the record.
+     */
+    private long allocate(long key, int length) {
+        int recordSize = RECORD_HEADER_SIZE + length;
+        int slabNumber;
+        if (recordSize > slabSize - SLAB_HEADER_SIZE) {
+            slabNumber = addSlab(SLAB_HEADER_SIZE + recordSize);
+        } else {
+            if (currentSlab < 0 || slabSize - slabs.get(currentSlab).getInt(0) < recordSize) {
+                currentSlab = addSlab(slabSize);
+            }
+            slabNumber = currentSlab;
+        }
+
+        ByteBuffer slab = slabs.get(slabNumber);
+        int offset = slab.getInt(0);
+        slab.putInt(offset, length);
+        slab.putLong(offset + 8, key);
+        slab.putInt(0, offset + recordSize);
+        slab.putInt(4, slab.getInt(4) + recordSize);
+
+        return ((long) slabNumber << 32) | offset;
+    }
+
+    /**
+     * Allocates a slab under the first released slab number, or a new one.
+     * @param size Size in bytes.
+     * @return Slab number.
+     */
+    private int addSlab(int size) {
+        ByteBuffer slab = allocateSlab(size);
+        slab.putInt(0, SLAB_HEADER_SIZE);
+
+        int slabNumber = slabs.indexOf(null);
+        if (slabNumber < 0) {
+            slabs.add(slab);
+            return slabs.size() - 1;
+        }
+
+        slabs.set(slabNumber, slab);
+        return slabNumber;
+    }
+
+    /**
+     * Accounts for a record that was replaced or removed, compacting its slab if it became sparse.
+     * @param address Address of the record.
+     */
+    private void discard(long address) {
+        int slabNumber = slabOf(address);
+        ByteBuffer slab = slabs.get(slabNumber);
+        slab.putInt(4, slab.getInt(4) - RECORD_HEADER_SIZE - slab.getInt(offsetOf(address)));
+        compactIfSparse(slabNumber);
+    }
+
+    /**
+     * Moves the live records of a slab that records are no longer appended to, once less than half of its bytes are
+     * live, to the current slab, and releases it. Only the records of that slab are copied.
+     * @param slabNumber Slab number.
+     */
+    private void compactIfSparse(int slabNumber) {
+        ByteBuffer slab = slabs.get(slabNumber);
+        if (slab == null) {
+            return;
+        }
+
+        int end = slab.getInt(0);
+        if (slabNumber == currentSlab || slab.getInt(4) * 2L >= end - SLAB_HEADER_SIZE) {
+            return;
+        }
+
+        for (int offset = SLAB_HEADER_SIZE; offset < end; ) {
+            int capacity = slab.getInt(offset);
+            int length = slab.getInt(offset + 4);
+            long key = slab.getLong(offset + 8);
+
+            long hash = hash(key);
+            ByteBuffer segment = segments[segmentOf(hash)];
+            int entry = find(segment, hash, key);
+            long oldAddress = ((long) slabNumber << 32) | offset;
+            if (entry >= 0 && segment.getLong(entry + 8) - 1 == oldAddress) {
+                ByteBuffer oldRecord = slab.duplicate();
+                oldRecord.limit(offset + RECORD_HEADER_SIZE + length);
+                oldRecord.position(offset + RECORD_HEADER_SIZE);
+
+                long address = allocate(key, length);
+                ByteBuffer record = slabs.get(slabOf(address)).duplicate();
+                int newOffset = offsetOf(address);
+                record.putInt(newOffset + 4, length);
+                record.position(newOffset + RECORD_HEADER_SIZE);
+                record.put(oldRecord);
+
+                segment.putLong(entry + 8, address + 1);
+            }
+
+            offset += RECORD_HEADER_SIZE + capacity;
+        }
+
+        slabs.set(slabNumber, null);
+        release(slab);
+    }
+
+    private static int find(ByteBuffer segment, long hash, long key) {
+        int entry = slotOf(segment, hash);
+        while (true) {
+            long stored = segment.getLong(entry + 8);
+            if (stored == 0) {
+                return -1;
+            } else if (segment.getLong(entry) == key) {
+                return entry;
+            }
+
+            entry = nextEntry(segment, entry);
+        }
+    }
+
+    private int insert(int segmentNumber, long hash, long key) {
+        ByteBuffer segment = segments[segmentNumber];
+        long size = segment.getLong(0);
+        if ((size + 1) * 2 > capacity(segment)) {
+            segment = resize(segmentNumber);
+        }
+
+        int entry = slotOf(segment, hash);
+        while (segment.getLong(entry + 8) != 0) {
+            entry = nextEntry(segment, entry);
+        }
+
+        segment.putLong(entry, key);
+        segment.putLong(0, size + 1);
+
+        return entry;
+    }
+
+    /**
+     * Empties a segment entry, shifting back the entries after it so that linear probes never stop short of a key.
+     * @param segment Index segment.
+     * @param entry Entry offset.
+     */
+    private static void delete(ByteBuffer segment, int entry) {
+        int gap = entry;
+        int next = nextEntry(segment, gap);
+        while (segment.getLong(next + 8) != 0) {
+            int home = slotOf(segment, hash(segment.getLong(next)));
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, next].
+            boolean isHomeBetween = gap <= next ?
+                    gap < home && home <= next :
+                    gap < home || home <= next;
+            if (!isHomeBetween) {
+                segment.putLong(gap, segment.getLong(next));
+                segment.putLong(gap + 8, segment.getLong(next + 8));
+                gap = next;
+            }
+
+            next = nextEntry(segment, next);
+        }
+
+        segment.putLong(gap, 0);
+        segment.putLong(gap + 8, 0);
+        segment.putLong(0, segment.getLong(0) - 1);
+    }
+
+    private ByteBuffer resize(int segmentNumber) {
+        ByteBuffer oldSegment = segments[segmentNumber];
+        int oldCapacity = capacity(oldSegment);
+        if (oldCapacity >= MAX_SEGMENT_CAPACITY) {
+            throw new IllegalStateException("Index segment is full at " + oldCapacity + " entries");
+        }
+
+        ByteBuffer segment = allocateIndex((int) segmentBytes(oldCapacity * 2));
+        segment.putLong(0, oldSegment.getLong(0));
+        for (int oldEntry = SEGMENT_HEADER_SIZE; oldEntry < oldSegment.capacity(); oldEntry += ENTRY_SIZE) {
+            long stored = oldSegment.getLong(oldEntry + 8);
+            if (stored == 0) {
+                continue;
+            }
+
+            long key = oldSegment.getLong(oldEntry);
+            int entry = slotOf(segment, hash(key));
+            while (segment.getLong(entry + 8) != 0) {
+                entry = nextEntry(segment, entry);
+            }
+
+            segment.putLong(entry, key);
+            segment.putLong(entry + 8, stored);
+        }
+
+        segments[segmentNumber] = segment;
+        release(oldSegment);
+
+        return segment;
+    }
+
+    private static List<ByteBuffer> allocateDirectSegments() {
+        List<ByteBuffer> segments = new ArrayList<>(INDEX_SEGMENTS);
+        for (int i = 0; i < INDEX_SEGMENTS; i++) {
+            segments.add(ByteBuffer.allocateDirect((int) segmentBytes(DEFAULT_SEGMENT_CAPACITY)));
+        }
+
+        return segments;
+    }
+
+    private static int capacity(ByteBuffer segment) {
+        return (segment.capacity() - SEGMENT_HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    private static int nextEntry(ByteBuffer segment, int entry) {
+        int next = entry + ENTRY_SIZE;
+        return next == segment.capacity() ? SEGMENT_HEADER_SIZE : next;
+    }
+
+    private static long hash(long key) {
+        // Finalizer of MurmurHash3, so that sequential keys spread over the index.
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static int segmentOf(long hash) {
+        // The high bits choose the segment, the low bits the slot within it.
+        return (int) (hash >>> (64 - SEGMENT_BITS));
+    }
+
+    private static int slotOf(ByteBuffer segment, long hash) {
+        return SEGMENT_HEADER_SIZE + ((int) hash & (capacity(segment) - 1)) * ENTRY_SIZE;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
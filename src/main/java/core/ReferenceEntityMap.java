@@ -0,0 +1,161 @@
+package core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe map holding its values through soft or weak references, so that the garbage collector may reclaim
+ * values that nothing else holds. Reclaimed values are enqueued by the collector, and their dead keys are removed on
+ * the next access to the map rather than by a background thread.
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class ReferenceEntityMap<K, V> {
+    public enum Strength {
+        // Values are reclaimed only when the heap runs low, least recently used first.
+        SOFT,
+        // Values are reclaimed at the next collection once nothing else holds them.
+        WEAK
+    }
+
+    private final Strength strength;
+    private final ConcurrentMap<K, Reference<V>> references;
+    private final ReferenceQueue<V> queue;
+    private final AtomicLong reclaimedCount;
+
+    /**
+     * @param strength Strength of the references holding values.
+     */
+    public ReferenceEntityMap(Strength strength) {
+        if (strength == null) {
+            throw new IllegalArgumentException("Reference strength must not be null");
+        }
+
+        this.strength = strength;
+        this.references = new ConcurrentHashMap<>();
+        this.queue = new ReferenceQueue<>();
+        this.reclaimedCount = new AtomicLong();
+    }
+
+    /**
+     * @param key Key.
+     * @return Value mapped to the key, or null if it was never put, removed, or reclaimed.
+     */
+    public V get(K key) {
+        expungeReclaimed();
+        Reference<V> reference = references.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * @param key Key.
+     * @param value Value.
+     */
+    public void put(K key, V value) {
+        expungeReclaimed();
+        references.put(key, strength == Strength.SOFT ?
+                new SoftValue<K, V>(key, value, queue) :
+                new WeakValue<K, V>(key, value, queue));
+    }
+
+    /**
+     * @param key Key.
+     */
+    public void remove(K key) {
+        expungeReclaimed();
+        references.remove(key);
+    }
+
+    /**
+     * Removes the value mapped to a key, only if it is the given instance.
+     * @param key Key.
+     * @param value Expected value.
+     * @return True if removed, else false.
+     */
+    public boolean remove(K key, V value) {
+        expungeReclaimed();
+        Reference<V> reference = references.get(key);
+        return reference != null && reference.get() == value && references.remove(key, reference);
+    }
+
+    /**
+     * @return Number of mapped keys, including those whose values are reclaimed but not yet expunged.
+     */
+    public int size() {
+        expungeReclaimed();
+        return references.size();
+    }
+
+    /**
+     * @return Number of values the garbage collector reclaimed while they were still mapped.
+     */
+    public long reclaimedCount() {
+        expungeReclaimed();
+        return reclaimedCount.get();
+    }
+
+    /**
+     * Clears and enqueues the reference holding the value of a key, as the garbage collector does when it reclaims the
+     * value, so that tests do not depend on when collections happen.
+     * @param key Key.
+     */
+    void reclaim(K key) {
+        Reference<V> reference = references.get(key);
+        if (reference != null) {
+            reference.clear();
+            reference.enqueue();
+        }
+    }
+
+    /**
+     * Removes the keys of values enqueued by the garbage collector. A reference is only counted if it is still the one
+     * mapped to its key, so that values replaced or removed before they were reclaimed are not reported.
+     */
+    @SuppressWarnings("unchecked")
+    private void expungeReclaimed() {
+        Reference<? extends V> reference;
+        while ((reference = queue.poll()) != null) {
+            K key = ((IKeyedReference<K>) reference).getKey();
+            if (references.remove(key, reference)) {
+                reclaimedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private interface IKeyedReference<K> {
+        K getKey();
+    }
+
+    private static class SoftValue<K, V> extends SoftReference<V> implements IKeyedReference<K> {
+        private final K key;
+
+        SoftValue(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+    }
+
+    private static class WeakValue<K, V> extends WeakReference<V> implements IKeyedReference<K> {
+        private final K key;
+
+        WeakValue(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+    }
+}
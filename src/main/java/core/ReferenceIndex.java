@@ -0,0 +1,193 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks which Entities embed which other Entities, so that the Entities made stale by a write can be found without
+ * walking every Entity in a store. Sets that become empty are removed, so the index only holds Entities that are
+ * linked. Safe for use by multiple threads: reads never block, and changes to the links of a key are serialized by
+ * the lock of its set.
+ */
+public class ReferenceIndex {
+    private final ConcurrentMap<EntityKey, Set<EntityKey>> parentsByChild;
+    private final ConcurrentMap<EntityKey, Set<EntityKey>> childrenByParent;
+
+    public ReferenceIndex() {
+        this.parentsByChild = new ConcurrentHashMap<>();
+        this.childrenByParent = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records that an Entity embeds another Entity.
+     * @param parent Embedding Entity.
+     * @param child Embedded Entity.
+     */
+    public void link(EntityKey parent, EntityKey child) {
+        add(childrenByParent, parent, child);
+        add(parentsByChild, child, parent);
+    }
+
+    /**
+     * Forgets every Entity embedded by an Entity, typically before it is replaced.
+     * @param parent Embedding Entity.
+     */
+    public void unlinkChildren(EntityKey parent) {
+        for (EntityKey child : detach(childrenByParent, parent)) {
+            remove(parentsByChild, child, parent);
+        }
+    }
+
+    /**
+     * Forgets an Entity, both as an embedding and as an embedded Entity, typically once it has left every store. The
+     * Entities embedding it must have been invalidated first, as later writes of the Entity no longer reach them.
+     * @param key Entity.
+     */
+    public void remove(EntityKey key) {
+        unlinkChildren(key);
+        for (EntityKey parent : detach(parentsByChild, key)) {
+            remove(childrenByParent, parent, key);
+        }
+    }
+
+    /**
+     * Gets the Entities that directly embed an Entity.
+     * @param child Embedded Entity.
+     * @return Keys of embedding Entities.
+     */
+    public Set<EntityKey> getParents(EntityKey child) {
+        Set<EntityKey> parents = parentsByChild.get(child);
+        return parents == null ?
+                Collections.<EntityKey>emptySet() :
+                Collections.unmodifiableSet(parents);
+    }
+
+    /**
+     * Gets the Entities that an Entity directly embeds.
+     * @param parent Embedding Entity.
+     * @return Keys of embedded Entities.
+     */
+    public Set<EntityKey> getChildren(EntityKey parent) {
+        Set<EntityKey> children = childrenByParent.get(parent);
+        return children == null ?
+                Collections.<EntityKey>emptySet() :
+                Collections.unmodifiableSet(children);
+    }
+
+    /**
+     * Gets the Entities that embed an Entity, either directly or through other Entities.
+     * @param child Embedded Entity.
+     * @return Keys of embedding Entities.
+     */
+    public Set<EntityKey> getReferencingKeys(EntityKey child) {
+        Set<EntityKey> referencing = new LinkedHashSet<>();
+
+        Deque<EntityKey> pending = new ArrayDeque<>();
+        pending.push(child);
+        while (!pending.isEmpty()) {
+            Set<EntityKey> parents = parentsByChild.get(pending.pop());
+            if (parents == null) {
+                continue;
+            }
+
+            for (EntityKey parent : parents) {
+                if (referencing.add(parent)) {
+                    pending.push(parent);
+                }
+            }
+        }
+
+        return referencing;
+    }
+
+    /**
+     * Gets the Entities that an Entity embeds, either directly or through other Entities.
+     * @param parent Embedding Entity.
+     * @return Keys of embedded Entities.
+     */
+    public Set<EntityKey> getEmbeddedKeys(EntityKey parent) {
+        Set<EntityKey> embedded = new LinkedHashSet<>();
+
+        Deque<EntityKey> pending = new ArrayDeque<>();
+        pending.push(parent);
+        while (!pending.isEmpty()) {
+            Set<EntityKey> children = childrenByParent.get(pending.pop());
+            if (children == null) {
+                continue;
+            }
+
+            for (EntityKey child : children) {
+                if (embedded.add(child)) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        return embedded;
+    }
+
+    /**
+     * @return True if no Entity embeds another.
+     */
+    public boolean isEmpty() {
+        return parentsByChild.isEmpty() && childrenByParent.isEmpty();
+    }
+
+    /**
+     * Adds a value to the set of a key. A set is only removed from the map under its lock, once it is empty, so an add
+     * that finds its set removed retries with a new one rather than being lost.
+     */
+    private static void add(ConcurrentMap<EntityKey, Set<EntityKey>> map, EntityKey key, EntityKey value) {
+        while (true) {
+            Set<EntityKey> values = map.get(key);
+            if (values == null) {
+                Set<EntityKey> created = Collections.newSetFromMap(new ConcurrentHashMap<EntityKey, Boolean>());
+                values = map.putIfAbsent(key, created);
+                if (values == null) {
+                    values = created;
+                }
+            }
+
+            synchronized (values) {
+                if (map.get(key) == values) {
+                    values.add(value);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a value from the set of a key, and the set itself if it is emptied.
+     */
+    private static void remove(ConcurrentMap<EntityKey, Set<EntityKey>> map, EntityKey key, EntityKey value) {
+        Set<EntityKey> values = map.get(key);
+        if (values == null) {
+            return;
+        }
+
+        synchronized (values) {
+            if (values.remove(value) && values.isEmpty()) {
+                map.remove(key, values);
+            }
+        }
+    }
+
+    /**
+     * Removes the set of a key.
+     * @return Values of the removed set, which no longer changes.
+     */
+    private static Set<EntityKey> detach(ConcurrentMap<EntityKey, Set<EntityKey>> map, EntityKey key) {
+        Set<EntityKey> values = map.get(key);
+        if (values == null) {
+            return Collections.emptySet();
+        }
+
+        synchronized (values) {
+            map.remove(key, values);
+        }
+
+        return values;
+    }
+}
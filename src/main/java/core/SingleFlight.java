@@ -0,0 +1,156 @@
+package core;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collapses concurrent calls for the same key into one, so that every caller that arrives while a call is in flight
+ * receives its result instead of repeating it. Results are not kept once the call completes. Safe for use by multiple
+ * threads.
+ * @param <K> Key type.
+ * @param <V> Result type.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, FutureTask<V>> inFlight;
+
+    public SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Runs a call for a key, or waits for the call that is already running for it.
+     * @param key Key.
+     * @param call Call, only run if no call is in flight for the key.
+     * @return Result of the call.
+     * @throws EntityLoadException If the call failed or the waiting thread was interrupted.
+     */
+    public V execute(K key, Callable<V> call) {
+        FutureTask<V> task = new FutureTask<>(call);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw new EntityLoadException("Failed to load " + key, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityLoadException("Interrupted while loading " + key, e);
+        }
+    }
+
+    /**
+     * Runs one call for the keys that have no call in flight, and waits for the calls that are already running for the
+     * others.
+     * @param keys Keys.
+     * @param call Call, only given the keys that had no call in flight.
+     * @return Map of the non-null results by their keys.
+     * @throws EntityLoadException If a call failed or the waiting thread was interrupted.
+     */
+    public Map<K, V> executeAll(Collection<K> keys, IBatchCall<K, V> call) {
+        Map<K, Promise<V>> owned = new LinkedHashMap<>();
+        Map<K, FutureTask<V>> running = new HashMap<>();
+        for (K key : keys) {
+            Promise<V> promise = new Promise<>();
+            FutureTask<V> task = inFlight.putIfAbsent(key, promise);
+            if (task == null) {
+                owned.put(key, promise);
+            } else {
+                running.put(key, task);
+            }
+        }
+
+        Map<K, V> results = new HashMap<>();
+        if (!owned.isEmpty()) {
+            try {
+                Map<K, V> values = call.call(Collections.unmodifiableSet(owned.keySet()));
+                for (Map.Entry<K, Promise<V>> entry : owned.entrySet()) {
+                    V value = values.get(entry.getKey());
+                    entry.getValue().complete(value);
+                    if (value != null) {
+                        results.put(entry.getKey(), value);
+                    }
+                }
+            } catch (Exception e) {
+                for (Promise<V> promise : owned.values()) {
+                    promise.fail(e);
+                }
+                throw new EntityLoadException("Failed to load " + owned.keySet(), e);
+            } finally {
+                // Errors escape the catch above, waiting callers must not be left blocked by them.
+                for (Map.Entry<K, Promise<V>> entry : owned.entrySet()) {
+                    entry.getValue().fail(new IllegalStateException("Load did not complete"));
+                    inFlight.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        for (Map.Entry<K, FutureTask<V>> entry : running.entrySet()) {
+            try {
+                V value = entry.getValue().get();
+                if (value != null) {
+                    results.put(entry.getKey(), value);
+                }
+            } catch (ExecutionException e) {
+                throw new EntityLoadException("Failed to load " + entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EntityLoadException("Interrupted while loading " + entry.getKey(), e);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return Number of calls in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Call for a batch of keys.
+     * @param <K> Key type.
+     * @param <V> Result type.
+     */
+    public interface IBatchCall<K, V> {
+        /**
+         * @param keys Keys.
+         * @return Map of results by their keys, keys without a result may be left out.
+         * @throws Exception If the call failed.
+         */
+        Map<K, V> call(Collection<K> keys) throws Exception;
+    }
+
+    /**
+     * Task completed by the thread that owns it rather than run, so that one call can complete the tasks of many keys.
+     * Completing a task that is already done has no effect.
+     */
+    private static class Promise<V> extends FutureTask<V> {
+        private static final Runnable NO_OP = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        Promise() {
+            super(NO_OP, null);
+        }
+
+        void complete(V value) {
+            set(value);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package core;
+
+/**
+ * Schedules the sweeps of an {@link ISweepable} that is not shared between threads, and so is swept by the thread
+ * using it rather than by {@link ExpirySweeper}. The user checks whether a sweep is due as it goes, which costs a read
+ * of the ticker. Not safe for use by multiple threads.
+ */
+public class SweepSchedule {
+    private final ITicker ticker;
+    private final long intervalNanos;
+    private long nextSweepNanos;
+
+    /**
+     * @param ticker Time source.
+     * @param intervalNanos Time between sweeps.
+     */
+    public SweepSchedule(ITicker ticker, long intervalNanos) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalNanos);
+        }
+
+        this.ticker = ticker;
+        this.intervalNanos = intervalNanos;
+        this.nextSweepNanos = ticker.read() + intervalNanos;
+    }
+
+    /**
+     * Checks whether a sweep is due, and if so schedules the next one.
+     * @return True if the caller must sweep.
+     */
+    public boolean isDue() {
+        long now = ticker.read();
+        if (now - nextSweepNanos < 0) {
+            return false;
+        }
+
+        nextSweepNanos = now + intervalNanos;
+        return true;
+    }
+}
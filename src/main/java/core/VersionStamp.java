@@ -0,0 +1,110 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the versions of the Entities a denormalized view was built from, so that the view can be checked against a
+ * {@link IVersionedEntityStore} without rebuilding it. The check costs a single comparison while nothing has been
+ * written to the store, and one comparison per dependency otherwise.
+ */
+public final class VersionStamp {
+    private final Object view;
+    private final EntityKey[] keys;
+    private final long[] versions;
+    private final VersionStamp[] nested;
+
+    // Store version at which every dependency was last known to be unchanged.
+    private volatile long validatedVersion;
+
+    private VersionStamp(Object view, EntityKey[] keys, long[] versions, VersionStamp[] nested, long validatedVersion) {
+        this.view = view;
+        this.keys = keys;
+        this.versions = versions;
+        this.nested = nested;
+        this.validatedVersion = validatedVersion;
+    }
+
+    /**
+     * @param view Denormalized view.
+     * @param store Store the view was read from.
+     * @return True if the stamp belongs to the view and none of its dependencies has been written since it was built.
+     */
+    public boolean isCurrent(Object view, IVersionedEntityStore store) {
+        return this.view == view && isCurrent(store);
+    }
+
+    private boolean isCurrent(IVersionedEntityStore store) {
+        long storeVersion = store.version();
+        if (storeVersion == validatedVersion) {
+            return true;
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            if (store.version(keys[i]) != versions[i]) {
+                return false;
+            }
+        }
+
+        // Stamps of embedded views are replaced when those views are rebuilt, so an old stamp fails here.
+        for (VersionStamp stamp : nested) {
+            if (!stamp.isCurrent(store)) {
+                return false;
+            }
+        }
+
+        validatedVersion = storeVersion;
+        return true;
+    }
+
+    /**
+     * Collects the dependencies of a view while it is being built. Versions must be read from the store before the
+     * Entities they stamp, so that a concurrent write can only make the stamp look older than the view.
+     */
+    public static class Builder {
+        private final long observedVersion;
+        private final List<EntityKey> keys;
+        private final List<Long> versions;
+        private final List<VersionStamp> nested;
+
+        /**
+         * @param observedVersion Store version read before any dependency.
+         */
+        public Builder(long observedVersion) {
+            this.observedVersion = observedVersion;
+            this.keys = new ArrayList<>();
+            this.versions = new ArrayList<>();
+            this.nested = new ArrayList<>();
+        }
+
+        public Builder add(EntityKey key, long version) {
+            keys.add(key);
+            versions.add(version);
+            return this;
+        }
+
+        /**
+         * Adds the stamp of an embedded view, so that Entities embedded in it are checked as well.
+         * @param stamp Embedded view stamp.
+         * @return Builder.
+         */
+        public Builder addNested(VersionStamp stamp) {
+            nested.add(stamp);
+            return this;
+        }
+
+        public VersionStamp build(Object view) {
+            long[] versionsArray = new long[versions.size()];
+            for (int i = 0; i < versionsArray.length; i++) {
+                versionsArray[i] = versions.get(i);
+            }
+
+            return new VersionStamp(
+                    view,
+                    keys.toArray(new EntityKey[keys.size()]),
+                    versionsArray,
+                    nested.toArray(new VersionStamp[nested.size()]),
+                    observedVersion);
+        }
+    }
+}
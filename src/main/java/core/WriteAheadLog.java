@@ -0,0 +1,635 @@
+package core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of keyed records, written sequentially to segment files with group commit: appends that arrive
+ * while the log is being forced to disk are queued, and written and forced together by the next appender, so that
+ * concurrent appenders share one fsync instead of taking turns.
+ * <p>
+ * A snapshot folds the previous snapshot and every sealed segment into one file that holds the latest record of
+ * every key, after which those segments are deleted. Replaying the snapshot followed by the remaining segments, the
+ * log tail, yields the latest record of every key. A record with an empty value is a tombstone, replayed like any
+ * other record but folded away by a snapshot together with the key it removes. A record torn by a crash at the end of
+ * the last segment is truncated when the log is opened.
+ * <p>
+ * Records are framed as the key length, value length and CRC32 of key and value, followed by the key and value, see
+ * {@link #writeRecord(EntityOutput, EntityOutput, EntityOutput)}. Files of a log in a directory are its segments
+ * "&lt;n&gt;.log" and its snapshot "&lt;n&gt;.snapshot", which holds the records of every segment before segment n.
+ * Every file starts with the header the log was opened with, typically describing how its records are encoded, so
+ * that readers can reject files written by an incompatible writer before replaying them, see {@link #getHeaders()}.
+ * A log opened with another header than its last segment appends to a new segment.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int RECORD_HEADER_SIZE = 12;
+    // File header: magic number and length of the header, followed by the header.
+    private static final int FILE_MAGIC = 0x454e4c47;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * Receives the records of a log when it is replayed.
+     */
+    public interface IRecordHandler {
+        /**
+         * @param key Key of the record, only valid until the handler returns.
+         * @param value Value of the record, only valid until the handler returns.
+         */
+        void handle(ByteBuffer key, ByteBuffer value);
+    }
+
+    private final File directory;
+    private final long segmentSize;
+    private final byte[] header;
+
+    private final ReentrantLock lock;
+    private final Condition isWritable;
+
+    // Guarded by lock.
+    private List<ByteBuffer> pending;
+    private long appendedCount;
+    private long durableCount;
+    private boolean isWriting;
+    private IOException failure;
+    private ScheduledExecutorService snapshotExecutor;
+
+    // Only accessed by the appender that set isWriting.
+    private FileChannel segment;
+    private long segmentNumber;
+
+    private WriteAheadLog(File directory, long segmentSize, byte[] header, FileChannel segment, long segmentNumber) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.header = header;
+        this.lock = new ReentrantLock();
+        this.isWritable = lock.newCondition();
+        this.pending = new ArrayList<>();
+        this.segment = segment;
+        this.segmentNumber = segmentNumber;
+    }
+
+    /**
+     * @param directory Directory holding the files of the log, created if it does not exist.
+     * @return Log, appending to its last segment.
+     * @throws IOException If the log could not be opened.
+     */
+    public static WriteAheadLog open(File directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory Directory holding the files of the log, created if it does not exist.
+     * @param segmentSize Size in bytes after which appends go to a new segment.
+     * @return Log, appending to its last segment.
+     * @throws IOException If the log could not be opened.
+     */
+    public static WriteAheadLog open(File directory, long segmentSize) throws IOException {
+        return open(directory, segmentSize, new byte[0]);
+    }
+
+    /**
+     * Opens the log in a directory, truncating a torn record at the end of its last segment.
+     * @param directory Directory holding the files of the log, created if it does not exist.
+     * @param segmentSize Size in bytes after which appends go to a new segment.
+     * @param header Header of the files written from now on.
+     * @return Log, appending to its last segment if it has the same header.
+     * @throws IOException If the log could not be opened.
+     */
+    public static WriteAheadLog open(File directory, long segmentSize, byte[] header) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        // Files made obsolete by the last snapshot, or left by an interrupted one, are deleted.
+        long snapshotNumber = getSnapshotNumber(directory);
+        for (File file : listFiles(directory)) {
+            String name = file.getName();
+            boolean isObsoleteSegment = name.endsWith(SEGMENT_SUFFIX) && getNumber(name) < snapshotNumber;
+            boolean isObsoleteSnapshot = name.endsWith(SNAPSHOT_SUFFIX) && getNumber(name) != snapshotNumber;
+            if (isObsoleteSegment || isObsoleteSnapshot || name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.delete(file.toPath());
+            }
+        }
+
+        List<Long> segmentNumbers = getSegmentNumbers(directory);
+        long segmentNumber = segmentNumbers.isEmpty() ? Math.max(snapshotNumber, 0) : segmentNumbers.get(segmentNumbers.size() - 1);
+        FileChannel segment = FileChannel.open(
+                new File(directory, segmentNumber + SEGMENT_SUFFIX).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer segmentHeader = readHeader(segment);
+        long start = segmentHeader == null ? 0 : FILE_HEADER_SIZE + segmentHeader.remaining();
+        long validLength = segmentHeader == null ? 0 : getValidLength(segment, start);
+        boolean isSameHeader = segmentHeader != null && segmentHeader.equals(ByteBuffer.wrap(header));
+        if (validLength == start && !isSameHeader) {
+            // Created by a crash before its header was written, or holding no records under another header.
+            segment.truncate(0);
+            writeHeader(segment, header);
+        } else {
+            segment.truncate(validLength);
+        }
+        segment.position(segment.size());
+
+        WriteAheadLog log = new WriteAheadLog(directory, segmentSize, header, segment, segmentNumber);
+        if (validLength > start && !isSameHeader) {
+            log.openNextSegment();
+        }
+
+        return log;
+    }
+
+    /**
+     * Appends a framed record to a batch.
+     * @param batch Batch of records.
+     * @param key Key of the record.
+     * @param value Value of the record.
+     */
+    public static void writeRecord(EntityOutput batch, EntityOutput key, EntityOutput value) {
+        ByteBuffer keyBytes = key.toByteBuffer();
+        ByteBuffer valueBytes = value.toByteBuffer();
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes.array(), keyBytes.arrayOffset(), keyBytes.remaining());
+        crc.update(valueBytes.array(), valueBytes.arrayOffset(), valueBytes.remaining());
+
+        batch.writeInt(key.size());
+        batch.writeInt(value.size());
+        batch.writeInt((int) crc.getValue());
+        batch.writeBytes(keyBytes);
+        batch.writeBytes(valueBytes);
+    }
+
+    /**
+     * Appends a batch of records, returning once they are durable. Concurrent appends are written and forced together.
+     * @param batch Records, see {@link #writeRecord(EntityOutput, EntityOutput, EntityOutput)}.
+     * @throws IOException If the log could not be written, after which every append fails.
+     */
+    public void append(EntityOutput batch) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(batch.size());
+        batch.copyTo(records);
+        records.flip();
+
+        lock.lock();
+        try {
+            pending.add(records);
+            long count = ++appendedCount;
+            while (durableCount < count) {
+                if (failure != null) {
+                    throw new IOException("Log failed before the batch was durable", failure);
+                } else if (isWriting) {
+                    isWritable.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Lead the group: write everything pending, including the appends of waiting threads.
+                List<ByteBuffer> group = pending;
+                long groupCount = appendedCount;
+                pending = new ArrayList<>();
+                isWriting = true;
+                lock.unlock();
+                try {
+                    write(group);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    lock.lock();
+                    isWriting = false;
+                    if (failure == null) {
+                        durableCount = groupCount;
+                    }
+                    isWritable.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the snapshot followed by the log tail, oldest record first. Meant to be called once the log is opened,
+     * before it is appended to or snapshots are scheduled.
+     * @param handler Handler of every record.
+     * @return Number of records replayed.
+     * @throws IOException If the log could not be read, or a record other than the last is corrupt.
+     */
+    public long replay(IRecordHandler handler) throws IOException {
+        long count = 0;
+        for (File file : getFiles(directory)) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                count += read(channel, handler);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the headers of the snapshot and every segment, meant to be checked before the log is replayed.
+     * @return Distinct headers of the files of the log.
+     * @throws IOException If the log could not be read.
+     */
+    public Set<ByteBuffer> getHeaders() throws IOException {
+        Set<ByteBuffer> headers = new LinkedHashSet<>();
+        for (File file : getFiles(directory)) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer fileHeader = readHeader(channel);
+                if (fileHeader != null) {
+                    headers.add(fileHeader);
+                }
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Seals the current segment, then folds the previous snapshot and every sealed segment into a new snapshot holding
+     * the latest record of every key. Appends continue to the next segment meanwhile. The records are folded in
+     * memory, so a snapshot takes heap proportional to the encoded size of the latest records. The snapshot has the
+     * header of the log.
+     * @throws IOException If the snapshot could not be written, in which case the log is unchanged.
+     */
+    public synchronized void snapshot() throws IOException {
+        long sealedNumber = roll();
+
+        final Map<ByteBuffer, ByteBuffer> latest = new LinkedHashMap<>();
+        IRecordHandler fold = new IRecordHandler() {
+            @Override
+            public void handle(ByteBuffer key, ByteBuffer value) {
+                latest.remove(key);
+                if (value.hasRemaining()) {
+                    latest.put(copy(key), copy(value));
+                }
+            }
+        };
+
+        long snapshotNumber = getSnapshotNumber(directory);
+        List<File> folded = new ArrayList<>();
+        if (snapshotNumber >= 0) {
+            folded.add(new File(directory, snapshotNumber + SNAPSHOT_SUFFIX));
+        }
+        for (long number : getSegmentNumbers(directory)) {
+            if (number <= sealedNumber) {
+                folded.add(new File(directory, number + SEGMENT_SUFFIX));
+            }
+        }
+        for (File file : folded) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                read(channel, fold);
+            }
+        }
+
+        // Written aside and moved into place, so that a crash never leaves a partial snapshot.
+        File temporary = new File(directory, (sealedNumber + 1) + SNAPSHOT_SUFFIX + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeHeader(channel, header);
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            for (Map.Entry<ByteBuffer, ByteBuffer> entry : latest.entrySet()) {
+                ByteBuffer key = entry.getKey();
+                ByteBuffer value = entry.getValue();
+
+                CRC32 crc = new CRC32();
+                crc.update(key.array(), key.arrayOffset(), key.remaining());
+                crc.update(value.array(), value.arrayOffset(), value.remaining());
+
+                recordHeader.clear();
+                recordHeader.putInt(key.remaining()).putInt(value.remaining()).putInt((int) crc.getValue());
+                recordHeader.flip();
+                writeFully(channel, recordHeader, key.duplicate(), value.duplicate());
+            }
+            channel.force(true);
+        }
+        Files.move(
+                temporary.toPath(),
+                new File(directory, (sealedNumber + 1) + SNAPSHOT_SUFFIX).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+
+        for (File file : folded) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Takes a snapshot periodically on a daemon thread, until the log is closed. Failed snapshots are retried at the
+     * next period.
+     * @param period Period between snapshots.
+     * @param unit Unit of the period.
+     */
+    public void snapshotEvery(long period, TimeUnit unit) {
+        lock.lock();
+        try {
+            if (snapshotExecutor != null) {
+                throw new IllegalStateException("Snapshots are already scheduled");
+            }
+
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "entity-normalizer-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        snapshot();
+                    } catch (IOException ignored) {
+                        // The log is unchanged by a failed snapshot.
+                    }
+                }
+            }, period, period, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops periodic snapshots and closes the current segment. The log must not be appended to after it is closed.
+     * @throws IOException If the segment could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (snapshotExecutor != null) {
+                snapshotExecutor.shutdownNow();
+            }
+            while (isWriting) {
+                isWritable.awaitUninterruptibly();
+            }
+            segment.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces records to the current segment, first moving to a new segment if the current one is full.
+     * @param group Records.
+     * @throws IOException If the records could not be written.
+     */
+    private void write(List<ByteBuffer> group) throws IOException {
+        if (segment.size() >= segmentSize) {
+            openNextSegment();
+        }
+
+        writeFully(segment, group.toArray(new ByteBuffer[group.size()]));
+        segment.force(false);
+    }
+
+    /**
+     * Seals the current segment, waiting for any write in progress.
+     * @return Number of the sealed segment.
+     * @throws IOException If the next segment could not be created.
+     */
+    private long roll() throws IOException {
+        lock.lock();
+        try {
+            while (isWriting) {
+                isWritable.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new IOException("Log failed", failure);
+            }
+
+            long sealedNumber = segmentNumber;
+            openNextSegment();
+            return sealedNumber;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        FileChannel next = FileChannel.open(
+                new File(directory, (segmentNumber + 1) + SEGMENT_SUFFIX).toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        writeHeader(next, header);
+        segment.close();
+        segment = next;
+        segmentNumber++;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, byte[] header) throws IOException {
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE + header.length);
+        fileHeader.putInt(FILE_MAGIC).putInt(header.length).put(header);
+        fileHeader.flip();
+        writeFully(channel, fileHeader);
+    }
+
+    /**
+     * @param channel Snapshot or segment.
+     * @return Header of the file, or null if the file ends before its header does.
+     * @throws IOException If the file could not be read, or is not a file of a log.
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (channel.size() < FILE_HEADER_SIZE) {
+            return null;
+        }
+
+        readFully(channel, fileHeader, 0);
+        if (fileHeader.getInt(0) != FILE_MAGIC) {
+            throw new IOException("Not a file of a log, or written by an older version");
+        } else if (channel.size() < FILE_HEADER_SIZE + (long) fileHeader.getInt(4)) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(fileHeader.getInt(4));
+        readFully(channel, header, FILE_HEADER_SIZE);
+        return header;
+    }
+
+    /**
+     * Reads the records of a snapshot or segment.
+     * @param channel Channel.
+     * @param handler Handler of every record.
+     * @return Number of records read.
+     * @throws IOException If the channel could not be read, or a record is corrupt.
+     */
+    private static long read(FileChannel channel, IRecordHandler handler) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocate(4096);
+
+        ByteBuffer fileHeader = readHeader(channel);
+        long length = channel.size();
+        long count = 0;
+        long position = fileHeader == null ? length : FILE_HEADER_SIZE + fileHeader.remaining();
+        while (position < length) {
+            header.clear();
+            readFully(channel, header, position);
+            int keyLength = header.getInt(0);
+            int valueLength = header.getInt(4);
+            int crc = header.getInt(8);
+
+            if (body.capacity() < keyLength + valueLength) {
+                body = ByteBuffer.allocate(Integer.highestOneBit(keyLength + valueLength) << 1);
+            }
+            body.clear();
+            body.limit(keyLength + valueLength);
+            readFully(channel, body, position + RECORD_HEADER_SIZE);
+
+            if (getCrc(body, keyLength + valueLength) != crc) {
+                throw new IOException("Corrupt record at " + position);
+            }
+
+            ByteBuffer key = body.duplicate();
+            key.position(0).limit(keyLength);
+            ByteBuffer value = body.duplicate();
+            value.position(keyLength).limit(keyLength + valueLength);
+            handler.handle(key.slice(), value.slice());
+
+            position += RECORD_HEADER_SIZE + keyLength + valueLength;
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param channel Segment.
+     * @param start Offset of the first record.
+     * @return Length of the longest prefix of the segment made of its header and whole records with valid checksums.
+     * @throws IOException If the segment could not be read.
+     */
+    private static long getValidLength(FileChannel channel, long start) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocate(4096);
+
+        long position = start;
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int keyLength = header.getInt(0);
+            int valueLength = header.getInt(4);
+            long bodyLength = (long) keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || position + RECORD_HEADER_SIZE + bodyLength > size) {
+                break;
+            }
+
+            if (body.capacity() < bodyLength) {
+                body = ByteBuffer.allocate(Integer.highestOneBit((int) bodyLength) << 1);
+            }
+            body.clear();
+            body.limit((int) bodyLength);
+            readFully(channel, body, position + RECORD_HEADER_SIZE);
+            if (getCrc(body, (int) bodyLength) != header.getInt(8)) {
+                break;
+            }
+
+            position += RECORD_HEADER_SIZE + bodyLength;
+        }
+
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of log");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static int getCrc(ByteBuffer body, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), body.arrayOffset(), length);
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * @param directory Directory of a log.
+     * @return Snapshot followed by every segment, oldest first.
+     */
+    private static List<File> getFiles(File directory) {
+        List<File> files = new ArrayList<>();
+        long snapshotNumber = getSnapshotNumber(directory);
+        if (snapshotNumber >= 0) {
+            files.add(new File(directory, snapshotNumber + SNAPSHOT_SUFFIX));
+        }
+        for (long number : getSegmentNumbers(directory)) {
+            files.add(new File(directory, number + SEGMENT_SUFFIX));
+        }
+
+        return files;
+    }
+
+    private static long getSnapshotNumber(File directory) {
+        long snapshotNumber = -1;
+        for (File file : listFiles(directory)) {
+            if (file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                snapshotNumber = Math.max(snapshotNumber, getNumber(file.getName()));
+            }
+        }
+
+        return snapshotNumber;
+    }
+
+    private static List<Long> getSegmentNumbers(File directory) {
+        List<Long> numbers = new ArrayList<>();
+        for (File file : listFiles(directory)) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                numbers.add(getNumber(file.getName()));
+            }
+        }
+        Collections.sort(numbers);
+
+        return numbers;
+    }
+
+    private static File[] listFiles(File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static long getNumber(String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('.')));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.user.User;
+import com.google.common.collect.ImmutableList;
+import core.IWeigher;
+import entitynormalizer.store.BoundedInMemoryEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.junit.jupiter.api.Test;
+
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_GOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedInMemoryStoreTemplateGeneratorTest {
+    @Test
+    public void shouldEvictEntitiesBeyondMaximumSize() {
+        BoundedInMemoryEntityStore store = BoundedInMemoryEntityStore.builder()
+                .setMaximumSize(2)
+                .build();
+
+        store.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY, USER_GOZZY));
+
+        assertEquals(store.getUsers(ImmutableList.of(USER_OZZY.id(), USER_FOZZY.id(), USER_GOZZY.id())).size(), 2);
+        assertEquals(store.getUsersStats().getEvictionCount(), 1);
+        assertEquals(store.getUsersStats().getHitCount(), 2);
+        assertEquals(store.getUsersStats().getMissCount(), 1);
+        assertEquals(store.getMessagesStats().getWeight(), 0);
+    }
+
+    @Test
+    public void shouldBoundWeightPerEntityType() {
+        BoundedInMemoryEntityStore store = BoundedInMemoryEntityStore.builder()
+                .setUserMaximumWeight(8, new IWeigher<User>() {
+                    @Override
+                    public int weigh(User user) {
+                        return user.getName().length();
+                    }
+                })
+                .build();
+
+        store.put(new User(1L, "Ozzy"));
+        store.put(new User(2L, "Fozzy"));
+
+        assertTrue(store.getUsersStats().getWeight() <= 8);
+        assertEquals(store.getUsersStats().getEvictionCount(), 1);
+    }
+
+    @Test
+    public void shouldDropRepositoryViewsOfEvictedEntities() {
+        BoundedInMemoryEntityStore store = BoundedInMemoryEntityStore.builder()
+                .setMaximumSize(10)
+                .build();
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+
+        // Every view is memoized while its Entity is still held, so only eviction can drop it.
+        for (long id = 0; id < 100; id++) {
+            User user = new User(id, "User" + id);
+            repository.put(user);
+            assertEquals(repository.getUser(id), user);
+        }
+
+        int held = 0;
+        for (long id = 0; id < 100; id++) {
+            User user = repository.getUser(id);
+            if (user != null) {
+                held++;
+            }
+        }
+        assertEquals(held, 10);
+        assertEquals(store.getUsersStats().getEvictionCount(), 90);
+    }
+}
@@ -0,0 +1,72 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.devicetype.Device;
+import annotations.processor.testentities.devicetype.DeviceCodec;
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.message.MessageCodec;
+import annotations.processor.testentities.tag.Tag;
+import annotations.processor.testentities.tag.TagCodec;
+import annotations.processor.testentities.user.User;
+import annotations.processor.testentities.user.UserCodec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import core.EntityOutput;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_IOS;
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_GOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodecTemplateGeneratorTest {
+    @Test
+    public void shouldRoundTripScalarEntities() {
+        assertEquals(UserCodec.INSTANCE.fromBytes(UserCodec.INSTANCE.toBytes(USER_OZZY)), USER_OZZY);
+        assertEquals(DeviceCodec.INSTANCE.fromBytes(DeviceCodec.INSTANCE.toBytes(DEVICE_ANDROID)), DEVICE_ANDROID);
+        assertEquals(TagCodec.INSTANCE.fromBytes(TagCodec.INSTANCE.toBytes(new Tag("news", null))), new Tag("news", null));
+        assertEquals(UserCodec.INSTANCE.fromBytes(UserCodec.INSTANCE.toBytes(new User(1L, null))), new User(1L, null));
+    }
+
+    @Test
+    public void shouldEncodeEmbeddedEntitiesAsIds() {
+        Message message = new Message(
+                1L,
+                "Hello",
+                USER_OZZY,
+                ImmutableList.of(USER_FOZZY, USER_GOZZY),
+                ImmutableList.<Map<User, Boolean>>of(ImmutableMap.of(USER_FOZZY, true)),
+                ImmutableMap.<List<Device>, List<User>>of(ImmutableList.of(DEVICE_IOS), ImmutableList.of(USER_OZZY)));
+
+        Message decoded = MessageCodec.INSTANCE.fromBytes(MessageCodec.INSTANCE.toBytes(message));
+
+        assertEquals(decoded.getBody(), "Hello");
+        assertEquals(decoded.getSender(), new User(USER_OZZY.id(), null));
+        assertEquals(decoded.getRecipients(), ImmutableList.of(new User(USER_FOZZY.id(), null), new User(USER_GOZZY.id(), null)));
+        assertEquals(decoded.getRecipientsToReadList().get(0).get(new User(USER_FOZZY.id(), null)), Boolean.TRUE);
+        assertEquals(decoded.getUsersByDevices().get(ImmutableList.of(new Device(DEVICE_IOS.id()))), ImmutableList.of(new User(USER_OZZY.id(), null)));
+    }
+
+    @Test
+    public void shouldReuseOutputAcrossEncodes() {
+        EntityOutput output = new EntityOutput();
+        UserCodec.INSTANCE.encode(USER_OZZY, output);
+        int size = output.size();
+
+        output.clear();
+        UserCodec.INSTANCE.encode(USER_FOZZY, output);
+        assertEquals(UserCodec.INSTANCE.decode(output.toByteBuffer()), USER_FOZZY);
+
+        output.clear();
+        TagCodec.ID_CODEC.encode("news", output);
+        ByteBuffer id = output.toByteBuffer();
+        assertEquals(TagCodec.ID_CODEC.decode(id), "news");
+        assertFalse(id.hasRemaining());
+        assertTrue(size > 0);
+    }
+}
@@ -0,0 +1,189 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.devicetype.Device;
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.user.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import entitynormalizer.store.ConcurrentInMemoryEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentInMemoryStoreTemplateGeneratorTest {
+    private static final int WRITER_THREADS = 8;
+    private static final int READER_THREADS = 4;
+    private static final int ENTITIES_PER_THREAD = 500;
+    private static final int UPDATES_PER_ENTITY = 10;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void init() {
+        executor = Executors.newFixedThreadPool(WRITER_THREADS + READER_THREADS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldNotLoseUpdatesUnderContention() throws Exception {
+        final ConcurrentInMemoryEntityStore store = new ConcurrentInMemoryEntityStore();
+        final int entityCount = ENTITIES_PER_THREAD;
+        final int[] versions = new int[entityCount];
+        final Object[] locks = new Object[64];
+        for (int lock = 0; lock < locks.length; lock++) {
+            locks[lock] = new Object();
+        }
+        for (long id = 0; id < entityCount; id++) {
+            store.put(new User(id, getName(id, 0)));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+
+        // Readers must never see the version of a key go back.
+        List<Future<Void>> readers = new LinkedList<>();
+        for (int thread = 0; thread < READER_THREADS; thread++) {
+            readers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    int[] seen = new int[entityCount];
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (isWriting.get()) {
+                        int id = random.nextInt(entityCount);
+                        int version = getVersion(store.getUser(id).getName());
+                        assertTrue(version >= seen[id], "Version of User " + id + " went back");
+                        seen[id] = version;
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // Every writer updates every key, starting at a different offset so that writers keep meeting on the same
+        // keys. The version of a key is bumped and written under a lock of the key, so the last write of a key is
+        // always its latest version, whichever writer made it.
+        List<Future<Void>> writers = new LinkedList<>();
+        for (int thread = 0; thread < WRITER_THREADS; thread++) {
+            final int offset = thread * entityCount / WRITER_THREADS;
+            writers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int update = 0; update < UPDATES_PER_ENTITY; update++) {
+                        for (int i = 0; i < entityCount; i++) {
+                            int id = (offset + i) % entityCount;
+                            synchronized (locks[id % locks.length]) {
+                                store.put(new User(id, getName(id, ++versions[id])));
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(writers);
+        isWriting.set(false);
+        awaitAll(readers);
+
+        for (int id = 0; id < entityCount; id++) {
+            assertEquals(versions[id], WRITER_THREADS * UPDATES_PER_ENTITY);
+            assertEquals(store.getUser(id).getName(), getName(id, versions[id]));
+        }
+    }
+
+    @Test
+    public void shouldNotServeStaleEntitiesUnderContention() throws Exception {
+        final NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setConcurrent(true)
+                .build();
+        final int entityCount = WRITER_THREADS * ENTITIES_PER_THREAD;
+        for (long id = 0; id < entityCount; id++) {
+            repository.put(getMessage(id, new User(id, getName(id, 0))));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+
+        List<Future<Void>> readers = new LinkedList<>();
+        for (int thread = 0; thread < READER_THREADS; thread++) {
+            readers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (isWriting.get()) {
+                        assertNotNull(repository.getMessage(random.nextLong(entityCount)));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        List<Future<Void>> writers = new LinkedList<>();
+        for (int thread = 0; thread < WRITER_THREADS; thread++) {
+            final int firstId = thread * ENTITIES_PER_THREAD;
+            writers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int update = 1; update < UPDATES_PER_ENTITY; update++) {
+                        for (long id = firstId; id < firstId + ENTITIES_PER_THREAD; id++) {
+                            repository.put(new User(id, getName(id, update)));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(writers);
+        isWriting.set(false);
+        awaitAll(readers);
+
+        for (long id = 0; id < entityCount; id++) {
+            assertEquals(repository.getUser(id).getName(), getName(id, UPDATES_PER_ENTITY - 1));
+            assertEquals(repository.getMessage(id).getSender().getName(), getName(id, UPDATES_PER_ENTITY - 1));
+        }
+    }
+
+    private static String getName(long id, int update) {
+        return String.format("User-%d-%d", id, update);
+    }
+
+    private static int getVersion(String name) {
+        return Integer.parseInt(name.substring(name.lastIndexOf('-') + 1));
+    }
+
+    private static Message getMessage(long id, User sender) {
+        return new Message(
+                id,
+                "Hello World",
+                sender,
+                ImmutableList.of(sender),
+                ImmutableList.<Map<User, Boolean>>of(),
+                ImmutableMap.<List<Device>, List<User>>of());
+    }
+
+    private static void awaitAll(List<Future<Void>> futures) throws Exception {
+        for (Future<Void> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -64,4 +64,29 @@ public class EntityTemplateGeneratorTest {
         assertEquals(usersByDevices.get(ImmutableList.of(DEVICE_ANDROID, DEVICE_IOS)), ImmutableList.of(USER_OZZY, USER_FOZZY));
         assertEquals(usersByDevices.get(ImmutableList.of(DEVICE_WINDOWS)), ImmutableList.of(USER_GOZZY));
     }
+
+    @Test
+    public void shouldCompareByValue() {
+        Message copy = new Message(
+                MESSAGE_ID,
+                MESSAGE_BODY,
+                new User(USER_OZZY.id(), USER_OZZY.getName()),
+                ImmutableList.of(USER_FOZZY, USER_GOZZY),
+                message.getRecipientsToReadList(),
+                message.getUsersByDevices());
+
+        assertEquals(message, copy);
+        assertEquals(message.hashCode(), copy.hashCode());
+
+        Message edited = new Message(
+                MESSAGE_ID,
+                "Goodbye World",
+                USER_OZZY,
+                message.getRecipients(),
+                message.getRecipientsToReadList(),
+                message.getUsersByDevices());
+
+        assertNotEquals(message, edited);
+        assertNotEquals(USER_OZZY, new User(USER_OZZY.id(), "Renamed Ozzy"));
+    }
 }
@@ -0,0 +1,166 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.message.MessageJsonReader;
+import annotations.processor.testentities.tag.Tag;
+import annotations.processor.testentities.tag.TagJsonReader;
+import annotations.processor.testentities.user.User;
+import annotations.processor.testentities.user.UserJsonReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import core.EntityKey;
+import entitynormalizer.store.EntityStoreSink;
+import entitynormalizer.store.InMemoryEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_IOS;
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_GOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonReaderTemplateGeneratorTest {
+    private static final String MESSAGE_JSON = "{" +
+            "\"messageId\": 1," +
+            "\"body\": \"Hello \\\"W\\u00f6rld\\\"\"," +
+            "\"sender\": {\"userId\": 10, \"name\": \"Ozzy\"}," +
+            "\"recipients\": [{\"userId\": 11, \"name\": \"Fozzy\"}, {\"userId\": 12, \"name\": \"Gozzy\"}]," +
+            "\"recipientsToReadList\": [[[{\"userId\": 11, \"name\": \"Fozzy\"}, true]], [[12, false]]]," +
+            "\"usersByDevices\": [[[\"ANDROID\", {\"deviceType\": \"iOS\"}], [10, 11]]]," +
+            "\"unknown\": {\"nested\": [1, 2.5, null, \"}\"]}" +
+            "}";
+
+    private InMemoryEntityStore store;
+    private NormalizedEntityRepository repository;
+    private EntityStoreSink sink;
+
+    @BeforeEach
+    public void init() {
+        store = new InMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+        sink = new EntityStoreSink(repository);
+    }
+
+    @Test
+    public void shouldNormalizeEmbeddedEntitiesIntoStores() throws IOException {
+        assertEquals(MessageJsonReader.INSTANCE.readAll(new StringReader(MESSAGE_JSON), sink), 1L);
+
+        Message message = store.getMessage(1L);
+        assertEquals(message.getBody(), "Hello \"W\u00f6rld\"");
+        assertEquals(message.getSender(), new User(USER_OZZY.id(), null));
+        assertEquals(message.getRecipients(), ImmutableList.of(new User(USER_FOZZY.id(), null), new User(USER_GOZZY.id(), null)));
+        assertEquals(message.getRecipientsToReadList().get(1).get(new User(USER_GOZZY.id(), null)), Boolean.FALSE);
+        assertEquals(message.getUsersByDevices().get(ImmutableList.of(DEVICE_ANDROID, DEVICE_IOS)).size(), 2);
+
+        assertEquals(store.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(store.getUser(USER_FOZZY.id()), USER_FOZZY);
+        assertEquals(store.getUser(USER_GOZZY.id()), USER_GOZZY);
+        assertEquals(store.getDevice(DEVICE_IOS.id()), DEVICE_IOS);
+    }
+
+    @Test
+    public void shouldInvalidateViewsEmbeddingReadEntities() throws IOException {
+        MessageJsonReader.INSTANCE.readAll(new StringReader(MESSAGE_JSON), sink);
+        assertEquals(repository.getMessage(1L).getSender(), USER_OZZY);
+
+        UserJsonReader.INSTANCE.readAll(new StringReader("{\"userId\": 10, \"name\": \"Renamed Ozzy\"}"), sink);
+
+        assertEquals(repository.getMessage(1L).getSender(), new User(USER_OZZY.id(), "Renamed Ozzy"));
+        assertEquals(repository.getReferencingKeys(USER_OZZY), ImmutableSet.of(new EntityKey(repository.getMessage(1L))));
+    }
+
+    @Test
+    public void shouldGetEntitiesWithOmittedEmbeddedProperties() throws IOException {
+        MessageJsonReader.INSTANCE.readAll(new StringReader("{\"messageId\": 7, \"body\": \"hi\"}"), sink);
+
+        Message message = repository.getMessage(7L);
+        assertEquals(message.getBody(), "hi");
+        assertNull(message.getSender());
+        assertNull(message.getRecipients());
+        assertNull(message.getUsersByDevices());
+    }
+
+    @Test
+    public void shouldGetEntitiesWithNullEmbeddedProperties() throws IOException {
+        String json = "{\"messageId\": 7, \"sender\": null, \"recipients\": null, \"recipientsToReadList\": null}";
+        MessageJsonReader.INSTANCE.readAll(new StringReader(json), sink);
+
+        Message message = repository.getMessage(7L);
+        assertNull(message.getSender());
+        assertNull(message.getRecipients());
+        assertNull(message.getRecipientsToReadList());
+    }
+
+    @Test
+    public void shouldGetEntitiesWithNullEmbeddedElements() throws IOException {
+        String json = "{\"messageId\": 7," +
+                "\"recipients\": [null, {\"userId\": 10, \"name\": \"Ozzy\"}]," +
+                "\"recipientsToReadList\": [null, [[11, true]]]}";
+        MessageJsonReader.INSTANCE.readAll(new StringReader(json), sink);
+
+        Message message = repository.getMessage(7L);
+        assertEquals(message.getRecipients(), Arrays.asList(null, USER_OZZY));
+        assertNull(message.getRecipientsToReadList().get(0));
+        assertEquals(repository.getReferencingKeys(USER_OZZY), ImmutableSet.of(new EntityKey(message)));
+
+        // The embedded User is resolved through the null elements once it is put.
+        UserJsonReader.INSTANCE.readAll(new StringReader("{\"userId\": 11, \"name\": \"Fozzy\"}"), sink);
+        assertEquals(repository.getMessage(7L).getRecipientsToReadList().get(1).keySet(), ImmutableSet.of(USER_FOZZY));
+    }
+
+    @Test
+    public void shouldDedupeRepeatedEmbeddedEntities() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                json.append(",");
+            }
+            json.append("{\"messageId\": ").append(i).append(", \"sender\": {\"userId\": 10, \"name\": \"Ozzy\"}}");
+        }
+        json.append(", null]");
+
+        assertEquals(MessageJsonReader.INSTANCE.readAll(new StringReader(json.toString()), sink), 100L);
+
+        // One User and every Message.
+        assertEquals(sink.getEmittedCount(), 101L);
+        assertEquals(sink.getDuplicateCount(), 99L);
+        assertEquals(store.getMessage(99L).getSender().id(), USER_OZZY.id());
+        assertNull(store.getMessage(99L).getBody());
+    }
+
+    @Test
+    public void shouldWriteChangedRepeats() throws IOException {
+        String json = "[{\"label\": \"news\", \"weight\": 1}, {\"label\": \"news\", \"weight\": 2}]";
+
+        TagJsonReader.INSTANCE.readAll(new StringReader(json), sink);
+
+        assertEquals(store.getTag("news"), new Tag("news", 2));
+        assertEquals(sink.getDuplicateCount(), 0L);
+    }
+
+    @Test
+    public void shouldRejectMalformedDocuments() {
+        assertMalformed("{\"label\": \"news\"");
+        assertMalformed("{\"label\": \"news\"} {}");
+        assertMalformed("{\"label\": news}");
+    }
+
+    private void assertMalformed(String json) {
+        try {
+            TagJsonReader.INSTANCE.readAll(new StringReader(json), sink);
+            fail("Read malformed document: " + json);
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.devicetype.Device;
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.tag.Tag;
+import annotations.processor.testentities.user.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import core.EntityKey;
+import core.EntityOutput;
+import core.WriteAheadLog;
+import entitynormalizer.store.EntityLog;
+import entitynormalizer.store.InMemoryEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_IOS;
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_GOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogTemplateGeneratorTest {
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldRestoreLatestEntitiesAfterReopen() throws IOException {
+        EntityLog log = new EntityLog(directory);
+        log.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY, DEVICE_ANDROID, new Tag("news", 3)));
+        log.put(new Tag("news", 4));
+        log.close();
+
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        EntityLog reopened = new EntityLog(directory);
+        assertEquals(reopened.restore(store), 5);
+        reopened.close();
+
+        assertEquals(store.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(store.getUser(USER_FOZZY.id()), USER_FOZZY);
+        assertEquals(store.getDevice(DEVICE_ANDROID.id()), DEVICE_ANDROID);
+        assertEquals(store.getTag("news"), new Tag("news", 4));
+    }
+
+    @Test
+    public void shouldNotRestoreRemovedEntities() throws IOException {
+        EntityLog log = new EntityLog(directory);
+        log.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY, new Tag("news", 3)));
+        log.removeAll(ImmutableList.of(new EntityKey(USER_OZZY), new EntityKey(new Tag("news", 3))));
+        log.snapshot();
+        log.removeAll(ImmutableList.of(new EntityKey(USER_FOZZY)));
+        log.put(USER_GOZZY);
+        log.close();
+
+        // The snapshot dropped the first removals along with the Entities, the last one is replayed from the tail.
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        store.put(USER_FOZZY);
+        EntityLog reopened = new EntityLog(directory);
+        assertEquals(reopened.restore(store), 3);
+        reopened.close();
+
+        assertNull(store.getUser(USER_OZZY.id()));
+        assertNull(store.getUser(USER_FOZZY.id()));
+        assertNull(store.getTag("news"));
+        assertEquals(store.getUser(USER_GOZZY.id()), USER_GOZZY);
+    }
+
+    @Test
+    public void shouldSeedRepositoryFiltersWhenRestored() throws IOException {
+        EntityLog log = new EntityLog(directory);
+        log.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY));
+        log.close();
+
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setUserFilter(100, 0.01)
+                .build();
+        EntityLog reopened = new EntityLog(directory);
+        reopened.restore(repository.seedFilters(store));
+        reopened.close();
+
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(repository.getUser(USER_FOZZY.id()), USER_FOZZY);
+    }
+
+    @Test
+    public void shouldRestoreFromSnapshotAndTail() throws IOException {
+        EntityLog log = new EntityLog(directory);
+        log.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY));
+        log.put(new User(USER_OZZY.id(), "Ozzy-Copy"));
+        log.snapshot();
+        log.put(USER_GOZZY);
+        log.put(new User(USER_FOZZY.id(), "Fozzy-Copy"));
+        log.close();
+
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        EntityLog reopened = new EntityLog(directory);
+        // Two Users from the snapshot, two from the tail.
+        assertEquals(reopened.restore(store), 4);
+        reopened.close();
+
+        assertEquals(store.getUser(USER_OZZY.id()), new User(USER_OZZY.id(), "Ozzy-Copy"));
+        assertEquals(store.getUser(USER_FOZZY.id()), new User(USER_FOZZY.id(), "Fozzy-Copy"));
+        assertEquals(store.getUser(USER_GOZZY.id()), USER_GOZZY);
+    }
+
+    @Test
+    public void shouldRebuildRepositoryFromLog() throws IOException {
+        Message message = new Message(
+                1L,
+                "Hello",
+                USER_OZZY,
+                ImmutableList.of(USER_FOZZY, USER_GOZZY),
+                ImmutableList.<Map<User, Boolean>>of(ImmutableMap.of(USER_FOZZY, true)),
+                ImmutableMap.<List<Device>, List<User>>of(ImmutableList.of(DEVICE_IOS), ImmutableList.of(USER_OZZY)));
+
+        EntityLog log = new EntityLog(directory);
+        NormalizedEntityRepository.builder()
+                .setReaders(new InMemoryEntityStore())
+                .setWriters(log, new InMemoryEntityStore())
+                .build()
+                .put(message);
+        log.close();
+
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        EntityLog reopened = new EntityLog(directory);
+        reopened.restore(store);
+        reopened.close();
+
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+        assertEquals(repository.getMessage(1L), message);
+        assertEquals(repository.getUser(USER_GOZZY.id()), USER_GOZZY);
+    }
+
+    @Test
+    public void shouldRejectLogHoldingEntitiesOfAnotherSchema() throws IOException {
+        // Types missing from the header of a file, such as types added since it was written, are accepted.
+        byte[] schema = EntityLog.getSchema();
+        appendRecord(Arrays.copyOf(schema, 12));
+        new EntityLog(directory).close();
+
+        schema[11] ^= 1;
+        appendRecord(schema);
+        try {
+            new EntityLog(directory);
+            fail("Opened log holding Entities of another schema");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private void appendRecord(byte[] header) throws IOException {
+        EntityOutput key = new EntityOutput();
+        key.writeInt(0);
+        EntityOutput batch = new EntityOutput();
+        WriteAheadLog.writeRecord(batch, key, new EntityOutput());
+
+        WriteAheadLog log = WriteAheadLog.open(directory, WriteAheadLog.DEFAULT_SEGMENT_SIZE, header);
+        log.append(batch);
+        log.close();
+    }
+}
@@ -0,0 +1,104 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.tag.Tag;
+import com.google.common.collect.ImmutableList;
+import entitynormalizer.store.EntityLog;
+import entitynormalizer.store.MappedEntityStore;
+import entitynormalizer.store.NormalizedEntityRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedStoreTemplateGeneratorTest {
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldServeEntitiesAfterReopen() throws IOException {
+        MappedEntityStore store = new MappedEntityStore(directory, 64);
+        store.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY, DEVICE_ANDROID, new Tag("news", 3), new Tag("sports", null)));
+        // Growing records are moved, so that slabs are compacted and their numbers released before the close.
+        for (int i = 0; i < 50; i++) {
+            store.put(new Tag("sports", 1));
+            store.put(new Tag("sports", null));
+            store.put(new Tag("news" + i, i));
+        }
+        store.put(new Tag("news", 4));
+        store.close();
+
+        MappedEntityStore reopened = new MappedEntityStore(directory, 64);
+        assertEquals(reopened.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(reopened.getUser(USER_FOZZY.id()), USER_FOZZY);
+        assertEquals(reopened.getDevice(DEVICE_ANDROID.id()), DEVICE_ANDROID);
+        assertEquals(reopened.getTag("news"), new Tag("news", 4));
+        assertEquals(reopened.getTag("sports"), new Tag("sports", null));
+
+        // Keys mapped after the reopen must not collide with restored ones.
+        reopened.put(new Tag("music", 1));
+        assertEquals(reopened.getTag("news"), new Tag("news", 4));
+        assertEquals(reopened.getTag("music"), new Tag("music", 1));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldDiscardStoreThatWasNotClosed() throws IOException {
+        MappedEntityStore store = new MappedEntityStore(directory);
+        store.put(USER_OZZY);
+
+        MappedEntityStore reopened = new MappedEntityStore(directory);
+        assertNull(reopened.getUser(USER_OZZY.id()));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldBackRepository() throws IOException {
+        MappedEntityStore store = new MappedEntityStore(directory);
+        NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build()
+                .put(USER_OZZY);
+        store.close();
+
+        MappedEntityStore reopened = new MappedEntityStore(directory);
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(reopened)
+                .setWriters(reopened)
+                .build();
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+        reopened.close();
+    }
+
+    @Test
+    public void shouldRestoreStoreThatWasNotClosedFromLog() throws IOException {
+        File storeDirectory = new File(directory, "store");
+        File logDirectory = new File(directory, "log");
+
+        MappedEntityStore store = new MappedEntityStore(storeDirectory);
+        EntityLog log = new EntityLog(logDirectory);
+        NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(log, store)
+                .build()
+                .putAll(ImmutableList.of(USER_OZZY, USER_FOZZY));
+        log.close();
+
+        // The store was not closed, so it is reopened empty and rebuilt from the log.
+        MappedEntityStore reopened = new MappedEntityStore(storeDirectory);
+        assertNull(reopened.getUser(USER_OZZY.id()));
+        EntityLog reopenedLog = new EntityLog(logDirectory);
+        assertEquals(reopenedLog.restore(reopened), 2);
+        reopenedLog.close();
+
+        assertEquals(reopened.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(reopened.getUser(USER_FOZZY.id()), USER_FOZZY);
+        reopened.close();
+    }
+}
@@ -2,20 +2,43 @@ package annotations.processor.templategenerators;
 
 import annotations.processor.testentities.devicetype.Device;
 import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.node.Node;
 import annotations.processor.testentities.user.User;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import core.EntityKey;
+import core.IBatchEntityLoader;
+import core.IChangeListener;
 import core.IEntity;
+import core.IEntityLoader;
+import core.IFlowSubscription;
+import core.ITicker;
+import core.ISubscriber;
+import core.ISubscription;
+import entitynormalizer.store.ConcurrentInMemoryEntityStore;
+import entitynormalizer.store.InMemoryEntityStore;
 import entitynormalizer.store.NormalizedEntityRepository;
+import entitynormalizer.store.VersionedInMemoryEntityStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
 import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_IOS;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_UNKNOWN;
 import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_WINDOWS;
 import static annotations.processor.testentities.user.UserList.USER_FOZZY;
 import static annotations.processor.testentities.user.UserList.USER_GOZZY;
@@ -143,4 +166,744 @@ public class NormalizedEntityRepositoryTemplateGeneratorTest {
         assertEquals(repository.getUser(USER_FOZZY.id()), userFozzyCopy);
         assertEquals(repository.getUser(USER_GOZZY.id()), userGozzyCopy);
     }
+
+    @Test
+    public void shouldMemoizeDenormalizedEntities() {
+        repository.put(message);
+
+        Message cachedMessage = repository.getMessage(MESSAGE_ID);
+
+        assertSame(repository.getMessage(MESSAGE_ID), cachedMessage);
+    }
+
+    @Test
+    public void shouldInvalidateMemoizedEntityWhenNestedEntityPut() {
+        User userOzzyCopy = new User(USER_OZZY.id(), "Ozzy-Copy");
+
+        repository.put(message);
+        Message cachedMessage = repository.getMessage(MESSAGE_ID);
+        repository.put(userOzzyCopy);
+        Message updatedMessage = repository.getMessage(MESSAGE_ID);
+
+        assertNotSame(updatedMessage, cachedMessage);
+        assertEquals(updatedMessage.getSender(), userOzzyCopy);
+    }
+
+    @Test
+    public void shouldIndexReferencingEntitiesWhenPut() {
+        repository.put(message);
+
+        Set<EntityKey> referencing = repository.getReferencingKeys(USER_GOZZY);
+
+        assertEquals(referencing.size(), 1);
+        assertTrue(referencing.contains(new EntityKey(message)));
+        assertTrue(repository.getReferencingKeys(message).isEmpty());
+    }
+
+    @Test
+    public void shouldUnlinkReplacedEntitiesWhenPut() {
+        Message messageCopy = new Message(
+                MESSAGE_ID,
+                "Hello World",
+                USER_OZZY,
+                ImmutableList.<User>of(),
+                ImmutableList.<Map<User,Boolean>>of(),
+                ImmutableMap.<List<Device>, List<User>>of());
+
+        repository.put(message);
+        repository.put(messageCopy);
+
+        assertTrue(repository.getReferencingKeys(USER_GOZZY).isEmpty());
+        assertTrue(repository.getReferencingKeys(USER_OZZY).contains(new EntityKey(message)));
+    }
+
+    @Test
+    public void shouldGetEntitiesByEnumId() {
+        repository.put(message);
+
+        assertNull(repository.getDevice(DEVICE_UNKNOWN.id()));
+
+        repository.put(DEVICE_UNKNOWN);
+
+        assertEquals(repository.getDevice(DEVICE_UNKNOWN.id()), DEVICE_UNKNOWN);
+        assertEquals(repository.getDevice(DEVICE_WINDOWS.id()), DEVICE_WINDOWS);
+    }
+
+    @Test
+    public void shouldPutAllEntitiesInOneBatch() {
+        User renamedOzzy = new User(USER_OZZY.id(), "Renamed Ozzy");
+        Set<IEntity> dirty = repository.putAll(ImmutableList.<IEntity>of(message, DEVICE_UNKNOWN, renamedOzzy));
+
+        assertEquals(dirty.size(), 8);
+        assertTrue(dirty.contains(renamedOzzy));
+        assertFalse(dirty.contains(USER_OZZY));
+        assertEquals(repository.getDevice(DEVICE_UNKNOWN.id()), DEVICE_UNKNOWN);
+        assertEquals(repository.getUser(USER_OZZY.id()).getName(), "Renamed Ozzy");
+        assertEquals(repository.getMessage(MESSAGE_ID).getSender().getName(), "Renamed Ozzy");
+    }
+
+    @Test
+    public void shouldKeepLastInstanceOfRepeatedEntities() {
+        User renamedOzzy = new User(USER_OZZY.id(), "Renamed Ozzy");
+        Message mention = new Message(
+                MESSAGE_ID,
+                "Hello Ozzy",
+                USER_OZZY,
+                ImmutableList.of(renamedOzzy),
+                ImmutableList.<Map<User, Boolean>>of(),
+                ImmutableMap.<List<Device>, List<User>>of());
+
+        repository.put(mention);
+
+        assertEquals(repository.getUser(USER_OZZY.id()), renamedOzzy);
+        assertEquals(repository.getMessage(MESSAGE_ID).getSender(), renamedOzzy);
+
+        // Across top-level Entities, as within one.
+        repository.putAll(ImmutableList.<IEntity>of(USER_OZZY, mention, USER_OZZY));
+
+        assertEquals(repository.getUser(USER_OZZY.id()), renamedOzzy);
+        assertEquals(repository.getMessage(MESSAGE_ID).getSender(), renamedOzzy);
+    }
+
+    @Test
+    public void shouldGetEntitiesInOneBatchPerType() {
+        final AtomicInteger userBatches = new AtomicInteger();
+        InMemoryEntityStore store = new InMemoryEntityStore() {
+            @Override
+            public Map<Long, User> getUsers(Collection<Long> ids) {
+                userBatches.incrementAndGet();
+                return super.getUsers(ids);
+            }
+        };
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+
+        Message reply = new Message(
+                MESSAGE_ID + 1,
+                "Hello Ozzy",
+                USER_GOZZY,
+                ImmutableList.of(USER_OZZY),
+                ImmutableList.<Map<User, Boolean>>of(),
+                ImmutableMap.<List<Device>, List<User>>of());
+        repository.putAll(ImmutableList.of(message, reply));
+
+        Map<Long, Message> messages = repository.getMessages(ImmutableList.of(MESSAGE_ID, MESSAGE_ID + 1, MESSAGE_ID + 2));
+
+        assertEquals(messages.size(), 2);
+        assertEquals(messages.get(MESSAGE_ID), message);
+        assertEquals(messages.get(MESSAGE_ID + 1), reply);
+        assertEquals(userBatches.get(), 1);
+    }
+
+    @Test
+    public void shouldPromoteHitsToUpperWriters() {
+        InMemoryEntityStore upper = new InMemoryEntityStore();
+        InMemoryEntityStore lower = new InMemoryEntityStore();
+        NormalizedEntityRepository.builder()
+                .setReaders(lower)
+                .setWriters(lower)
+                .build()
+                .put(message);
+
+        NormalizedEntityRepository.builder()
+                .setReaders(upper, lower)
+                .setWriters(upper, lower)
+                .build()
+                .getMessage(MESSAGE_ID);
+        assertNull(upper.getMessage(MESSAGE_ID));
+
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(upper, lower)
+                .setWriters(upper, lower)
+                .setPromoteHits(true)
+                .build();
+
+        assertEquals(repository.getMessage(MESSAGE_ID), message);
+        assertEquals(upper.getMessage(MESSAGE_ID), message);
+        assertEquals(upper.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(upper.getDevice(DEVICE_ANDROID.id()), DEVICE_ANDROID);
+    }
+
+    @Test
+    public void shouldNotReadIdsThatWereNeverPut() {
+        final AtomicInteger userBatches = new AtomicInteger();
+        InMemoryEntityStore store = new InMemoryEntityStore() {
+            @Override
+            public Map<Long, User> getUsers(Collection<Long> ids) {
+                userBatches.incrementAndGet();
+                return super.getUsers(ids);
+            }
+        };
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setUserFilter(100, 0.01)
+                .build();
+        repository.put(message);
+
+        assertNull(repository.getUser(USER_OZZY.id() + 1000));
+        assertEquals(userBatches.get(), 0);
+
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(userBatches.get(), 1);
+    }
+
+    @Test
+    public void shouldReadSeededIds() {
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        store.put(USER_OZZY);
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setUserFilter(100, 0.01)
+                .seedUserFilter(ImmutableList.of(USER_OZZY.id()))
+                .build();
+
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+    }
+
+    @Test
+    public void shouldTreatExpiredEntitiesAsMisses() {
+        final AtomicLong now = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final List<Runnable> deliveries = new LinkedList<>();
+        repository = NormalizedEntityRepository.builder()
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        deliveries.add(command);
+                    }
+                })
+                .setSweepInterval(0, TimeUnit.SECONDS)
+                .setUserExpireAfterWrite(10, TimeUnit.SECONDS)
+                .setUserLoader(new IEntityLoader<Long, User>() {
+                    @Override
+                    public User load(Long id) {
+                        loads.incrementAndGet();
+                        return new User(id, "Reloaded");
+                    }
+                })
+                .build();
+        repository.put(message);
+        RecordingListener messages = new RecordingListener();
+        repository.subscribeToMessage(MESSAGE_ID, messages);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(loads.get(), 0);
+
+        // Sweeping drops the views embedding expired Entities and notifies their subscribers.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        repository.sweepExpired();
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+        assertEquals(messages.batches, ImmutableList.of(ImmutableSet.of(new EntityKey(message))));
+
+        // Expired Entities are loaded again, and then live for another lifetime.
+        assertEquals(repository.getUser(USER_OZZY.id()), new User(USER_OZZY.id(), "Reloaded"));
+        assertEquals(loads.get(), 1);
+        assertEquals(repository.getUser(USER_OZZY.id()), new User(USER_OZZY.id(), "Reloaded"));
+        assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void shouldRemoveSweptEntitiesFromStores() {
+        final AtomicLong now = new AtomicLong();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setSweepInterval(0, TimeUnit.SECONDS)
+                .setUserExpireAfterWrite(10, TimeUnit.SECONDS)
+                .build();
+        repository.put(message);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        repository.sweepExpired();
+
+        assertNull(store.getUser(USER_OZZY.id()));
+        assertNull(repository.getUser(USER_OZZY.id()));
+        assertTrue(repository.getReferencingKeys(USER_OZZY).isEmpty());
+    }
+
+    @Test
+    public void shouldCheckEmbeddedExpiryOfMemoizedViewsWithoutSweeps() {
+        final AtomicLong now = new AtomicLong();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setSweepInterval(0, TimeUnit.SECONDS)
+                .setUserExpireAfterWrite(10, TimeUnit.SECONDS)
+                .setUserLoader(new IEntityLoader<Long, User>() {
+                    @Override
+                    public User load(Long id) {
+                        return new User(id, "Reloaded");
+                    }
+                })
+                .build();
+        repository.put(message);
+        Message memoized = repository.getMessage(MESSAGE_ID);
+        assertSame(repository.getMessage(MESSAGE_ID), memoized);
+
+        // Only the embedded Users expired, the memoized Message is rebuilt with the reloaded ones.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        Message rebuilt = repository.getMessage(MESSAGE_ID);
+        assertNotSame(rebuilt, memoized);
+        assertEquals(rebuilt.getSender(), new User(USER_OZZY.id(), "Reloaded"));
+        assertEquals(store.getUser(USER_OZZY.id()), new User(USER_OZZY.id(), "Reloaded"));
+    }
+
+    @Test
+    public void shouldSweepOnCallingThreadWhenNotConcurrent() {
+        final AtomicLong now = new AtomicLong();
+        InMemoryEntityStore store = new InMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setSweepInterval(1, TimeUnit.SECONDS)
+                .setUserExpireAfterWrite(10, TimeUnit.SECONDS)
+                .build();
+        repository.put(message);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertEquals(store.getUser(USER_OZZY.id()), USER_OZZY);
+
+        // The next put finds the sweep due and sweeps before writing.
+        repository.put(new User(100L, "Unrelated"));
+        assertNull(store.getUser(USER_OZZY.id()));
+        assertEquals(store.getUser(100L), new User(100L, "Unrelated"));
+    }
+
+    @Test
+    public void shouldNotRemoveEntitiesWrittenAgainWhileSweeping() {
+        final AtomicLong now = new AtomicLong();
+        ConcurrentInMemoryEntityStore store = new ConcurrentInMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .setConcurrent(true)
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setSweepInterval(20, TimeUnit.MICROSECONDS)
+                .setUserExpireAfterWrite(10, TimeUnit.SECONDS)
+                .build();
+
+        // A few Users are put again and again, each put expiring the previous ones while the background sweeper
+        // removes them. The User just put cannot expire before it is read, so a miss is a put undone by the sweep of
+        // its previous version.
+        int missing = 0;
+        for (int i = 0; i < 200000; i++) {
+            long id = i % 8;
+            now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+            repository.put(new User(id, "Put " + i));
+            if (store.getUser(id) == null) {
+                missing++;
+            }
+        }
+        assertEquals(missing, 0);
+    }
+
+    @Test
+    public void shouldWriteSharedEntitiesOncePerPut() {
+        final AtomicInteger userWrites = new AtomicInteger();
+        InMemoryEntityStore store = new InMemoryEntityStore() {
+            @Override
+            public boolean put(User entity) {
+                userWrites.incrementAndGet();
+                return super.put(entity);
+            }
+        };
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+
+        repository.put(message);
+
+        assertEquals(userWrites.get(), 3);
+    }
+
+    @Test
+    public void shouldWriteSelfEmbeddingEntitiesOncePerPut() {
+        final AtomicInteger nodeWrites = new AtomicInteger();
+        InMemoryEntityStore store = new InMemoryEntityStore() {
+            @Override
+            public boolean put(Node entity) {
+                nodeWrites.incrementAndGet();
+                return super.put(entity);
+            }
+        };
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+
+        // The leaf is shared by every level of the tree.
+        Node leaf = new Node(3L, ImmutableList.<Node>of());
+        Node middle = new Node(2L, ImmutableList.of(leaf, leaf));
+        Node root = new Node(1L, ImmutableList.of(middle, leaf));
+
+        repository.put(root);
+
+        assertEquals(nodeWrites.get(), 3);
+        assertEquals(repository.getNode(1L), root);
+        assertEquals(repository.getNode(2L), middle);
+    }
+
+    @Test
+    public void shouldCutReferenceCyclesWhenGet() {
+        // Node 1 is stored as the child of Node 2, which is stored as the child of Node 1, so the stored Nodes form a
+        // cycle.
+        Node stored2 = new Node(2L, ImmutableList.of(new Node(1L, ImmutableList.<Node>of())));
+        Node stored1 = new Node(1L, ImmutableList.of(new Node(2L, ImmutableList.<Node>of())));
+        repository.putNormalized(ImmutableList.of(stored2, stored1));
+
+        // Resolution stops at the first Node read twice, which is left as stored.
+        assertEquals(repository.getNode(2L), new Node(2L, ImmutableList.of(new Node(1L, ImmutableList.of(stored2)))));
+        assertEquals(repository.getNode(1L), new Node(1L, ImmutableList.of(new Node(2L, ImmutableList.of(stored1)))));
+        assertEquals(repository.getNode(2L), new Node(2L, ImmutableList.of(new Node(1L, ImmutableList.of(stored2)))));
+    }
+
+    @Test
+    public void shouldCutReferenceCyclesBesideWideLevelsWhenGet() {
+        // Node 1 embeds itself and has many siblings, which must not deepen the resolution before the cycle is cut.
+        Node looped = new Node(1L, ImmutableList.of(new Node(1L, ImmutableList.<Node>of())));
+        ImmutableList.Builder<Node> children = ImmutableList.builder();
+        for (long i = 1; i <= 20000; i++) {
+            children.add(new Node(i, ImmutableList.<Node>of()));
+        }
+        repository.put(new Node(0L, children.build()));
+        repository.putNormalized(ImmutableList.of(looped));
+
+        Node root = repository.getNode(0L);
+
+        assertEquals(root.getChildren().size(), 20000);
+        assertEquals(root.getChildren().get(0), new Node(1L, ImmutableList.of(new Node(1L, ImmutableList.of(looped)))));
+    }
+
+    @Test
+    public void shouldDetectWritesThatBypassTheRepositoryWhenVersioned() {
+        VersionedInMemoryEntityStore store = new VersionedInMemoryEntityStore();
+        repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+        repository.put(message);
+        Message memoized = repository.getMessage(MESSAGE_ID);
+
+        assertSame(repository.getMessage(MESSAGE_ID), memoized);
+
+        store.put(new User(USER_OZZY.id(), "Renamed Ozzy"));
+
+        assertEquals(repository.getUser(USER_OZZY.id()).getName(), "Renamed Ozzy");
+        assertEquals(repository.getMessage(MESSAGE_ID).getSender().getName(), "Renamed Ozzy");
+
+        Message rebuilt = repository.getMessage(MESSAGE_ID);
+        store.put(DEVICE_UNKNOWN);
+
+        assertSame(repository.getMessage(MESSAGE_ID), rebuilt);
+    }
+
+    @Test
+    public void shouldNotifySubscribersOfChanges() {
+        final List<Runnable> deliveries = new LinkedList<>();
+        repository = NormalizedEntityRepository.builder()
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        deliveries.add(command);
+                    }
+                })
+                .build();
+        repository.put(message);
+
+        RecordingListener users = new RecordingListener();
+        RecordingListener messages = new RecordingListener();
+        RecordingListener embeddingOzzy = new RecordingListener();
+        repository.subscribeToUsers(users);
+        ISubscription messageSubscription = repository.subscribeToMessage(MESSAGE_ID, messages);
+        repository.subscribeToEmbedding(USER_OZZY, embeddingOzzy);
+
+        repository.put(new User(USER_OZZY.id(), "Renamed Ozzy"));
+        repository.put(new User(USER_GOZZY.id(), "Renamed Gozzy"));
+
+        assertTrue(users.batches.isEmpty());
+        assertEquals(deliveries.size(), 3);
+
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+
+        EntityKey messageKey = new EntityKey(message);
+        assertEquals(users.batches, ImmutableList.of(ImmutableSet.of(new EntityKey(USER_OZZY), new EntityKey(USER_GOZZY))));
+        assertEquals(messages.batches, ImmutableList.of(ImmutableSet.of(messageKey)));
+        assertEquals(embeddingOzzy.batches, ImmutableList.of(ImmutableSet.of(messageKey)));
+
+        messageSubscription.unsubscribe();
+        repository.put(new User(USER_OZZY.id(), "Ozzy"));
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+
+        assertEquals(messages.batches.size(), 1);
+        assertEquals(users.batches.size(), 2);
+    }
+
+    @Test
+    public void shouldPublishPutEntitiesOnDemand() {
+        final List<Runnable> deliveries = new LinkedList<>();
+        repository = NormalizedEntityRepository.builder()
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        deliveries.add(command);
+                    }
+                })
+                .setPublisherBufferSize(3)
+                .build();
+
+        RecordingSubscriber<User> users = new RecordingSubscriber<>();
+        repository.getUserPublisher().subscribe(users);
+        assertNotNull(users.subscription);
+
+        // Nothing is delivered before it is requested, and a pending User is replaced by its newer version.
+        repository.put(message);
+        repository.put(new User(USER_OZZY.id(), "Renamed Ozzy"));
+        assertTrue(deliveries.isEmpty());
+
+        users.subscription.request(1);
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+        assertEquals(users.items, ImmutableList.of(new User(USER_OZZY.id(), "Renamed Ozzy")));
+
+        users.subscription.request(5);
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+        assertEquals(users.items, ImmutableList.of(new User(USER_OZZY.id(), "Renamed Ozzy"), USER_FOZZY, USER_GOZZY));
+        assertNull(users.error);
+
+        // A subscriber that falls behind by more than the buffer is failed.
+        users.subscription.cancel();
+        RecordingSubscriber<User> slow = new RecordingSubscriber<>();
+        repository.getUserPublisher().subscribe(slow);
+        repository.put(message);
+        repository.put(new User(42L, "Waldo"));
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+        assertTrue(slow.items.isEmpty());
+        assertTrue(slow.error instanceof IllegalStateException);
+        assertEquals(users.items.size(), 3);
+    }
+
+    @Test
+    public void shouldPublishEmbeddingEntitiesWhenEmbeddedEntityPut() {
+        final List<Runnable> deliveries = new LinkedList<>();
+        repository = NormalizedEntityRepository.builder()
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        deliveries.add(command);
+                    }
+                })
+                .build();
+        repository.put(message);
+
+        RecordingSubscriber<Message> messages = new RecordingSubscriber<>();
+        repository.getMessagePublisher().subscribe(messages);
+        messages.subscription.request(5);
+
+        User renamedOzzy = new User(USER_OZZY.id(), "Renamed Ozzy");
+        repository.put(renamedOzzy);
+        while (!deliveries.isEmpty()) {
+            deliveries.remove(0).run();
+        }
+
+        assertEquals(messages.items.size(), 1);
+        assertEquals(messages.items.get(0).getSender(), renamedOzzy);
+        assertEquals(messages.items.get(0), repository.getMessage(MESSAGE_ID));
+    }
+
+    @Test
+    public void shouldLoadMissingEntitiesOnce() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch isLoading = new CountDownLatch(1);
+        final CountDownLatch canFinish = new CountDownLatch(1);
+        repository = NormalizedEntityRepository.builder()
+                .setMessageLoader(new IEntityLoader<Long, Message>() {
+                    @Override
+                    public Message load(Long id) throws Exception {
+                        loads.incrementAndGet();
+                        isLoading.countDown();
+                        canFinish.await();
+                        return id == MESSAGE_ID ? message : null;
+                    }
+                })
+                .setConcurrent(true)
+                .build();
+
+        final List<Message> results = Collections.synchronizedList(new LinkedList<Message>());
+        Runnable get = new Runnable() {
+            @Override
+            public void run() {
+                results.add(repository.getMessage(MESSAGE_ID));
+            }
+        };
+        Thread first = new Thread(get);
+        Thread second = new Thread(get);
+        first.start();
+        isLoading.await();
+        second.start();
+        // The second miss waits for the load that is in flight rather than starting its own.
+        while (second.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        canFinish.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(loads.get(), 1);
+        assertEquals(results, ImmutableList.of(message, message));
+
+        // Loaded Entities are put, so embedded Entities are stored and no further loads are needed.
+        assertEquals(repository.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(repository.getMessage(MESSAGE_ID), message);
+        assertEquals(loads.get(), 1);
+
+        assertNull(repository.getMessage(MESSAGE_ID + 1));
+        assertEquals(loads.get(), 2);
+    }
+
+    @Test
+    public void shouldLoadMissesInOneBatch() {
+        final List<Collection<Long>> batches = new LinkedList<>();
+        repository = NormalizedEntityRepository.builder()
+                .setUserLoader(new IBatchEntityLoader<Long, User>() {
+                    @Override
+                    public Map<Long, User> loadAll(Collection<Long> ids) {
+                        batches.add(ImmutableSet.copyOf(ids));
+                        Map<Long, User> loaded = new HashMap<>();
+                        for (User user : ImmutableList.of(USER_OZZY, USER_FOZZY)) {
+                            if (ids.contains(user.id())) {
+                                loaded.put(user.id(), user);
+                            }
+                        }
+                        return loaded;
+                    }
+
+                    @Override
+                    public User load(Long id) {
+                        throw new UnsupportedOperationException();
+                    }
+                })
+                .build();
+        repository.put(USER_GOZZY);
+
+        Map<Long, User> users = repository.getUsers(ImmutableList.of(USER_OZZY.id(), USER_FOZZY.id(), USER_GOZZY.id(), 1000L));
+
+        assertEquals(users, ImmutableMap.of(USER_OZZY.id(), USER_OZZY, USER_FOZZY.id(), USER_FOZZY, USER_GOZZY.id(), USER_GOZZY));
+        assertEquals(batches, ImmutableList.of(ImmutableSet.of(USER_OZZY.id(), USER_FOZZY.id(), 1000L)));
+
+        // Loaded Entities are put.
+        assertEquals(repository.getUser(USER_FOZZY.id()), USER_FOZZY);
+        assertEquals(batches.size(), 1);
+    }
+
+    @Test
+    public void shouldNotReloadAbsentIdsUntilExpired() {
+        final AtomicLong now = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        repository = NormalizedEntityRepository.builder()
+                .setTicker(new ITicker() {
+                    @Override
+                    public long read() {
+                        return now.get();
+                    }
+                })
+                .setUserLoader(new IEntityLoader<Long, User>() {
+                    @Override
+                    public User load(Long id) {
+                        loads.incrementAndGet();
+                        return null;
+                    }
+                })
+                .setUserNegativeCache(100, 10, TimeUnit.SECONDS)
+                .build();
+
+        assertNull(repository.getUser(USER_OZZY.id()));
+        assertNull(repository.getUser(USER_OZZY.id()));
+        assertEquals(loads.get(), 1);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertNull(repository.getUser(USER_OZZY.id()));
+        assertEquals(loads.get(), 2);
+    }
+
+    private static class RecordingSubscriber<T> implements ISubscriber<T> {
+        private final List<T> items = new LinkedList<>();
+        private IFlowSubscription subscription;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(IFlowSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static class RecordingListener implements IChangeListener {
+        private final List<Set<EntityKey>> batches = new LinkedList<>();
+
+        @Override
+        public void onChanged(Set<EntityKey> changed) {
+            batches.add(ImmutableSet.copyOf(changed));
+        }
+    }
 }
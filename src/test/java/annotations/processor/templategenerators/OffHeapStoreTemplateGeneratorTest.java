@@ -0,0 +1,92 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.devicetype.Device;
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.user.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import entitynormalizer.store.NormalizedEntityRepository;
+import entitynormalizer.store.OffHeapEntityStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_ANDROID;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_IOS;
+import static annotations.processor.testentities.devicetype.DeviceList.DEVICE_WINDOWS;
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_GOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapStoreTemplateGeneratorTest {
+    private static final long MESSAGE_ID = 1L;
+
+    private Message message;
+
+    private OffHeapEntityStore store;
+
+    @BeforeEach
+    public void init() {
+        message = new Message(
+            MESSAGE_ID,
+            "Hello W\u00f6rld",
+            USER_OZZY,
+            ImmutableList.of(USER_FOZZY, USER_GOZZY),
+            ImmutableList.<Map<User,Boolean>>of(
+                    ImmutableMap.of(USER_FOZZY, true),
+                    ImmutableMap.of(USER_GOZZY, false)),
+            ImmutableMap.<List<Device>, List<User>>of(
+                    ImmutableList.of(DEVICE_ANDROID, DEVICE_IOS),
+                    ImmutableList.of(USER_OZZY, USER_FOZZY),
+
+                    ImmutableList.of(DEVICE_WINDOWS),
+                    ImmutableList.of(USER_GOZZY)));
+
+        store = new OffHeapEntityStore(64);
+    }
+
+    @Test
+    public void shouldDecodePutEntities() {
+        User userOzzyCopy = new User(USER_OZZY.id(), "Ozzy-Copy");
+
+        store.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY, DEVICE_IOS));
+        store.put(userOzzyCopy);
+
+        assertEquals(store.getUser(USER_OZZY.id()), userOzzyCopy);
+        assertEquals(store.getUser(USER_FOZZY.id()), USER_FOZZY);
+        assertEquals(store.getDevice(DEVICE_IOS.id()), DEVICE_IOS);
+        assertNull(store.getUser(USER_GOZZY.id()));
+        assertEquals(store.getUsers(ImmutableList.of(USER_OZZY.id(), USER_GOZZY.id())).size(), 1);
+        assertTrue(store.getOffHeapBytes() > 0);
+    }
+
+    @Test
+    public void shouldDecodeEmbeddedEntitiesAsIds() {
+        store.put(message);
+
+        Message decoded = store.getMessage(MESSAGE_ID);
+
+        assertEquals(decoded.getBody(), message.getBody());
+        assertEquals(decoded.getSender().id(), USER_OZZY.id());
+        assertNull(decoded.getSender().getName());
+        assertEquals(decoded.getRecipients().size(), 2);
+        assertEquals(decoded.getRecipientsToReadList().get(1).get(new User(USER_GOZZY.id(), null)), Boolean.FALSE);
+        assertEquals(decoded.getUsersByDevices().get(ImmutableList.of(DEVICE_WINDOWS)).get(0).id(), USER_GOZZY.id());
+    }
+
+    @Test
+    public void shouldDenormalizeFromRepository() {
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+
+        repository.put(message);
+
+        assertEquals(repository.getMessage(MESSAGE_ID), message);
+        assertEquals(repository.getUser(USER_GOZZY.id()), USER_GOZZY);
+    }
+}
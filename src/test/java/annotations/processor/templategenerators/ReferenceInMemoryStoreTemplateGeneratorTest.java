@@ -0,0 +1,63 @@
+package annotations.processor.templategenerators;
+
+import annotations.processor.testentities.devicetype.Device;
+import annotations.processor.testentities.message.Message;
+import annotations.processor.testentities.user.User;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import entitynormalizer.store.NormalizedEntityRepository;
+import entitynormalizer.store.SoftInMemoryEntityStore;
+import entitynormalizer.store.WeakInMemoryEntityStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static annotations.processor.testentities.user.UserList.USER_FOZZY;
+import static annotations.processor.testentities.user.UserList.USER_OZZY;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReferenceInMemoryStoreTemplateGeneratorTest {
+    @Test
+    public void shouldKeepReachableEntities() {
+        SoftInMemoryEntityStore store = new SoftInMemoryEntityStore();
+
+        store.putAll(ImmutableList.of(USER_OZZY, USER_FOZZY));
+        System.gc();
+
+        assertEquals(store.getUser(USER_OZZY.id()), USER_OZZY);
+        assertEquals(store.getUsers(ImmutableList.of(USER_OZZY.id(), USER_FOZZY.id())).size(), 2);
+        assertEquals(store.getUsersReclaimedCount(), 0);
+    }
+
+    @Test
+    public void shouldNotMemoizeViewsOfReclaimableEntities() {
+        final AtomicInteger reads = new AtomicInteger();
+        WeakInMemoryEntityStore store = new WeakInMemoryEntityStore() {
+            @Override
+            public Map<Long, Message> getMessages(Collection<Long> ids) {
+                reads.incrementAndGet();
+                return super.getMessages(ids);
+            }
+        };
+        NormalizedEntityRepository repository = NormalizedEntityRepository.builder()
+                .setReaders(store)
+                .setWriters(store)
+                .build();
+        Message message = new Message(
+                1L,
+                "Hello World",
+                USER_OZZY,
+                ImmutableList.of(USER_FOZZY),
+                ImmutableList.<Map<User, Boolean>>of(),
+                ImmutableMap.<List<Device>, List<User>>of());
+        repository.put(message);
+
+        // A memoized view would hold the Entities it embeds strongly, so every read goes to the store.
+        assertEquals(repository.getMessage(1L), message);
+        assertEquals(repository.getMessage(1L), message);
+        assertEquals(reads.get(), 2);
+    }
+}
@@ -0,0 +1,14 @@
+package annotations.processor.testentities.node;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+import java.util.List;
+
+@EntitySpec(name = "Node")
+public class NodeSpec {
+    @EntityId
+    private long nodeId;
+
+    private List<Node> children;
+}
@@ -0,0 +1,11 @@
+package annotations.processor.testentities.tag;
+
+import annotations.EntityId;
+import annotations.EntitySpec;
+
+@EntitySpec(name = "Tag")
+public class TagSpec {
+    @EntityId
+    private String label;
+    private Integer weight;
+}
@@ -0,0 +1,49 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+    @Test
+    public void shouldContainEveryAddedKey() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (long key = 0; key < 1000; key++) {
+            filter.add(key);
+        }
+
+        for (long key = 0; key < 1000; key++) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    public void shouldRejectMostAbsentKeys() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (long key = 0; key < 1000; key++) {
+            filter.add(key);
+        }
+
+        int falsePositives = 0;
+        for (long key = 1000; key < 11000; key++) {
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+
+        // Allows for three times the configured rate.
+        assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+    }
+
+    @Test
+    public void shouldAgreeOnBoxedAndPrimitiveKeys() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (long key = -500; key < 500; key++) {
+            filter.add(Long.valueOf(key));
+        }
+
+        for (long key = -500; key < 500; key++) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedEntityCacheTest {
+    @Test
+    public void shouldNotExceedMaximumSize() {
+        BoundedEntityCache<Long, String> cache = new BoundedEntityCache<>(100);
+        for (long key = 0; key < 1000; key++) {
+            cache.put(key, "value" + key);
+        }
+
+        assertEquals(cache.size(), 100);
+        assertEquals(cache.stats().getEvictionCount(), 900);
+        assertEquals(cache.stats().getWeight(), 100);
+    }
+
+    @Test
+    public void shouldKeepFrequentKeysThroughScans() {
+        BoundedEntityCache<Long, String> cache = new BoundedEntityCache<>(100);
+        for (int round = 0; round < 5; round++) {
+            for (long key = 0; key < 50; key++) {
+                if (cache.get(key) == null) {
+                    cache.put(key, "hot" + key);
+                }
+            }
+        }
+
+        // A scan of keys requested once must not flush the keys requested repeatedly.
+        for (long key = 1000; key < 11000; key++) {
+            cache.get(key);
+            cache.put(key, "cold" + key);
+        }
+
+        int retained = 0;
+        for (long key = 0; key < 50; key++) {
+            if (cache.get(key) != null) {
+                retained++;
+            }
+        }
+        assertTrue(retained >= 45, "Retained: " + retained);
+    }
+
+    @Test
+    public void shouldBoundWeight() {
+        BoundedEntityCache<Long, String> cache = new BoundedEntityCache<>(100, new IWeigher<String>() {
+            @Override
+            public int weigh(String value) {
+                return value.length();
+            }
+        });
+        for (long key = 0; key < 100; key++) {
+            cache.put(key, "0123456789");
+        }
+
+        assertTrue(cache.stats().getWeight() <= 100);
+        assertTrue(cache.size() <= 10);
+
+        cache.put(-1L, new String(new char[101]));
+        assertNull(cache.get(-1L));
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        BoundedEntityCache<Long, String> cache = new BoundedEntityCache<>(10);
+        cache.put(1L, "one");
+
+        assertEquals(cache.get(1L), "one");
+        assertNull(cache.get(2L));
+        cache.put(1L, "uno");
+        assertEquals(cache.get(1L), "uno");
+
+        CacheStats stats = cache.stats();
+        assertEquals(stats.getHitCount(), 2);
+        assertEquals(stats.getMissCount(), 1);
+        assertEquals(stats.getEvictionCount(), 0);
+    }
+
+    @Test
+    public void shouldNotifyEvictionListenersOutsideTheLock() {
+        final BoundedEntityCache<Long, String> cache = new BoundedEntityCache<>(10);
+        final Map<Long, String> evicted = new HashMap<>();
+        cache.addEvictionListener(new IEvictionListener<Long, String>() {
+            @Override
+            public void onEviction(Long key, String value) {
+                assertFalse(Thread.holdsLock(cache));
+                evicted.put(key, value);
+            }
+        });
+
+        for (long key = 0; key < 100; key++) {
+            cache.put(key, "value" + key);
+        }
+        assertEquals(evicted.size(), 90);
+
+        // Explicit removals are not evictions.
+        for (long key = 0; key < 100; key++) {
+            cache.remove(key);
+        }
+        assertEquals(evicted.size(), 90);
+        for (Map.Entry<Long, String> entry : evicted.entrySet()) {
+            assertEquals(entry.getValue(), "value" + entry.getKey());
+        }
+    }
+
+    @Test
+    public void shouldStripeLargeCachesWithinTheirBudget() throws Exception {
+        final BoundedEntityCache<Long, String> cache = BoundedEntityCache.forLongKeys(100000, null);
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final long offset = i * 1000000L;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long key = offset; key < offset + 200000; key++) {
+                        cache.put(key, "value");
+                        cache.get(key);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertTrue(cache.size() <= 100000, "Size: " + cache.size());
+        assertEquals(cache.stats().getEvictionCount(), 800000 - cache.size());
+        assertEquals(cache.stats().getWeight(), cache.size());
+
+        // Long and boxed keys agree.
+        cache.put(7L, "seven");
+        assertEquals(cache.get(7L), "seven");
+        assertEquals(cache.get(Long.valueOf(7L)), "seven");
+    }
+}
@@ -0,0 +1,56 @@
+package core;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiryTrackerTest {
+    private AtomicLong now;
+    private ExpiryTracker tracker;
+
+    @BeforeEach
+    public void init() {
+        now = new AtomicLong();
+        tracker = new ExpiryTracker(10, 0, new ITicker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        });
+    }
+
+    @Test
+    public void shouldForgetRemovedEntitiesOnlyOnceExpired() {
+        tracker.onWrite(1L);
+        tracker.onWrite(2L);
+
+        now.set(10);
+        assertEquals(tracker.sweep(), ImmutableList.<Object>of(1L, 2L));
+        assertFalse(tracker.access(1L));
+
+        // Written again since it expired, so kept.
+        tracker.onWrite(2L);
+        tracker.remove(1L);
+        tracker.remove(2L);
+
+        assertEquals(tracker.size(), 1);
+        assertTrue(tracker.access(2L));
+        assertEquals(tracker.sweep(), Collections.emptyList());
+    }
+
+    @Test
+    public void shouldNotSweepRewrittenEntitiesTwice() {
+        for (int i = 0; i < 1000; i++) {
+            tracker.onWrite(1L);
+        }
+
+        now.set(10);
+        assertEquals(tracker.sweep(), ImmutableList.<Object>of(1L));
+        assertEquals(tracker.sweep(), Collections.emptyList());
+    }
+}
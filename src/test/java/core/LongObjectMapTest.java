@@ -0,0 +1,73 @@
+package core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongObjectMapTest {
+    private LongObjectMap<String> map;
+
+    @BeforeEach
+    public void init() {
+        map = new LongObjectMap<>();
+    }
+
+    @Test
+    public void shouldStartEmpty() {
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0L));
+        assertNull(map.get(1L));
+    }
+
+    @Test
+    public void shouldMapZeroAndNegativeKeys() {
+        map.put(0L, "zero");
+        map.put(-1L, "minus-one");
+        map.put(Long.MIN_VALUE, "min");
+
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(0L), "zero");
+        assertEquals(map.get(-1L), "minus-one");
+        assertEquals(map.get(Long.MIN_VALUE), "min");
+
+        assertEquals(map.remove(0L), "zero");
+        assertNull(map.get(0L));
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void shouldOnlyRemoveMatchingValue() {
+        String value = "value";
+        map.put(1L, value);
+
+        assertFalse(map.remove(1L, "other"));
+        assertTrue(map.remove(1L, value));
+        assertFalse(map.containsKey(1L));
+    }
+
+    @Test
+    public void shouldBehaveLikeHashMap() {
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                assertEquals(map.remove(key), expected.remove(key));
+            } else {
+                String value = Integer.toString(i);
+                assertEquals(map.put(key, value), expected.put(key, value));
+            }
+        }
+
+        assertEquals(map.size(), expected.size());
+        for (long key = -2500; key < 2500; key++) {
+            assertEquals(map.get(key), expected.get(key));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedEntityTableTest {
+    private static final IEntityCodec<String> CODEC = new IEntityCodec<String>() {
+        @Override
+        public void encode(String entity, EntityOutput output) {
+            output.writeString(entity);
+        }
+
+        @Override
+        public String decode(ByteBuffer input) {
+            return EntityInput.readString(input);
+        }
+    };
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldDiscardTableClosedWithAnotherSchema() throws IOException {
+        MappedEntityTable table = MappedEntityTable.open(directory, "User", 256, 1L);
+        table.put(1L, "Ozzy", CODEC);
+        table.close();
+
+        MappedEntityTable reopened = MappedEntityTable.open(directory, "User", 256, 1L);
+        assertEquals(reopened.get(1L, CODEC), "Ozzy");
+        reopened.close();
+
+        MappedEntityTable changed = MappedEntityTable.open(directory, "User", 256, 2L);
+        assertNull(changed.get(1L, CODEC));
+        assertEquals(changed.size(), 0);
+        changed.close();
+    }
+}
@@ -0,0 +1,55 @@
+package core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NegativeCacheTest {
+    private static final long TTL_NANOS = 10;
+
+    private final AtomicLong now = new AtomicLong();
+    private NegativeCache absences;
+
+    @BeforeEach
+    public void init() {
+        absences = new NegativeCache(2, TTL_NANOS, new ITicker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        });
+    }
+
+    @Test
+    public void shouldForgetIdsWhenExpiredOrRemoved() {
+        absences.add(1L);
+        absences.add(2L);
+        assertTrue(absences.contains(1L));
+
+        absences.remove(1L);
+        assertFalse(absences.contains(1L));
+
+        now.addAndGet(TTL_NANOS);
+        assertFalse(absences.contains(2L));
+        assertEquals(absences.size(), 0);
+    }
+
+    @Test
+    public void shouldForgetOldestIdsWhenFull() {
+        for (long id = 0; id < 100; id++) {
+            absences.add(id);
+            absences.remove(id - 1);
+        }
+
+        absences.add(100L);
+        absences.add(101L);
+
+        assertFalse(absences.contains(99L));
+        assertTrue(absences.contains(100L));
+        assertTrue(absences.contains(101L));
+        assertEquals(absences.size(), 2);
+    }
+}
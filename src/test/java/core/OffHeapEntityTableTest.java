@@ -0,0 +1,106 @@
+package core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapEntityTableTest {
+    private static final IEntityCodec<String> CODEC = new IEntityCodec<String>() {
+        @Override
+        public void encode(String entity, EntityOutput output) {
+            output.writeString(entity);
+        }
+
+        @Override
+        public String decode(ByteBuffer input) {
+            return EntityInput.readString(input);
+        }
+    };
+
+    private OffHeapEntityTable table;
+
+    @BeforeEach
+    public void init() {
+        table = new OffHeapEntityTable(256);
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveRecords() {
+        table.put(-1L, "short", CODEC);
+        table.put(-1L, "a much longer value than before", CODEC);
+        table.put(Long.MIN_VALUE, "\u00e9\u4e2d\ud83d\ude00", CODEC);
+
+        assertEquals(table.get(-1L, CODEC), "a much longer value than before");
+        assertEquals(table.get(Long.MIN_VALUE, CODEC), "\u00e9\u4e2d\ud83d\ude00");
+        assertTrue(table.remove(-1L));
+        assertFalse(table.remove(-1L));
+        assertNull(table.get(-1L, CODEC));
+        assertEquals(table.size(), 1);
+    }
+
+    @Test
+    public void shouldMatchHashMapUnderRandomOperations() {
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50000; i++) {
+            long key = random.nextInt(3000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(table.remove(key), expected.remove(key) != null);
+            } else {
+                String value = Long.toString(random.nextLong(), 36).substring(0, 1 + random.nextInt(8));
+                table.put(key, value, CODEC);
+                expected.put(key, value);
+            }
+        }
+
+        assertEquals(table.size(), expected.size());
+        for (long key = 0; key < 3000; key++) {
+            assertEquals(table.get(key, CODEC), expected.get(key));
+        }
+    }
+
+    @Test
+    public void shouldReleaseSlabsWhoseRecordsWereReplaced() {
+        for (long key = 0; key < 100; key++) {
+            table.put(key, "first", CODEC);
+        }
+        long bytes = table.offHeapBytes();
+
+        // Every round moves every record to a larger one, leaving the slabs written by the last round sparse.
+        for (int round = 0; round < 20; round++) {
+            for (long key = 0; key < 100; key++) {
+                table.put(key, round % 2 == 0 ? "a much longer value" : "first", CODEC);
+            }
+        }
+
+        assertTrue(table.offHeapBytes() < bytes * 3);
+        for (long key = 0; key < 100; key++) {
+            assertEquals(table.get(key, CODEC), "first");
+        }
+    }
+
+    @Test
+    public void shouldGiveRecordsLargerThanASlabASlabOfTheirOwn() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append("large");
+        }
+
+        table.put(1L, "small", CODEC);
+        long bytes = table.offHeapBytes();
+        table.put(2L, large.toString(), CODEC);
+        table.put(3L, "small", CODEC);
+
+        assertEquals(table.get(2L, CODEC), large.toString());
+        assertEquals(table.get(3L, CODEC), "small");
+        assertTrue(table.remove(2L));
+        assertEquals(table.offHeapBytes(), bytes);
+    }
+}
@@ -0,0 +1,21 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReferenceEntityMapTest {
+    @Test
+    public void shouldExpungeAndCountReclaimedValues() {
+        ReferenceEntityMap<Long, String> map = new ReferenceEntityMap<>(ReferenceEntityMap.Strength.WEAK);
+        map.put(1L, "Ozzy");
+        map.put(2L, "Fozzy");
+
+        map.reclaim(1L);
+
+        assertNull(map.get(1L));
+        assertEquals(map.get(2L), "Fozzy");
+        assertEquals(map.size(), 1);
+        assertEquals(map.reclaimedCount(), 1);
+    }
+}
@@ -0,0 +1,102 @@
+package core;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReferenceIndexTest {
+    private static final EntityKey MESSAGE = new EntityKey("Message", 1L);
+    private static final EntityKey THREAD = new EntityKey("Thread", 1L);
+    private static final EntityKey OZZY = new EntityKey("User", 1L);
+    private static final EntityKey FOZZY = new EntityKey("User", 2L);
+
+    private ReferenceIndex index;
+
+    @BeforeEach
+    public void init() {
+        index = new ReferenceIndex();
+    }
+
+    @Test
+    public void shouldFindReferencingKeysTransitively() {
+        index.link(THREAD, MESSAGE);
+        index.link(MESSAGE, OZZY);
+        index.link(MESSAGE, FOZZY);
+
+        assertEquals(index.getReferencingKeys(OZZY), ImmutableSet.of(MESSAGE, THREAD));
+        assertEquals(index.getChildren(MESSAGE), ImmutableSet.of(OZZY, FOZZY));
+        assertTrue(index.getReferencingKeys(THREAD).isEmpty());
+        assertEquals(index.getEmbeddedKeys(THREAD), ImmutableSet.of(MESSAGE, OZZY, FOZZY));
+        assertTrue(index.getEmbeddedKeys(OZZY).isEmpty());
+    }
+
+    @Test
+    public void shouldPruneEmptiedSetsWhenUnlinked() {
+        index.link(MESSAGE, OZZY);
+        index.link(MESSAGE, FOZZY);
+
+        index.unlinkChildren(MESSAGE);
+
+        assertTrue(index.getParents(OZZY).isEmpty());
+        assertTrue(index.getChildren(MESSAGE).isEmpty());
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void shouldRemoveKeysAsParentsAndChildren() {
+        index.link(THREAD, MESSAGE);
+        index.link(MESSAGE, OZZY);
+        index.link(THREAD, FOZZY);
+
+        index.remove(MESSAGE);
+
+        assertTrue(index.getReferencingKeys(OZZY).isEmpty());
+        assertEquals(index.getChildren(THREAD), ImmutableSet.of(FOZZY));
+
+        index.remove(FOZZY);
+
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void shouldNotLoseLinksToConcurrentPruning() throws Exception {
+        final int threads = 4;
+        final int rounds = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        // Every thread keeps relinking its own parent to the same child, whose parent set is emptied and pruned often.
+        List<Thread> workers = new LinkedList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            final EntityKey parent = new EntityKey("Message", (long) thread);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int round = 0; round < rounds; round++) {
+                        index.unlinkChildren(parent);
+                        index.link(parent, OZZY);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(index.getParents(OZZY).size(), threads);
+    }
+}
@@ -0,0 +1,129 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldReplayLatestRecordsAcrossSegmentsAndSnapshots() throws Exception {
+        final WriteAheadLog log = WriteAheadLog.open(directory, 256);
+        final Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int round = 0; round < 5; round++) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int[] keys = new int[20];
+                final int[] values = new int[20];
+                for (int i = 0; i < keys.length; i++) {
+                    // Threads write disjoint keys, so that the latest value of every key is known.
+                    keys[i] = random.nextInt(25) * 4 + thread;
+                    values[i] = random.nextInt();
+                    expected.put(keys[i], values[i]);
+                }
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < keys.length; i++) {
+                            append(log, keys[i], values[i]);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (round % 2 == 0) {
+                log.snapshot();
+            }
+        }
+        executor.shutdown();
+        log.close();
+
+        WriteAheadLog reopened = WriteAheadLog.open(directory, 256);
+        assertEquals(replay(reopened), expected);
+        reopened.close();
+    }
+
+    @Test
+    public void shouldTruncateTornRecord() throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(directory);
+        append(log, 1, 10);
+        append(log, 2, 20);
+        log.close();
+
+        File segment = new File(directory, "0.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        WriteAheadLog reopened = WriteAheadLog.open(directory);
+        append(reopened, 3, 30);
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(1, 10);
+        expected.put(3, 30);
+        assertEquals(replay(reopened), expected);
+        reopened.close();
+    }
+
+    @Test
+    public void shouldAppendToNewSegmentWhenOpenedWithAnotherHeader() throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(directory, WriteAheadLog.DEFAULT_SEGMENT_SIZE, new byte[]{1});
+        append(log, 1, 10);
+        log.close();
+
+        WriteAheadLog reopened = WriteAheadLog.open(directory, WriteAheadLog.DEFAULT_SEGMENT_SIZE, new byte[]{2});
+        append(reopened, 2, 20);
+        assertEquals(reopened.getHeaders(), new HashSet<>(Arrays.asList(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{2}))));
+
+        reopened.snapshot();
+        assertEquals(reopened.getHeaders(), Collections.singleton(ByteBuffer.wrap(new byte[]{2})));
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(1, 10);
+        expected.put(2, 20);
+        assertEquals(replay(reopened), expected);
+        reopened.close();
+    }
+
+    private static void append(WriteAheadLog log, int key, int value) {
+        EntityOutput keyOutput = new EntityOutput();
+        keyOutput.writeInt(key);
+        EntityOutput valueOutput = new EntityOutput();
+        valueOutput.writeInt(value);
+        EntityOutput batch = new EntityOutput();
+        WriteAheadLog.writeRecord(batch, keyOutput, valueOutput);
+
+        try {
+            log.append(batch);
+        } catch (IOException e) {
+            throw new EntityStorageException("Could not append", e);
+        }
+    }
+
+    private static Map<Integer, Integer> replay(WriteAheadLog log) throws IOException {
+        final Map<Integer, Integer> replayed = new HashMap<>();
+        log.replay(new WriteAheadLog.IRecordHandler() {
+            @Override
+            public void handle(ByteBuffer key, ByteBuffer value) {
+                replayed.put(key.getInt(), value.getInt());
+            }
+        });
+
+        return replayed;
+    }
+}